@@ -11,5 +11,20 @@ import java.util.Collection;
 public interface CustomGeneralRepository<T, ID extends Serializable>
         extends JpaRepository<T, ID> {
 
+    /**
+     * Persists objects in chunks of hibernate.jdbc.batch_size and flushes after every chunk, so that inserts are sent as JDBC batches.
+     * Hibernate does not batch inserts of entities with IDENTITY ids, the updater inserts those with IdentityBatchInsertService.
+     */
     void persist(Collection<T> objects);
+
+    /**
+     * Like persist, but also detaches every flushed chunk. Use for entities that are not referenced by entities persisted later in the
+     * same transaction.
+     */
+    void persistAndDetach(Collection<T> objects);
+
+    /**
+     * Flushes pending changes and detaches objects to keep the persistence context small
+     */
+    void detach(Collection<T> objects);
 }
@@ -1,7 +1,9 @@
 package fi.livi.rata.avoindata.common.dao;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import javax.persistence.EntityManager;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,8 +12,11 @@ import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
 
 public class CustomGeneralRepositoryImpl<T, ID extends Serializable>
         extends SimpleJpaRepository<T, ID> implements CustomGeneralRepository<T, ID> {
+    private static final String BATCH_SIZE_PROPERTY = "hibernate.jdbc.batch_size";
+    private static final int DEFAULT_CHUNK_SIZE = 100;
 
     private final EntityManager entityManager;
+    private final int chunkSize;
 
     @Autowired
     public CustomGeneralRepositoryImpl(JpaMetamodelEntityInformation domainClass, EntityManager entityManager) {
@@ -19,16 +24,69 @@ public class CustomGeneralRepositoryImpl<T, ID extends Serializable>
 
         // This is the recommended method for accessing inherited class dependencies.
         this.entityManager = entityManager;
+        this.chunkSize = getChunkSize(entityManager);
     }
 
     @Override
     public void persist(Collection<T> objects) {
+        persistInChunks(objects, false);
+    }
+
+    @Override
+    public void persistAndDetach(Collection<T> objects) {
+        persistInChunks(objects, true);
+    }
+
+    @Override
+    public void detach(Collection<T> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+
+        entityManager.flush();
+        for (final T object : objects) {
+            entityManager.detach(object);
+        }
+    }
 
-        try {
-            objects.stream().forEach(x -> entityManager.persist(x));
-        } catch (RuntimeException e) {
-            throw e;
+    private void persistInChunks(Collection<T> objects, boolean detach) {
+        if (objects.isEmpty()) {
+            return;
         }
 
+        final List<T> chunk = new ArrayList<>(Math.min(chunkSize, objects.size()));
+        for (final T object : objects) {
+            entityManager.persist(object);
+            chunk.add(object);
+
+            if (chunk.size() >= chunkSize) {
+                flushChunk(chunk, detach);
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            flushChunk(chunk, detach);
+        }
+    }
+
+    private void flushChunk(List<T> chunk, boolean detach) {
+        entityManager.flush();
+        if (detach) {
+            for (final T object : chunk) {
+                entityManager.detach(object);
+            }
+        }
+        chunk.clear();
+    }
+
+    private static int getChunkSize(EntityManager entityManager) {
+        final Object batchSize = entityManager.getEntityManagerFactory().getProperties().get(BATCH_SIZE_PROPERTY);
+        if (batchSize != null) {
+            final int value = Integer.parseInt(batchSize.toString());
+            if (value > 0) {
+                return value;
+            }
+        }
+        return DEFAULT_CHUNK_SIZE;
     }
 }
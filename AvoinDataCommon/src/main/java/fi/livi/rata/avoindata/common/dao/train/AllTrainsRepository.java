@@ -3,6 +3,7 @@ package fi.livi.rata.avoindata.common.dao.train;
 import static fi.livi.rata.avoindata.common.dao.train.TrainRepository.BASE_TRAIN_ORDER;
 import static fi.livi.rata.avoindata.common.dao.train.TrainRepository.BASE_TRAIN_SELECT;
 
+import java.time.LocalDate;
 import java.util.Collection;
 import java.util.List;
 
@@ -21,6 +22,15 @@ public interface AllTrainsRepository extends CustomGeneralRepository<Train, Trai
     @Query(nativeQuery = true, value = "select train_number, departure_date, version from train where version > ?1 order by version limit ?2")
     List<Object[]> findByVersionGreaterThanRawSql(Long version, int limit);
 
+    /**
+     * Keyset page of trains after (version, departureDate, trainNumber). Several trains can share a version, so paging by version only
+     * could cut a version in two.
+     */
+    @Query(nativeQuery = true, value = "select train_number, departure_date, version from train where version >= ?1" +
+            " and (version > ?1 or departure_date > ?2 or (departure_date = ?2 and train_number > ?3))" +
+            " order by version, departure_date, train_number limit ?4")
+    List<Object[]> findByVersionAndIdGreaterThanRawSql(long version, LocalDate departureDate, long trainNumber, int limit);
+
     @Query("select coalesce(max(train.version),0) from Train train")
     long getMaxVersion();
 }
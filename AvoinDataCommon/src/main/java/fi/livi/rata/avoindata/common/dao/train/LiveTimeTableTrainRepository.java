@@ -0,0 +1,125 @@
+package fi.livi.rata.avoindata.common.dao.train;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.amazonaws.xray.spring.aop.XRayEnabled;
+import fi.livi.rata.avoindata.common.dao.CustomGeneralRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.LiveTimeTableTrain;
+
+/**
+ * Live train queries of TrainRepository against live_time_table_train_materialized instead of the live_time_table_train view. The table
+ * holds a wider window than the view, so the conditions of the view are repeated in every query.
+ * <p>
+ * Predict time is live estimate time or scheduled time, so "no actual time and live estimate or scheduled time in range" is written as
+ * "no actual time and predict time in range". That and the station-type-time indexes turn the queries into index range scans.
+ */
+@Repository
+@Transactional(readOnly = true)
+@XRayEnabled
+public interface LiveTimeTableTrainRepository extends CustomGeneralRepository<LiveTimeTableTrain, TrainId> {
+    String LIVE_WINDOW = "t.departure_date BETWEEN (CURDATE() - INTERVAL 1 DAY) AND (CURDATE() + INTERVAL 1 DAY)" +
+            " AND t.scheduled_time BETWEEN (UTC_TIMESTAMP() - INTERVAL 1 DAY) AND (UTC_TIMESTAMP() + INTERVAL 1 DAY)" +
+            " AND (t.scheduled_time > (UTC_TIMESTAMP() - INTERVAL 1 HOUR)" +
+            "   OR t.actual_time IS NOT NULL" +
+            "   OR (t.time_table_row_cancelled = 1 AND t.live_estimate_time > (UTC_TIMESTAMP() - INTERVAL 15 MINUTE))" +
+            "   OR (t.time_table_row_cancelled = 0 AND t.live_estimate_time > (UTC_TIMESTAMP() - INTERVAL 2 HOUR)))";
+
+    @Query(value = "select * from ((SELECT " +
+            "    '1', t.departure_date, t.train_number, t.version" +
+            " FROM" +
+            "    live_time_table_train_materialized t" +
+            " WHERE" +
+            "   (t.train_stopping = true or t.train_stopping = ?6)" +
+            "   AND (?1 is null OR t.station_short_code = ?1)" +
+            "   AND t.type = '1'" +
+            "   AND (t.train_category_id in ?7)" +
+            "   AND t.actual_time IS NOT NULL" +
+            "   AND (t.deleted IS NULL OR t.deleted = 0)" +
+            "   AND " + LIVE_WINDOW +
+            " ORDER BY t.actual_time DESC" +
+            " LIMIT ?2) UNION ALL (SELECT " +
+            "    '2', t.departure_date, t.train_number, t.version" +
+            " FROM" +
+            "    live_time_table_train_materialized t" +
+            " WHERE" +
+            "   (t.train_stopping = true or t.train_stopping = ?6)" +
+            "   AND (?1 is null OR t.station_short_code = ?1)" +
+            "   AND t.type = '1'" +
+            "   AND (t.train_category_id in ?7)" +
+            "   AND t.actual_time IS NULL" +
+            "   AND (t.deleted IS NULL OR t.deleted = 0)" +
+            "   AND " + LIVE_WINDOW +
+            " ORDER BY t.predict_time ASC" +
+            " LIMIT ?3) UNION ALL (SELECT " +
+            "    '3', t.departure_date, t.train_number, t.version" +
+            " FROM" +
+            "    live_time_table_train_materialized t" +
+            " WHERE" +
+            "   (t.train_stopping = true or t.train_stopping = ?6)" +
+            "   AND (?1 is null OR t.station_short_code = ?1)" +
+            "   AND t.type = '0'" +
+            "   AND (t.train_category_id in ?7)" +
+            "   AND t.actual_time IS NOT NULL" +
+            "   AND (t.deleted IS NULL OR t.deleted = 0)" +
+            "   AND " + LIVE_WINDOW +
+            " ORDER BY t.actual_time DESC" +
+            " LIMIT ?4) UNION ALL (SELECT " +
+            "    '4', t.departure_date, t.train_number, t.version" +
+            " FROM" +
+            "    live_time_table_train_materialized t" +
+            " WHERE" +
+            "   (t.train_stopping = true or t.train_stopping = ?6)" +
+            "   AND (?1 is null OR t.station_short_code = ?1)" +
+            "   AND t.type = '0'" +
+            "   AND (t.train_category_id in ?7)" +
+            "   AND t.actual_time IS NULL" +
+            "   AND (t.deleted IS NULL OR t.deleted = 0)" +
+            "   AND " + LIVE_WINDOW +
+            " ORDER BY t.predict_time ASC" +
+            " LIMIT ?5)) unionedTable", nativeQuery = true)
+    List<Object[]> findLiveTrainsIds(String station, Integer departedTrains, Integer departingTrains, Integer arrivedTrains,
+                                     Integer arrivingTrains, Boolean excludeNonstopping, List<Long> trainCategoryIds);
+
+    @Query(value = "SELECT t.* FROM live_time_table_train_materialized t WHERE" +
+            " t.station_short_code = ?1 AND" +
+            " t.train_category_id in ?8 AND" +
+            " t.version > ?5 AND" +
+            " (t.train_stopping = true or t.train_stopping = ?4) AND" +
+            " (" +
+            " (t.type = 1 AND (t.actual_time BETWEEN ?2 AND ?3 OR (t.actual_time IS NULL AND t.predict_time BETWEEN ?2 AND ?3)))" +
+            " OR " +
+            " (t.type = 0 AND (t.actual_time BETWEEN ?6 AND ?7 OR (t.actual_time IS NULL AND t.predict_time BETWEEN ?6 AND ?7)))" +
+            " ) AND " + LIVE_WINDOW, nativeQuery = true)
+    List<LiveTimeTableTrain> findLiveTrains(String station, ZonedDateTime startDeparture, ZonedDateTime endDeparture,
+                                            Boolean excludeNonstopping, Long version, ZonedDateTime startArrival, ZonedDateTime endArrival, List<Long> trainCategoryIds);
+
+    @Query(value = "SELECT  " +
+            "    '1',departure_date, train_number, MAX(version) " +
+            "FROM " +
+            "    (SELECT DISTINCT " +
+            "        '1', " +
+            "            t.departure_date, " +
+            "            t.train_number, " +
+            "            t.version, " +
+            "            t.actual_time, " +
+            "            t.predict_time, " +
+            "            t.scheduled_time " +
+            "    FROM " +
+            "        live_time_table_train_materialized t " +
+            "    WHERE " +
+            "        (?1 = 0 OR t.version > ?1) " +
+            "            AND ((t.actual_time BETWEEN (UTC_TIMESTAMP() - INTERVAL ?2 MINUTE) AND (UTC_TIMESTAMP() + INTERVAL ?2 MINUTE) " +
+            "            OR t.predict_time BETWEEN (UTC_TIMESTAMP() - INTERVAL ?2 MINUTE) AND (UTC_TIMESTAMP() + INTERVAL ?2 MINUTE) " +
+            "            OR t.scheduled_time BETWEEN (UTC_TIMESTAMP() - INTERVAL ?2 MINUTE) AND (UTC_TIMESTAMP() + INTERVAL ?2 MINUTE))) " +
+            "            AND " + LIVE_WINDOW +
+            "    ORDER BY t.actual_time DESC , t.predict_time ASC) inner_table " +
+            "GROUP BY departure_date , train_number " +
+            " ", nativeQuery = true)
+    List<Object[]> findLiveTrains(long version, int minutes);
+}
@@ -176,6 +176,9 @@ public interface TrainRepository extends CustomGeneralRepository<Train, TrainId>
     @Query("select coalesce(max(train.version),0) from Train train")
     long getMaxVersion();
 
+    @Query("select coalesce(max(train.version),0) from Train train where train.id.departureDate = ?1")
+    long getMaxVersion(LocalDate departureDate);
+
     @Query("select count(train) from Train train where train.id.departureDate = ?1")
     int countByDepartureDate(LocalDate departureDate);
 
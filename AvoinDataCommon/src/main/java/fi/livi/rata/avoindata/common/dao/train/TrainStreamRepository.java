@@ -2,21 +2,46 @@ package fi.livi.rata.avoindata.common.dao.train;
 
 import fi.livi.rata.avoindata.common.dao.localization.TrainLocalizer;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
 import org.hibernate.jpa.QueryHints;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static fi.livi.rata.avoindata.common.dao.train.TrainRepository.*;
 
 @Component
 public class TrainStreamRepository {
+    private static final String TRAIN_NUMBER_RANGE = " train.id.departureDate = ?1 and train.id.trainNumber between ?2 and ?3 and " +
+            IS_NOT_DELETED;
+
+    private static final String TRAINS_WITH_TIME_TABLE_ROWS = "select distinct train from Train train " +
+            "   inner join fetch train.timeTableRows timeTableRow " +
+            " where" + TRAIN_NUMBER_RANGE +
+            " order by train.id.trainNumber, timeTableRow.scheduledTime, timeTableRow.type";
+
+    private static final String TIME_TABLE_ROWS_WITH_CAUSES = "select distinct timeTableRow from TimeTableRow timeTableRow " +
+            "   inner join timeTableRow.train train " +
+            "   left join fetch timeTableRow.causes c " +
+            "   left join fetch c.categoryCode categoryCode " +
+            "   left join fetch c.detailedCategoryCode detailedCategoryCode " +
+            "   left join fetch c.thirdCategoryCode thirdCategoryCode " +
+            " where" + TRAIN_NUMBER_RANGE;
+
+    private static final String TIME_TABLE_ROWS_WITH_TRAIN_READIES = "select distinct timeTableRow from TimeTableRow timeTableRow " +
+            "   inner join timeTableRow.train train " +
+            "   left join fetch timeTableRow.trainReadies tr " +
+            " where" + TRAIN_NUMBER_RANGE;
 
     @PersistenceContext
     private EntityManager entityManager;
@@ -30,12 +55,38 @@ public class TrainStreamRepository {
         return getStream(jpql, trainIds);
     }
 
-    public Stream<Train> getTrainsByDepartureDate(LocalDate departureDate) {
-        String jpql = BASE_TRAIN_SELECT + " where train.id.departureDate = ?1 and " + IS_NOT_DELETED +
-                BASE_TRAIN_ORDER;
+    public List<Long> getTrainNumbers(LocalDate departureDate) {
+        return entityManager.createQuery("select train.id.trainNumber from Train train where train.id.departureDate = ?1 and " +
+                IS_NOT_DELETED + " order by train.id.trainNumber", Long.class)
+                .setParameter(1, departureDate)
+                .getResultList();
+    }
 
+    /**
+     * Loads the trains with one query per collection. Fetching all collections in one query, like BASE_TRAIN_SELECT does, returns a row
+     * for every combination of causes and train readies of a time table row. Trains are detached when the transaction ends.
+     */
+    @Transactional(readOnly = true)
+    public List<Train> getTrainsByTrainNumberRange(LocalDate departureDate, long firstTrainNumber, long lastTrainNumber) {
+        final List<Train> trains = createRangeQuery(TRAINS_WITH_TIME_TABLE_ROWS, Train.class, departureDate, firstTrainNumber,
+                lastTrainNumber).getResultList();
+
+        // Initializes the collections of the time table rows loaded above
+        createRangeQuery(TIME_TABLE_ROWS_WITH_CAUSES, TimeTableRow.class, departureDate, firstTrainNumber, lastTrainNumber).getResultList();
+        createRangeQuery(TIME_TABLE_ROWS_WITH_TRAIN_READIES, TimeTableRow.class, departureDate, firstTrainNumber, lastTrainNumber)
+                .getResultList();
+
+        return trains.stream().map(train -> trainLocalizer.localize(train)).collect(Collectors.toList());
+    }
 
-        return getStream(jpql, departureDate);
+    private <T> TypedQuery<T> createRangeQuery(String jpql, Class<T> resultClass, LocalDate departureDate, long firstTrainNumber,
+                                               long lastTrainNumber) {
+        return entityManager.createQuery(jpql, resultClass)
+                .setParameter(1, departureDate)
+                .setParameter(2, firstTrainNumber)
+                .setParameter(3, lastTrainNumber)
+                .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                .setHint(QueryHints.HINT_READONLY, true);
     }
 
     private Stream<Train> getStream(String jpql, Object firstParameter) {
@@ -13,17 +13,20 @@ import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
 @Repository
 public interface TrainLocationRepository extends CustomGeneralRepository<TrainLocation, Long> {
 
+    /**
+     * @param departureDateAfter Limits the query to the newest train_location partitions
+     */
     @Query("select max(tl.id) " +
             "   from TrainLocation tl " +
-            "   where tl.trainLocationId.timestamp >= ?1 " +
+            "   where tl.trainLocationId.timestamp >= ?1 and tl.trainLocationId.departureDate >= ?2 " +
             "   group by tl.trainLocationId.departureDate,tl.trainLocationId.trainNumber")
-    List<Long> findLatest(ZonedDateTime timestampAfter);
+    List<Long> findLatest(ZonedDateTime timestampAfter, LocalDate departureDateAfter);
 
-    @Query("select max(tl.id) " +
-            "   from TrainLocation tl " +
-            "   where tl.trainLocationId.timestamp >= ?1 and tl.trainLocationId.trainNumber = ?2" +
-            "   group by tl.trainLocationId.departureDate,tl.trainLocationId.trainNumber")
-    List<Long> findLatestForATrain(ZonedDateTime timestampAfter, Long trainNumber);
+    @Query("select max(tl.id) from TrainLocation tl")
+    Long findMaxId();
+
+    @Query("select tl from TrainLocation tl where tl.id > ?1 and tl.trainLocationId.timestamp >= ?2 and tl.trainLocationId.departureDate >= ?3")
+    List<TrainLocation> findNewerThan(Long id, ZonedDateTime timestampAfter, LocalDate departureDateAfter);
 
     @Query("select tl from TrainLocation tl where tl.id in ?1 order by tl.trainLocationId.trainNumber asc")
     List<TrainLocation> findAllOrderByTrainNumber(List<Long> ids);
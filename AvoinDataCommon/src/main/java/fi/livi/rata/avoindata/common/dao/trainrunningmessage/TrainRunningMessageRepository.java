@@ -54,6 +54,9 @@ public interface TrainRunningMessageRepository extends CustomGeneralRepository<T
     @Query("select coalesce(max(t.version),0) from TrainRunningMessage t")
     long getMaxVersion();
 
+    @Query("select coalesce(max(t.version),0) from TrainRunningMessage t where t.virtualDepartureDate between ?1 and ?2")
+    long getMaxVersion(LocalDate startDepartureDate, LocalDate endDepartureDate);
+
     @Query("delete from TrainRunningMessage t where t.id in ?1")
     @Modifying
     void removeById(List<Long> ids);
@@ -65,4 +68,11 @@ public interface TrainRunningMessageRepository extends CustomGeneralRepository<T
 
     @Query("SELECT t FROM TrainRunningMessage t where t.version > ?1 order by t.version asc")
     List<TrainRunningMessage> findByVersionGreaterThan(long version, Pageable pageable);
+
+    /**
+     * Keyset page of messages after (version, id). Several messages can share a version, so paging by version only could cut a version
+     * in two.
+     */
+    @Query("SELECT t FROM TrainRunningMessage t where t.version >= ?1 and (t.version > ?1 or t.id > ?2) order by t.version asc, t.id asc")
+    List<TrainRunningMessage> findByVersionAndIdGreaterThan(long version, long id, Pageable pageable);
 }
@@ -23,12 +23,13 @@ public class JourneySection {
     @ApiModelProperty("Point in schedule where composition ends")
     public CompositionTimeTableRow endTimeTableRow;
 
-    @OneToMany(mappedBy = "journeysection", fetch = FetchType.EAGER, cascade = CascadeType.PERSIST)
+    // Not cascaded, the updater inserts locomotives and wagons as JDBC batches
+    @OneToMany(mappedBy = "journeysection", fetch = FetchType.EAGER)
     @OrderBy("location")
     @ApiModelProperty("List of locomotives used on this leg")
     public Set<Locomotive> locomotives = new LinkedHashSet<>();
 
-    @OneToMany(mappedBy = "journeysection", fetch = FetchType.EAGER, cascade = CascadeType.PERSIST)
+    @OneToMany(mappedBy = "journeysection", fetch = FetchType.EAGER)
     @OrderBy("location")
     @ApiModelProperty("List of wagons used on this leg")
     public Set<Wagon> wagons = new LinkedHashSet<>();
@@ -0,0 +1,83 @@
+package fi.livi.rata.avoindata.common.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Allocates train versions in memory. The sequence is seeded once with max(train.version) and after that versions are allocated without
+ * querying the database.
+ * <p>
+ * Versions that come from LiikeInterface are not allocated here, so writers must report them with observe() to keep the sequence above
+ * every version in the database. Allocation only makes versions unique, callers still have to take care that they are committed in order.
+ */
+@Service
+public class TrainVersionService {
+    private static final long NOT_SEEDED = -1L;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    private final AtomicLong highWaterMark = new AtomicLong(NOT_SEEDED);
+
+    private Counter allocationCounter;
+
+    @PostConstruct
+    private void setup() {
+        allocationCounter = Metrics.counter("train.version.allocations");
+        Gauge.builder("train.version.high.water.mark", highWaterMark, AtomicLong::get).register(Metrics.globalRegistry);
+    }
+
+    public long nextVersion() {
+        seedIfNeeded();
+
+        allocationCounter.increment();
+        return highWaterMark.incrementAndGet();
+    }
+
+    public void observe(final long version) {
+        seedIfNeeded();
+
+        highWaterMark.accumulateAndGet(version, Math::max);
+    }
+
+    public long getHighWaterMark() {
+        seedIfNeeded();
+
+        return highWaterMark.get();
+    }
+
+    /**
+     * Makes the next call seed the sequence from the database again. Only needed when trains are removed in bulk.
+     */
+    public void reset() {
+        highWaterMark.set(NOT_SEEDED);
+    }
+
+    private void seedIfNeeded() {
+        if (highWaterMark.get() != NOT_SEEDED) {
+            return;
+        }
+
+        synchronized (highWaterMark) {
+            if (highWaterMark.get() == NOT_SEEDED) {
+                final long maxVersion = trainRepository.getMaxVersion();
+                highWaterMark.set(maxVersion);
+
+                log.info("Seeded train version sequence with {}", maxVersion);
+            }
+        }
+    }
+}
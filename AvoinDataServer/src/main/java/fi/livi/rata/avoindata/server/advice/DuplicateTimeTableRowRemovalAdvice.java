@@ -3,6 +3,7 @@ package fi.livi.rata.avoindata.server.advice;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.server.config.TrainJsonHttpMessageConverter;
 import org.springframework.core.MethodParameter;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
@@ -19,6 +20,11 @@ import java.util.stream.Stream;
 public class DuplicateTimeTableRowRemovalAdvice implements ResponseBodyAdvice<Object> {
     @Override
     public boolean supports(final MethodParameter methodParameter, final Class<? extends HttpMessageConverter<?>> aClass) {
+        // TrainJsonCache removes duplicates when a train is serialized for the first time
+        if (TrainJsonHttpMessageConverter.class.isAssignableFrom(aClass)) {
+            return false;
+        }
+
         try {
             String typeName = methodParameter.getNestedGenericParameterType().getTypeName();
             if (typeName.equals("java.util.List<fi.livi.rata.avoindata.common.domain.train.Train>") ||
@@ -1,5 +1,7 @@
 package fi.livi.rata.avoindata.server.config;
 
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.*;
@@ -8,6 +10,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
 @Component
+// Before PrecompressedResponseFilter, which does not continue the chain for cached responses
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
 public class CorsFilter  implements Filter {
 
     @Override
@@ -0,0 +1,216 @@
+package fi.livi.rata.avoindata.server.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import fi.livi.rata.avoindata.server.services.PrecompressedResponseCache;
+
+/**
+ * Serves cacheable history and metadata responses from PrecompressedResponseCache. A cached body is written as is with a single write,
+ * so hits do no serialization or compression.
+ * <p>
+ * On a miss the response is streamed to the client uncompressed, and a copy is encoded into a buffer of at most max-entry-bytes. Responses
+ * larger than that are not cached.
+ */
+@Component
+public class PrecompressedResponseFilter extends OncePerRequestFilter {
+    @Autowired
+    private PrecompressedResponseCache precompressedResponseCache;
+
+    @Value("${avoindataserver.precompressed-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${avoindataserver.precompressed-cache.max-entry-bytes:16777216}")
+    private int maxEntryBytes;
+
+    @Override
+    protected boolean shouldNotFilter(final HttpServletRequest request) {
+        return !enabled || !"GET".equals(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response, final FilterChain filterChain)
+            throws ServletException, IOException {
+        final PrecompressedResponseCache.CacheKey key = precompressedResponseCache.getKey(request, acceptsGzip(request));
+        if (key == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        PrecompressedResponseCache.CachedResponse cachedResponse = precompressedResponseCache.get(key);
+        if (cachedResponse == null) {
+            final Long version = precompressedResponseCache.getVersion(key);
+
+            final CopyingResponseWrapper wrapper = new CopyingResponseWrapper(response, new CappedCopy(key.isGzip(), maxEntryBytes));
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            filterChain.doFilter(request, wrapper);
+
+            final byte[] body = wrapper.getCopy();
+            if (wrapper.getStatus() == HttpServletResponse.SC_OK && body != null) {
+                precompressedResponseCache.put(key, version, body, wrapper.getContentType(), wrapper.getHeader(HttpHeaders.CACHE_CONTROL));
+            }
+            return;
+        }
+
+        write(cachedResponse, response);
+    }
+
+    private void write(final PrecompressedResponseCache.CachedResponse cachedResponse, final HttpServletResponse response) throws IOException {
+        response.setContentType(cachedResponse.contentType);
+        if (cachedResponse.cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cachedResponse.cacheControl);
+        }
+        if (cachedResponse.gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        response.setContentLength(cachedResponse.body.length);
+        response.getOutputStream().write(cachedResponse.body);
+    }
+
+    static boolean acceptsGzip(final HttpServletRequest request) {
+        final String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy of the response body, gzipped if the cache key is for gzip. The copy is dropped once it grows over maxBytes.
+     */
+    private static final class CappedCopy {
+        private final int maxBytes;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream out;
+
+        private CappedCopy(final boolean gzip, final int maxBytes) throws IOException {
+            this.maxBytes = maxBytes;
+            this.out = gzip ? new GZIPOutputStream(buffer) : buffer;
+        }
+
+        private void write(final byte[] b, final int off, final int len) throws IOException {
+            if (buffer == null) {
+                return;
+            }
+
+            out.write(b, off, len);
+            if (buffer.size() > maxBytes) {
+                buffer = null;
+                out = null;
+            }
+        }
+
+        /**
+         * @return null if the copy grew too large
+         */
+        private byte[] finish() throws IOException {
+            if (buffer == null) {
+                return null;
+            }
+
+            out.close();
+            return buffer.size() <= maxBytes ? buffer.toByteArray() : null;
+        }
+    }
+
+    private static final class CopyingResponseWrapper extends HttpServletResponseWrapper {
+        private final CappedCopy copy;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private CopyingResponseWrapper(final HttpServletResponse response, final CappedCopy copy) {
+            super(response);
+            this.copy = copy;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CopyingOutputStream(super.getOutputStream(), copy);
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        private byte[] getCopy() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            return copy.finish();
+        }
+    }
+
+    private static final class CopyingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final CappedCopy copy;
+
+        private CopyingOutputStream(final ServletOutputStream out, final CappedCopy copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            out.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package fi.livi.rata.avoindata.server.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJacksonValue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.server.services.TrainJsonCache;
+
+/**
+ * Writes List&lt;Train&gt; and Stream&lt;Train&gt; responses by concatenating the cached JSON of every train straight into the response.
+ * Other responses are left to the default Jackson converter.
+ */
+public class TrainJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+    private final TrainJsonCache trainJsonCache;
+
+    public TrainJsonHttpMessageConverter(final ObjectMapper objectMapper, final TrainJsonCache trainJsonCache) {
+        super(objectMapper);
+        this.trainJsonCache = trainJsonCache;
+    }
+
+    public static boolean isTrainCollection(final Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+
+        final ParameterizedType parameterizedType = (ParameterizedType) type;
+        final Type rawType = parameterizedType.getRawType();
+        return (rawType == List.class || rawType == Stream.class) && parameterizedType.getActualTypeArguments()[0] == Train.class;
+    }
+
+    @Override
+    public boolean canWrite(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public boolean canWrite(final Type type, final Class<?> clazz, final MediaType mediaType) {
+        return isTrainCollection(type) && super.canWrite(clazz, mediaType);
+    }
+
+    @Override
+    protected void writeInternal(final Object object, final Type type, final HttpOutputMessage outputMessage) throws IOException {
+        Object value = object;
+        Class<?> view = null;
+        if (object instanceof MappingJacksonValue) {
+            value = ((MappingJacksonValue) object).getValue();
+            view = ((MappingJacksonValue) object).getSerializationView();
+        }
+
+        final OutputStream outputStream = outputMessage.getBody();
+        outputStream.write('[');
+        if (value instanceof List) {
+            writeTrains(((List<Train>) value).iterator(), view, outputStream);
+        } else if (value instanceof Stream) {
+            // Stream needs to be closed to prevent resource leaks.
+            try (Stream<Train> stream = (Stream<Train>) value) {
+                writeTrains(stream.iterator(), view, outputStream);
+            }
+        } else if (value != null) {
+            throw new HttpMessageNotWritableException("Not a train collection: " + value.getClass());
+        }
+        outputStream.write(']');
+        outputStream.flush();
+    }
+
+    private void writeTrains(final Iterator<Train> trains, final Class<?> view, final OutputStream outputStream) throws IOException {
+        boolean first = true;
+        while (trains.hasNext()) {
+            if (!first) {
+                outputStream.write(',');
+            }
+            outputStream.write(trainJsonCache.getJson(trains.next(), view));
+            first = false;
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package fi.livi.rata.avoindata.server.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.livi.rata.avoindata.server.services.TrainJsonCache;
 import net.rossillo.spring.web.mvc.CacheControlHandlerInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.util.UrlPathHelper;
 
+import java.util.List;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
     public static final String CONTEXT_PATH = "/api/v1/";
@@ -25,6 +31,15 @@ public class WebConfig implements WebMvcConfigurer {
     @Autowired
     private ContentTypeInterceptor contentTypeInterceptor;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TrainJsonCache trainJsonCache;
+
+    @Value("${avoindataserver.train-json-cache.enabled:true}")
+    private boolean trainJsonCacheEnabled;
+
     @Override
     public void addInterceptors(final InterceptorRegistry registry) {
         registry.addInterceptor(databaseInitializionInterceptor);
@@ -34,6 +49,13 @@ public class WebConfig implements WebMvcConfigurer {
         registry.addInterceptor(new CacheControlHandlerInterceptor());
     }
 
+    @Override
+    public void extendMessageConverters(final List<HttpMessageConverter<?>> converters) {
+        if (trainJsonCacheEnabled) {
+            converters.add(0, new TrainJsonHttpMessageConverter(objectMapper, trainJsonCache));
+        }
+    }
+
     @Override
     public void addViewControllers(ViewControllerRegistry registry) {
         registry.addRedirectViewController("/configuration/ui", "/swagger-resources/configuration/ui");
@@ -0,0 +1,63 @@
+package fi.livi.rata.avoindata.server.controller.api;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import fi.livi.rata.avoindata.server.config.WebConfig;
+import fi.livi.rata.avoindata.server.controller.utils.CacheControl;
+import fi.livi.rata.avoindata.server.services.livestream.LiveStreamEventType;
+import fi.livi.rata.avoindata.server.services.livestream.LiveStreamService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+
+@Api(tags = "live-stream", description = "Server-sent events of train locations, trains and train running messages")
+@RestController
+@RequestMapping(WebConfig.CONTEXT_PATH + "live-stream")
+public class LiveStreamController extends ADataController {
+
+    @Autowired
+    private LiveStreamService liveStreamService;
+
+    @ApiOperation("Streams updates as server-sent events named train-location, train and train-running-message. Station filters trains and " +
+            "train running messages, bbox filters train locations.")
+    @RequestMapping(method = RequestMethod.GET, path = "", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getLiveStream(@RequestParam(required = false) @ApiParam(example = "train-location,train") List<String> types,
+                                    @RequestParam(required = false) @ApiParam(example = "1") Long train_number,
+                                    @RequestParam(required = false) @ApiParam(example = "HKI") String station,
+                                    @RequestParam(required = false) @ApiParam(example = "1,1,70,70") List<Double> bbox,
+                                    HttpServletResponse response) {
+        CacheControl.clearCacheMaxAgeSeconds(response);
+
+        if (bbox != null && bbox.size() != 4) {
+            throw new IllegalArgumentException("Invalid bbox");
+        }
+
+        final Set<LiveStreamEventType> eventTypes = EnumSet.noneOf(LiveStreamEventType.class);
+        if (types == null || types.isEmpty()) {
+            eventTypes.addAll(EnumSet.allOf(LiveStreamEventType.class));
+        } else {
+            for (final String type : types) {
+                eventTypes.add(LiveStreamEventType.fromEventName(type.trim()));
+            }
+        }
+
+        final double[] boundingBox = bbox != null ? new double[]{bbox.get(0), bbox.get(1), bbox.get(2), bbox.get(3)} : null;
+        final SseEmitter emitter = liveStreamService.subscribe(eventTypes, train_number, station, boundingBox);
+        if (emitter == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        return emitter;
+    }
+}
@@ -4,6 +4,7 @@ import com.amazonaws.xray.spring.aop.XRayEnabled;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.google.common.collect.Lists;
 import fi.livi.rata.avoindata.common.dao.localization.TrainCategoryRepository;
+import fi.livi.rata.avoindata.common.dao.train.LiveTimeTableTrainRepository;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.jsonview.TrainJsonView;
@@ -16,6 +17,7 @@ import fi.livi.rata.avoindata.server.controller.api.exception.TrainMaximumLimitE
 import fi.livi.rata.avoindata.server.controller.api.exception.TrainMinimumLimitException;
 import fi.livi.rata.avoindata.server.controller.utils.CacheControl;
 import fi.livi.rata.avoindata.server.controller.utils.FindByIdService;
+import fi.livi.rata.avoindata.server.services.LiveTrainService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.slf4j.Logger;
@@ -41,17 +43,26 @@ public class LiveTrainController extends ADataController {
     @Autowired
     private TrainRepository trainRepository;
 
+    @Autowired
+    private LiveTimeTableTrainRepository liveTimeTableTrainRepository;
+
     @Autowired
     private FindByIdService findByIdService;
 
     @Autowired
     private TrainCategoryRepository trainCategoryRepository;
 
+    @Autowired
+    private LiveTrainService liveTrainService;
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     @Value("${avoindataserver.livetrains.maxTrainRerieveRequest:1000}")
     private int maxTrainRetrieveRequest;
 
+    @Value("${avoindataserver.live-trains.materialized:true}")
+    private boolean materialized;
+
     private CacheControl forAllLiveTrains = CacheConfig.LIVE_TRAIN_ALL_TRAINS_CACHECONTROL;
     private CacheControl forStationLiveTrains = CacheConfig.LIVE_TRAIN_STATION_CACHECONTROL;
     private CacheControl forSingleLiveTrains = CacheConfig.LIVE_TRAIN_SINGLE_TRAIN_CACHECONTROL;
@@ -60,7 +71,14 @@ public class LiveTrainController extends ADataController {
     @JsonView(TrainJsonView.LiveTrains.class)
     @RequestMapping(method = RequestMethod.GET)
     public List<Train> getLiveTrainsByVersion(@RequestParam(defaultValue = "0", name = "version") Long version, HttpServletResponse response) {
-        List<Object[]> liveTrains = trainRepository.findLiveTrains(version, 60 * 4);
+        if (liveTrainService.isLoaded()) {
+            final List<Train> trains = liveTrainService.getLiveTrains(version, 60 * 4);
+            forAllLiveTrains.setCacheParameter(response, trains, version);
+            return trains;
+        }
+
+        List<Object[]> liveTrains = materialized ? liveTimeTableTrainRepository.findLiveTrains(version, 60 * 4) :
+                trainRepository.findLiveTrains(version, 60 * 4);
         List<TrainId> trainsToRetrieve = extractNewerTrainIds(version, liveTrains);
 
         List<Train> trains = new LinkedList<>();
@@ -118,8 +136,17 @@ public class LiveTrainController extends ADataController {
                                                            int departed_trains, int departing_trains, Boolean include_nonstopping, List<Long> trainCategoryIds, HttpServletResponse response) {
         assertParameters(arrived_trains, arriving_trains, departed_trains, departing_trains);
 
-        List<Object[]> liveTrains = trainRepository.findLiveTrainsIds(station, departed_trains, departing_trains, arrived_trains,
-                arriving_trains, !include_nonstopping, trainCategoryIds);
+        if (liveTrainService.isLoaded()) {
+            CacheControl.setCacheMaxAgeSeconds(response, forStationLiveTrains.WITHOUT_CHANGENUMBER_RESULT);
+            return liveTrainService.getStationTrains(station, version, arrived_trains, arriving_trains, departed_trains, departing_trains,
+                    include_nonstopping, trainCategoryIds);
+        }
+
+        List<Object[]> liveTrains = materialized ?
+                liveTimeTableTrainRepository.findLiveTrainsIds(station, departed_trains, departing_trains, arrived_trains, arriving_trains,
+                        !include_nonstopping, trainCategoryIds) :
+                trainRepository.findLiveTrainsIds(station, departed_trains, departing_trains, arrived_trains, arriving_trains,
+                        !include_nonstopping, trainCategoryIds);
 
         List<TrainId> trainsToRetrieve = extractNewerTrainIds(version, liveTrains);
 
@@ -144,8 +171,17 @@ public class LiveTrainController extends ADataController {
         ZonedDateTime startDeparture = now.minusMinutes(minutes_after_departure);
         ZonedDateTime endDeparture = now.plusMinutes(minutes_before_departure);
 
-        List<LiveTimeTableTrain> liveTrains = trainRepository.findLiveTrains(station, startDeparture, endDeparture, !include_nonstopping,
-                version, startArrival, endArrival, trainCategoryIds);
+        if (liveTrainService.isLoaded()) {
+            CacheControl.setCacheMaxAgeSeconds(response, forStationLiveTrains.WITHOUT_CHANGENUMBER_RESULT);
+            return liveTrainService.getStationTrains(station, version, startDeparture, endDeparture, startArrival, endArrival,
+                    include_nonstopping, trainCategoryIds);
+        }
+
+        List<LiveTimeTableTrain> liveTrains = materialized ?
+                liveTimeTableTrainRepository.findLiveTrains(station, startDeparture, endDeparture, !include_nonstopping, version,
+                        startArrival, endArrival, trainCategoryIds) :
+                trainRepository.findLiveTrains(station, startDeparture, endDeparture, !include_nonstopping, version, startArrival,
+                        endArrival, trainCategoryIds);
 
         CacheControl.setCacheMaxAgeSeconds(response, forStationLiveTrains.WITHOUT_CHANGENUMBER_RESULT);
 
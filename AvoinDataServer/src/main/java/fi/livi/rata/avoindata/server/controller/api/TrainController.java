@@ -28,7 +28,6 @@ import com.fasterxml.jackson.annotation.JsonView;
 import com.google.common.collect.Iterables;
 import fi.livi.rata.avoindata.common.dao.train.AllTrainsRepository;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
-import fi.livi.rata.avoindata.common.dao.train.TrainStreamRepository;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.jsonview.TrainJsonView;
 import fi.livi.rata.avoindata.common.domain.train.Train;
@@ -36,6 +35,8 @@ import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
 import fi.livi.rata.avoindata.server.config.CacheConfig;
 import fi.livi.rata.avoindata.server.config.WebConfig;
 import fi.livi.rata.avoindata.server.controller.utils.CacheControl;
+import fi.livi.rata.avoindata.server.services.LiveTrainService;
+import fi.livi.rata.avoindata.server.services.TrainExportService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 
@@ -51,7 +52,9 @@ public class TrainController extends ADataController {
     @Autowired
     private BatchExecutionService bes;
     @Autowired
-    private TrainStreamRepository trainStreamRepository;
+    private TrainExportService trainExportService;
+    @Autowired
+    private LiveTrainService liveTrainService;
 
     private Logger log = LoggerFactory.getLogger(TrainController.class);
 
@@ -133,10 +136,14 @@ public class TrainController extends ADataController {
             @PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate departure_date, HttpServletResponse response) {//
         CacheControl.addHistoryCacheParametersForDailyResult(departure_date, response);
 
-        return trainStreamRepository.getTrainsByDepartureDate(departure_date);
+        return trainExportService.getTrainsByDepartureDate(departure_date);
     }
 
     private List<Train> getTrainWithoutDepartureDate(long train_number, long version) {
+        if (liveTrainService.isLoaded()) {
+            return liveTrainService.getLatestTrain(train_number, version);
+        }
+
         final List<Object[]> liveTrains = trainRepository.findLiveTrainByTrainNumber(train_number);
         List<TrainId> trainsToRetrieve = extractNewerTrainIds(version, liveTrains);
 
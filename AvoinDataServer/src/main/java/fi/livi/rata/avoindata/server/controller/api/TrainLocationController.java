@@ -2,12 +2,12 @@ package fi.livi.rata.avoindata.server.controller.api;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.vividsolutions.jts.geom.Point;
 import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
-import fi.livi.rata.avoindata.common.utils.DateProvider;
 import fi.livi.rata.avoindata.server.config.WebConfig;
 import fi.livi.rata.avoindata.server.controller.utils.CacheControl;
+import fi.livi.rata.avoindata.server.dto.CompactTrainLocationHistory;
+import fi.livi.rata.avoindata.server.services.LatestTrainLocationService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -19,7 +19,6 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
 
 @Api(tags = "train-locations", description = "Train locations", position = Integer.MIN_VALUE)
@@ -34,15 +33,17 @@ public class TrainLocationController extends ADataController {
     @Autowired
     private TrainLocationRepository trainLocationRepository;
     @Autowired
-    private DateProvider dateProvider;
+    private LatestTrainLocationService latestTrainLocationService;
 
     @ApiOperation("Returns latest wsg84 coordinates for trains")
     @RequestMapping(method = RequestMethod.GET, path = "latest")
     public List<TrainLocation> getTrainLocations(@RequestParam(required = false) @ApiParam(example = "1,1,70,70") List<Double> bbox, HttpServletResponse response) {
         CacheControl.setCacheMaxAgeSeconds(response, CACHE_MAX_AGE);
 
-        final List<Long> ids = trainLocationRepository.findLatest(dateProvider.nowInHelsinki().minusMinutes(15));
-        return getAndFilterTrainLocations(bbox, response, ids);
+        if (!isValidBbox(bbox, response)) {
+            return null;
+        }
+        return latestTrainLocationService.getLatest(bbox);
     }
 
     @ApiOperation("Returns latest wsg84 coordinates for a train")
@@ -51,8 +52,10 @@ public class TrainLocationController extends ADataController {
             "1,1,70,70") List<Double> bbox, HttpServletResponse response) {
         CacheControl.setCacheMaxAgeSeconds(response, CACHE_MAX_AGE);
 
-        final List<Long> ids = trainLocationRepository.findLatestForATrain(dateProvider.nowInHelsinki().minusMinutes(15), train_number);
-        return getAndFilterTrainLocations(bbox, response, ids);
+        if (!isValidBbox(bbox, response)) {
+            return null;
+        }
+        return latestTrainLocationService.getLatest(train_number, bbox);
     }
 
     @ApiOperation("Returns wsg84 coordinates for a train run on departure date")
@@ -65,14 +68,15 @@ public class TrainLocationController extends ADataController {
         return filterByBbox(bbox, response, trainLocations);
     }
 
-    private List<TrainLocation> getAndFilterTrainLocations(List<Double> bbox, final HttpServletResponse response, final List<Long> ids) {
-        // Shortcut
-        if (ids.isEmpty()) {
-            return new ArrayList<>();
+    @ApiOperation("Returns wsg84 coordinates for a train run on departure date as delta encoded columns, several times smaller than the default format")
+    @RequestMapping(method = RequestMethod.GET, path = "{departure_date}/{train_number}", params = "format=compact")
+    public CompactTrainLocationHistory getCompactTrainLocationByTrainNumberAndDepartureDate(@PathVariable @ApiParam(example = "1") Long train_number, @PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate departure_date, @RequestParam @ApiParam(example =
+            "compact") String format, @RequestParam(required = false) @ApiParam(example = "1,1,70,70") List<Double> bbox, HttpServletResponse response) {
+        final List<TrainLocation> trainLocations = getTrainLocationByTrainNumberAndDepartureDate(train_number, departure_date, bbox, response);
+        if (trainLocations == null) {
+            return null;
         }
-        final List<TrainLocation> result = trainLocationRepository.findAllOrderByTrainNumber(ids);
-
-        return filterByBbox(bbox, response, result);
+        return CompactTrainLocationHistory.of(train_number, departure_date, trainLocations);
     }
 
     private List<TrainLocation> filterByBbox(List<Double> bbox, final HttpServletResponse response, final List<TrainLocation> result) {
@@ -81,23 +85,18 @@ public class TrainLocationController extends ADataController {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 return null;
             }
-            return Lists.newArrayList(Iterables.filter(result, tl -> isInsideBoundingBox(tl, bbox)));
+            return Lists.newArrayList(Iterables.filter(result,
+                    tl -> LatestTrainLocationService.isInside(tl, bbox.get(0), bbox.get(1), bbox.get(2), bbox.get(3))));
         } else {
             return result;
         }
     }
 
-    private boolean isInsideBoundingBox(TrainLocation trainLocation, List<Double> boundingBox) {
-        final Point location = trainLocation.location;
-
-        final Double x1 = boundingBox.get(0);
-        final Double y1 = boundingBox.get(1);
-        final Double x2 = boundingBox.get(2);
-        final Double y2 = boundingBox.get(3);
-
-        final double locationX = location.getX();
-        final double locationY = location.getY();
-
-        return locationX >= x1 && locationY >= y1 && locationX <= x2 && locationY <= y2;
+    private boolean isValidBbox(List<Double> bbox, final HttpServletResponse response) {
+        if (bbox != null && bbox.size() != 4) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return false;
+        }
+        return true;
     }
 }
@@ -0,0 +1,87 @@
+package fi.livi.rata.avoindata.server.dto;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * Columnar train location history. Locations are ordered from oldest to newest and every column is delta encoded: the first value is
+ * relative to the start value and each following value to the previous one. Coordinates are wgs84 micro-degrees, which is the precision
+ * train locations are stored with.
+ */
+public class CompactTrainLocationHistory {
+    private static final double MICRO_DEGREES = 1_000_000;
+
+    public final Long trainNumber;
+
+    public final LocalDate departureDate;
+
+    @ApiModelProperty("Timestamp that the first timestamp delta is relative to")
+    public final ZonedDateTime startTimestamp;
+
+    @ApiModelProperty("Timestamp deltas in milliseconds")
+    public final long[] timestamps;
+
+    @ApiModelProperty("Longitude deltas in micro-degrees, the first one is absolute")
+    public final int[] longitudes;
+
+    @ApiModelProperty("Latitude deltas in micro-degrees, the first one is absolute")
+    public final int[] latitudes;
+
+    @ApiModelProperty("Speeds in km/h, not delta encoded. -1 if unknown.")
+    public final int[] speeds;
+
+    private CompactTrainLocationHistory(final Long trainNumber, final LocalDate departureDate, final ZonedDateTime startTimestamp,
+            final int size) {
+        this.trainNumber = trainNumber;
+        this.departureDate = departureDate;
+        this.startTimestamp = startTimestamp;
+        this.timestamps = new long[size];
+        this.longitudes = new int[size];
+        this.latitudes = new int[size];
+        this.speeds = new int[size];
+    }
+
+    /**
+     * @param trainLocations Locations of one train run in any order
+     */
+    public static CompactTrainLocationHistory of(final Long trainNumber, final LocalDate departureDate, final List<TrainLocation> trainLocations) {
+        final List<TrainLocation> sorted = new ArrayList<>(trainLocations.size());
+        for (final TrainLocation trainLocation : trainLocations) {
+            if (trainLocation.location != null) {
+                sorted.add(trainLocation);
+            }
+        }
+        sorted.sort(Comparator.comparing(trainLocation -> trainLocation.trainLocationId.timestamp));
+
+        final ZonedDateTime startTimestamp = sorted.isEmpty() ? null : sorted.get(0).trainLocationId.timestamp;
+        final CompactTrainLocationHistory history = new CompactTrainLocationHistory(trainNumber, departureDate, startTimestamp, sorted.size());
+
+        long previousTimestamp = startTimestamp != null ? startTimestamp.toInstant().toEpochMilli() : 0;
+        int previousLongitude = 0;
+        int previousLatitude = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            final TrainLocation trainLocation = sorted.get(i);
+
+            final long timestamp = trainLocation.trainLocationId.timestamp.toInstant().toEpochMilli();
+            final int longitude = (int) Math.round(trainLocation.location.getX() * MICRO_DEGREES);
+            final int latitude = (int) Math.round(trainLocation.location.getY() * MICRO_DEGREES);
+
+            history.timestamps[i] = timestamp - previousTimestamp;
+            history.longitudes[i] = longitude - previousLongitude;
+            history.latitudes[i] = latitude - previousLatitude;
+            history.speeds[i] = trainLocation.speed != null ? trainLocation.speed : -1;
+
+            previousTimestamp = timestamp;
+            previousLongitude = longitude;
+            previousLatitude = latitude;
+        }
+
+        return history;
+    }
+}
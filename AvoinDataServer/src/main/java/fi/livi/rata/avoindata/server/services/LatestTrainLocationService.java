@@ -0,0 +1,327 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the latest location of every train seen within MAX_AGE_MINUTES in memory, so that latest train location requests do not query the
+ * database.
+ * <p>
+ * After the initial load only rows with an id greater than the last seen id are polled. Ids are allocated before commit, so the last
+ * ID_OVERLAP ids are polled again to pick up rows committed out of order. Readers use an immutable snapshot that is replaced on every
+ * refresh.
+ * <p>
+ * Train locations are inserted by the single persist thread of the updater, one batch per transaction, so rows normally commit in id
+ * order and the overlap only matters if inserts from several transactions overlap. ID_OVERLAP is 500 because a batch of one fetch is well
+ * below that (about one location per running train, a few hundred at peak), so the overlap covers at least one whole concurrent
+ * transaction. Rows picked up from the overlap are counted to train.location.latest.late and how far below the last seen id they were is
+ * recorded to train.location.latest.late.distance. A distance approaching ID_OVERLAP means the overlap is too small.
+ */
+@Service
+public class LatestTrainLocationService {
+    public static final int MAX_AGE_MINUTES = 15;
+    static final long ID_OVERLAP = 500;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private TrainLocationRepository trainLocationRepository;
+
+    @Autowired
+    private DateProvider dateProvider;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Guarded by this
+    private final Map<Long, TrainLocation> latestByTrain = new HashMap<>();
+    private long lastSeenId = -1;
+
+    private volatile Snapshot snapshot;
+
+    private final List<Consumer<List<TrainLocation>>> listeners = new CopyOnWriteArrayList<>();
+
+    private Counter lateCounter;
+    private DistributionSummary lateDistance;
+
+    @PostConstruct
+    private void setup() {
+        lateCounter = meterRegistry.counter("train.location.latest.late");
+        lateDistance = DistributionSummary.builder("train.location.latest.late.distance").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    /**
+     * Polls new train locations. Failures are logged and the previous locations are kept until they expire.
+     */
+    public synchronized void refresh() {
+        final ZonedDateTime oldestAllowed = dateProvider.nowInHelsinki().minusMinutes(MAX_AGE_MINUTES);
+        // Trains running past midnight keep their departure date, this lets the database skip older partitions
+        final LocalDate oldestDepartureDate = oldestAllowed.toLocalDate().minusDays(1);
+        final List<TrainLocation> updated = new ArrayList<>();
+
+        try {
+            final List<TrainLocation> newLocations;
+            long maxId = lastSeenId;
+            if (lastSeenId == -1) {
+                final Long maxIdInDatabase = trainLocationRepository.findMaxId();
+                maxId = maxIdInDatabase != null ? maxIdInDatabase : 0;
+
+                final List<Long> ids = trainLocationRepository.findLatest(oldestAllowed, oldestDepartureDate);
+                newLocations = ids.isEmpty() ? Collections.emptyList() : trainLocationRepository.findAllOrderByTrainNumber(ids);
+            } else {
+                newLocations = trainLocationRepository.findNewerThan(Math.max(0, lastSeenId - ID_OVERLAP), oldestAllowed, oldestDepartureDate);
+            }
+
+            for (final TrainLocation location : newLocations) {
+                final TrainLocation existing = latestByTrain.get(getTrainKey(location));
+                if (existing == null || location.id > existing.id) {
+                    latestByTrain.put(getTrainKey(location), location);
+                    updated.add(location);
+
+                    if (location.id <= lastSeenId) {
+                        lateCounter.increment();
+                        lateDistance.record(lastSeenId - location.id);
+                    }
+                }
+                maxId = Math.max(maxId, location.id);
+            }
+            lastSeenId = maxId;
+        } catch (final Exception e) {
+            log.error("Could not refresh latest train locations", e);
+        }
+
+        final Iterator<TrainLocation> iterator = latestByTrain.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().trainLocationId.timestamp.isBefore(oldestAllowed)) {
+                iterator.remove();
+            }
+        }
+
+        snapshot = new Snapshot(new ArrayList<>(latestByTrain.values()));
+
+        if (!updated.isEmpty()) {
+            for (final Consumer<List<TrainLocation>> listener : listeners) {
+                listener.accept(updated);
+            }
+        }
+    }
+
+    /**
+     * Forgets all locations, the next refresh loads them again. Used by tests whose rows are rolled back.
+     */
+    public synchronized void reset() {
+        latestByTrain.clear();
+        lastSeenId = -1;
+        snapshot = null;
+    }
+
+    /**
+     * @param listener Called with the locations that changed in a refresh. Called from the refreshing thread, so it must not block.
+     */
+    public void addListener(final Consumer<List<TrainLocation>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param bbox x1,y1,x2,y2 in wgs84 or null
+     * @return Latest locations ordered by train number
+     */
+    public List<TrainLocation> getLatest(final List<Double> bbox) {
+        final Snapshot current = getSnapshot();
+        if (bbox == null) {
+            return current.locations;
+        }
+        return current.findInside(bbox.get(0), bbox.get(1), bbox.get(2), bbox.get(3));
+    }
+
+    /**
+     * @param bbox x1,y1,x2,y2 in wgs84 or null
+     * @return Latest locations of trains with the train number, one per departure date
+     */
+    public List<TrainLocation> getLatest(final Long trainNumber, final List<Double> bbox) {
+        final List<TrainLocation> result = new ArrayList<>();
+        for (final TrainLocation location : getSnapshot().byTrainNumber.getOrDefault(trainNumber, Collections.emptyList())) {
+            if (bbox == null || isInside(location, bbox.get(0), bbox.get(1), bbox.get(2), bbox.get(3))) {
+                result.add(location);
+            }
+        }
+        return result;
+    }
+
+    private Snapshot getSnapshot() {
+        final Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (snapshot == null) {
+                refresh();
+            }
+            return snapshot;
+        }
+    }
+
+    private static long getTrainKey(final TrainLocation location) {
+        return location.trainLocationId.departureDate.toEpochDay() << 32 | location.trainLocationId.trainNumber;
+    }
+
+    /**
+     * @return false for a location without coordinates
+     */
+    public static boolean isInside(final TrainLocation location, final double x1, final double y1, final double x2, final double y2) {
+        if (location.location == null) {
+            return false;
+        }
+
+        final double x = location.location.getX();
+        final double y = location.location.getY();
+        return x >= x1 && y >= y1 && x <= x2 && y <= y2;
+    }
+
+    /**
+     * Locations sorted by train number and bucketed into a uniform grid over their extent. Cells are stored as flat arrays.
+     */
+    private static final class Snapshot {
+        private static final double MIN_CELL_SIZE = 0.1;
+        private static final int MAX_COLUMNS = 128;
+
+        private final List<TrainLocation> locations;
+        private final Map<Long, List<TrainLocation>> byTrainNumber = new HashMap<>();
+
+        private final double minX;
+        private final double minY;
+        private final double cellSize;
+        private final int columns;
+        private final int rows;
+        // Locations of cell c are locations.get(cellLocations[cellStart[c]]) .. locations.get(cellLocations[cellStart[c + 1] - 1])
+        private final int[] cellStart;
+        private final int[] cellLocations;
+
+        private Snapshot(final List<TrainLocation> unsorted) {
+            unsorted.sort(Comparator.comparing((TrainLocation location) -> location.trainLocationId.trainNumber)
+                    .thenComparing(location -> location.trainLocationId.departureDate));
+            this.locations = Collections.unmodifiableList(unsorted);
+
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (final TrainLocation location : locations) {
+                byTrainNumber.computeIfAbsent(location.trainLocationId.trainNumber, trainNumber -> new ArrayList<>(1)).add(location);
+                if (location.location != null) {
+                    minX = Math.min(minX, location.location.getX());
+                    minY = Math.min(minY, location.location.getY());
+                    maxX = Math.max(maxX, location.location.getX());
+                    maxY = Math.max(maxY, location.location.getY());
+                }
+            }
+
+            if (minX > maxX) {
+                this.minX = this.minY = 0;
+                this.cellSize = MIN_CELL_SIZE;
+                this.columns = this.rows = 1;
+                this.cellStart = new int[2];
+                this.cellLocations = new int[0];
+                return;
+            }
+
+            this.minX = minX;
+            this.minY = minY;
+            this.cellSize = Math.max(MIN_CELL_SIZE, Math.max(maxX - minX, maxY - minY) / MAX_COLUMNS);
+            this.columns = (int) ((maxX - minX) / cellSize) + 1;
+            this.rows = (int) ((maxY - minY) / cellSize) + 1;
+
+            final int[] cells = new int[locations.size()];
+            this.cellStart = new int[columns * rows + 1];
+            for (int i = 0; i < locations.size(); i++) {
+                final TrainLocation location = locations.get(i);
+                if (location.location != null) {
+                    cells[i] = column(location.location.getX()) + row(location.location.getY()) * columns;
+                    cellStart[cells[i] + 1]++;
+                } else {
+                    cells[i] = -1;
+                }
+            }
+            for (int cell = 0; cell < columns * rows; cell++) {
+                cellStart[cell + 1] += cellStart[cell];
+            }
+
+            this.cellLocations = new int[cellStart[columns * rows]];
+            final int[] fill = new int[columns * rows];
+            for (int i = 0; i < locations.size(); i++) {
+                if (cells[i] != -1) {
+                    cellLocations[cellStart[cells[i]] + fill[cells[i]]++] = i;
+                }
+            }
+        }
+
+        private List<TrainLocation> findInside(final double x1, final double y1, final double x2, final double y2) {
+            final List<TrainLocation> result = new ArrayList<>();
+            if (!(x1 <= x2 && y1 <= y2)) {
+                return result;
+            }
+
+            final int firstColumn = Math.max(0, column(x1));
+            final int lastColumn = Math.min(columns - 1, column(x2));
+            final int firstRow = Math.max(0, row(y1));
+            final int lastRow = Math.min(rows - 1, row(y2));
+
+            // Indexes of the sorted locations, so the result keeps the train number order
+            final BitSet found = new BitSet(locations.size());
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    final int cell = row * columns + column;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        if (isInside(locations.get(cellLocations[i]), x1, y1, x2, y2)) {
+                            found.set(cellLocations[i]);
+                        }
+                    }
+                }
+            }
+
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                result.add(locations.get(i));
+            }
+            return result;
+        }
+
+        private int column(final double x) {
+            return (int) Math.max(-1, Math.min(columns, Math.floor((x - minX) / cellSize)));
+        }
+
+        private int row(final double y) {
+            return (int) Math.max(-1, Math.min(rows, Math.floor((y - minY) / cellSize)));
+        }
+    }
+}
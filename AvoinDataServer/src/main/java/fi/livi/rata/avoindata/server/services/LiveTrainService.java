@@ -0,0 +1,657 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.common.dao.train.AllTrainsRepository;
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+
+/**
+ * Keeps all trains departing from yesterday to tomorrow in memory, so that live-trains requests do not query the database. This is the
+ * departure date range of the live_time_table_train view and findLiveTrainByTrainNumber. Queries check the range again, because the
+ * snapshot can still hold the previous day's window for up to a refresh interval after midnight.
+ * <p>
+ * Every departure date is loaded once when it enters the window, after which changed trains are polled in (version, id) order. Loading
+ * and polling run on a dedicated thread. Readers use an immutable snapshot. When trains change, only their entries are replaced in a
+ * copy of the snapshot, other trains and stations are shared with the previous one. Time table rows are indexed by station and type, and
+ * sorted by actual time or, for rows without one, by live estimate or scheduled time. Rows are filtered with the same conditions as the
+ * live_time_table_train view.
+ * <p>
+ * Until the first load is done isLoaded returns false and callers should query the database instead. Deleted trains are not kept.
+ */
+@Service
+public class LiveTrainService {
+    private static final int MAX_POLLED_TRAINS = 2500;
+    private static final int DAYS_BEFORE = 1;
+    private static final int DAYS_AFTER = 1;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private AllTrainsRepository allTrainsRepository;
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private BatchExecutionService bes;
+
+    @Autowired
+    private DateProvider dp;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${avoindataserver.live-trains.in-memory:true}")
+    private boolean enabled;
+
+    // Guarded by this
+    private final Map<TrainId, Train> trains = new HashMap<>();
+    private final Set<LocalDate> loadedDates = new HashSet<>();
+    private TrainVersionCursor cursor;
+
+    private volatile Snapshot snapshot;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void setup() {
+        if (!enabled) {
+            return;
+        }
+
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("live-trains-%d").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                transactionTemplate.execute(status -> {
+                    refresh();
+                    return null;
+                });
+            } catch (final Exception e) {
+                log.error("Could not refresh live trains", e);
+            }
+        }, 0, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads departure dates that entered the window and trains changed since the last refresh. Must be called in a transaction.
+     */
+    public synchronized void refresh() {
+        final LocalDate today = dp.dateInHelsinki();
+        final LocalDate firstDate = today.minusDays(DAYS_BEFORE);
+        final LocalDate lastDate = today.plusDays(DAYS_AFTER);
+
+        final Set<TrainId> changed = new HashSet<>();
+        trains.keySet().removeIf(id -> {
+            if (id.departureDate.isBefore(firstDate) || id.departureDate.isAfter(lastDate)) {
+                changed.add(id);
+                return true;
+            }
+            return false;
+        });
+        loadedDates.removeIf(date -> date.isBefore(firstDate) || date.isAfter(lastDate));
+
+        if (cursor == null) {
+            cursor = TrainVersionCursor.after(allTrainsRepository.getMaxVersion());
+        }
+
+        for (LocalDate date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1)) {
+            if (!loadedDates.contains(date)) {
+                loadDate(date, changed);
+                loadedDates.add(date);
+            }
+        }
+
+        List<TrainId> page;
+        do {
+            page = cursor.next(allTrainsRepository, MAX_POLLED_TRAINS);
+
+            final List<TrainId> trainIds = new ArrayList<>(page.size());
+            for (final TrainId trainId : page) {
+                if (loadedDates.contains(trainId.departureDate)) {
+                    trainIds.add(trainId);
+                }
+            }
+            if (!trainIds.isEmpty()) {
+                load(trainIds, changed);
+            }
+        } while (page.size() == MAX_POLLED_TRAINS);
+
+        if (snapshot == null) {
+            snapshot = new Snapshot(trains.values());
+            log.debug("Live trains: {}", trains.size());
+        } else if (!changed.isEmpty()) {
+            snapshot = snapshot.update(changed, trains);
+            log.debug("Live trains: {}, changed: {}", trains.size(), changed.size());
+        }
+    }
+
+    /**
+     * Drops all trains and loads them again. Must be called in a transaction.
+     */
+    public synchronized void reload() {
+        reset();
+        refresh();
+    }
+
+    /**
+     * Drops all trains. isLoaded returns false until the next refresh.
+     */
+    public synchronized void reset() {
+        trains.clear();
+        loadedDates.clear();
+        cursor = null;
+        snapshot = null;
+    }
+
+    public boolean isLoaded() {
+        return enabled && snapshot != null;
+    }
+
+    private void loadDate(final LocalDate date, final Set<TrainId> changed) {
+        final List<TrainId> trainIds = new ArrayList<>();
+        for (final Object[] idAndVersion : trainRepository.findByDepartureDateLite(date)) {
+            trainIds.add((TrainId) idAndVersion[0]);
+        }
+        load(trainIds, changed);
+        log.info("Loaded {} live trains departing on {}", trainIds.size(), date);
+    }
+
+    private void load(final List<TrainId> trainIds, final Set<TrainId> changed) {
+        changed.addAll(trainIds);
+        bes.consume(trainIds, ids -> {
+            final Set<TrainId> missing = new HashSet<>(ids);
+            for (final Train train : allTrainsRepository.findTrains(ids)) {
+                missing.remove(train.id);
+                if (Boolean.TRUE.equals(train.deleted)) {
+                    trains.remove(train.id);
+                } else {
+                    trains.put(train.id, train);
+                }
+            }
+            // Trains without time table rows are not found
+            for (final TrainId trainId : missing) {
+                trains.remove(trainId);
+            }
+        });
+    }
+
+    /**
+     * Same as TrainRepository.findLiveTrains(version, minutes)
+     *
+     * @return Trains with a time within minutes from now, ordered by departure date and train number
+     */
+    public List<Train> getLiveTrains(final long version, final int minutes) {
+        final ZonedDateTime now = dp.nowInHelsinki();
+        final long start = toMillis(now.minusMinutes(minutes));
+        final long end = toMillis(now.plusMinutes(minutes));
+        final ViewFilter viewFilter = new ViewFilter(now);
+
+        final List<Train> result = new ArrayList<>();
+        for (final Train train : getSnapshot().trains) {
+            if (train.version <= version) {
+                continue;
+            }
+
+            for (final TimeTableRow row : train.timeTableRows) {
+                if (viewFilter.matches(row) && (isBetween(row.actualTime, start, end) || isBetween(getPredictTime(row), start, end) ||
+                        isBetween(row.scheduledTime, start, end))) {
+                    result.add(train);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as TrainRepository.findLiveTrainsIds
+     *
+     * @return Trains newer than version ordered by departure date and train number
+     */
+    public List<Train> getStationTrains(final String station, final long version, final int arrived, final int arriving,
+                                        final int departed, final int departing, final boolean includeNonstopping,
+                                        final Collection<Long> trainCategoryIds) {
+        final StationRows rows = getSnapshot().byStation.get(station);
+        if (rows == null) {
+            return new ArrayList<>();
+        }
+
+        final ViewFilter viewFilter = new ViewFilter(dp.nowInHelsinki());
+        final Set<Long> categories = new HashSet<>(trainCategoryIds);
+        final Set<Train> result = new LinkedHashSet<>();
+        addFirst(rows.departuresWithActualTime, true, departed, viewFilter, includeNonstopping, categories, result);
+        addFirst(rows.departuresWithoutActualTime, false, departing, viewFilter, includeNonstopping, categories, result);
+        addFirst(rows.arrivalsWithActualTime, true, arrived, viewFilter, includeNonstopping, categories, result);
+        addFirst(rows.arrivalsWithoutActualTime, false, arriving, viewFilter, includeNonstopping, categories, result);
+
+        return sortNewer(result, version);
+    }
+
+    /**
+     * Same as TrainRepository.findLiveTrains(station, ...). A row is in a range by its actual time, or live estimate or scheduled time if
+     * it has none.
+     *
+     * @return Trains newer than version ordered by departure date and train number
+     */
+    public List<Train> getStationTrains(final String station, final long version, final ZonedDateTime startDeparture,
+                                        final ZonedDateTime endDeparture, final ZonedDateTime startArrival,
+                                        final ZonedDateTime endArrival, final boolean includeNonstopping,
+                                        final Collection<Long> trainCategoryIds) {
+        final StationRows rows = getSnapshot().byStation.get(station);
+        if (rows == null) {
+            return new ArrayList<>();
+        }
+
+        final ViewFilter viewFilter = new ViewFilter(dp.nowInHelsinki());
+        final Set<Long> categories = new HashSet<>(trainCategoryIds);
+        final Set<Train> result = new LinkedHashSet<>();
+        addBetween(rows.departuresWithActualTime, startDeparture, endDeparture, viewFilter, includeNonstopping, categories, result);
+        addBetween(rows.departuresWithoutActualTime, startDeparture, endDeparture, viewFilter, includeNonstopping, categories, result);
+        addBetween(rows.arrivalsWithActualTime, startArrival, endArrival, viewFilter, includeNonstopping, categories, result);
+        addBetween(rows.arrivalsWithoutActualTime, startArrival, endArrival, viewFilter, includeNonstopping, categories, result);
+
+        return sortNewer(result, version);
+    }
+
+    /**
+     * Same as TrainRepository.findLiveTrainByTrainNumber
+     *
+     * @return The train with the number whose scheduled time is closest to now, if it is newer than version
+     */
+    public List<Train> getLatestTrain(final long trainNumber, final long version) {
+        final ZonedDateTime now = dp.nowInHelsinki();
+        final long nowMillis = toMillis(now);
+        final long start = toMillis(now.minusHours(4));
+        final long end = toMillis(now.plusHours(16));
+
+        final LocalDate today = now.toLocalDate();
+
+        Train closest = null;
+        long closestDistance = Long.MAX_VALUE;
+        for (final Train train : getSnapshot().byTrainNumber.getOrDefault(trainNumber, Collections.emptyList())) {
+            if (!isInDepartureDateRange(train.id.departureDate, today)) {
+                continue;
+            }
+            for (final TimeTableRow row : train.timeTableRows) {
+                final long scheduled = toMillis(row.scheduledTime);
+                if (scheduled >= start && scheduled <= end && Math.abs(scheduled - nowMillis) < closestDistance) {
+                    closest = train;
+                    closestDistance = Math.abs(scheduled - nowMillis);
+                }
+            }
+        }
+
+        if (closest == null || closest.version <= version) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(closest));
+    }
+
+    private Snapshot getSnapshot() {
+        final Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("Live trains are not loaded");
+        }
+        return current;
+    }
+
+    private static void addFirst(final StationRow[] rows, final boolean descending, final int limit, final ViewFilter viewFilter,
+                                 final boolean includeNonstopping, final Set<Long> categories, final Set<Train> result) {
+        int found = 0;
+        for (int i = 0; i < rows.length && found < limit; i++) {
+            final StationRow row = rows[descending ? rows.length - 1 - i : i];
+            if (matches(row, viewFilter, includeNonstopping, categories)) {
+                result.add(row.train);
+                found++;
+            }
+        }
+    }
+
+    private static void addBetween(final StationRow[] rows, final ZonedDateTime start, final ZonedDateTime end, final ViewFilter viewFilter,
+                                   final boolean includeNonstopping, final Set<Long> categories, final Set<Train> result) {
+        final long endMillis = toMillis(end);
+        for (int i = firstAtOrAfter(rows, toMillis(start)); i < rows.length && rows[i].time <= endMillis; i++) {
+            if (matches(rows[i], viewFilter, includeNonstopping, categories)) {
+                result.add(rows[i].train);
+            }
+        }
+    }
+
+    private static int firstAtOrAfter(final StationRow[] rows, final long time) {
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (rows[middle].time < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean matches(final StationRow row, final ViewFilter viewFilter, final boolean includeNonstopping,
+                                   final Set<Long> categories) {
+        return (includeNonstopping || row.row.trainStopping) && categories.contains(row.train.trainCategoryId) &&
+                viewFilter.matches(row.row);
+    }
+
+    private static List<Train> sortNewer(final Collection<Train> trains, final long version) {
+        final List<Train> result = new ArrayList<>(trains.size());
+        for (final Train train : trains) {
+            if (train.version > version) {
+                result.add(train);
+            }
+        }
+        result.sort(Train::compareTo);
+        return result;
+    }
+
+    private static boolean isInDepartureDateRange(final LocalDate departureDate, final LocalDate today) {
+        return !departureDate.isBefore(today.minusDays(DAYS_BEFORE)) && !departureDate.isAfter(today.plusDays(DAYS_AFTER));
+    }
+
+    private static ZonedDateTime getPredictTime(final TimeTableRow row) {
+        return row.liveEstimateTime != null ? row.liveEstimateTime : row.scheduledTime;
+    }
+
+    private static boolean isBetween(final ZonedDateTime time, final long start, final long end) {
+        if (time == null) {
+            return false;
+        }
+        final long millis = toMillis(time);
+        return millis >= start && millis <= end;
+    }
+
+    private static long toMillis(final ZonedDateTime time) {
+        return time.toInstant().toEpochMilli();
+    }
+
+    /**
+     * Time table row conditions of the live_time_table_train view
+     */
+    private static final class ViewFilter {
+        private final LocalDate today;
+        private final long now;
+        private final long dayAgo;
+        private final long dayAhead;
+        private final long hourAgo;
+        private final long quarterAgo;
+        private final long twoHoursAgo;
+
+        private ViewFilter(final ZonedDateTime now) {
+            this.today = now.toLocalDate();
+            this.now = toMillis(now);
+            this.dayAgo = this.now - 24 * 3_600_000L;
+            this.dayAhead = this.now + 24 * 3_600_000L;
+            this.hourAgo = this.now - 3_600_000L;
+            this.quarterAgo = this.now - 15 * 60_000L;
+            this.twoHoursAgo = this.now - 2 * 3_600_000L;
+        }
+
+        private boolean matches(final TimeTableRow row) {
+            if (!isInDepartureDateRange(row.id.departureDate, today)) {
+                return false;
+            }
+            final long scheduled = toMillis(row.scheduledTime);
+            if (scheduled < dayAgo || scheduled > dayAhead) {
+                return false;
+            }
+            if (scheduled > hourAgo || row.actualTime != null) {
+                return true;
+            }
+            if (row.liveEstimateTime == null) {
+                return false;
+            }
+            return toMillis(row.liveEstimateTime) > (row.cancelled ? quarterAgo : twoHoursAgo);
+        }
+    }
+
+    private static final class StationRow {
+        private final Train train;
+        private final TimeTableRow row;
+        // Actual time, or live estimate or scheduled time if the row has no actual time
+        private final long time;
+
+        private StationRow(final Train train, final TimeTableRow row) {
+            this.train = train;
+            this.row = row;
+            this.time = toMillis(row.actualTime != null ? row.actualTime : getPredictTime(row));
+        }
+    }
+
+    private static final class StationRows {
+        private static final StationRow[] EMPTY = new StationRow[0];
+        private static final Comparator<StationRow> ORDER = Comparator.comparingLong(row -> row.time);
+        private static final StationRows EMPTY_ROWS = new StationRows(EMPTY, EMPTY, EMPTY, EMPTY);
+
+        // All sorted by time ascending
+        private final StationRow[] departuresWithActualTime;
+        private final StationRow[] departuresWithoutActualTime;
+        private final StationRow[] arrivalsWithActualTime;
+        private final StationRow[] arrivalsWithoutActualTime;
+
+        private StationRows(final StationRow[] departuresWithActualTime, final StationRow[] departuresWithoutActualTime,
+                            final StationRow[] arrivalsWithActualTime, final StationRow[] arrivalsWithoutActualTime) {
+            this.departuresWithActualTime = departuresWithActualTime;
+            this.departuresWithoutActualTime = departuresWithoutActualTime;
+            this.arrivalsWithActualTime = arrivalsWithActualTime;
+            this.arrivalsWithoutActualTime = arrivalsWithoutActualTime;
+        }
+
+        private static StationRows build(final List<StationRow> rows) {
+            return EMPTY_ROWS.update(Collections.emptySet(), rows);
+        }
+
+        /**
+         * @return Copy without the rows of the removed trains and with the added rows merged in, or null if no rows are left
+         */
+        private StationRows update(final Set<TrainId> removed, final List<StationRow> added) {
+            final List<List<StationRow>> addedByType = Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                    new ArrayList<>());
+            for (final StationRow row : added) {
+                final int type = (row.row.type == TimeTableRow.TimeTableRowType.DEPARTURE ? 0 : 2) + (row.row.actualTime != null ? 0 : 1);
+                addedByType.get(type).add(row);
+            }
+
+            final StationRows result = new StationRows(merge(departuresWithActualTime, removed, addedByType.get(0)),
+                    merge(departuresWithoutActualTime, removed, addedByType.get(1)), merge(arrivalsWithActualTime, removed, addedByType.get(2)),
+                    merge(arrivalsWithoutActualTime, removed, addedByType.get(3)));
+            return result.isEmpty() ? null : result;
+        }
+
+        private boolean isEmpty() {
+            return departuresWithActualTime.length == 0 && departuresWithoutActualTime.length == 0 && arrivalsWithActualTime.length == 0 &&
+                    arrivalsWithoutActualTime.length == 0;
+        }
+
+        private static StationRow[] merge(final StationRow[] rows, final Set<TrainId> removed, final List<StationRow> added) {
+            added.sort(ORDER);
+
+            final List<StationRow> result = new ArrayList<>(rows.length + added.size());
+            int next = 0;
+            for (final StationRow row : rows) {
+                if (removed.contains(row.train.id)) {
+                    continue;
+                }
+                while (next < added.size() && added.get(next).time < row.time) {
+                    result.add(added.get(next++));
+                }
+                result.add(row);
+            }
+            result.addAll(added.subList(next, added.size()));
+            return result.toArray(EMPTY);
+        }
+    }
+
+    private static final class Snapshot {
+        // Ordered by departure date and train number
+        private final List<Train> trains;
+        private final Map<Long, List<Train>> byTrainNumber;
+        private final Map<String, StationRows> byStation;
+        // Stations the rows of each train were indexed to, so that they can be removed when the train changes
+        private final Map<TrainId, Set<String>> stationsByTrain;
+
+        private Snapshot(final Collection<Train> unsorted) {
+            final List<Train> sorted = new ArrayList<>(unsorted);
+            sorted.sort(Train::compareTo);
+            this.trains = Collections.unmodifiableList(sorted);
+            this.byTrainNumber = new HashMap<>();
+            this.byStation = new HashMap<>();
+            this.stationsByTrain = new HashMap<>();
+
+            final Map<String, List<StationRow>> rowsByStation = new HashMap<>();
+            for (final Train train : trains) {
+                byTrainNumber.computeIfAbsent(train.id.trainNumber, trainNumber -> new ArrayList<>(1)).add(train);
+                addRows(train, rowsByStation);
+            }
+
+            for (final Map.Entry<String, List<StationRow>> entry : rowsByStation.entrySet()) {
+                byStation.put(entry.getKey(), StationRows.build(entry.getValue()));
+            }
+        }
+
+        private Snapshot(final List<Train> trains, final Map<Long, List<Train>> byTrainNumber, final Map<String, StationRows> byStation,
+                         final Map<TrainId, Set<String>> stationsByTrain) {
+            this.trains = Collections.unmodifiableList(trains);
+            this.byTrainNumber = byTrainNumber;
+            this.byStation = byStation;
+            this.stationsByTrain = stationsByTrain;
+        }
+
+        /**
+         * @param changedIds Trains that were loaded or removed
+         * @param current    All trains after the change
+         * @return Copy where only the entries of the changed trains are replaced
+         */
+        private Snapshot update(final Set<TrainId> changedIds, final Map<TrainId, Train> current) {
+            final List<Train> changedTrains = new ArrayList<>();
+            for (final TrainId trainId : changedIds) {
+                final Train train = current.get(trainId);
+                if (train != null) {
+                    changedTrains.add(train);
+                }
+            }
+            changedTrains.sort(Train::compareTo);
+
+            final List<Train> updatedTrains = new ArrayList<>(trains.size() + changedTrains.size());
+            int next = 0;
+            for (final Train train : trains) {
+                if (changedIds.contains(train.id)) {
+                    continue;
+                }
+                while (next < changedTrains.size() && changedTrains.get(next).compareTo(train) < 0) {
+                    updatedTrains.add(changedTrains.get(next++));
+                }
+                updatedTrains.add(train);
+            }
+            updatedTrains.addAll(changedTrains.subList(next, changedTrains.size()));
+
+            final Map<Long, List<Train>> updatedByTrainNumber = new HashMap<>(byTrainNumber);
+            final Map<TrainId, Set<String>> updatedStationsByTrain = new HashMap<>(stationsByTrain);
+            final Set<String> affectedStations = new HashSet<>();
+            for (final TrainId trainId : changedIds) {
+                updatedByTrainNumber.remove(trainId.trainNumber);
+                final Set<String> stations = updatedStationsByTrain.remove(trainId);
+                if (stations != null) {
+                    affectedStations.addAll(stations);
+                }
+            }
+            for (final TrainId trainId : changedIds) {
+                if (!updatedByTrainNumber.containsKey(trainId.trainNumber)) {
+                    final List<Train> sameNumber = new ArrayList<>(1);
+                    for (final Train train : byTrainNumber.getOrDefault(trainId.trainNumber, Collections.emptyList())) {
+                        if (!changedIds.contains(train.id)) {
+                            sameNumber.add(train);
+                        }
+                    }
+                    for (final Train train : changedTrains) {
+                        if (train.id.trainNumber.equals(trainId.trainNumber)) {
+                            sameNumber.add(train);
+                        }
+                    }
+                    sameNumber.sort(Train::compareTo);
+                    if (!sameNumber.isEmpty()) {
+                        updatedByTrainNumber.put(trainId.trainNumber, sameNumber);
+                    }
+                }
+            }
+
+            final Map<String, List<StationRow>> addedRows = new HashMap<>();
+            for (final Train train : changedTrains) {
+                final Set<String> stations = new HashSet<>();
+                for (final TimeTableRow row : train.timeTableRows) {
+                    stations.add(row.station.stationShortCode);
+                    addedRows.computeIfAbsent(row.station.stationShortCode, station -> new ArrayList<>()).add(new StationRow(train, row));
+                }
+                updatedStationsByTrain.put(train.id, stations);
+                affectedStations.addAll(stations);
+            }
+
+            final Map<String, StationRows> updatedByStation = new HashMap<>(byStation);
+            for (final String station : affectedStations) {
+                final StationRows rows = byStation.getOrDefault(station, StationRows.EMPTY_ROWS).update(changedIds,
+                        addedRows.getOrDefault(station, new ArrayList<>()));
+                if (rows != null) {
+                    updatedByStation.put(station, rows);
+                } else {
+                    updatedByStation.remove(station);
+                }
+            }
+
+            return new Snapshot(updatedTrains, updatedByTrainNumber, updatedByStation, updatedStationsByTrain);
+        }
+
+        private void addRows(final Train train, final Map<String, List<StationRow>> rowsByStation) {
+            final Set<String> stations = new HashSet<>();
+            for (final TimeTableRow row : train.timeTableRows) {
+                stations.add(row.station.stationShortCode);
+                rowsByStation.computeIfAbsent(row.station.stationShortCode, station -> new ArrayList<>()).add(new StationRow(train, row));
+            }
+            stationsByTrain.put(train.id, stations);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import fi.livi.rata.avoindata.common.dao.composition.CompositionRepository;
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.dao.trainrunningmessage.TrainRunningMessageRepository;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.server.config.CacheConfig;
+import fi.livi.rata.avoindata.server.config.WebConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Complete responses of history and metadata endpoints, stored gzipped or uncompressed depending on what the client accepts.
+ * <p>
+ * History of a departure date is cached once the date is more than HISTORY_AGE_DAYS old. Such an entry stays valid as long as the max
+ * version of the date does not change, which is checked at most every version-check-seconds. Metadata has no versions, so metadata
+ * entries expire after the metadata max-age.
+ */
+@Service
+public class PrecompressedResponseCache {
+    public static final String CACHE_NAME = "response.precompressed";
+    private static final int HISTORY_AGE_DAYS = 2;
+    private static final String DATE = "(\\d{4}-\\d{2}-\\d{2})";
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private CompositionRepository compositionRepository;
+
+    @Autowired
+    private TrainRunningMessageRepository trainRunningMessageRepository;
+
+    @Autowired
+    private DateProvider dp;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${avoindataserver.precompressed-cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${avoindataserver.precompressed-cache.version-check-seconds:60}")
+    private int versionCheckSeconds;
+
+    private final List<CacheableResource> resources = Arrays.asList(
+            new CacheableResource(WebConfig.CONTEXT_PATH + "trains/" + DATE, date -> trainRepository.getMaxVersion(date)),
+            new CacheableResource(WebConfig.CONTEXT_PATH + "compositions/" + DATE, date -> compositionRepository.getMaxVersion(date)),
+            // Messages without a departure date are searched from the next day too
+            new CacheableResource(WebConfig.CONTEXT_PATH + "train-tracking/station/[^/]+/" + DATE + "(?:/[^/]+)?",
+                    date -> trainRunningMessageRepository.getMaxVersion(date, date.plusDays(1))),
+            new CacheableResource(WebConfig.CONTEXT_PATH + "metadata/[^/]+", null));
+
+    private Cache<String, CachedResponse> cache;
+
+    @PostConstruct
+    private void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse response) -> response.body.length)
+                .recordStats()
+                .build();
+
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * @return null if the response to the request is not cacheable
+     */
+    public CacheKey getKey(final HttpServletRequest request, final boolean gzip) {
+        final String path = request.getRequestURI();
+        for (final CacheableResource resource : resources) {
+            final Matcher matcher = resource.pattern.matcher(path);
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            LocalDate date = null;
+            if (resource.versionQuery != null) {
+                try {
+                    date = LocalDate.parse(matcher.group(1));
+                } catch (final DateTimeParseException e) {
+                    return null;
+                }
+                if (!date.isBefore(dp.dateInHelsinki().minusDays(HISTORY_AGE_DAYS))) {
+                    return null;
+                }
+            }
+
+            final String query = request.getQueryString();
+            final String key = (query != null ? path + "?" + query : path) + (gzip ? "|gzip" : "|identity");
+            return new CacheKey(key, resource, date, gzip);
+        }
+        return null;
+    }
+
+    /**
+     * Read before producing the response, so that changes made while producing it invalidate the entry
+     *
+     * @return null for resources without versions
+     */
+    public Long getVersion(final CacheKey key) {
+        return key.resource.versionQuery != null ? key.resource.versionQuery.apply(key.date) : null;
+    }
+
+    /**
+     * @return null if not cached or if the cached response is no longer valid
+     */
+    public CachedResponse get(final CacheKey key) {
+        final CachedResponse response = cache.getIfPresent(key.key);
+        if (response == null) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (key.resource.versionQuery == null) {
+            if (now - response.created > CacheConfig.METADATA_CACHECONTROL.WITHOUT_CHANGENUMBER_RESULT * 1000L) {
+                cache.invalidate(key.key);
+                return null;
+            }
+        } else if (now - response.checked >= versionCheckSeconds * 1000L) {
+            if (!response.version.equals(getVersion(key))) {
+                cache.invalidate(key.key);
+                return null;
+            }
+            response.checked = now;
+        }
+        return response;
+    }
+
+    /**
+     * @param body Response body, gzipped if the key is for gzip
+     */
+    public CachedResponse put(final CacheKey key, final Long version, final byte[] body, final String contentType,
+                              final String cacheControl) {
+        final CachedResponse response = new CachedResponse(body, key.gzip, contentType, cacheControl, version);
+        cache.put(key.key, response);
+        return response;
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public static final class CacheKey {
+        private final String key;
+        private final CacheableResource resource;
+        private final LocalDate date;
+        private final boolean gzip;
+
+        private CacheKey(final String key, final CacheableResource resource, final LocalDate date, final boolean gzip) {
+            this.key = key;
+            this.resource = resource;
+            this.date = date;
+            this.gzip = gzip;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+    }
+
+    public static final class CachedResponse {
+        public final byte[] body;
+        public final boolean gzip;
+        public final String contentType;
+        public final String cacheControl;
+
+        private final Long version;
+        private final long created;
+        private volatile long checked;
+
+        private CachedResponse(final byte[] body, final boolean gzip, final String contentType, final String cacheControl,
+                               final Long version) {
+            this.body = body;
+            this.gzip = gzip;
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.version = version;
+            this.created = System.currentTimeMillis();
+            this.checked = created;
+        }
+    }
+
+    private static final class CacheableResource {
+        private final Pattern pattern;
+        // Max version of a departure date, null if the resource has no versions
+        private final Function<LocalDate, Long> versionQuery;
+
+        private CacheableResource(final String pattern, final Function<LocalDate, Long> versionQuery) {
+            this.pattern = Pattern.compile(pattern);
+            this.versionQuery = versionQuery;
+        }
+    }
+}
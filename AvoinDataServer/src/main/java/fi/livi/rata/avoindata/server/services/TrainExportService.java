@@ -0,0 +1,144 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.common.dao.train.TrainStreamRepository;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+
+/**
+ * Streams all trains of a departure date. Train numbers are fetched first, then the trains are loaded in train number ranges of
+ * batch-size trains on export threads. Each request has at most threads batches loading ahead of the batch being written, so the number
+ * of trains in memory does not depend on the size of the day.
+ */
+@Service
+public class TrainExportService {
+    @Autowired
+    private TrainStreamRepository trainStreamRepository;
+
+    @Value("${avoindataserver.train-export.batch-size:250}")
+    private int batchSize;
+
+    @Value("${avoindataserver.train-export.threads:4}")
+    private int threads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void setup() {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("train-export-%d").build());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return Trains in train number order. The stream must be closed, which cancels batches that are still loading.
+     */
+    public Stream<Train> getTrainsByDepartureDate(final LocalDate departureDate) {
+        final List<Long> trainNumbers = trainStreamRepository.getTrainNumbers(departureDate);
+        final BatchIterator iterator = new BatchIterator(departureDate, Lists.partition(trainNumbers, batchSize).iterator());
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::cancel);
+    }
+
+    private final class BatchIterator implements Iterator<Train> {
+        private final LocalDate departureDate;
+        private final Iterator<List<Long>> batches;
+        private final Deque<Future<List<Train>>> loading = new ArrayDeque<>();
+        private Iterator<Train> current = Collections.emptyIterator();
+        // Read by the export threads, which skip batches that have not started loading yet
+        private volatile boolean cancelled;
+
+        private BatchIterator(final LocalDate departureDate, final Iterator<List<Long>> batches) {
+            this.departureDate = departureDate;
+            this.batches = batches;
+
+            submitBatches();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cancelled) {
+                return false;
+            }
+            while (!current.hasNext()) {
+                if (loading.isEmpty()) {
+                    return false;
+                }
+
+                current = getBatch(loading.poll()).iterator();
+                submitBatches();
+            }
+            return true;
+        }
+
+        @Override
+        public Train next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Batches that are already loading are not interrupted, so their queries and sessions end normally
+         */
+        private void cancel() {
+            cancelled = true;
+            for (final Future<List<Train>> batch : loading) {
+                batch.cancel(false);
+            }
+            loading.clear();
+        }
+
+        private void submitBatches() {
+            while (!cancelled && loading.size() < threads && batches.hasNext()) {
+                final List<Long> trainNumbers = batches.next();
+                final long first = trainNumbers.get(0);
+                final long last = trainNumbers.get(trainNumbers.size() - 1);
+
+                loading.add(executor.submit(() -> cancelled ? Collections.<Train>emptyList() :
+                        trainStreamRepository.getTrainsByTrainNumberRange(departureDate, first, last)));
+            }
+        }
+
+        private List<Train> getBatch(final Future<List<Train>> batch) {
+            try {
+                return batch.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new IllegalStateException("Interrupted while loading trains of " + departureDate, e);
+            } catch (final ExecutionException e) {
+                cancel();
+                throw new IllegalStateException("Failed to load trains of " + departureDate, e.getCause());
+            }
+        }
+    }
+}
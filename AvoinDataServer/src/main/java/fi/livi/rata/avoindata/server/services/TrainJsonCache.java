@@ -0,0 +1,138 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Serialized JSON of single trains. Every change to a train increases its version, so the JSON of a train is cached by train id, version
+ * and json view. Least recently used trains are evicted when the cache grows over max-bytes.
+ * <p>
+ * Trains are expected to be localized already. Hibernate duplicate time table rows are left out of the JSON without modifying the train.
+ */
+@Service
+public class TrainJsonCache {
+    public static final String CACHE_NAME = "train.json";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${avoindataserver.train-json-cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    private Cache<Key, byte[]> cache;
+
+    @PostConstruct
+    private void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, byte[] json) -> json.length)
+                .recordStats()
+                .build();
+
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * @param view Json view or null
+     * @return UTF-8 encoded JSON of the train, must not be modified
+     */
+    public byte[] getJson(final Train train, final Class<?> view) throws IOException {
+        if (train.version == null) {
+            return serialize(train, view);
+        }
+
+        final Key key = new Key(train.id, train.version, view);
+        byte[] json = cache.getIfPresent(key);
+        if (json == null) {
+            json = serialize(train, view);
+            cache.put(key, json);
+        }
+        return json;
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private byte[] serialize(final Train train, final Class<?> view) throws IOException {
+        final ObjectWriter writer = view != null ? objectMapper.writerWithView(view) : objectMapper.writer();
+        return writer.writeValueAsBytes(withoutDuplicateRows(train));
+    }
+
+    /**
+     * The train may be a managed entity shared with the caller, so duplicates are removed from a shallow copy instead of the train itself
+     */
+    private static Train withoutDuplicateRows(final Train train) {
+        final Set<TimeTableRow> rows = Sets.newLinkedHashSet(train.timeTableRows);
+        if (rows.size() == train.timeTableRows.size()) {
+            return train;
+        }
+
+        final Train copy = new Train(train.id.trainNumber, train.id.departureDate, 0, null, train.trainCategoryId, train.trainTypeId,
+                train.commuterLineID, train.runningCurrently, train.cancelled, train.version, train.timetableType,
+                train.timetableAcceptanceDate);
+        copy.id = train.id;
+        copy.operator = train.operator;
+        copy.trainType = train.trainType;
+        copy.trainCategory = train.trainCategory;
+        copy.deleted = train.deleted;
+        copy.timeTableRows = Lists.newArrayList(rows);
+        return copy;
+    }
+
+    private static final class Key {
+        private final TrainId trainId;
+        private final long version;
+        private final Class<?> view;
+
+        private Key(final TrainId trainId, final long version, final Class<?> view) {
+            this.trainId = trainId;
+            this.version = version;
+            this.view = view;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+            return version == key.version && trainId.equals(key.trainId) && view == key.view;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trainId, version, view);
+        }
+    }
+}
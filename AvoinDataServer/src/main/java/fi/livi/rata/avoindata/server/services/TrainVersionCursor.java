@@ -0,0 +1,59 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.math.BigInteger;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.livi.rata.avoindata.common.dao.train.AllTrainsRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+
+/**
+ * Position in the trains ordered by (version, departure date, train number). Changed trains are read in pages after the position, so a
+ * full page never skips the remaining trains of its last version. Not thread safe.
+ */
+public final class TrainVersionCursor {
+    private static final LocalDate LAST_DATE = LocalDate.of(9999, 12, 31);
+
+    private long version;
+    private LocalDate departureDate;
+    private long trainNumber;
+
+    private TrainVersionCursor(final long version, final LocalDate departureDate, final long trainNumber) {
+        this.version = version;
+        this.departureDate = departureDate;
+        this.trainNumber = trainNumber;
+    }
+
+    /**
+     * @return Cursor after every train of the version
+     */
+    public static TrainVersionCursor after(final long version) {
+        return new TrainVersionCursor(version, LAST_DATE, Long.MAX_VALUE);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads the next page and moves after it
+     *
+     * @return Ids in version order. A page shorter than pageSize means that the cursor is up to date.
+     */
+    public List<TrainId> next(final AllTrainsRepository allTrainsRepository, final int pageSize) {
+        final List<Object[]> rawIds = allTrainsRepository.findByVersionAndIdGreaterThanRawSql(version, departureDate, trainNumber, pageSize);
+
+        final List<TrainId> trainIds = new ArrayList<>(rawIds.size());
+        for (final Object[] rawId : rawIds) {
+            final TrainId trainId = new TrainId(((BigInteger) rawId[0]).longValue(), ((Date) rawId[1]).toLocalDate());
+            trainIds.add(trainId);
+
+            version = ((Number) rawId[2]).longValue();
+            departureDate = trainId.departureDate;
+            trainNumber = trainId.trainNumber;
+        }
+        return trainIds;
+    }
+}
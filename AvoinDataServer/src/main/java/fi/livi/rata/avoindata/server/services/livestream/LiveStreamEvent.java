@@ -0,0 +1,33 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.util.Set;
+
+/**
+ * One update serialized once and shared by all subscribers it is sent to
+ */
+final class LiveStreamEvent {
+    static final LiveStreamEvent HEARTBEAT = new LiveStreamEvent(null, null, null, Double.NaN, Double.NaN, null);
+
+    final LiveStreamEventType type;
+    final String trainNumber;
+    // Stations of the event, null if the event has no station
+    final Set<String> stations;
+    // wgs84 location of the event, NaN if the event has no location
+    final double x;
+    final double y;
+    final String json;
+
+    LiveStreamEvent(final LiveStreamEventType type, final String trainNumber, final Set<String> stations, final double x, final double y,
+            final String json) {
+        this.type = type;
+        this.trainNumber = trainNumber;
+        this.stations = stations;
+        this.x = x;
+        this.y = y;
+        this.json = json;
+    }
+
+    boolean hasLocation() {
+        return !Double.isNaN(x) && !Double.isNaN(y);
+    }
+}
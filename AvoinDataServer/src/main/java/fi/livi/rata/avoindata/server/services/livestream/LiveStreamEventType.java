@@ -0,0 +1,26 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+public enum LiveStreamEventType {
+    TRAIN_LOCATION("train-location"),
+    TRAIN("train"),
+    TRAIN_RUNNING_MESSAGE("train-running-message");
+
+    private final String eventName;
+
+    LiveStreamEventType(final String eventName) {
+        this.eventName = eventName;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public static LiveStreamEventType fromEventName(final String eventName) {
+        for (final LiveStreamEventType type : values()) {
+            if (type.eventName.equals(eventName)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown event type " + eventName);
+    }
+}
@@ -0,0 +1,356 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.common.dao.train.AllTrainsRepository;
+import fi.livi.rata.avoindata.common.dao.trainrunningmessage.TrainRunningMessageRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.jsonview.TrainJsonView;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.domain.trainreadymessage.TrainRunningMessage;
+import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
+import fi.livi.rata.avoindata.server.services.LatestTrainLocationService;
+import fi.livi.rata.avoindata.server.services.TrainVersionCursor;
+
+/**
+ * Pushes train locations, trains and train running messages to server-sent event subscribers.
+ * <p>
+ * Each server node tails the data once: train locations come from LatestTrainLocationService and trains and train running messages are
+ * polled by version while there are subscribers. Every update is serialized once and queued to the bounded queue of each matching
+ * subscriber. Subscribers are indexed by train number. Queues are sent by a small thread pool, so publishing never waits on a client.
+ * Subscribers whose queue overflows or whose write takes longer than send-timeout-millis are dropped and completed, so that a slow client
+ * cannot hold memory or keep a sender thread from other subscribers for long. A write that is already blocked ends at the latest when the
+ * servlet container's write timeout expires. Clients are expected to reconnect.
+ */
+@Service
+public class LiveStreamService {
+    private static final int MAX_POLLED_TRAINS = 2500;
+    private static final int MAX_POLLED_RUNNING_MESSAGES = 5000;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 30_000;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private LatestTrainLocationService latestTrainLocationService;
+
+    @Autowired
+    private AllTrainsRepository allTrainsRepository;
+
+    @Autowired
+    private TrainRunningMessageRepository trainRunningMessageRepository;
+
+    @Autowired
+    private BatchExecutionService bes;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${avoindataserver.live-stream.max-subscribers:5000}")
+    private int maxSubscribers;
+
+    @Value("${avoindataserver.live-stream.max-queued-events:2000}")
+    private int maxQueuedEvents;
+
+    @Value("${avoindataserver.live-stream.sender-threads:4}")
+    private int senderThreads;
+
+    @Value("${avoindataserver.live-stream.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${avoindataserver.live-stream.send-timeout-millis:5000}")
+    private long sendTimeoutMillis;
+
+    // Subscribers with a train number filter are indexed by it, others receive every event they match
+    private final Map<String, Set<LiveStreamSubscription>> subscriptionsByTrainNumber = new ConcurrentHashMap<>();
+    private final Set<LiveStreamSubscription> unfilteredSubscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+
+    private ExecutorService senders;
+    private ObjectWriter trainWriter;
+
+    // Accessed only from the polling thread, null when not polling
+    private TrainVersionCursor trainCursor;
+    private TrainRunningMessageCursor trainRunningMessageCursor;
+    private long lastHeartbeat;
+
+    @PostConstruct
+    private void setup() {
+        senders = Executors.newFixedThreadPool(senderThreads, new ThreadFactoryBuilder().setNameFormat("live-stream-sender-%d").build());
+        trainWriter = objectMapper.writerWithView(TrainJsonView.LiveTrains.class);
+        latestTrainLocationService.addListener(this::publishTrainLocations);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        senders.shutdownNow();
+    }
+
+    /**
+     * @param trainNumber Only events of this train, or null
+     * @param station     Only trains and train running messages of this station, or null
+     * @param bbox        Only train locations inside x1,y1,x2,y2, or null
+     * @return null if the node already has maxSubscribers subscribers
+     */
+    public SseEmitter subscribe(final Set<LiveStreamEventType> types, final Long trainNumber, final String station, final double[] bbox) {
+        if (subscriptionCount.incrementAndGet() > maxSubscribers) {
+            subscriptionCount.decrementAndGet();
+            return null;
+        }
+
+        final SseEmitter emitter = new SseEmitter(timeoutMinutes * 60_000);
+        final LiveStreamSubscription subscription = new LiveStreamSubscription(emitter, types,
+                trainNumber != null ? trainNumber.toString() : null, station, bbox, maxQueuedEvents);
+
+        emitter.onCompletion(() -> unsubscribe(subscription));
+        emitter.onTimeout(() -> unsubscribe(subscription));
+        emitter.onError(e -> unsubscribe(subscription));
+
+        if (subscription.trainNumber != null) {
+            subscriptionsByTrainNumber.compute(subscription.trainNumber, (key, subscriptions) -> {
+                final Set<LiveStreamSubscription> result = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+                result.add(subscription);
+                return result;
+            });
+        } else {
+            unfilteredSubscriptions.add(subscription);
+        }
+
+        log.debug("Subscribed to live stream, subscribers: {}", subscriptionCount.get());
+        return emitter;
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptionCount.get();
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    @Transactional(readOnly = true)
+    public void poll() {
+        if (subscriptionCount.get() == 0) {
+            trainCursor = null;
+            trainRunningMessageCursor = null;
+            return;
+        }
+
+        dropSlowSubscribers();
+
+        try {
+            pollTrains();
+            pollTrainRunningMessages();
+        } catch (final Exception e) {
+            log.error("Could not poll live stream updates", e);
+        }
+
+        if (System.currentTimeMillis() - lastHeartbeat >= HEARTBEAT_INTERVAL_MILLIS) {
+            lastHeartbeat = System.currentTimeMillis();
+            publish(LiveStreamEvent.HEARTBEAT, true);
+        }
+    }
+
+    private void pollTrains() throws JsonProcessingException {
+        if (trainCursor == null) {
+            trainCursor = TrainVersionCursor.after(allTrainsRepository.getMaxVersion());
+            return;
+        }
+
+        List<TrainId> trainIds;
+        do {
+            trainIds = trainCursor.next(allTrainsRepository, MAX_POLLED_TRAINS);
+            if (!trainIds.isEmpty()) {
+                publishTrains(trainIds);
+            }
+        } while (trainIds.size() == MAX_POLLED_TRAINS);
+    }
+
+    private void publishTrains(final List<TrainId> trainIds) throws JsonProcessingException {
+        final List<Train> trains = new ArrayList<>();
+        bes.consume(trainIds, ids -> trains.addAll(allTrainsRepository.findTrains(ids)));
+
+        for (final Train train : trains) {
+            final Set<String> stations = new HashSet<>();
+            for (final TimeTableRow timeTableRow : train.timeTableRows) {
+                stations.add(timeTableRow.station.stationShortCode);
+            }
+            publish(new LiveStreamEvent(LiveStreamEventType.TRAIN, train.id.trainNumber.toString(), stations, Double.NaN, Double.NaN,
+                    trainWriter.writeValueAsString(train)), false);
+        }
+    }
+
+    private void pollTrainRunningMessages() throws JsonProcessingException {
+        if (trainRunningMessageCursor == null) {
+            trainRunningMessageCursor = TrainRunningMessageCursor.after(trainRunningMessageRepository.getMaxVersion());
+            return;
+        }
+
+        List<TrainRunningMessage> messages;
+        do {
+            messages = trainRunningMessageCursor.next(trainRunningMessageRepository, MAX_POLLED_RUNNING_MESSAGES);
+            publishTrainRunningMessages(messages);
+        } while (messages.size() == MAX_POLLED_RUNNING_MESSAGES);
+    }
+
+    private void publishTrainRunningMessages(final List<TrainRunningMessage> messages) throws JsonProcessingException {
+        for (final TrainRunningMessage message : messages) {
+            final Set<String> stations = new HashSet<>(3);
+            addIfNotNull(stations, message.station);
+            addIfNotNull(stations, message.nextStation);
+            addIfNotNull(stations, message.previousStation);
+            publish(new LiveStreamEvent(LiveStreamEventType.TRAIN_RUNNING_MESSAGE, message.trainId.trainNumber, stations, Double.NaN,
+                    Double.NaN, objectMapper.writeValueAsString(message)), false);
+        }
+    }
+
+    private void publishTrainLocations(final List<TrainLocation> trainLocations) {
+        if (subscriptionCount.get() == 0) {
+            return;
+        }
+
+        for (final TrainLocation trainLocation : trainLocations) {
+            try {
+                final double x = trainLocation.location != null ? trainLocation.location.getX() : Double.NaN;
+                final double y = trainLocation.location != null ? trainLocation.location.getY() : Double.NaN;
+                publish(new LiveStreamEvent(LiveStreamEventType.TRAIN_LOCATION, trainLocation.trainLocationId.trainNumber.toString(), null, x,
+                        y, objectMapper.writeValueAsString(trainLocation)), false);
+            } catch (final JsonProcessingException e) {
+                log.error("Could not serialize {}", trainLocation, e);
+            }
+        }
+    }
+
+    private void publish(final LiveStreamEvent event, final boolean toAll) {
+        offer(unfilteredSubscriptions, event);
+        if (toAll) {
+            for (final Set<LiveStreamSubscription> subscriptions : subscriptionsByTrainNumber.values()) {
+                offer(subscriptions, event);
+            }
+        } else if (event.trainNumber != null) {
+            final Set<LiveStreamSubscription> subscriptions = subscriptionsByTrainNumber.get(event.trainNumber);
+            if (subscriptions != null) {
+                offer(subscriptions, event);
+            }
+        }
+    }
+
+    private void offer(final Collection<LiveStreamSubscription> subscriptions, final LiveStreamEvent event) {
+        for (final LiveStreamSubscription subscription : subscriptions) {
+            if (!subscription.matches(event)) {
+                continue;
+            }
+
+            switch (subscription.offer(event)) {
+                case SEND_STARTED:
+                    senders.execute(() -> send(subscription));
+                    break;
+                case OVERFLOW:
+                    // The sender that is writing to the subscriber completes it
+                    log.info("Live stream subscriber is too slow, disconnecting");
+                    unsubscribe(subscription);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void dropSlowSubscribers() {
+        final long now = System.nanoTime();
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+
+        final List<LiveStreamSubscription> slow = new ArrayList<>();
+        for (final LiveStreamSubscription subscription : unfilteredSubscriptions) {
+            if (subscription.dropIfWriteSlowerThan(timeoutNanos, now)) {
+                slow.add(subscription);
+            }
+        }
+        for (final Set<LiveStreamSubscription> subscriptions : subscriptionsByTrainNumber.values()) {
+            for (final LiveStreamSubscription subscription : subscriptions) {
+                if (subscription.dropIfWriteSlowerThan(timeoutNanos, now)) {
+                    slow.add(subscription);
+                }
+            }
+        }
+
+        for (final LiveStreamSubscription subscription : slow) {
+            // The sender completes it once the blocked write returns
+            log.info("Live stream subscriber write took over {} ms, disconnecting", sendTimeoutMillis);
+            unsubscribe(subscription);
+        }
+    }
+
+    private void send(final LiveStreamSubscription subscription) {
+        LiveStreamEvent event;
+        while ((event = subscription.poll()) != null) {
+            try {
+                if (event == LiveStreamEvent.HEARTBEAT) {
+                    subscription.emitter.send(SseEmitter.event().comment("heartbeat"));
+                } else {
+                    subscription.emitter.send(SseEmitter.event().name(event.type.getEventName()).data(event.json));
+                }
+            } catch (final IOException | IllegalStateException e) {
+                log.debug("Could not send to live stream subscriber", e);
+                unsubscribe(subscription);
+                subscription.emitter.completeWithError(e);
+                return;
+            }
+        }
+
+        if (subscription.isDropped()) {
+            subscription.emitter.complete();
+        }
+    }
+
+    private void unsubscribe(final LiveStreamSubscription subscription) {
+        subscription.close();
+
+        final boolean removed;
+        if (subscription.trainNumber != null) {
+            final boolean[] removedFromTrain = {false};
+            subscriptionsByTrainNumber.computeIfPresent(subscription.trainNumber, (key, subscriptions) -> {
+                removedFromTrain[0] = subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+            removed = removedFromTrain[0];
+        } else {
+            removed = unfilteredSubscriptions.remove(subscription);
+        }
+
+        if (removed) {
+            subscriptionCount.decrementAndGet();
+        }
+    }
+
+    private static void addIfNotNull(final Set<String> stations, final String station) {
+        if (station != null) {
+            stations.add(station);
+        }
+    }
+}
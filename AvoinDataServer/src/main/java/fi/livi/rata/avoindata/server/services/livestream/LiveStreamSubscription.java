@@ -0,0 +1,125 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Filters and queued events of one subscriber. Station filters trains and train running messages, bbox filters train locations.
+ * <p>
+ * A subscriber is dropped when its queue overflows or a write to it takes too long. The sender completes the emitter of a dropped
+ * subscriber once its current write returns, so the thread that drops it never waits on the client.
+ */
+final class LiveStreamSubscription {
+    final SseEmitter emitter;
+    final Set<LiveStreamEventType> types;
+    final String trainNumber;
+    final String station;
+    // x1,y1,x2,y2 or null
+    final double[] bbox;
+
+    private final int maxQueuedEvents;
+    // Guarded by this
+    private final ArrayDeque<LiveStreamEvent> queue = new ArrayDeque<>();
+    private boolean sending;
+    private boolean closed;
+    private boolean dropped;
+    // System.nanoTime() when the event being written was polled, 0 when not writing
+    private long writeStarted;
+
+    LiveStreamSubscription(final SseEmitter emitter, final Set<LiveStreamEventType> types, final String trainNumber, final String station,
+            final double[] bbox, final int maxQueuedEvents) {
+        this.emitter = emitter;
+        this.types = types;
+        this.trainNumber = trainNumber;
+        this.station = station;
+        this.bbox = bbox;
+        this.maxQueuedEvents = maxQueuedEvents;
+    }
+
+    boolean matches(final LiveStreamEvent event) {
+        if (event == LiveStreamEvent.HEARTBEAT) {
+            return true;
+        }
+        if (!types.contains(event.type)) {
+            return false;
+        }
+        if (trainNumber != null && !trainNumber.equals(event.trainNumber)) {
+            return false;
+        }
+        if (station != null && event.stations != null && !event.stations.contains(station)) {
+            return false;
+        }
+        if (bbox != null && event.hasLocation()) {
+            return event.x >= bbox[0] && event.y >= bbox[1] && event.x <= bbox[2] && event.y <= bbox[3];
+        }
+        return true;
+    }
+
+    enum OfferResult {
+        QUEUED, SEND_STARTED, OVERFLOW
+    }
+
+    /**
+     * @return SEND_STARTED if the caller must start sending the queue
+     */
+    synchronized OfferResult offer(final LiveStreamEvent event) {
+        if (closed) {
+            return OfferResult.QUEUED;
+        }
+        if (queue.size() >= maxQueuedEvents) {
+            drop();
+            return OfferResult.OVERFLOW;
+        }
+
+        queue.add(event);
+        if (sending) {
+            return OfferResult.QUEUED;
+        }
+        sending = true;
+        return OfferResult.SEND_STARTED;
+    }
+
+    /**
+     * @return Next event to send or null if the queue is empty, in which case sending stops until the next offer
+     */
+    synchronized LiveStreamEvent poll() {
+        final LiveStreamEvent event = closed ? null : queue.poll();
+        if (event == null) {
+            sending = false;
+            writeStarted = 0;
+        } else {
+            writeStarted = System.nanoTime();
+        }
+        return event;
+    }
+
+    /**
+     * @return true if the subscriber was dropped because the current write has taken longer than timeoutNanos
+     */
+    synchronized boolean dropIfWriteSlowerThan(final long timeoutNanos, final long now) {
+        if (closed || writeStarted == 0 || now - writeStarted <= timeoutNanos) {
+            return false;
+        }
+        drop();
+        return true;
+    }
+
+    /**
+     * @return true if the sender must complete the emitter after its last write
+     */
+    synchronized boolean isDropped() {
+        return dropped;
+    }
+
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    private void drop() {
+        close();
+        dropped = true;
+    }
+}
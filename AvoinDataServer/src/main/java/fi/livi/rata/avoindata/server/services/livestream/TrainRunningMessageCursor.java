@@ -0,0 +1,50 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.util.List;
+
+import org.springframework.data.domain.PageRequest;
+
+import fi.livi.rata.avoindata.common.dao.trainrunningmessage.TrainRunningMessageRepository;
+import fi.livi.rata.avoindata.common.domain.trainreadymessage.TrainRunningMessage;
+
+/**
+ * Position in the train running messages ordered by (version, id). Like TrainVersionCursor, a full page never skips the remaining
+ * messages of its last version. Not thread safe.
+ */
+public final class TrainRunningMessageCursor {
+    private long version;
+    private long id;
+
+    private TrainRunningMessageCursor(final long version, final long id) {
+        this.version = version;
+        this.id = id;
+    }
+
+    /**
+     * @return Cursor after every message of the version
+     */
+    public static TrainRunningMessageCursor after(final long version) {
+        return new TrainRunningMessageCursor(version, Long.MAX_VALUE);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads the next page and moves after it
+     *
+     * @return Messages in version order. A page shorter than pageSize means that the cursor is up to date.
+     */
+    public List<TrainRunningMessage> next(final TrainRunningMessageRepository trainRunningMessageRepository, final int pageSize) {
+        final List<TrainRunningMessage> messages = trainRunningMessageRepository.findByVersionAndIdGreaterThan(version, id,
+                PageRequest.of(0, pageSize));
+
+        if (!messages.isEmpty()) {
+            final TrainRunningMessage last = messages.get(messages.size() - 1);
+            version = last.version;
+            id = last.id;
+        }
+        return messages;
+    }
+}
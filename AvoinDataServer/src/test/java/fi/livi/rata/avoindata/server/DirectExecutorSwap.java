@@ -0,0 +1,42 @@
+package fi.livi.rata.avoindata.server;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the tasks of a bean's executor on the test thread, where they see the data of the test transaction. Call replace in @Before and
+ * restore in @After, which puts the bean's own executor back and shuts down the direct one.
+ */
+public class DirectExecutorSwap {
+    private final Object target;
+    private final Field field;
+
+    private Object original;
+    private ExecutorService replacement;
+
+    public DirectExecutorSwap(final Object target, final Class<?> targetClass, final String fieldName) throws NoSuchFieldException {
+        this.target = target;
+        this.field = targetClass.getDeclaredField(fieldName);
+        this.field.setAccessible(true);
+    }
+
+    public void replace() throws IllegalAccessException {
+        original = field.get(target);
+        replacement = MoreExecutors.newDirectExecutorService();
+        FieldSetter.setField(target, field, replacement);
+    }
+
+    public void restore() {
+        if (replacement == null) {
+            return;
+        }
+
+        FieldSetter.setField(target, field, original);
+        replacement.shutdownNow();
+        replacement = null;
+        original = null;
+    }
+}
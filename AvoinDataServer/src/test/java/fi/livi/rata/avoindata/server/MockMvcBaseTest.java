@@ -1,8 +1,12 @@
 package fi.livi.rata.avoindata.server;
 
+import fi.livi.rata.avoindata.server.services.PrecompressedResponseCache;
+import fi.livi.rata.avoindata.server.services.TrainJsonCache;
+import org.junit.Before;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 
@@ -12,11 +16,26 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @AutoConfigureMockMvc
+// Tests change data between requests, so versions of cached responses are checked on every request
+@TestPropertySource(properties = "avoindataserver.precompressed-cache.version-check-seconds=0")
 public abstract class MockMvcBaseTest extends BaseTest {
 
     @Autowired
     protected MockMvc mockMvc;
 
+    @Autowired
+    private TrainJsonCache trainJsonCache;
+
+    @Autowired
+    private PrecompressedResponseCache precompressedResponseCache;
+
+    @Before
+    public void clearCaches() {
+        // Test data reuses the same ids and versions, so cached train JSON and responses would leak between tests
+        trainJsonCache.clear();
+        precompressedResponseCache.clear();
+    }
+
     protected ResultActions getJson(URI url) throws Exception {
         final ResultActions resultActions = this.mockMvc.perform(
                 get(url).accept(MediaType.parseMediaType("application/json;charset=UTF-8"))).andExpect(status().isOk())
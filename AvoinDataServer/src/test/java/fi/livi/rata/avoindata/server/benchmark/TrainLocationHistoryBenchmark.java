@@ -0,0 +1,89 @@
+package fi.livi.rata.avoindata.server.benchmark;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
+import fi.livi.rata.avoindata.server.config.JacksonConfig;
+import fi.livi.rata.avoindata.server.dto.CompactTrainLocationHistory;
+
+/**
+ * Compares serializing a day of train locations of one train as JSON objects against the compact delta encoded format. Response sizes are
+ * printed in setup. Run with main() from the test classpath, not part of the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainLocationHistoryBenchmark {
+    private static final int LOCATIONS = 5000;
+    private static final LocalDate DEPARTURE_DATE = LocalDate.of(2019, 1, 1);
+
+    private ObjectMapper objectMapper;
+    private List<TrainLocation> trainLocations;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        final Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder();
+        new JacksonConfig().jacksonCustomizer().customize(builder);
+        objectMapper = builder.build();
+
+        final GeometryFactory geometryFactory = new GeometryFactory();
+        final ZonedDateTime start = DEPARTURE_DATE.atTime(6, 0).atZone(ZoneId.of("Europe/Helsinki"));
+        trainLocations = new ArrayList<>(LOCATIONS);
+        double x = 24.941249;
+        double y = 60.172097;
+        for (int i = 0; i < LOCATIONS; i++) {
+            x += 0.000321;
+            y += 0.000517;
+
+            final TrainLocation trainLocation = new TrainLocation();
+            trainLocation.trainLocationId = new TrainLocationId(1L, DEPARTURE_DATE, start.plusSeconds(i));
+            trainLocation.location = geometryFactory.createPoint(new Coordinate(Math.round(x * 1e6) / 1e6, Math.round(y * 1e6) / 1e6));
+            trainLocation.speed = 80 + i % 40;
+            trainLocations.add(trainLocation);
+        }
+
+        System.out.println(String.format("JSON: %d bytes, compact: %d bytes", json().length, compact().length));
+    }
+
+    @Benchmark
+    public byte[] json() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(trainLocations);
+    }
+
+    @Benchmark
+    public byte[] compact() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(CompactTrainLocationHistory.of(1L, DEPARTURE_DATE, trainLocations));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TrainLocationHistoryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,50 @@
+package fi.livi.rata.avoindata.server.controller.api;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MvcResult;
+
+import fi.livi.rata.avoindata.server.MockMvcBaseTest;
+import fi.livi.rata.avoindata.server.services.livestream.LiveStreamService;
+
+public class LiveStreamControllerTest extends MockMvcBaseTest {
+    @Autowired
+    private LiveStreamService liveStreamService;
+
+    private MvcResult subscription;
+
+    @After
+    public void completeSubscription() {
+        if (subscription != null) {
+            // Completing the async request completes the emitter, which unsubscribes it
+            subscription.getRequest().getAsyncContext().complete();
+        }
+    }
+
+    @Test
+    public void subscribingShouldStartStream() throws Exception {
+        final int subscriptionsBefore = liveStreamService.getSubscriptionCount();
+
+        subscription = mockMvc.perform(get("/api/v1/live-stream?types=train-location&train_number=1&bbox=1,1,70,70")
+                .accept(MediaType.TEXT_EVENT_STREAM)).andExpect(request().asyncStarted()).andReturn();
+
+        Assert.assertEquals(subscriptionsBefore + 1, liveStreamService.getSubscriptionCount());
+    }
+
+    @Test
+    public void completingShouldUnsubscribe() throws Exception {
+        final int subscriptionsBefore = liveStreamService.getSubscriptionCount();
+
+        final MvcResult result = mockMvc.perform(get("/api/v1/live-stream?types=train").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted()).andReturn();
+        result.getRequest().getAsyncContext().complete();
+
+        Assert.assertEquals(subscriptionsBefore, liveStreamService.getSubscriptionCount());
+    }
+}
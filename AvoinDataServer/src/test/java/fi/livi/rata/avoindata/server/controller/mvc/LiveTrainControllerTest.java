@@ -19,9 +19,12 @@ import fi.livi.rata.avoindata.server.controller.api.LiveTrainController;
 import fi.livi.rata.avoindata.server.controller.utils.FindByIdService;
 import fi.livi.rata.avoindata.server.factory.TrainFactory;
 import fi.livi.rata.avoindata.server.factory.TrainReadyFactory;
+import fi.livi.rata.avoindata.server.services.LiveTrainService;
+import org.junit.After;
 import org.junit.Test;
 import org.mockito.internal.util.reflection.FieldSetter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -31,6 +34,8 @@ import java.util.concurrent.Executors;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
+// The materialized table is maintained by the updater, so the view is queried when the in-memory live trains are disabled
+@TestPropertySource(properties = "avoindataserver.live-trains.materialized=false")
 public class LiveTrainControllerTest extends MockMvcBaseTest {
     @Autowired
     private TrainFactory trainFactory;
@@ -62,10 +67,32 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
     @Autowired
     private FindByIdService findByIdService;
 
+    @Autowired
+    private LiveTrainService liveTrainService;
+
+    @After
+    public void resetLiveTrains() {
+        // The trains are rolled back, but the in-memory live trains would keep them
+        liveTrainService.reset();
+    }
+
+    /**
+     * Gives the trains a new version like the updater does on every change, so that the in-memory live trains poll them
+     */
+    private void bumpVersions(final Train... trains) {
+        final long version = trainRepository.getMaxVersion() + 1;
+        for (final Train train : trains) {
+            train.version = version;
+        }
+        trainRepository.flush();
+        liveTrainService.refresh();
+    }
+
     @Test
     @Transactional
     public void baseAttributesShouldBeCorrect() throws Exception {
-        trainFactory.createBaseTrain();
+        final Train train = trainFactory.createBaseTrain();
+        bumpVersions(train);
 
         final ResultActions r1 = getJson("/live-trains/51");
 
@@ -78,13 +105,13 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
         r1.andExpect(jsonPath("$[0].commuterLineID").value("Z"));
         r1.andExpect(jsonPath("$[0].runningCurrently").value("true"));
         r1.andExpect(jsonPath("$[0].cancelled").value("false"));
-        r1.andExpect(jsonPath("$[0].version").value("1"));
+        r1.andExpect(jsonPath("$[0].version").value(train.version));
     }
 
     @Test
     @Transactional
     public void allTimeTableRowsShouldBePresent() throws Exception {
-        trainFactory.createBaseTrain();
+        bumpVersions(trainFactory.createBaseTrain());
 
         final ResultActions r1 = getJson("/live-trains/51");
 
@@ -106,6 +133,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
 
         final TimeTableRow timeTableRow = train.timeTableRows.get(0);
         trainReadyFactory.create(timeTableRow);
+        bumpVersions(train);
 
         final ResultActions r1 = getJson("/live-trains/51");
 
@@ -121,9 +149,9 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
     @Test
     @Transactional
     public void correctDepartureDateShouldBeSelected() throws Exception {
-        trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now().minusDays(1)));
-        trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now()));
-        trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now().plusDays(1)));
+        bumpVersions(trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now().minusDays(1))),
+                trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now())),
+                trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now().plusDays(1))));
 
         final ResultActions r1 = getJson("/live-trains/51?departure_date=" + LocalDate.now().minusDays(1));
         r1.andExpect(jsonPath("$[0].departureDate").value(LocalDate.now().minusDays(1).toString()));
@@ -142,11 +170,12 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
     @Test
     @Transactional
     public void timetableTypeShouldWork() throws Exception {
-        trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now()));
+        final Train train1 = trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now()));
 
         Train train2 = trainFactory.createBaseTrain(new TrainId(52L, LocalDate.now()));
         train2.timetableType = Train.TimetableType.ADHOC;
         trainRepository.save(train2);
+        bumpVersions(train1, train2);
 
         final ResultActions r1 = getJson("/live-trains/51");
         r1.andExpect(jsonPath("$[0].timetableType").value("REGULAR"));
@@ -163,11 +192,12 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
         for (final TimeTableRow timeTableRow : train.timeTableRows) {
             timeTableRow.scheduledTime = dp.nowInHelsinki();
         }
+        bumpVersions(train);
 
-        final ResultActions r1 = getJson("/live-trains?version=0");
+        final ResultActions r1 = getJson("/live-trains?version=" + (train.version - 1));
         r1.andExpect(jsonPath("$.length()").value(1));
 
-        final ResultActions r2 = getJson("/live-trains?version=1");
+        final ResultActions r2 = getJson("/live-trains?version=" + train.version);
         r2.andExpect(jsonPath("$.length()").value(0));
 
         final ResultActions r3 = getJson("/live-trains");
@@ -175,6 +205,27 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
     }
 
 
+    @Test
+    @Transactional
+    public void trainDepartedTwoDaysAgoShouldNotShow() throws Exception {
+        final Train oldTrain = trainFactory.createBaseTrain(new TrainId(51L, LocalDate.now().minusDays(2)));
+        final Train train = trainFactory.createBaseTrain(new TrainId(52L, LocalDate.now()));
+
+        for (final Train t : new Train[]{oldTrain, train}) {
+            for (final TimeTableRow timeTableRow : t.timeTableRows) {
+                timeTableRow.scheduledTime = dp.nowInHelsinki();
+            }
+        }
+        bumpVersions(oldTrain, train);
+
+        final ResultActions r1 = getJson("/live-trains");
+        r1.andExpect(jsonPath("$.length()").value(1));
+        r1.andExpect(jsonPath("$[0].trainNumber").value(52));
+
+        final ResultActions r2 = getJson("/live-trains/51");
+        r2.andExpect(jsonPath("$.length()").value(0));
+    }
+
     private void clearActualTimes(Train... trains) {
         for (Train train : trains) {
             for (TimeTableRow timeTableRow : train.timeTableRows) {
@@ -221,6 +272,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
         timeTableRow.causes.add(cause);
 
         causeRepository.save(cause);
+        bumpVersions(train);
 
         final ResultActions r1 = getJson("/live-trains/51");
 
@@ -240,8 +292,8 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
     public void stationSearchShouldWork() throws Exception {
         FieldSetter.setField(findByIdService, FindByIdService.class.getDeclaredField("executor"), MoreExecutors.newDirectExecutorService());
 
-        trainFactory.createBaseTrain(new TrainId(1L, LocalDate.now()));
-        trainFactory.createBaseTrain(new TrainId(2L, LocalDate.now()));
+        bumpVersions(trainFactory.createBaseTrain(new TrainId(1L, LocalDate.now())),
+                trainFactory.createBaseTrain(new TrainId(2L, LocalDate.now())));
 
         final ResultActions r1 = getJson("/live-trains?station=PSL");
         r1.andExpect(jsonPath("$.length()").value(2));
@@ -283,6 +335,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
 
         train1.trainCategoryId = 1;
         train2.trainCategoryId = 2;
+        bumpVersions(train1, train2);
 
         final ResultActions r1 = getJson("/live-trains/station/PSL");
         r1.andExpect(jsonPath("$.length()").value(2));
@@ -313,6 +366,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
         for (final TimeTableRow timeTableRow : train.timeTableRows) {
             timeTableRow.scheduledTime = dp.nowInHelsinki();
         }
+        bumpVersions(train);
 
         getJson("/live-trains/51").andExpect(jsonPath("$.length(").value(1));
         getJson("/live-trains?station=PSL").andExpect(jsonPath("$.length(").value(1));
@@ -323,6 +377,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
         getJson("/live-trains/51?departure_date=" + LocalDate.now()).andExpect(jsonPath("$.length(").value(1));
 
         train.deleted = true;
+        bumpVersions(train);
 
         getJson("/live-trains/51").andExpect(jsonPath("$.length(").value(0));
         getJson("/live-trains?station=PSL").andExpect(jsonPath("$.length(").value(0));
@@ -358,6 +413,7 @@ public class LiveTrainControllerTest extends MockMvcBaseTest {
 
         train1.deleted = true;
         train2.deleted = true;
+        bumpVersions(train1, train2, train3, train4, train5);
 
         final ResultActions r1 = getJson("/live-trains/station/HKI?arrived_trains=0&arriving_trains=0&departed_trains=0&departing_trains=3&include_nonstopping=false");
         r1.andExpect(jsonPath("$.length()").value(3));
@@ -0,0 +1,8 @@
+package fi.livi.rata.avoindata.server.controller.mvc;
+
+import org.springframework.test.context.TestPropertySource;
+
+// Runs the live train tests against the live_time_table_train view instead of the in-memory live trains
+@TestPropertySource(properties = "avoindataserver.live-trains.in-memory=false")
+public class LiveTrainViewControllerTest extends LiveTrainControllerTest {
+}
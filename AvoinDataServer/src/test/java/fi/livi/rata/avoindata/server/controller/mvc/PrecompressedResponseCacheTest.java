@@ -0,0 +1,125 @@
+package fi.livi.rata.avoindata.server.controller.mvc;
+
+import com.google.common.io.ByteStreams;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.server.DirectExecutorSwap;
+import fi.livi.rata.avoindata.server.MockMvcBaseTest;
+import fi.livi.rata.avoindata.server.config.PrecompressedResponseFilter;
+import fi.livi.rata.avoindata.server.factory.TrainFactory;
+import fi.livi.rata.avoindata.server.services.PrecompressedResponseCache;
+import fi.livi.rata.avoindata.server.services.TrainExportService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.zip.GZIPInputStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class PrecompressedResponseCacheTest extends MockMvcBaseTest {
+    private static final LocalDate OLD_DATE = LocalDate.now().minusDays(10);
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private PrecompressedResponseCache precompressedResponseCache;
+
+    @Autowired
+    private PrecompressedResponseFilter precompressedResponseFilter;
+
+    @Autowired
+    private TrainExportService trainExportService;
+
+    private DirectExecutorSwap exportExecutor;
+
+    @Before
+    public void setup() throws ReflectiveOperationException {
+        // Trains are loaded on the export threads, which would not see the trains created in the test transaction
+        exportExecutor = new DirectExecutorSwap(trainExportService, TrainExportService.class, "executor");
+        exportExecutor.replace();
+    }
+
+    @After
+    public void teardown() {
+        exportExecutor.restore();
+    }
+
+    @Test
+    @Transactional
+    public void oldTrainsShouldBeCachedUntilVersionChanges() throws Exception {
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, OLD_DATE));
+
+        getJson("/trains/" + OLD_DATE).andExpect(jsonPath("$[0].commuterLineID").value("Z"));
+
+        train.commuterLineID = "A";
+        getJson("/trains/" + OLD_DATE).andExpect(jsonPath("$[0].commuterLineID").value("Z"));
+        Assert.assertEquals(0.5, precompressedResponseCache.getHitRate(), 0.0);
+
+        train.version = 2L;
+        getJson("/trains/" + OLD_DATE).andExpect(jsonPath("$[0].commuterLineID").value("A"));
+    }
+
+    @Test
+    @Transactional
+    public void recentTrainsShouldNotBeCached() throws Exception {
+        final LocalDate yesterday = LocalDate.now().minusDays(1);
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, yesterday));
+
+        getJson("/trains/" + yesterday).andExpect(jsonPath("$[0].commuterLineID").value("Z"));
+
+        train.commuterLineID = "A";
+        getJson("/trains/" + yesterday).andExpect(jsonPath("$[0].commuterLineID").value("A"));
+    }
+
+    @Test
+    public void gzippedResponseShouldMatchUncompressed() throws Exception {
+        final byte[] uncompressed = getJson("/metadata/operators").andReturn().getResponse().getContentAsByteArray();
+
+        // A miss is streamed to the client uncompressed
+        mockMvc.perform(get("/api/v1/metadata/operators").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(content().bytes(uncompressed));
+
+        final MockHttpServletResponse response = mockMvc.perform(get("/api/v1/metadata/operators").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse();
+
+        final byte[] decompressed = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray())));
+        Assert.assertArrayEquals(uncompressed, decompressed);
+        Assert.assertEquals(1.0 / 3, precompressedResponseCache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void responsesLargerThanMaxEntryBytesShouldNotBeCached() throws Exception {
+        final Field maxEntryBytes = PrecompressedResponseFilter.class.getDeclaredField("maxEntryBytes");
+        maxEntryBytes.setAccessible(true);
+        final Object original = maxEntryBytes.get(precompressedResponseFilter);
+        FieldSetter.setField(precompressedResponseFilter, maxEntryBytes, 10);
+        try {
+            final byte[] first = getJson("/metadata/operators").andReturn().getResponse().getContentAsByteArray();
+            final byte[] second = getJson("/metadata/operators").andReturn().getResponse().getContentAsByteArray();
+
+            Assert.assertTrue(first.length > 10);
+            Assert.assertArrayEquals(first, second);
+            Assert.assertEquals(0.0, precompressedResponseCache.getHitRate(), 0.0);
+        } finally {
+            FieldSetter.setField(precompressedResponseFilter, maxEntryBytes, original);
+        }
+    }
+}
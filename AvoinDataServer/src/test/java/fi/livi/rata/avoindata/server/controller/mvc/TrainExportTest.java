@@ -0,0 +1,113 @@
+package fi.livi.rata.avoindata.server.controller.mvc;
+
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.server.DirectExecutorSwap;
+import fi.livi.rata.avoindata.server.MockMvcBaseTest;
+import fi.livi.rata.avoindata.server.factory.TrainFactory;
+import fi.livi.rata.avoindata.server.factory.TrainReadyFactory;
+import fi.livi.rata.avoindata.server.services.TrainExportService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+
+@TestPropertySource(properties = {"avoindataserver.train-export.batch-size=2", "avoindataserver.train-export.threads=2"})
+public class TrainExportTest extends MockMvcBaseTest {
+    private static final LocalDate DEPARTURE_DATE = LocalDate.of(2017, 1, 1);
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private TrainReadyFactory trainReadyFactory;
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private TrainExportService trainExportService;
+
+    private DirectExecutorSwap exportExecutor;
+
+    @Before
+    public void setup() throws ReflectiveOperationException {
+        // Trains are loaded on the export threads, which would not see the trains created in the test transaction
+        exportExecutor = new DirectExecutorSwap(trainExportService, TrainExportService.class, "executor");
+        exportExecutor.replace();
+    }
+
+    @After
+    public void teardown() {
+        exportExecutor.restore();
+    }
+
+    @Test
+    @Transactional
+    public void trainsOfAllBatchesShouldBeReturnedInOrder() throws Exception {
+        for (final long trainNumber : new long[]{5, 1, 3, 2, 4}) {
+            trainFactory.createBaseTrain(new TrainId(trainNumber, DEPARTURE_DATE));
+        }
+        trainFactory.createBaseTrain(new TrainId(6L, DEPARTURE_DATE.plusDays(1)));
+
+        final Train deleted = trainFactory.createBaseTrain(new TrainId(7L, DEPARTURE_DATE));
+        deleted.deleted = true;
+        trainRepository.save(deleted);
+
+        final ResultActions r1 = getJson("/trains/" + DEPARTURE_DATE);
+        r1.andExpect(jsonPath("$.length()").value(5));
+        for (int i = 0; i < 5; i++) {
+            r1.andExpect(jsonPath("$[" + i + "].trainNumber").value(i + 1));
+            r1.andExpect(jsonPath("$[" + i + "].timeTableRows.length()").value(8));
+            r1.andExpect(jsonPath("$[" + i + "].timeTableRows[0].stationShortCode").value("HKI"));
+            r1.andExpect(jsonPath("$[" + i + "].timeTableRows[7].stationShortCode").value("OL"));
+        }
+    }
+
+    @Test
+    @Transactional
+    public void trainReadyShouldBePresent() throws Exception {
+        trainFactory.createBaseTrain(new TrainId(1L, DEPARTURE_DATE));
+        trainFactory.createBaseTrain(new TrainId(2L, DEPARTURE_DATE));
+        final Train train = trainFactory.createBaseTrain(new TrainId(3L, DEPARTURE_DATE));
+        trainReadyFactory.create(train.timeTableRows.get(0));
+
+        final ResultActions r1 = getJson("/trains/" + DEPARTURE_DATE);
+        r1.andExpect(jsonPath("$[0].timeTableRows[0].trainReady").doesNotExist());
+        r1.andExpect(jsonPath("$[2].timeTableRows[0].trainReady.source").value("PHONE"));
+        r1.andExpect(jsonPath("$[2].timeTableRows[0].trainReadies").doesNotExist());
+    }
+
+    @Test
+    @Transactional
+    public void emptyDayShouldReturnEmptyList() throws Exception {
+        getJson("/trains/" + DEPARTURE_DATE).andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    @Transactional
+    public void closedStreamShouldStopLoading() {
+        for (final long trainNumber : new long[]{1, 2, 3, 4, 5, 6}) {
+            trainFactory.createBaseTrain(new TrainId(trainNumber, DEPARTURE_DATE));
+        }
+
+        final Stream<Train> trains = trainExportService.getTrainsByDepartureDate(DEPARTURE_DATE);
+        final Iterator<Train> iterator = trains.iterator();
+        Assert.assertEquals(1L, iterator.next().id.trainNumber.longValue());
+
+        trains.close();
+
+        Assert.assertFalse(iterator.hasNext());
+    }
+}
@@ -0,0 +1,107 @@
+package fi.livi.rata.avoindata.server.controller.mvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.server.DirectExecutorSwap;
+import fi.livi.rata.avoindata.server.MockMvcBaseTest;
+import fi.livi.rata.avoindata.server.factory.TrainFactory;
+import fi.livi.rata.avoindata.server.services.TrainExportService;
+import fi.livi.rata.avoindata.server.services.TrainJsonCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+
+public class TrainJsonCacheTest extends MockMvcBaseTest {
+    private static final LocalDate DEPARTURE_DATE = LocalDate.now().plusDays(100);
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private TrainJsonCache trainJsonCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TrainExportService trainExportService;
+
+    private DirectExecutorSwap exportExecutor;
+
+    @Before
+    public void setup() throws ReflectiveOperationException {
+        // Trains are loaded on the export threads, which would not see the trains created in the test transaction
+        exportExecutor = new DirectExecutorSwap(trainExportService, TrainExportService.class, "executor");
+        exportExecutor.replace();
+    }
+
+    @After
+    public void teardown() {
+        exportExecutor.restore();
+    }
+
+    @Test
+    @Transactional
+    public void cachedTrainsShouldBeReturned() throws Exception {
+        trainFactory.createBaseTrain(new TrainId(1L, DEPARTURE_DATE));
+        trainFactory.createBaseTrain(new TrainId(2L, DEPARTURE_DATE));
+
+        final ResultActions r1 = getJson("/trains/" + DEPARTURE_DATE);
+        r1.andExpect(jsonPath("$.length()").value(2));
+        r1.andExpect(jsonPath("$[0].trainNumber").value(1));
+        r1.andExpect(jsonPath("$[1].trainNumber").value(2));
+        r1.andExpect(jsonPath("$[0].timeTableRows.length()").value(8));
+
+        final ResultActions r2 = getJson("/trains/" + DEPARTURE_DATE);
+
+        Assert.assertEquals(r1.andReturn().getResponse().getContentAsString(), r2.andReturn().getResponse().getContentAsString());
+        Assert.assertEquals(0.5, trainJsonCache.getHitRate(), 0.0);
+    }
+
+    @Test
+    @Transactional
+    public void newVersionShouldNotBeCached() throws Exception {
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, DEPARTURE_DATE));
+
+        getJson("/trains/" + DEPARTURE_DATE).andExpect(jsonPath("$[0].commuterLineID").value("Z"));
+
+        train.commuterLineID = "A";
+        train.version = 2L;
+
+        final ResultActions r2 = getJson("/trains/" + DEPARTURE_DATE);
+        r2.andExpect(jsonPath("$[0].commuterLineID").value("A"));
+        r2.andExpect(jsonPath("$[0].version").value(2));
+        Assert.assertEquals(0.0, trainJsonCache.getHitRate(), 0.0);
+    }
+
+    @Test
+    @Transactional
+    public void duplicateRowsShouldNotBeRemovedFromTrain() throws Exception {
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, DEPARTURE_DATE));
+        final List<TimeTableRow> rows = train.timeTableRows;
+        rows.add(rows.get(0));
+
+        final JsonNode json = objectMapper.readTree(trainJsonCache.getJson(train, null));
+
+        Assert.assertSame(rows, train.timeTableRows);
+        Assert.assertEquals(9, train.timeTableRows.size());
+        Assert.assertEquals(8, json.get("timeTableRows").size());
+    }
+
+    @Test
+    public void emptyListShouldBeWritten() throws Exception {
+        getJson("/trains/" + DEPARTURE_DATE).andExpect(jsonPath("$.length()").value(0));
+    }
+}
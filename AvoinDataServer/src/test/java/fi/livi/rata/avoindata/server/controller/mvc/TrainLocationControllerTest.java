@@ -5,12 +5,15 @@ import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
 import fi.livi.rata.avoindata.server.MockMvcBaseTest;
 import fi.livi.rata.avoindata.server.factory.TrainLocationFactory;
+import fi.livi.rata.avoindata.server.services.LatestTrainLocationService;
+import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
@@ -20,6 +23,8 @@ public class TrainLocationControllerTest extends MockMvcBaseTest {
     private TrainLocationFactory trainLocationFactory;
     @Autowired
     private DateProvider dp;
+    @Autowired
+    private LatestTrainLocationService latestTrainLocationService;
 
     @Test
     public void baseAttributesShouldBeCorrect() throws Exception {
@@ -45,6 +50,17 @@ public class TrainLocationControllerTest extends MockMvcBaseTest {
         getJson("/train-locations/latest/2").andExpect(jsonPath("$.length()").value(0));
     }
 
+    @Test
+    public void latestShouldReturnNewestLocationOfTrain() throws Exception {
+        trainLocationFactory.createTrainLocation(new TrainLocationId(1L, dp.dateInHelsinki(), dp.nowInHelsinki().minusMinutes(1)));
+        final TrainLocation newest = trainLocationFactory.createTrainLocation(new TrainLocationId(1L, dp.dateInHelsinki(), dp.nowInHelsinki()));
+        trainLocationFactory.createTrainLocation(new TrainLocationId(2L, dp.dateInHelsinki(), dp.nowInHelsinki().minusMinutes(20)));
+
+        getJson("/train-locations/latest").andExpect(jsonPath("$.length()").value(1));
+        getJson("/train-locations/latest/2").andExpect(jsonPath("$.length()").value(0));
+        Assert.assertEquals(newest.id, latestTrainLocationService.getLatest(1L, null).get(0).id);
+    }
+
     @Test
     public void geoJsonWorks() throws Exception {
         trainLocationFactory.createTrainLocation();
@@ -71,6 +87,26 @@ public class TrainLocationControllerTest extends MockMvcBaseTest {
         getJson(String.format("/train-locations/%s/1", dateInHelsinki.plusDays(1))).andExpect(jsonPath("$.length()").value(0));
     }
 
+    @Test
+    public void compactFormatShouldBeDeltaEncoded() throws Exception {
+        LocalDate dateInHelsinki = dp.dateInHelsinki();
+        ZonedDateTime now = dp.nowInHelsinki();
+        trainLocationFactory.createTrainLocation(new TrainLocationId(1L, dateInHelsinki, now.plusSeconds(5)));
+        trainLocationFactory.createTrainLocation(new TrainLocationId(1L, dateInHelsinki, now));
+
+        getJson(String.format("/train-locations/%s/1?format=compact", dateInHelsinki))
+                .andExpect(jsonPath("$.trainNumber").value(1))
+                .andExpect(jsonPath("$.timestamps.length()").value(2))
+                .andExpect(jsonPath("$.timestamps[0]").value(0))
+                .andExpect(jsonPath("$.timestamps[1]").value(5000))
+                .andExpect(jsonPath("$.longitudes[0]").value(20300000))
+                .andExpect(jsonPath("$.longitudes[1]").value(0))
+                .andExpect(jsonPath("$.latitudes[0]").value(10100000))
+                .andExpect(jsonPath("$.speeds[1]").value(100));
+        getJson(String.format("/train-locations/%s/1?format=compact&bbox=19.0,20.0,21,11", dateInHelsinki))
+                .andExpect(jsonPath("$.timestamps.length()").value(0));
+    }
+
     @Test
     public void boundingBoxShouldWork() throws Exception {
         trainLocationFactory.createTrainLocation(); // 20.3, 10.1
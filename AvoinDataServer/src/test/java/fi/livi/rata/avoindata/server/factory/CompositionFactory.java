@@ -2,6 +2,7 @@ package fi.livi.rata.avoindata.server.factory;
 
 import com.google.common.collect.Lists;
 import fi.livi.rata.avoindata.common.dao.composition.CompositionRepository;
+import fi.livi.rata.avoindata.common.dao.composition.LocomotiveRepository;
 import fi.livi.rata.avoindata.common.domain.common.Operator;
 import fi.livi.rata.avoindata.common.domain.composition.*;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
@@ -16,6 +17,9 @@ public class CompositionFactory {
     @Autowired
     private CompositionRepository compositionRepository;
 
+    @Autowired
+    private LocomotiveRepository locomotiveRepository;
+
     public Composition create() {
         Operator operator = new Operator();
         operator.operatorUICCode = 1;
@@ -38,6 +42,7 @@ public class CompositionFactory {
         composition.journeySections.add(journeySection);
 
         compositionRepository.persist(Lists.newArrayList(composition));
+        locomotiveRepository.persist(Lists.newArrayList(locomotive));
 
         return composition;
     }
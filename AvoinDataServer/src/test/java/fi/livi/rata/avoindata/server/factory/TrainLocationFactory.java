@@ -8,8 +8,11 @@ import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationConnectionQuality;
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.server.services.LatestTrainLocationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Component
 public class TrainLocationFactory {
@@ -19,6 +22,9 @@ public class TrainLocationFactory {
     @Autowired
     private TrainLocationRepository trainLocationRepository;
 
+    @Autowired
+    private LatestTrainLocationService latestTrainLocationService;
+
 
     private GeometryFactory geometryFactory = new GeometryFactory();
 
@@ -33,6 +39,21 @@ public class TrainLocationFactory {
         trainLocation.connectionQuality = TrainLocationConnectionQuality.BREAKING;
         trainLocation.speed = 100;
 
-        return trainLocationRepository.save(trainLocation);
+        final TrainLocation saved = trainLocationRepository.save(trainLocation);
+        latestTrainLocationService.refresh();
+        resetAfterRollback();
+        return saved;
+    }
+
+    private void resetAfterRollback() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Otherwise the latest locations of a rolled back test would be returned to the next test
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    latestTrainLocationService.reset();
+                }
+            });
+        }
     }
 }
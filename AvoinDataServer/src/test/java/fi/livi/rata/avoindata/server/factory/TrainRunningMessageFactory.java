@@ -18,12 +18,16 @@ public class TrainRunningMessageFactory {
     private TrainRunningMessageRepository trainRunningMessageRepository;
 
     public TrainRunningMessage create() {
+        return create(1L, 1L);
+    }
+
+    public TrainRunningMessage create(final long id, final long version) {
         LocalDate departureDate = LocalDate.of(2018, 1, 1);
 
         TrainRunningMessage trainRunningMessage = new TrainRunningMessage();
         trainRunningMessage.virtualDepartureDate = LocalDate.of(2018, 1, 1);
-        trainRunningMessage.version = 1L;
-        trainRunningMessage.id = 1L;
+        trainRunningMessage.version = version;
+        trainRunningMessage.id = id;
         trainRunningMessage.trainId = new StringTrainId("1", departureDate);
         trainRunningMessage.timestamp = ZonedDateTime.of(departureDate, LocalTime.of(8, 0), ZoneId.of("Europe/Helsinki"));
         trainRunningMessage.type = TrainRunningMessageTypeEnum.OCCUPY;
@@ -0,0 +1,68 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.server.BaseTest;
+import fi.livi.rata.avoindata.server.factory.TrainLocationFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Transactional
+public class LatestTrainLocationServiceTest extends BaseTest {
+    @Autowired
+    private LatestTrainLocationService latestTrainLocationService;
+
+    @Autowired
+    private TrainLocationFactory trainLocationFactory;
+
+    @Autowired
+    private TrainLocationRepository trainLocationRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DateProvider dp;
+
+    @Test
+    public void rowCommittedOutOfOrderShouldBePickedUpFromOverlap() {
+        final TrainLocation seen = trainLocationFactory.createTrainLocation();
+        final double lateBefore = meterRegistry.counter("train.location.latest.late").count();
+
+        final long lateId = seen.id - 10;
+        jdbcTemplate.update("insert into train_location (id, departure_date, train_number, timestamp, location, speed, connection_quality)" +
+                " values (?, ?, ?, ?, ST_GeomFromText('POINT(20.3 10.1)'), 100, 0)", lateId, dp.dateInHelsinki(), 2L,
+                Timestamp.from(dp.nowInHelsinki().toInstant()));
+        latestTrainLocationService.refresh();
+
+        final List<TrainLocation> latest = latestTrainLocationService.getLatest(2L, null);
+        Assert.assertEquals(1, latest.size());
+        Assert.assertEquals(lateId, latest.get(0).id.longValue());
+        Assert.assertEquals(lateBefore + 1, meterRegistry.counter("train.location.latest.late").count(), 0);
+    }
+
+    @Test
+    public void resetShouldForgetLocations() {
+        final TrainLocation trainLocation = trainLocationFactory.createTrainLocation();
+        Assert.assertEquals(1, latestTrainLocationService.getLatest(1L, null).size());
+
+        trainLocationRepository.delete(trainLocation);
+        trainLocationRepository.flush();
+        Assert.assertEquals(1, latestTrainLocationService.getLatest(1L, null).size());
+
+        latestTrainLocationService.reset();
+        Assert.assertEquals(0, latestTrainLocationService.getLatest(1L, null).size());
+    }
+}
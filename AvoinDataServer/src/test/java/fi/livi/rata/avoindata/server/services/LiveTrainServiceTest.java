@@ -0,0 +1,200 @@
+package fi.livi.rata.avoindata.server.services;
+
+import java.math.BigInteger;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.LiveTimeTableTrain;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.server.BaseTest;
+import fi.livi.rata.avoindata.server.factory.TrainFactory;
+
+@Transactional
+public class LiveTrainServiceTest extends BaseTest {
+    private static final List<Long> CATEGORIES = Arrays.asList(1L, 2L);
+    private static final Long DELETED_TRAIN_NUMBER = 4L;
+    private static final Comparator<TrainId> ORDER = Comparator.comparing((TrainId id) -> id.departureDate).thenComparing(id -> id.trainNumber);
+
+    @Autowired
+    private LiveTrainService liveTrainService;
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private DateProvider dp;
+
+    private LocalDate today;
+
+    @Before
+    public void createTrains() {
+        today = dp.dateInHelsinki();
+
+        trainFactory.createBaseTrain(new TrainId(1L, today));
+        trainFactory.createBaseTrain(new TrainId(1L, today.minusDays(1)));
+
+        final Train notStarted = trainFactory.createBaseTrain(new TrainId(2L, today));
+        final ZonedDateTime now = dp.nowInHelsinki();
+        for (int i = 0; i < notStarted.timeTableRows.size(); i++) {
+            final TimeTableRow row = notStarted.timeTableRows.get(i);
+            row.actualTime = null;
+            row.scheduledTime = now.plusMinutes(i * 10 - 30);
+            row.liveEstimateTime = i % 2 == 0 ? row.scheduledTime.plusMinutes(3) : null;
+        }
+
+        final Train otherCategory = trainFactory.createBaseTrain(new TrainId(3L, today));
+        otherCategory.trainCategoryId = 2;
+
+        final Train deleted = trainFactory.createBaseTrain(new TrainId(DELETED_TRAIN_NUMBER, today));
+        deleted.deleted = true;
+
+        trainRepository.flush();
+        liveTrainService.reload();
+    }
+
+    @After
+    public void resetLiveTrains() {
+        // The trains are rolled back, but the service would keep them
+        liveTrainService.reset();
+    }
+
+    @Test
+    public void liveTrainsShouldMatchDatabase() {
+        Assert.assertEquals(ids(trainRepository.findLiveTrains(0, 60 * 4)), trainIds(liveTrainService.getLiveTrains(0, 60 * 4)));
+        Assert.assertEquals(ids(trainRepository.findLiveTrains(0, 10)), trainIds(liveTrainService.getLiveTrains(0, 10)));
+        Assert.assertTrue(liveTrainService.getLiveTrains(1, 60 * 4).isEmpty());
+    }
+
+    @Test
+    public void stationTrainsByQuantityShouldMatchDatabase() {
+        for (final String station : Arrays.asList("HKI", "PSL", "OL", "ABC")) {
+            // Limits above the number of trains, ties in time are ordered differently
+            for (final int limit : Arrays.asList(5, 10)) {
+                for (final boolean includeNonstopping : Arrays.asList(true, false)) {
+                    Assert.assertEquals(ids(trainRepository.findLiveTrainsIds(station, limit, limit, limit, limit, !includeNonstopping,
+                            CATEGORIES)), trainIds(liveTrainService.getStationTrains(station, 0, limit, limit, limit, limit,
+                            includeNonstopping, CATEGORIES)));
+                }
+            }
+        }
+
+        Assert.assertEquals(ids(trainRepository.findLiveTrainsIds("HKI", 0, 5, 0, 0, true, Arrays.asList(1L))),
+                trainIds(liveTrainService.getStationTrains("HKI", 0, 0, 5, 0, 0, false, Arrays.asList(1L))));
+    }
+
+    @Test
+    public void stationTrainsByTimeShouldMatchDatabase() {
+        final ZonedDateTime now = dp.nowInHelsinki();
+        for (final String station : Arrays.asList("HKI", "PSL", "TPE", "OL")) {
+            for (final int minutes : Arrays.asList(1, 15, 90, 1000)) {
+                final ZonedDateTime start = now.minusMinutes(minutes);
+                final ZonedDateTime end = now.plusMinutes(minutes);
+
+                final List<TrainId> expected = new ArrayList<>();
+                for (final LiveTimeTableTrain liveTrain : trainRepository.findLiveTrains(station, start, end, true, 0L, start, end,
+                        CATEGORIES)) {
+                    if (!expected.contains(liveTrain.id) && !liveTrain.id.trainNumber.equals(DELETED_TRAIN_NUMBER)) {
+                        expected.add(liveTrain.id);
+                    }
+                }
+                expected.sort(ORDER);
+
+                Assert.assertEquals(expected, trainIds(liveTrainService.getStationTrains(station, 0, start, end, start, end, false,
+                        CATEGORIES)));
+            }
+        }
+    }
+
+    @Test
+    public void latestTrainShouldMatchDatabase() {
+        for (final long trainNumber : Arrays.asList(1L, 2L, 5L)) {
+            Assert.assertEquals(ids(trainRepository.findLiveTrainByTrainNumber(trainNumber)),
+                    trainIds(liveTrainService.getLatestTrain(trainNumber, 0)));
+        }
+        Assert.assertTrue(liveTrainService.getLatestTrain(1L, 1).isEmpty());
+    }
+
+    @Test
+    public void changedTrainsShouldBeUpdated() {
+        final long version = trainRepository.getMaxVersion() + 1;
+
+        final Train moved = trainRepository.findByDepartureDateAndTrainNumber(today, 1L);
+        for (final TimeTableRow row : moved.timeTableRows) {
+            row.actualTime = null;
+            row.scheduledTime = dp.nowInHelsinki().plusMinutes(5);
+        }
+        moved.version = version;
+
+        final Train deleted = trainRepository.findByDepartureDateAndTrainNumber(today, 3L);
+        deleted.deleted = true;
+        deleted.version = version;
+
+        final Train added = trainFactory.createBaseTrain(new TrainId(5L, today));
+        added.version = version;
+
+        trainRepository.flush();
+        liveTrainService.refresh();
+
+        Assert.assertEquals(without(ids(trainRepository.findLiveTrains(0, 10)), deleted.id), trainIds(liveTrainService.getLiveTrains(0, 10)));
+        Assert.assertEquals(Arrays.asList(moved.id, added.id), trainIds(liveTrainService.getLiveTrains(version - 1, 60 * 4)));
+        for (final String station : Arrays.asList("HKI", "PSL", "OL")) {
+            Assert.assertEquals(without(ids(trainRepository.findLiveTrainsIds(station, 10, 10, 10, 10, false, CATEGORIES)), deleted.id),
+                    trainIds(liveTrainService.getStationTrains(station, 0, 10, 10, 10, 10, true, CATEGORIES)));
+        }
+        Assert.assertTrue(liveTrainService.getLatestTrain(3L, 0).isEmpty());
+    }
+
+    @Test
+    public void deletedTrainShouldNotBeKept() {
+        for (final Train train : liveTrainService.getLiveTrains(0, 60 * 24)) {
+            Assert.assertNotEquals(DELETED_TRAIN_NUMBER, train.id.trainNumber);
+        }
+    }
+
+    /**
+     * Some of the queries leave removing deleted trains to TrainRepository.findTrains
+     */
+    private static List<TrainId> ids(final List<Object[]> rawIds) {
+        final List<TrainId> result = new ArrayList<>();
+        for (final Object[] rawId : rawIds) {
+            final TrainId trainId = new TrainId(((BigInteger) rawId[2]).longValue(), ((Date) rawId[1]).toLocalDate());
+            if (!result.contains(trainId) && !trainId.trainNumber.equals(DELETED_TRAIN_NUMBER)) {
+                result.add(trainId);
+            }
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    private static List<TrainId> without(final List<TrainId> trainIds, final TrainId removed) {
+        trainIds.remove(removed);
+        return trainIds;
+    }
+
+    private static List<TrainId> trainIds(final List<Train> trains) {
+        final List<TrainId> result = new ArrayList<>();
+        for (final Train train : trains) {
+            result.add(train.id);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.common.collect.Sets;
+import fi.livi.rata.avoindata.server.BaseTest;
+
+public class LiveStreamSubscriptionTest extends BaseTest {
+    private static final Set<LiveStreamEventType> ALL_TYPES = EnumSet.allOf(LiveStreamEventType.class);
+
+    @Test
+    public void filtersShouldApplyToMatchingEventTypes() {
+        final LiveStreamSubscription byStation = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, "HKI", null, 10);
+        Assert.assertTrue(byStation.matches(train("1", "HKI", "PSL")));
+        Assert.assertFalse(byStation.matches(train("1", "TPE")));
+        Assert.assertTrue(byStation.matches(location("1", 24.9, 60.2)));
+
+        final LiveStreamSubscription byBbox = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, null, new double[]{24, 60, 25, 61}, 10);
+        Assert.assertTrue(byBbox.matches(location("1", 24.9, 60.2)));
+        Assert.assertFalse(byBbox.matches(location("1", 23.7, 61.5)));
+        Assert.assertTrue(byBbox.matches(train("1", "TPE")));
+
+        final LiveStreamSubscription byTrain = new LiveStreamSubscription(new SseEmitter(), EnumSet.of(LiveStreamEventType.TRAIN_LOCATION), "1",
+                null, null, 10);
+        Assert.assertTrue(byTrain.matches(location("1", 24.9, 60.2)));
+        Assert.assertFalse(byTrain.matches(location("2", 24.9, 60.2)));
+        Assert.assertFalse(byTrain.matches(train("1", "HKI")));
+        Assert.assertTrue(byTrain.matches(LiveStreamEvent.HEARTBEAT));
+    }
+
+    @Test
+    public void fullQueueShouldOverflow() {
+        final LiveStreamSubscription subscription = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, null, null, 2);
+
+        Assert.assertEquals(LiveStreamSubscription.OfferResult.SEND_STARTED, subscription.offer(train("1", "HKI")));
+        Assert.assertEquals(LiveStreamSubscription.OfferResult.QUEUED, subscription.offer(train("2", "HKI")));
+        Assert.assertEquals(LiveStreamSubscription.OfferResult.OVERFLOW, subscription.offer(train("3", "HKI")));
+        Assert.assertNull(subscription.poll());
+        Assert.assertTrue(subscription.isDropped());
+    }
+
+    @Test
+    public void slowWriteShouldDropSubscriber() {
+        final LiveStreamSubscription subscription = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, null, null, 10);
+        final long timeout = TimeUnit.SECONDS.toNanos(5);
+
+        subscription.offer(train("1", "HKI"));
+        subscription.offer(train("2", "HKI"));
+        Assert.assertNotNull(subscription.poll());
+        Assert.assertFalse(subscription.dropIfWriteSlowerThan(timeout, System.nanoTime()));
+        Assert.assertFalse(subscription.isDropped());
+
+        Assert.assertTrue(subscription.dropIfWriteSlowerThan(timeout, System.nanoTime() + timeout + 1));
+        Assert.assertTrue(subscription.isDropped());
+        Assert.assertNull(subscription.poll());
+        Assert.assertFalse(subscription.dropIfWriteSlowerThan(timeout, System.nanoTime() + timeout + 1));
+    }
+
+    @Test
+    public void idleSubscriberShouldNotBeDropped() {
+        final LiveStreamSubscription subscription = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, null, null, 10);
+
+        subscription.offer(train("1", "HKI"));
+        Assert.assertNotNull(subscription.poll());
+        Assert.assertNull(subscription.poll());
+        Assert.assertFalse(subscription.dropIfWriteSlowerThan(0, System.nanoTime() + 1));
+    }
+
+    @Test
+    public void emptyQueueShouldStopSending() {
+        final LiveStreamSubscription subscription = new LiveStreamSubscription(new SseEmitter(), ALL_TYPES, null, null, null, 10);
+
+        Assert.assertEquals(LiveStreamSubscription.OfferResult.SEND_STARTED, subscription.offer(train("1", "HKI")));
+        Assert.assertNotNull(subscription.poll());
+        Assert.assertNull(subscription.poll());
+        Assert.assertEquals(LiveStreamSubscription.OfferResult.SEND_STARTED, subscription.offer(train("2", "HKI")));
+    }
+
+    private LiveStreamEvent train(String trainNumber, String... stations) {
+        return new LiveStreamEvent(LiveStreamEventType.TRAIN, trainNumber, Sets.newHashSet(stations), Double.NaN, Double.NaN, "{}");
+    }
+
+    private LiveStreamEvent location(String trainNumber, double x, double y) {
+        return new LiveStreamEvent(LiveStreamEventType.TRAIN_LOCATION, trainNumber, null, x, y, "{}");
+    }
+}
@@ -0,0 +1,47 @@
+package fi.livi.rata.avoindata.server.services.livestream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.dao.trainrunningmessage.TrainRunningMessageRepository;
+import fi.livi.rata.avoindata.common.domain.trainreadymessage.TrainRunningMessage;
+import fi.livi.rata.avoindata.server.BaseTest;
+import fi.livi.rata.avoindata.server.factory.TrainRunningMessageFactory;
+
+@Transactional
+public class TrainRunningMessageCursorTest extends BaseTest {
+    @Autowired
+    private TrainRunningMessageFactory trainRunningMessageFactory;
+
+    @Autowired
+    private TrainRunningMessageRepository trainRunningMessageRepository;
+
+    @Test
+    public void fullPageShouldNotSkipMessagesOfItsLastVersion() {
+        trainRunningMessageFactory.create(1L, 1L);
+        trainRunningMessageFactory.create(2L, 2L);
+        trainRunningMessageFactory.create(3L, 2L);
+        trainRunningMessageFactory.create(4L, 2L);
+        trainRunningMessageFactory.create(5L, 3L);
+
+        final TrainRunningMessageCursor cursor = TrainRunningMessageCursor.after(1L);
+
+        final List<Long> ids = new ArrayList<>();
+        List<TrainRunningMessage> page;
+        do {
+            page = cursor.next(trainRunningMessageRepository, 2);
+            for (final TrainRunningMessage message : page) {
+                ids.add(message.id);
+            }
+        } while (page.size() == 2);
+
+        Assert.assertEquals(Arrays.asList(2L, 3L, 4L, 5L), ids);
+        Assert.assertEquals(3L, cursor.getVersion());
+    }
+}
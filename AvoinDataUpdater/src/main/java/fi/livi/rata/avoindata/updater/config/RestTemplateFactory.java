@@ -27,6 +27,9 @@ class RestTemplateFactory {
     @Value("${updater.http.connectionTimoutMillis:30000}")
     private int CONNECTION_TIMEOUT;
 
+    @Value("${updater.http.maxConnectionsPerRoute:20}")
+    private int MAX_CONNECTIONS_PER_ROUTE;
+
     @Bean
     public RequestConfig requestConfig() {
         RequestConfig result = RequestConfig.custom()
@@ -41,6 +44,8 @@ class RestTemplateFactory {
         CloseableHttpClient result = HttpClientBuilder
                 .create()
                 .setDefaultRequestConfig(requestConfig)
+                .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                .setMaxConnTotal(MAX_CONNECTIONS_PER_ROUTE * 2)
                 .build();
         return result;
     }
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import fi.livi.rata.avoindata.updater.service.isuptodate.InitializationProgressService;
 import fi.livi.rata.avoindata.updater.service.isuptodate.IsUpToDateService;
 import fi.livi.rata.avoindata.updater.service.isuptodate.LastUpdateService;
 
@@ -17,6 +18,9 @@ public class LastUpdateController {
     @Autowired
     private IsUpToDateService isUpToDateService;
 
+    @Autowired
+    private InitializationProgressService initializationProgressService;
+
     @RequestMapping("/last-updated")
     @ResponseBody
     public Map<LastUpdateService.LastUpdatedType, IsUpToDateService.IsToUpToDateDto> getResponse(HttpServletResponse response) {
@@ -24,4 +28,12 @@ public class LastUpdateController {
 
         return isUpToDateService.getIsUpToDates();
     }
+
+    @RequestMapping("/initialization-progress")
+    @ResponseBody
+    public Map<String, InitializationProgressService.InitializationProgressDto> getInitializationProgress(HttpServletResponse response) {
+        response.setHeader("Cache-Control", String.format("max-age=%d, public", 1));
+
+        return initializationProgressService.getProgresses();
+    }
 }
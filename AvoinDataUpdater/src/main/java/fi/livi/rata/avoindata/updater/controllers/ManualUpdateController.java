@@ -51,7 +51,7 @@ public class ManualUpdateController {
     @RequestMapping("/reinitialize")
     @ResponseBody
     public boolean reinitializeTrainsOnADate(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
-        trainLockExecutor.executeInLock(() -> {
+        trainLockExecutor.executeInLock(date, () -> {
             logger.info("Starting manual train update for day {}", date);
 
             trainRepository.removeByDepartureDate(date);
@@ -3,7 +3,7 @@ package fi.livi.rata.avoindata.updater.deserializers;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -14,7 +14,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import fi.livi.rata.avoindata.common.dao.localization.TrainCategoryRepository;
 import fi.livi.rata.avoindata.common.dao.localization.TrainTypeRepository;
@@ -40,14 +42,42 @@ public class TrainDeserializer extends AEntityDeserializer<Train> {
 
 
 
+    /**
+     * Streams the train object field by field. Only the small id and aikataulu objects are read as trees, time table rows are
+     * deserialized straight from the parser so that a whole train is never held as a JsonNode tree.
+     */
     @Override
     public Train deserialize(final JsonParser jsonParser, final DeserializationContext deserializationContext) throws IOException {
-        final JsonNode node = jsonParser.getCodec().readTree(jsonParser);
-        final JsonNode id = node.get("id");
+        JsonNode id = null;
+        JsonNode timetable = null;
+        String jupaTila = null;
+        List<TimeTableRow> timeTableRows = new ArrayList<>();
+
+        JsonToken token = jsonParser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jsonParser.nextToken();
+        }
+
+        for (; token == JsonToken.FIELD_NAME; token = jsonParser.nextToken()) {
+            final String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+
+            if ("id".equals(fieldName)) {
+                id = jsonParser.getCodec().readTree(jsonParser);
+            } else if ("aikataulu".equals(fieldName)) {
+                timetable = jsonParser.getCodec().readTree(jsonParser);
+            } else if ("jupaTila".equals(fieldName)) {
+                jupaTila = jsonParser.getText();
+            } else if ("jupaTapahtumas".equals(fieldName)) {
+                timeTableRows = deserializeTimeTableRows(jsonParser, deserializationContext);
+            } else {
+                jsonParser.skipChildren();
+            }
+        }
+
         final Long trainNumber = id.get("junanumero").asLong();
         final LocalDate departureDate = LocalDate.parse(id.get("lahtopvm").asText());
 
-        final JsonNode timetable = node.get("aikataulu");
         final JsonNode operator = timetable.get("operaattori");
 
         final int operatorUICCode = operator.get("uicKoodi").asInt();
@@ -59,9 +89,8 @@ public class TrainDeserializer extends AEntityDeserializer<Train> {
 
         final JsonNode lahiliikenteenLinjatunnusNode = timetable.get("lahiliikenteenLinjatunnus");
         final String commuterLineID = lahiliikenteenLinjatunnusNode != null ? lahiliikenteenLinjatunnusNode.get("nimi").asText() : "";
-        final boolean cancelled = !"VOIMASSAOLEVA".equals(node.get("jupaTila").asText());
+        final boolean cancelled = !"VOIMASSAOLEVA".equals(jupaTila);
 
-        final List<TimeTableRow> timeTableRows = deserializeTimeTableRows(jsonParser, node.get("jupaTapahtumas"));
         final List<TimeTableRow> sortedTimeTableRows = sortTimeTableRows(timeTableRows);
 
         final Long maxVersion = getMaxVersion(sortedTimeTableRows);
@@ -203,7 +232,19 @@ public class TrainDeserializer extends AEntityDeserializer<Train> {
                 !current.cancelled && !next.cancelled && current.scheduledTime.equals(next.scheduledTime);
     }
 
-    private List<TimeTableRow> deserializeTimeTableRows(final JsonParser jsonParser, final JsonNode jupaTapahtumas) throws IOException {
-        return Arrays.asList(jsonParser.getCodec().readValue(jupaTapahtumas.traverse(jsonParser.getCodec()), TimeTableRow[].class));
+    private List<TimeTableRow> deserializeTimeTableRows(final JsonParser jsonParser,
+                                                        final DeserializationContext deserializationContext) throws IOException {
+        final List<TimeTableRow> timeTableRows = new ArrayList<>();
+        if (jsonParser.currentToken() != JsonToken.START_ARRAY) {
+            jsonParser.skipChildren();
+            return timeTableRows;
+        }
+
+        final JsonDeserializer<Object> timeTableRowDeserializer = deserializationContext.findRootValueDeserializer(
+                deserializationContext.constructType(TimeTableRow.class));
+        while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+            timeTableRows.add((TimeTableRow) timeTableRowDeserializer.deserialize(jsonParser, deserializationContext));
+        }
+        return timeTableRows;
     }
 }
@@ -16,8 +16,6 @@ import org.springframework.transaction.annotation.Transactional;
 import fi.livi.rata.avoindata.common.dao.composition.CompositionRepository;
 import fi.livi.rata.avoindata.common.dao.composition.CompositionTimeTableRowRepository;
 import fi.livi.rata.avoindata.common.dao.composition.JourneySectionRepository;
-import fi.livi.rata.avoindata.common.dao.composition.LocomotiveRepository;
-import fi.livi.rata.avoindata.common.dao.composition.WagonRepository;
 import fi.livi.rata.avoindata.common.dao.localization.PowerTypeRepository;
 import fi.livi.rata.avoindata.common.dao.localization.TrainCategoryRepository;
 import fi.livi.rata.avoindata.common.dao.localization.TrainTypeRepository;
@@ -45,10 +43,7 @@ public class CompositionService extends VersionedService<JourneyComposition> {
     private CompositionTimeTableRowRepository compositionTimeTableRowRepository;
 
     @Autowired
-    private WagonRepository wagonRepository;
-
-    @Autowired
-    private LocomotiveRepository locomotiveRepository;
+    private IdentityBatchInsertService identityBatchInsertService;
 
     @Autowired
     private TrainCategoryRepository trainCategoryRepository;
@@ -87,9 +82,7 @@ public class CompositionService extends VersionedService<JourneyComposition> {
         saveCompositions(compositions);
 
         for (final Composition entity : compositions) {
-            if (entity.version > maxVersion.get()) {
-                maxVersion.set(entity.version);
-            }
+            maxVersion.accumulateAndGet(entity.version, Math::max);
         }
     }
 
@@ -101,9 +94,10 @@ public class CompositionService extends VersionedService<JourneyComposition> {
                 journeySections.stream().map(x -> x.endTimeTableRow)).collect(Collectors.toList());
         compositionTimeTableRowRepository.persist(compositionTimeTableRows);
         journeySectionRepository.persist(journeySections);
-        locomotiveRepository.persist(journeySections.stream().map(x -> x.locomotives).flatMap(Collection::stream)
+        identityBatchInsertService.insertLocomotives(journeySections.stream().map(x -> x.locomotives).flatMap(Collection::stream)
+                .collect(Collectors.toList()));
+        identityBatchInsertService.insertWagons(journeySections.stream().map(x -> x.wagons).flatMap(Collection::stream)
                 .collect(Collectors.toList()));
-        wagonRepository.persist(journeySections.stream().map(x -> x.wagons).flatMap(Collection::stream).collect(Collectors.toList()));
     }
 
     private Composition createCompositionFromJourneys(final List<JourneyComposition> journeyCompositions) {
@@ -0,0 +1,124 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.domain.cause.Cause;
+import fi.livi.rata.avoindata.common.domain.composition.Locomotive;
+import fi.livi.rata.avoindata.common.domain.composition.Wagon;
+import fi.livi.rata.avoindata.common.domain.train.TrainReady;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+
+/**
+ * Inserts entities with IDENTITY ids as JDBC batches. Hibernate has to read the generated id after every insert of such an entity, so it
+ * never batches them. The generated ids are not read back here, which is fine for these entities because nothing references them and
+ * their ids are not serialized.
+ * <p>
+ * Referenced rows (time table rows, journey sections) must be flushed before calling these methods.
+ */
+@Service
+@Transactional
+public class IdentityBatchInsertService {
+    static final String INSERT_CAUSE = "insert into cause (departure_date, train_number, attap_id, category_code_id," +
+            " detailed_category_code_id, third_category_code_id) values (?, ?, ?, ?, ?, ?)";
+
+    static final String INSERT_TRAIN_READY = "insert into train_ready (departure_date, train_number, attap_id, source, accepted, timestamp)" +
+            " values (?, ?, ?, ?, ?, ?)";
+
+    static final String INSERT_TRAIN_LOCATION = "insert into train_location (departure_date, train_number, timestamp, location, speed," +
+            " connection_quality) values (?, ?, ?, ST_GeomFromText(?, ?), ?, ?)";
+
+    static final String INSERT_LOCOMOTIVE = "insert into locomotive (location, locomotive_type, power_type_abbreviation, journeysection)" +
+            " values (?, ?, ?, ?)";
+
+    static final String INSERT_WAGON = "insert into wagon (wagon_type, location, sales_number, length, playground, pet, catering, video," +
+            " luggage, smoking, disabled, journeysection) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}")
+    private int batchSize;
+
+    public void insertCauses(final Collection<Cause> causes) {
+        insert(INSERT_CAUSE, causes, (ps, cause) -> {
+            ps.setObject(1, cause.timeTableRow.id.departureDate);
+            ps.setLong(2, cause.timeTableRow.id.trainNumber);
+            ps.setLong(3, cause.timeTableRow.id.attapId);
+            ps.setObject(4, cause.getCategoryCodeId(), Types.BIGINT);
+            ps.setObject(5, cause.getDetailedCategoryCodeId(), Types.BIGINT);
+            ps.setObject(6, cause.getThirdCategoryCodeId(), Types.BIGINT);
+        });
+    }
+
+    public void insertTrainReadies(final Collection<TrainReady> trainReadies) {
+        insert(INSERT_TRAIN_READY, trainReadies, (ps, trainReady) -> {
+            ps.setObject(1, trainReady.timeTableRow.id.departureDate);
+            ps.setLong(2, trainReady.timeTableRow.id.trainNumber);
+            ps.setLong(3, trainReady.timeTableRow.id.attapId);
+            ps.setObject(4, trainReady.source == null ? null : trainReady.source.ordinal(), Types.INTEGER);
+            ps.setInt(5, trainReady.accepted ? 1 : 0);
+            ps.setTimestamp(6, toTimestamp(trainReady.timestamp));
+        });
+    }
+
+    public void insertTrainLocations(final Collection<TrainLocation> trainLocations) {
+        insert(INSERT_TRAIN_LOCATION, trainLocations, (ps, trainLocation) -> {
+            ps.setObject(1, trainLocation.trainLocationId.departureDate);
+            ps.setLong(2, trainLocation.trainLocationId.trainNumber);
+            ps.setTimestamp(3, toTimestamp(trainLocation.trainLocationId.timestamp));
+            ps.setString(4, trainLocation.location.toText());
+            ps.setInt(5, trainLocation.location.getSRID());
+            ps.setObject(6, trainLocation.speed, Types.INTEGER);
+            ps.setObject(7, trainLocation.connectionQuality == null ? null : trainLocation.connectionQuality.ordinal(), Types.INTEGER);
+        });
+    }
+
+    public void insertLocomotives(final Collection<Locomotive> locomotives) {
+        insert(INSERT_LOCOMOTIVE, locomotives, (ps, locomotive) -> {
+            ps.setInt(1, locomotive.location);
+            ps.setString(2, locomotive.locomotiveType);
+            ps.setString(3, locomotive.powerTypeAbbreviation);
+            ps.setLong(4, locomotive.journeysection.id);
+        });
+    }
+
+    public void insertWagons(final Collection<Wagon> wagons) {
+        insert(INSERT_WAGON, wagons, (ps, wagon) -> {
+            ps.setString(1, wagon.wagonType);
+            ps.setInt(2, wagon.location);
+            ps.setInt(3, wagon.salesNumber);
+            ps.setInt(4, wagon.length);
+            ps.setObject(5, wagon.playground, Types.BOOLEAN);
+            ps.setObject(6, wagon.pet, Types.BOOLEAN);
+            ps.setObject(7, wagon.catering, Types.BOOLEAN);
+            ps.setObject(8, wagon.video, Types.BOOLEAN);
+            ps.setObject(9, wagon.luggage, Types.BOOLEAN);
+            ps.setObject(10, wagon.smoking, Types.BOOLEAN);
+            ps.setObject(11, wagon.disabled, Types.BOOLEAN);
+            ps.setLong(12, wagon.journeysection.id);
+        });
+    }
+
+    private <T> void insert(final String sql, final Collection<T> entities, final ParameterizedPreparedStatementSetter<T> setter) {
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(sql, entities, batchSize, setter);
+    }
+
+    private Timestamp toTimestamp(final ZonedDateTime zonedDateTime) {
+        // Same conversion as Hibernate's ZonedDateTimeType
+        return zonedDateTime == null ? null : Timestamp.from(zonedDateTime.toInstant());
+    }
+}
@@ -0,0 +1,164 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.updater.ExceptionLoggingRunnable;
+
+/**
+ * Maintains live_time_table_train_materialized (V27), the time table rows of trains departing from yesterday to the day after tomorrow.
+ * The server queries it through LiveTimeTableTrainRepository when avoindataserver.live-trains.materialized is on, so maintenance can be
+ * turned off with updater.live-time-table-train.enabled when no server uses the table.
+ * <p>
+ * Rows of a train are rewritten whenever the train is changed. Rows of trains deleted from the train table are removed by a cascading
+ * foreign key. Days enter and leave the window without any train changing, which is handled by an hourly sweep that only reads the day
+ * entering the window. The day after tomorrow is kept in the table although queries only reach tomorrow, so there is no gap at midnight
+ * before the sweep runs. Rows of trains changed while maintenance was off would be stale, so the window is rebuilt at startup.
+ */
+@Service
+public class LiveTimeTableTrainService {
+    private static final String WINDOW = "ttr.departure_date BETWEEN (CURDATE() - INTERVAL 1 DAY) AND (CURDATE() + INTERVAL 2 DAY)";
+
+    private static final String INSERT_SELECT = "INTO live_time_table_train_materialized (departure_date, train_number, attap_id, version, " +
+            "train_stopping, type, station_short_code, actual_time, scheduled_time, live_estimate_time, predict_time, time_table_row_cancelled, " +
+            "cancelled, deleted, train_category_id) " +
+            "SELECT ttr.departure_date, ttr.train_number, ttr.attap_id, t.version, ttr.train_stopping, ttr.type, ttr.station_short_code, " +
+            "ttr.actual_time, ttr.scheduled_time, ttr.live_estimate_time, COALESCE(ttr.live_estimate_time, ttr.scheduled_time), ttr.cancelled, " +
+            "t.cancelled, t.deleted, t.train_category_id " +
+            "FROM time_table_row ttr JOIN train t ON t.departure_date = ttr.departure_date AND t.train_number = ttr.train_number " +
+            "WHERE " + WINDOW;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TrainLockExecutor trainLockExecutor;
+
+    @Autowired
+    private SimpleTransactionManager simpleTransactionManager;
+
+    @Autowired
+    private DateProvider dp;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${updater.live-time-table-train.enabled:true}")
+    private boolean enabled;
+
+    @Value("${updater.live-time-table-train.sweep-cron}")
+    private String sweepCron;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void setup() {
+        if (!enabled) {
+            log.info("Live time table train maintenance is disabled");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("live-time-table-train-%d").build());
+        executor.execute(new ExceptionLoggingRunnable(this::scheduledRebuild));
+        new ConcurrentTaskScheduler(executor).schedule(new ExceptionLoggingRunnable(this::scheduledSweep),
+                new CronTrigger(sweepCron, TimeZone.getTimeZone("Europe/Helsinki")));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Rewrites the rows of the trains that are in the window. Must be called in the transaction that changed the trains.
+     */
+    @Transactional
+    public void update(final Collection<TrainId> trainIds) {
+        if (!enabled) {
+            return;
+        }
+
+        // A day of margin on both sides, in case the date of the database differs from ours around midnight. WINDOW decides.
+        final LocalDate today = dp.dateInHelsinki();
+        final LocalDate first = today.minusDays(2);
+        final LocalDate last = today.plusDays(3);
+
+        final List<Object[]> parameters = new ArrayList<>(trainIds.size());
+        for (final TrainId trainId : trainIds) {
+            if (!trainId.departureDate.isBefore(first) && !trainId.departureDate.isAfter(last)) {
+                parameters.add(new Object[]{trainId.departureDate, trainId.trainNumber});
+            }
+        }
+
+        if (parameters.isEmpty()) {
+            return;
+        }
+
+        // Statements below do not trigger Hibernate's automatic flush
+        entityManager.flush();
+
+        jdbcTemplate.batchUpdate("DELETE FROM live_time_table_train_materialized WHERE departure_date = ? AND train_number = ?", parameters);
+        jdbcTemplate.batchUpdate("INSERT " + INSERT_SELECT + " AND ttr.departure_date = ? AND ttr.train_number = ?", parameters);
+    }
+
+    private void scheduledSweep() {
+        final LocalDate today = dp.dateInHelsinki();
+        // Only trains of the day entering the window are read, so only their updates need to wait
+        trainLockExecutor.executeInLock(today.plusDays(2), () -> simpleTransactionManager.executeInTransaction(() -> {
+            sweep(today);
+            return null;
+        }));
+    }
+
+    private void scheduledRebuild() {
+        trainLockExecutor.executeInTransactionLock(() -> {
+            rebuild();
+            return null;
+        });
+    }
+
+    /**
+     * Removes rows of days that left the window and adds rows of the day after tomorrow, which is the day entering the window
+     */
+    void sweep(final LocalDate today) {
+        final int removed = jdbcTemplate.update("DELETE FROM live_time_table_train_materialized WHERE departure_date < ?",
+                today.minusDays(1));
+        final int added = jdbcTemplate.update("INSERT IGNORE " + INSERT_SELECT + " AND ttr.departure_date = ?", today.plusDays(2));
+
+        log.info("Swept live time table trains, removed {} and added {} rows", removed, added);
+    }
+
+    void rebuild() {
+        final int removed = jdbcTemplate.update("DELETE FROM live_time_table_train_materialized");
+        final int added = jdbcTemplate.update("INSERT " + INSERT_SELECT);
+
+        log.info("Rebuilt live time table trains, removed {} and added {} rows", removed, added);
+    }
+}
@@ -0,0 +1,156 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * One MQTT connection with its own queue and sender thread. Messages of a topic always go to the same lane, so they are sent in the
+ * order they were published. When the queue is full the oldest queued message is dropped to make room for the new one.
+ * <p>
+ * Coalesced messages describe the latest state of their topic. While such a message is still queued, a newer coalesced message to the
+ * same topic replaces its payload in place and shares its future, so the topic keeps its position in the queue and only the newest
+ * payload is sent.
+ */
+class MQTTPublishLane implements Runnable {
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final MessageHandler messageHandler;
+    private final BlockingDeque<PendingMessage> queue;
+    private final Map<String, PendingMessage> queuedByTopic = new HashMap<>();
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+    private final Counter replacedCounter;
+
+    MQTTPublishLane(final int index, final MessageHandler messageHandler, final int queueSize, final MeterRegistry meterRegistry) {
+        this.messageHandler = messageHandler;
+        this.queue = new LinkedBlockingDeque<>(queueSize);
+
+        final String lane = Integer.toString(index);
+        this.sentCounter = meterRegistry.counter("mqtt.messages.sent", "lane", lane);
+        this.droppedCounter = meterRegistry.counter("mqtt.messages.dropped", "lane", lane);
+        this.failedCounter = meterRegistry.counter("mqtt.messages.failed", "lane", lane);
+        this.replacedCounter = meterRegistry.counter("mqtt.messages.replaced", "lane", lane);
+        meterRegistry.gauge("mqtt.queue.size", Tags.of("lane", lane), queue, BlockingDeque::size);
+    }
+
+    CompletableFuture<Message<String>> submit(final Message<String> message) {
+        return submit(message, false);
+    }
+
+    /**
+     * @param coalesce Replace the payload of a queued coalesced message to the same topic instead of queueing a new message
+     */
+    synchronized CompletableFuture<Message<String>> submit(final Message<String> message, final boolean coalesce) {
+        final String topic = getTopic(message);
+
+        if (coalesce) {
+            final PendingMessage queued = queuedByTopic.get(topic);
+            if (queued != null) {
+                queued.message = message;
+                replacedCounter.increment();
+                return queued.future;
+            }
+        }
+
+        final PendingMessage pendingMessage = new PendingMessage(topic, message, coalesce);
+
+        while (!queue.offerLast(pendingMessage)) {
+            final PendingMessage stale = queue.pollFirst();
+            if (stale != null) {
+                dequeued(stale);
+                stale.future.complete(null);
+                droppedCounter.increment();
+                log.debug("MQTT queue full. Dropped message to {} submitted at {}", stale.topic, stale.submittedAt);
+            }
+        }
+
+        if (coalesce) {
+            queuedByTopic.put(topic, pendingMessage);
+        }
+
+        return pendingMessage.future;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final PendingMessage pendingMessage;
+            try {
+                pendingMessage = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // After this the message can no longer be replaced, a newer payload is queued as a new message
+            final Message<String> message;
+            synchronized (this) {
+                dequeued(pendingMessage);
+                message = pendingMessage.message;
+            }
+
+            send(pendingMessage, message);
+        }
+    }
+
+    private void dequeued(final PendingMessage pendingMessage) {
+        if (pendingMessage.coalesce) {
+            queuedByTopic.remove(pendingMessage.topic, pendingMessage);
+        }
+    }
+
+    private void send(final PendingMessage pendingMessage, final Message<String> message) {
+        try {
+            ZonedDateTime executionStartedAt = ZonedDateTime.now();
+
+            messageHandler.handleMessage(message);
+            sentCounter.increment();
+
+            if (Duration.between(pendingMessage.submittedAt, executionStartedAt).toMillis() > 10000) {
+                log.info("Waited: {}, Executed: {}", Duration.between(pendingMessage.submittedAt, executionStartedAt),
+                        Duration.between(executionStartedAt, ZonedDateTime.now()));
+            }
+
+            pendingMessage.future.complete(message);
+        } catch (Exception e) {
+            failedCounter.increment();
+            log.error("Error sending data to MQTT. Topic: {}", pendingMessage.topic, e);
+
+            pendingMessage.future.complete(null);
+        }
+    }
+
+    private static String getTopic(final Message<String> message) {
+        return (String) message.getHeaders().get(MqttHeaders.TOPIC);
+    }
+
+    private static class PendingMessage {
+        private final String topic;
+        private final boolean coalesce;
+        private final ZonedDateTime submittedAt = ZonedDateTime.now();
+        private final CompletableFuture<Message<String>> future = new CompletableFuture<>();
+        private Message<String> message;
+
+        private PendingMessage(final String topic, final Message<String> message, final boolean coalesce) {
+            this.topic = topic;
+            this.message = message;
+            this.coalesce = coalesce;
+        }
+    }
+}
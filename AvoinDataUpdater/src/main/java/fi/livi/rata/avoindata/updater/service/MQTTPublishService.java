@@ -1,50 +1,92 @@
 package fi.livi.rata.avoindata.updater.service;
 
-import java.time.Duration;
-import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.env.Environment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.outbound.MqttPahoMessageHandler;
 import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.messaging.Message;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import fi.livi.rata.avoindata.updater.config.MQTTConfig;
-
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes messages through several MQTT connections. Each topic is mapped to one connection and its sender thread, which keeps
+ * messages of a topic in order while different topics are sent in parallel.
+ * <p>
+ * Topics that carry the latest state of a single entity can be published coalesced: a queued message is then replaced by a newer one to
+ * the same topic. Subscribers end up with the same state but skip the intermediate versions. Coalescing can be turned off with
+ * updater.mqtt.coalesce.
+ */
 @Service
 public class MQTTPublishService {
     private static final int QUEUE_SIZE = 50000;
-    public static final int NUMBER_OF_THREADS = 1;
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    private MQTTConfig.MQTTGateway MQTTGateway;
+    private MqttPahoClientFactory mqttClientFactory;
+
+    @Autowired
+    private BeanFactory beanFactory;
 
     @Autowired
     private ObjectMapper objectMapper;
 
     @Autowired
-    private Environment environment;
+    private MeterRegistry meterRegistry;
+
+    @Value("${updater.mqtt.client-id}")
+    private String mqttClientId;
 
-    private ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    @Value("${updater.mqtt.numberOfConnections:4}")
+    private int numberOfConnections;
+
+    @Value("${updater.mqtt.coalesce:true}")
+    private boolean coalesceEnabled;
+
+    private MQTTPublishLane[] lanes;
+    private Thread[] laneThreads;
 
     @PostConstruct
     public void setup() {
-        executor.setQueueCapacity(QUEUE_SIZE);
-        executor.setMaxPoolSize(NUMBER_OF_THREADS);
-        executor.setThreadNamePrefix("mqtt-send");
-        executor.initialize();
+        final int clientIdSuffix = new Random().nextInt(1000);
+
+        lanes = new MQTTPublishLane[numberOfConnections];
+        laneThreads = new Thread[numberOfConnections];
+        for (int i = 0; i < numberOfConnections; i++) {
+            final MqttPahoMessageHandler messageHandler = new MqttPahoMessageHandler(String.format("%s%s-%s", mqttClientId, clientIdSuffix, i),
+                    mqttClientFactory);
+            messageHandler.setBeanFactory(beanFactory);
+            messageHandler.afterPropertiesSet();
+            messageHandler.start();
+
+            lanes[i] = new MQTTPublishLane(i, messageHandler, QUEUE_SIZE / numberOfConnections, meterRegistry);
+
+            laneThreads[i] = new Thread(lanes[i], "mqtt-send-" + i);
+            laneThreads[i].setDaemon(true);
+            laneThreads[i].start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (final Thread laneThread : laneThreads) {
+            laneThread.interrupt();
+        }
     }
 
     public <E> void publish(Function<E, String> topicProvider, List<E> entities) {
@@ -52,16 +94,37 @@ public class MQTTPublishService {
     }
 
     public <E> void publish(Function<E, String> topicProvider, List<E> entities, Class viewClass) {
+        this.publish(topicProvider, entities, viewClass, false);
+    }
+
+    public <E> void publish(Function<E, String> topicProvider, List<E> entities, Class viewClass, boolean coalesce) {
+        for (final E entity : entities) {
+            publishEntity(topicProvider.apply(entity), entity, viewClass, coalesce);
+        }
+    }
+
+    /**
+     * Like publish(), but the topics are built with MQTTTopicBuilder and are already sanitized, so they are published as is.
+     */
+    public <E> void publishBuiltTopics(Function<E, String> topicBuilder, List<E> entities, Class viewClass, boolean coalesce) {
         for (final E entity : entities) {
-            publishEntity(topicProvider.apply(entity), entity, viewClass);
+            try {
+                publish(topicBuilder.apply(entity), getEntityAsString(entity, viewClass), coalesce, false);
+            } catch (Exception e) {
+                log.error("Error publishing {}", entity, e);
+            }
         }
     }
 
     public <E> Future<Message<String>> publishEntity(String topic, E entity, Class viewClass) {
+        return publishEntity(topic, entity, viewClass, false);
+    }
+
+    public <E> Future<Message<String>> publishEntity(String topic, E entity, Class viewClass, boolean coalesce) {
         try {
             String entityAsString = getEntityAsString(entity, viewClass);
 
-            return publishString(topic, entityAsString);
+            return publishString(topic, entityAsString, coalesce);
         } catch (Exception e) {
             log.error("Error publishing {} to {}", topic, entity);
         }
@@ -69,45 +132,45 @@ public class MQTTPublishService {
     }
 
     public Future<Message<String>> publishString(String topic, String entity) {
-        try {
-            final Message<String> message = buildMessage(topic, entity);
-
-            ZonedDateTime submittedAt = ZonedDateTime.now();
+        return publishString(topic, entity, false);
+    }
 
-            Future<Message<String>> future = executor.submit(() -> {
-                try {
-                    ZonedDateTime executionStartedAt = ZonedDateTime.now();
+    /**
+     * @param coalesce The topic carries the latest state of one entity. A queued message to the topic is replaced instead of sending
+     *                 both. The returned future then completes with the newest message.
+     */
+    public Future<Message<String>> publishString(String topic, String entity, boolean coalesce) {
+        return publish(topic, entity, coalesce, true);
+    }
 
-                    MQTTGateway.sendToMqtt(message);
+    /**
+     * Publishes to a topic built with MQTTTopicBuilder. Built topics are already sanitized and are not sanitized again.
+     */
+    public Future<Message<String>> publishBuiltTopic(String topic, String entity, boolean coalesce) {
+        return publish(topic, entity, coalesce, false);
+    }
 
-                    if (Duration.between(submittedAt, executionStartedAt).toMillis() > 10000) {
-                        log.info("Waited: {}, Executed: {}", Duration.between(submittedAt, executionStartedAt),
-                                Duration.between(executionStartedAt, ZonedDateTime.now()));
-                    }
-                    return message;
-                } catch (Exception e) {
-                    log.error("Error sending data to MQTT. Topic: {}", topic, e);
-                    return null;
-                }
-            });
+    private Future<Message<String>> publish(String topic, String entity, boolean coalesce, boolean sanitize) {
+        try {
+            final Message<String> message = buildMessage(sanitize ? MQTTTopicBuilder.sanitize(topic) : topic, entity);
 
-            return future;
+            return getLane(message).submit(message, coalesce && coalesceEnabled);
         } catch (Exception e) {
             log.error("Error publishing to {}", topic, e);
             return null;
         }
     }
 
-    private Message<String> buildMessage(final String topic, final String entity) {
-        final MessageBuilder<String> payloadBuilder = MessageBuilder.withPayload(entity);
-
-        final String topicToPublishTo = getReplacedTopic(topic);
+    private MQTTPublishLane getLane(final Message<String> message) {
+        final String topic = (String) message.getHeaders().get(MqttHeaders.TOPIC);
 
-        return payloadBuilder.setHeader(MqttHeaders.TOPIC, topicToPublishTo).build();
+        return lanes[Math.floorMod(topic.hashCode(), lanes.length)];
     }
 
-    private String getReplacedTopic(String topic) {
-        return topic.replace("+", "").replace("#", "").replaceAll("/null/", "//").replaceAll("/null/", "//").replaceFirst("/null$", "/");
+    private Message<String> buildMessage(final String topic, final String entity) {
+        final MessageBuilder<String> payloadBuilder = MessageBuilder.withPayload(entity);
+
+        return payloadBuilder.setHeader(MqttHeaders.TOPIC, topic).build();
     }
 
     private <E> String getEntityAsString(E entity, Class viewClass) throws JsonProcessingException {
@@ -0,0 +1,122 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.time.LocalDate;
+
+import fi.livi.rata.avoindata.common.domain.train.Train;
+
+/**
+ * Builds MQTT topics into a reused per-thread buffer. Segments are sanitized while they are appended: wildcard characters '+' and '#'
+ * are removed and null values are written as empty segments, so built topics do not need a separate sanitizing pass.
+ * <p>
+ * A builder is bound to the calling thread and start() resets it, so a topic must be built before the next one is started.
+ */
+public final class MQTTTopicBuilder {
+    private static final ThreadLocal<MQTTTopicBuilder> BUILDERS = ThreadLocal.withInitial(MQTTTopicBuilder::new);
+
+    private final StringBuilder buffer = new StringBuilder(128);
+
+    private MQTTTopicBuilder() {
+    }
+
+    public static MQTTTopicBuilder start(final String root) {
+        final MQTTTopicBuilder builder = BUILDERS.get();
+        builder.buffer.setLength(0);
+        builder.appendSanitized(root, 0, root.length());
+        return builder;
+    }
+
+    public static String trains(final Train train) {
+        return start("trains")
+                .segment(train.id.departureDate)
+                .segment(train.id.trainNumber)
+                .segment(train.trainCategory)
+                .segment(train.trainType)
+                .segment(train.operator != null ? train.operator.operatorShortCode : null)
+                .segment(train.commuterLineID)
+                .segment(train.runningCurrently)
+                .segment(train.timetableType)
+                .build();
+    }
+
+    public static String trainsByStation(final String stationShortCode) {
+        return start("trains-by-station").segment(stationShortCode).build();
+    }
+
+    public static String trainLocations(final LocalDate departureDate, final Long trainNumber) {
+        return start("train-locations").segment(departureDate).segment(trainNumber).build();
+    }
+
+    /**
+     * Sanitizes a topic built elsewhere in one pass. Wildcard characters are removed and segments reading "null" are emptied, except
+     * for the first segment.
+     */
+    public static String sanitize(final String topic) {
+        final MQTTTopicBuilder builder = BUILDERS.get();
+        builder.buffer.setLength(0);
+
+        int segmentStart = 0;
+        boolean first = true;
+        while (true) {
+            final int segmentEnd = topic.indexOf('/', segmentStart);
+            final int end = segmentEnd == -1 ? topic.length() : segmentEnd;
+
+            if (!first) {
+                builder.buffer.append('/');
+            }
+            final int written = builder.buffer.length();
+            builder.appendSanitized(topic, segmentStart, end);
+            if (!first && builder.isNull(written)) {
+                builder.buffer.setLength(written);
+            }
+
+            if (segmentEnd == -1) {
+                break;
+            }
+            segmentStart = segmentEnd + 1;
+            first = false;
+        }
+
+        return builder.buffer.toString();
+    }
+
+    public MQTTTopicBuilder segment(final Object value) {
+        buffer.append('/');
+        if (value != null) {
+            final String string = value.toString();
+            final int written = buffer.length();
+            appendSanitized(string, 0, string.length());
+            if (isNull(written)) {
+                buffer.setLength(written);
+            }
+        }
+        return this;
+    }
+
+    public MQTTTopicBuilder segment(final long value) {
+        buffer.append('/').append(value);
+        return this;
+    }
+
+    public MQTTTopicBuilder segment(final boolean value) {
+        buffer.append('/').append(value);
+        return this;
+    }
+
+    public String build() {
+        return buffer.toString();
+    }
+
+    private void appendSanitized(final CharSequence value, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c != '+' && c != '#') {
+                buffer.append(c);
+            }
+        }
+    }
+
+    private boolean isNull(final int segmentStart) {
+        return buffer.length() - segmentStart == 4 && buffer.charAt(segmentStart) == 'n' && buffer.charAt(segmentStart + 1) == 'u' &&
+                buffer.charAt(segmentStart + 2) == 'l' && buffer.charAt(segmentStart + 3) == 'l';
+    }
+}
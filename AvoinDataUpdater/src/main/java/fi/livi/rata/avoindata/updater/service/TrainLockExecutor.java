@@ -5,63 +5,144 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
+
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Serializes train modifications.
+ * <p>
+ * executeInLock(callable) locks every train and should be used when the modified trains are not known beforehand. Keyed variants lock
+ * only stripes of the given trains or departure dates, so updates to disjoint trains can run concurrently. A stripe is a departure date
+ * combined with trainNumber % TRAIN_NUMBER_STRIPES, which lets a whole date be locked with a fixed number of stripes.
+ * <p>
+ * Versions are allocated atomically by TrainVersionService, and nothing is locked across stripes, so writes to trains on different
+ * stripes overlap. Their transactions can therefore commit out of version order.
+ */
 @Service
 public class TrainLockExecutor {
+    private static final int TRAIN_NUMBER_STRIPES = 16;
+    private static final int DATE_SLOTS = 32;
+
     @Autowired
     private SimpleTransactionManager simpleTransactionManager;
 
+    @Autowired
+    private TrainVersionService trainVersionService;
+
     private Logger log = LoggerFactory.getLogger(TrainLockExecutor.class);
 
-    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock(true);
+    private final ReentrantLock[] stripes = createStripes();
 
     public <T> T executeInTransactionLock(Callable<T> callable) {
-        ZonedDateTime submittedAt = ZonedDateTime.now();
+        return executeLocked(null, () -> simpleTransactionManager.executeInTransaction(callable));
+    }
 
-        Callable<T> wrappedCallable = () -> {
-            ZonedDateTime executionStartedAt = ZonedDateTime.now();
-            T returnValue = simpleTransactionManager.executeInTransaction(callable);
-            if (Duration.between(submittedAt, executionStartedAt).toMillis() > 10000) {
-                log.info("Waited: {}, Executed: {}", Duration.between(submittedAt, executionStartedAt), Duration.between(executionStartedAt, ZonedDateTime.now()));
-            }
-            return returnValue;
-        };
+    public <T> T executeInLock(Callable<T> callable) {
+        return executeLocked(null, callable);
+    }
 
-        final Future<T> future = executorService.submit(wrappedCallable);
+    public <T> T executeInTransactionLock(Collection<TrainId> trainIds, Callable<T> callable) {
+        return executeLocked(getStripeIndexes(trainIds), () -> simpleTransactionManager.executeInTransaction(callable));
+    }
 
-        try {
-            return future.get();
-        } catch (Exception e) {
-            log.error("Error executing callable in TrainLockExecutor", e);
-            return null;
-        }
+    public <T> T executeInLock(Collection<TrainId> trainIds, Callable<T> callable) {
+        return executeLocked(getStripeIndexes(trainIds), callable);
     }
 
-    public <T> T executeInLock(Callable<T> callable) {
+    public <T> T executeInLock(LocalDate departureDate, Callable<T> callable) {
+        return executeLocked(getStripeIndexes(departureDate), callable);
+    }
+
+    /**
+     * One version for a batch of merged trains. The version is allocated when the first train of the batch actually changes, so batches
+     * that change nothing do not consume versions.
+     */
+    public Supplier<Long> newBatchVersion() {
+        return Suppliers.memoize(() -> trainVersionService.nextVersion());
+    }
+
+    /**
+     * @param stripeIndexes null locks all trains
+     */
+    private <T> T executeLocked(SortedSet<Integer> stripeIndexes, Callable<T> callable) {
         ZonedDateTime submittedAt = ZonedDateTime.now();
 
-        Callable<T> wrappedCallable = () -> {
+        final boolean global = stripeIndexes == null;
+        if (global) {
+            if (globalLock.getReadHoldCount() > 0) {
+                throw new IllegalStateException("Can not lock all trains while holding a keyed train lock");
+            }
+            globalLock.writeLock().lock();
+        } else {
+            globalLock.readLock().lock();
+            // Ascending order so that two keyed operations can not deadlock
+            for (final Integer stripeIndex : stripeIndexes) {
+                stripes[stripeIndex].lock();
+            }
+        }
+
+        try {
             ZonedDateTime executionStartedAt = ZonedDateTime.now();
             T returnValue = callable.call();
             if (Duration.between(submittedAt, executionStartedAt).toMillis() > 10000) {
                 log.info("Waited: {}, Executed: {}", Duration.between(submittedAt, executionStartedAt), Duration.between(executionStartedAt, ZonedDateTime.now()));
             }
             return returnValue;
-        };
-
-        final Future<T> future = executorService.submit(wrappedCallable);
-
-        try {
-            return future.get();
         } catch (Exception e) {
             log.error("Error executing callable in TrainLockExecutor", e);
             return null;
+        } finally {
+            if (global) {
+                globalLock.writeLock().unlock();
+            } else {
+                for (final Integer stripeIndex : stripeIndexes) {
+                    stripes[stripeIndex].unlock();
+                }
+                globalLock.readLock().unlock();
+            }
+        }
+    }
+
+    private SortedSet<Integer> getStripeIndexes(final Collection<TrainId> trainIds) {
+        final SortedSet<Integer> stripeIndexes = new TreeSet<>();
+        for (final TrainId trainId : trainIds) {
+            stripeIndexes.add(getStripeIndex(trainId.departureDate, trainId.trainNumber));
+        }
+        return stripeIndexes;
+    }
+
+    private SortedSet<Integer> getStripeIndexes(final LocalDate departureDate) {
+        final SortedSet<Integer> stripeIndexes = new TreeSet<>();
+        for (int i = 0; i < TRAIN_NUMBER_STRIPES; i++) {
+            stripeIndexes.add(getStripeIndex(departureDate, i));
+        }
+        return stripeIndexes;
+    }
+
+    private int getStripeIndex(final LocalDate departureDate, final long trainNumber) {
+        final int dateSlot = (int) Math.floorMod(departureDate.toEpochDay(), DATE_SLOTS);
+        final int trainNumberSlot = (int) Math.floorMod(trainNumber, TRAIN_NUMBER_STRIPES);
+        return dateSlot * TRAIN_NUMBER_STRIPES + trainNumberSlot;
+    }
+
+    private static ReentrantLock[] createStripes() {
+        final ReentrantLock[] locks = new ReentrantLock[DATE_SLOTS * TRAIN_NUMBER_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock(true);
         }
+        return locks;
     }
 }
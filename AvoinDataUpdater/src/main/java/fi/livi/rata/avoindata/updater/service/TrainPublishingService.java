@@ -29,17 +29,14 @@ public class TrainPublishingService {
                 for (Train train : updatedTrains) {
                     String trainAsString = objectMapper.writerWithView(TrainJsonView.LiveTrains.class).writeValueAsString(train);
 
-                    mqttPublishService.publishString(
-                            String.format("trains/%s/%s/%s/%s/%s/%s/%s/%s", train.id.departureDate, train.id.trainNumber,
-                                    train.trainCategory, train.trainType, train.operator.operatorShortCode, train.commuterLineID,
-                                    train.runningCurrently, train.timetableType), trainAsString);
+                    mqttPublishService.publishBuiltTopic(MQTTTopicBuilder.trains(train), trainAsString, true);
 
                     Set<String> announcedStations = new HashSet<>();
                     for (TimeTableRow timeTableRow : train.timeTableRows) {
                         String stationShortCode = timeTableRow.station.stationShortCode;
                         if (!announcedStations.contains(stationShortCode)) {
                             announcedStations.add(stationShortCode);
-                            mqttPublishService.publishString(String.format("trains-by-station/%s", stationShortCode), trainAsString);
+                            mqttPublishService.publishBuiltTopic(MQTTTopicBuilder.trainsByStation(stationShortCode), trainAsString, false);
                         }
                     }
                 }
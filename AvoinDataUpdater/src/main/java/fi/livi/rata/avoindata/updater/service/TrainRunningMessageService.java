@@ -27,9 +27,7 @@ public class TrainRunningMessageService extends VersionedService<TrainRunningMes
         trainReadyMessageRepository.persist(trainRunningMessages);
 
         for (final TrainRunningMessage entity : trainRunningMessages) {
-            if (entity.version > maxVersion.get()) {
-                maxVersion.set(entity.version);
-            }
+            maxVersion.accumulateAndGet(entity.version, Math::max);
         }
     }
 
@@ -38,9 +36,7 @@ public class TrainRunningMessageService extends VersionedService<TrainRunningMes
         updateTrainRunningMessages(trainRunningMessages);
 
         for (final TrainRunningMessage entity : trainRunningMessages) {
-            if (entity.version > maxVersion.get()) {
-                maxVersion.set(entity.version);
-            }
+            maxVersion.accumulateAndGet(entity.version, Math::max);
         }
     }
 
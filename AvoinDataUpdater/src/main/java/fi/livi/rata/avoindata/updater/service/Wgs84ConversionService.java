@@ -1,17 +1,45 @@
 package fi.livi.rata.avoindata.updater.service;
 
 import org.osgeo.proj4j.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 
+/**
+ * Converts between ETRS-TM35FIN (livi) and WGS84 coordinates. WGS84 results of liviToWgs84 are rounded to NUMBER_OF_DECIMALS.
+ * <p>
+ * Batch methods convert x,y pairs of a double[] in place. With updater.wgs84.grid-step-meters set, livi coordinates inside Finland
+ * are converted by bilinear interpolation of a precomputed grid instead of proj4j. With a 1000 m step (about 14 MB) the interpolation
+ * error is below 1e-6 degrees (about 0.1 m), i.e. within the rounding of the result. Coordinates outside the grid use proj4j.
+ * <p>
+ * proj4j transforms keep state between calls, so each thread uses its own transforms.
+ */
 @Service
 public class Wgs84ConversionService {
     public static final int NUMBER_OF_DECIMALS = 6;
-    private CoordinateTransform transformer;
-    private CoordinateTransform reverseTransformer;
+    private static final double ROUNDING_SCALE = Math.pow(10, NUMBER_OF_DECIMALS);
+
+    // ETRS-TM35FIN extent of Finland
+    private static final double GRID_MIN_X = 40000;
+    private static final double GRID_MAX_X = 770000;
+    private static final double GRID_MIN_Y = 6570000;
+    private static final double GRID_MAX_Y = 7800000;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Value("${updater.wgs84.grid-step-meters:0}")
+    private double gridStep;
+
+    private ThreadLocal<CoordinateTransform> transformer;
+    private ThreadLocal<CoordinateTransform> reverseTransformer;
+
+    private int gridColumns;
+    private int gridRows;
+    // lon,lat per grid node, row by row
+    private double[] grid;
 
     @PostConstruct
     private void setup() {
@@ -21,19 +49,19 @@ public class Wgs84ConversionService {
         CoordinateReferenceSystem coordinateTransformTo = crsFactory.createFromParameters("EPSG:4326",
                 "+proj=longlat +ellps=WGS84 +datum=WGS84 +no_defs");
         CoordinateTransformFactory coordinateTransformFactory = new CoordinateTransformFactory();
-        transformer = coordinateTransformFactory.createTransform(coordinateTransformFrom, coordinateTransformTo);
-        reverseTransformer = coordinateTransformFactory.createTransform(coordinateTransformTo, coordinateTransformFrom);
+        transformer = ThreadLocal.withInitial(() -> coordinateTransformFactory.createTransform(coordinateTransformFrom, coordinateTransformTo));
+        reverseTransformer = ThreadLocal.withInitial(
+                () -> coordinateTransformFactory.createTransform(coordinateTransformTo, coordinateTransformFrom));
+
+        if (gridStep > 0) {
+            createGrid();
+        }
     }
 
     public ProjCoordinate liviToWgs84(double iKoordinaatti, double pKoordinaatti) {
-        ProjCoordinate from = new ProjCoordinate();
-        ProjCoordinate to = new ProjCoordinate();
-        from.x = iKoordinaatti;
-        from.y = pKoordinaatti;
-
-        transformer.transform(from, to);
-        to.setValue(round(to.x,NUMBER_OF_DECIMALS),round(to.y, NUMBER_OF_DECIMALS));
-        return to;
+        final double[] coordinates = {iKoordinaatti, pKoordinaatti};
+        liviToWgs84(coordinates);
+        return new ProjCoordinate(coordinates[0], coordinates[1]);
     }
 
     public ProjCoordinate wgs84Tolivi(double x, double y) {
@@ -42,15 +70,105 @@ public class Wgs84ConversionService {
         from.x = x;
         from.y = y;
 
-        reverseTransformer.transform(from, to);
+        reverseTransformer.get().transform(from, to);
         return to;
     }
 
+    /**
+     * Converts x,y pairs from ETRS-TM35FIN to rounded WGS84 longitude,latitude in place
+     */
+    public void liviToWgs84(double[] coordinates) {
+        final CoordinateTransform transform = transformer.get();
+        final ProjCoordinate from = new ProjCoordinate();
+        final ProjCoordinate to = new ProjCoordinate();
+
+        for (int i = 0; i + 1 < coordinates.length; i += 2) {
+            if (grid == null || !interpolate(coordinates, i)) {
+                from.x = coordinates[i];
+                from.y = coordinates[i + 1];
+                transform.transform(from, to);
+                coordinates[i] = to.x;
+                coordinates[i + 1] = to.y;
+            }
+
+            coordinates[i] = round(coordinates[i]);
+            coordinates[i + 1] = round(coordinates[i + 1]);
+        }
+    }
+
+    /**
+     * Converts WGS84 longitude,latitude pairs to ETRS-TM35FIN in place
+     */
+    public void wgs84ToLivi(double[] coordinates) {
+        final CoordinateTransform transform = reverseTransformer.get();
+        final ProjCoordinate from = new ProjCoordinate();
+        final ProjCoordinate to = new ProjCoordinate();
+
+        for (int i = 0; i + 1 < coordinates.length; i += 2) {
+            from.x = coordinates[i];
+            from.y = coordinates[i + 1];
+            transform.transform(from, to);
+            coordinates[i] = to.x;
+            coordinates[i + 1] = to.y;
+        }
+    }
+
     public static double round(double value, int places) {
         if (places < 0) throw new IllegalArgumentException();
 
-        BigDecimal bd = new BigDecimal(value);
-        bd = bd.setScale(places, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+        final double scale = Math.pow(10, places);
+        return Math.signum(value) * Math.floor(Math.abs(value) * scale + 0.5) / scale;
+    }
+
+    private static double round(final double value) {
+        return Math.signum(value) * Math.floor(Math.abs(value) * ROUNDING_SCALE + 0.5) / ROUNDING_SCALE;
+    }
+
+    private void createGrid() {
+        gridColumns = (int) Math.ceil((GRID_MAX_X - GRID_MIN_X) / gridStep) + 1;
+        gridRows = (int) Math.ceil((GRID_MAX_Y - GRID_MIN_Y) / gridStep) + 1;
+
+        final double[] nodes = new double[gridColumns * gridRows * 2];
+        final CoordinateTransform transform = transformer.get();
+        final ProjCoordinate from = new ProjCoordinate();
+        final ProjCoordinate to = new ProjCoordinate();
+        for (int row = 0; row < gridRows; row++) {
+            for (int column = 0; column < gridColumns; column++) {
+                from.x = GRID_MIN_X + column * gridStep;
+                from.y = GRID_MIN_Y + row * gridStep;
+                transform.transform(from, to);
+
+                nodes[(row * gridColumns + column) * 2] = to.x;
+                nodes[(row * gridColumns + column) * 2 + 1] = to.y;
+            }
+        }
+        grid = nodes;
+
+        log.info("Created {}x{} WGS84 conversion grid with {} m step", gridColumns, gridRows, gridStep);
+    }
+
+    /**
+     * @return false if the coordinate is outside the grid
+     */
+    private boolean interpolate(final double[] coordinates, final int i) {
+        final double gridX = (coordinates[i] - GRID_MIN_X) / gridStep;
+        final double gridY = (coordinates[i + 1] - GRID_MIN_Y) / gridStep;
+        if (!(gridX >= 0 && gridY >= 0 && gridX < gridColumns - 1 && gridY < gridRows - 1)) {
+            return false;
+        }
+
+        final int column = (int) gridX;
+        final int row = (int) gridY;
+        final double fx = gridX - column;
+        final double fy = gridY - row;
+
+        final int bottomLeft = (row * gridColumns + column) * 2;
+        final int topLeft = bottomLeft + gridColumns * 2;
+        for (int axis = 0; axis < 2; axis++) {
+            final double bottom = grid[bottomLeft + axis] + (grid[bottomLeft + 2 + axis] - grid[bottomLeft + axis]) * fx;
+            final double top = grid[topLeft + axis] + (grid[topLeft + 2 + axis] - grid[topLeft + axis]) * fx;
+            coordinates[i + axis] = bottom + (top - bottom) * fy;
+        }
+        return true;
     }
 }
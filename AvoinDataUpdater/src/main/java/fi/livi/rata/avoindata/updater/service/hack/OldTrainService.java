@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
 import fi.livi.rata.avoindata.updater.config.InitializerRetryTemplate;
 import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 import fi.livi.rata.avoindata.updater.service.isuptodate.LastUpdateService;
@@ -44,6 +45,9 @@ public class OldTrainService {
     @Autowired
     private TrainLockExecutor trainLockExecutor;
 
+    @Autowired
+    private TrainVersionService trainVersionService;
+
     @Autowired
     private LastUpdateService lastUpdateService;
 
@@ -67,14 +71,14 @@ public class OldTrainService {
 
             final List<Train> trainResponse = getChangedTrains(date);
 
-            trainLockExecutor.executeInLock(() -> {
+            trainLockExecutor.executeInLock(Lists.transform(trainResponse, t -> t.id), () -> {
 
                 if (!trainResponse.isEmpty()) {
                     log.info("Updating: {}", Iterables.transform(trainResponse, t -> String.format("%s (%s)", t, t.version)));
 
-                    final long maxVersion = trainRepository.getMaxVersion();
+                    final long newVersion = trainVersionService.nextVersion();
                     for (final Train train : trainResponse) {
-                        train.version = maxVersion + 1;
+                        train.version = newVersion;
                     }
 
                     trainPersistService.updateEntities(trainResponse);
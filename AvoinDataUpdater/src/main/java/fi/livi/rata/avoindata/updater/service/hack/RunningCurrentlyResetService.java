@@ -2,6 +2,7 @@ package fi.livi.rata.avoindata.updater.service.hack;
 
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
 import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 import org.slf4j.Logger;
@@ -23,6 +24,9 @@ public class RunningCurrentlyResetService {
     @Autowired
     private TrainLockExecutor trainLockExecutor;
 
+    @Autowired
+    private TrainVersionService trainVersionService;
+
     @Autowired
     private DateProvider dateProvider;
 
@@ -32,18 +36,18 @@ public class RunningCurrentlyResetService {
         LocalDate maxDepartureDate = dateProvider.dateInHelsinki().minusDays(2);
         trainLockExecutor.executeInLock(() -> {
             List<Train> oldRunningTrains = trainRepository.findRunningTrains(maxDepartureDate);
-            long maxVersion = trainRepository.getMaxVersion();
+            long newVersion = trainVersionService.nextVersion();
 
             for (Train oldRunningTrain : oldRunningTrains) {
                 oldRunningTrain.runningCurrently = false;
-                oldRunningTrain.version = maxVersion + 1;
+                oldRunningTrain.version = newVersion;
 
                 log.info("Resetting running-currently for {} at version {}", oldRunningTrain.id, oldRunningTrain.version);
             }
 
             trainRepository.saveAll(oldRunningTrains);
 
-            return maxVersion;
+            return newVersion;
         });
     }
 }
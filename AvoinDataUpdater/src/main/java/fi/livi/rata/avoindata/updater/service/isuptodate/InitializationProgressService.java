@@ -0,0 +1,89 @@
+package fi.livi.rata.avoindata.updater.service.isuptodate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+@Service
+public class InitializationProgressService {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final Map<String, InitializationProgress> progresses = new ConcurrentHashMap<>();
+
+    public void start(final String prefix, final String mode, final int numberOfDays, final int numberOfThreads) {
+        progresses.put(getKey(prefix, mode), new InitializationProgress(numberOfDays, numberOfThreads));
+
+        log.info("Starting {} initialization of {} days for {} with {} threads", mode, numberOfDays, prefix, numberOfThreads);
+    }
+
+    public void dayDone(final String prefix, final String mode, final LocalDate date, final int numberOfEntities, final Duration duration) {
+        final InitializationProgress progress = mode == null ? null : progresses.get(getKey(prefix, mode));
+        if (progress == null) {
+            // Manual reinitialization of a single day
+            log.info("Initialized {} ({} {}) in {} ms", date, numberOfEntities, prefix, duration.toMillis());
+            return;
+        }
+
+        final int daysDone = progress.daysDone.incrementAndGet();
+        final long entities = progress.entities.addAndGet(numberOfEntities);
+
+        log.info("Initialized {} ({} {}) in {} ms. Progress for {} {}: {}/{} days, {} entities, {} ms total", date, numberOfEntities, prefix,
+                duration.toMillis(), mode, prefix, daysDone, progress.numberOfDays, entities,
+                Duration.between(progress.startedAt, ZonedDateTime.now()).toMillis());
+    }
+
+    private String getKey(final String prefix, final String mode) {
+        return String.format("%s-%s", prefix, mode);
+    }
+
+    public Map<String, InitializationProgressDto> getProgresses() {
+        final Map<String, InitializationProgressDto> output = new TreeMap<>();
+        for (final Map.Entry<String, InitializationProgress> entry : progresses.entrySet()) {
+            final InitializationProgress progress = entry.getValue();
+            output.put(entry.getKey(),
+                    new InitializationProgressDto(progress.numberOfDays, progress.daysDone.get(), progress.entities.get(), progress.numberOfThreads,
+                            progress.startedAt));
+        }
+        return output;
+    }
+
+    private static class InitializationProgress {
+        private final int numberOfDays;
+        private final int numberOfThreads;
+        private final ZonedDateTime startedAt = ZonedDateTime.now(ZoneId.of("UTC"));
+        private final AtomicInteger daysDone = new AtomicInteger();
+        private final AtomicLong entities = new AtomicLong();
+
+        private InitializationProgress(final int numberOfDays, final int numberOfThreads) {
+            this.numberOfDays = numberOfDays;
+            this.numberOfThreads = numberOfThreads;
+        }
+    }
+
+    public static class InitializationProgressDto {
+        public final int numberOfDays;
+        public final int daysDone;
+        public final long entities;
+        public final int numberOfThreads;
+        public final ZonedDateTime startedAt;
+
+        public InitializationProgressDto(final int numberOfDays, final int daysDone, final long entities, final int numberOfThreads,
+                                         final ZonedDateTime startedAt) {
+            this.numberOfDays = numberOfDays;
+            this.daysDone = daysDone;
+            this.entities = entities;
+            this.numberOfThreads = numberOfThreads;
+            this.startedAt = startedAt;
+        }
+    }
+}
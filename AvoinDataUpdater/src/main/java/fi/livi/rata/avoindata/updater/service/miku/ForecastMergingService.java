@@ -1,12 +1,13 @@
 package fi.livi.rata.avoindata.updater.service.miku;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.*;
 import fi.livi.rata.avoindata.common.domain.common.TimeTableRowId;
 import fi.livi.rata.avoindata.common.domain.train.Forecast;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
-import fi.livi.rata.avoindata.updater.updaters.abstractup.persist.TrainPersistService;
+import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,12 +24,19 @@ public class ForecastMergingService {
 
     private Set<String> allowedSources = Sets.newHashSet("COMBOCALC", "MIKUUSER", "LIIKEUSER");
 
-    @Autowired
-    private TrainPersistService trainPersistService;
     @Autowired
     private DateProvider dp;
+    @Autowired
+    private TrainLockExecutor trainLockExecutor;
 
     public Train mergeEstimates(final Train train, final List<Forecast> forecasts) {
+        return mergeEstimates(train, forecasts, trainLockExecutor.newBatchVersion());
+    }
+
+    /**
+     * @param batchVersion shared by all trains merged in the same batch, asked for only when a row changes
+     */
+    public Train mergeEstimates(final Train train, final List<Forecast> forecasts, final Supplier<Long> batchVersion) {
         List<Forecast> forecastsWithoutTimeTableRow = filterOutForecastsWithoutTimeTableRow(forecasts);
         List<Forecast> forecastsFilteredById = filterOutDoubleForecasts(forecastsWithoutTimeTableRow);
 
@@ -37,8 +45,6 @@ public class ForecastMergingService {
         final ZonedDateTime nowAndSome = dp.nowInHelsinki().minusMinutes(OLD_FORECAST_MINUTE_LIMIT);
         int lastActualTimetableRowIndex = getIndexOfLastTimeTableRowWithActualTime(train);
 
-        final long newMaxVersion = trainPersistService.getMaxVersion() + 1;
-
         for (int i = 0; i < train.timeTableRows.size(); i++) {
             //Current or future row has an actual time
             if (lastActualTimetableRowIndex >= i) {
@@ -61,7 +67,7 @@ public class ForecastMergingService {
 //                    log.debug("Not using {} on {} because it is old.", forecast, timeTableRow);
                     continue;
                 } else {
-                    createExternalForecast(train, newMaxVersion, timeTableRow, forecast);
+                    createExternalForecast(train, batchVersion, timeTableRow, forecast);
                 }
             }
 
@@ -98,7 +104,12 @@ public class ForecastMergingService {
         return forecastsFilteredById;
     }
 
-    private void createExternalForecast(Train train, long newMaxVersion, TimeTableRow timeTableRow, Forecast forecast) {
+    private void createExternalForecast(Train train, Supplier<Long> batchVersion, TimeTableRow timeTableRow, Forecast forecast) {
+        final Boolean oldUnknownDelay = timeTableRow.unknownDelay;
+        final ZonedDateTime oldLiveEstimateTime = timeTableRow.liveEstimateTime;
+        final Long oldDifferenceInMinutes = timeTableRow.differenceInMinutes;
+        final TimeTableRow.EstimateSourceEnum oldEstimateSource = timeTableRow.estimateSource;
+
         if (forecast.forecastTime == null) {
             log.info("Merged unknownDelay forecast {}", forecast);
             timeTableRow.unknownDelay = true;
@@ -111,11 +122,20 @@ public class ForecastMergingService {
             timeTableRow.liveEstimateTime = forecast.forecastTime;
         }
         timeTableRow.estimateSource = convertForecastSource(forecast.source);
-        if (train.version < newMaxVersion) {
-            train.version = newMaxVersion;
+
+        final boolean changed = !Objects.equals(oldUnknownDelay, timeTableRow.unknownDelay) ||
+                !isSameInstant(oldLiveEstimateTime, timeTableRow.liveEstimateTime) ||
+                !Objects.equals(oldDifferenceInMinutes, timeTableRow.differenceInMinutes) ||
+                oldEstimateSource != timeTableRow.estimateSource;
+        if (changed && train.version < batchVersion.get()) {
+            train.version = batchVersion.get();
         }
     }
 
+    private boolean isSameInstant(ZonedDateTime left, ZonedDateTime right) {
+        return left == null ? right == null : right != null && left.isEqual(right);
+    }
+
     private TimeTableRow.EstimateSourceEnum convertForecastSource(String source) {
         if (source.equals("LIIKEUSER")) {
             return TimeTableRow.EstimateSourceEnum.LIIKE_USER;
@@ -1,61 +1,94 @@
 package fi.livi.rata.avoindata.updater.service.recentlyseen;
 
-import org.slf4j.Logger;
-
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import javax.annotation.PostConstruct;
 
-public abstract class AbstractRecentlySeenEntityFilter<EntityType, KeyType> {
-    private final Map<KeyType, ZonedDateTime> recentlySeenEntities = new HashMap<>();
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Filters out entities that have been seen within their retention period. Keys are primitive longs stored in time buckets of the entity
+ * timestamp (see RecentlySeenKeyStore), so expiring old keys does not scan all keys. Entities without a timestamp are kept for the
+ * retention period counted from the moment they were first seen.
+ * <p>
+ * Filters are thread-safe.
+ */
+public abstract class AbstractRecentlySeenEntityFilter<EntityType> {
     private Logger log = getLogger();
 
-    public List<EntityType> filter(final List<EntityType> entities) {
-        final List<EntityType> uniqueEntities = filterOutRecentlySeenEntities(entities);
-        deleteOldEntities();
+    @Autowired
+    private DateProvider dp;
 
-        return uniqueEntities;
-    }
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-    public abstract ZonedDateTime getTimestamp(EntityType entity);
+    private RecentlySeenKeyStore recentlySeenKeys;
 
-    public abstract KeyType getKey(EntityType entity);
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter evictionCounter;
 
-    public abstract boolean isTooOld(ZonedDateTime entity);
+    @PostConstruct
+    private void setup() {
+        recentlySeenKeys = new RecentlySeenKeyStore(getRetention().toMillis());
 
-    public abstract Logger getLogger();
+        final String filter = this.getClass().getSimpleName();
+        hitCounter = meterRegistry.counter("recently.seen.hits", "filter", filter);
+        missCounter = meterRegistry.counter("recently.seen.misses", "filter", filter);
+        evictionCounter = meterRegistry.counter("recently.seen.evictions", "filter", filter);
+        meterRegistry.gauge("recently.seen.size", Tags.of("filter", filter), recentlySeenKeys, RecentlySeenKeyStore::size);
+    }
+
+    public List<EntityType> filter(final List<EntityType> entities) {
+        final long now = dp.nowInHelsinki().toInstant().toEpochMilli();
+        final long oldestLiveBucket = recentlySeenKeys.getBucket(now - getRetention().toMillis());
+        final long newestBucket = recentlySeenKeys.getBucket(now) + RecentlySeenKeyStore.FUTURE_BUCKETS;
 
-    private List<EntityType> filterOutRecentlySeenEntities(final List<EntityType> entities) {
-        List<EntityType> uniqueEntities = new ArrayList<>();
+        final long evicted = recentlySeenKeys.expireBefore(oldestLiveBucket);
+        evictionCounter.increment(evicted);
+
+        final List<EntityType> uniqueEntities = new ArrayList<>();
         for (final EntityType entity : entities) {
-            final KeyType key = getKey(entity);
-            final ZonedDateTime oldEntity = recentlySeenEntities.get(key);
-            if (oldEntity == null) {
+            final ZonedDateTime timestamp = getTimestamp(entity);
+            final long bucket = recentlySeenKeys.getBucket(timestamp != null ? timestamp.toInstant().toEpochMilli() : now);
+
+            if (recentlySeenKeys.add(getKey(entity), bucket, oldestLiveBucket, newestBucket)) {
                 uniqueEntities.add(entity);
-                recentlySeenEntities.put(key, getTimestamp(entity));
             }
         }
 
+        hitCounter.increment(entities.size() - uniqueEntities.size());
+        missCounter.increment(uniqueEntities.size());
+
         log.info("Entities total: {}, Unique: {}", entities.size(), uniqueEntities.size());
+        log.debug("RecentlySeen entities: {}, Deleted: {}", recentlySeenKeys.size(), evicted);
 
         return uniqueEntities;
     }
 
-    private void deleteOldEntities() {
-        final List<KeyType> toBeDeleted = new ArrayList<>();
-        for (final KeyType key : recentlySeenEntities.keySet()) {
-            if (isTooOld(recentlySeenEntities.get(key))) {
-                toBeDeleted.add(key);
-            }
-        }
+    public abstract ZonedDateTime getTimestamp(EntityType entity);
 
-        for (final KeyType key : toBeDeleted) {
-            recentlySeenEntities.remove(key);
-        }
+    /**
+     * Identifies the entity. Numeric ids can be used as such, composite keys must be packed or hashed into a long.
+     */
+    public abstract long getKey(EntityType entity);
+
+    public abstract Duration getRetention();
+
+    public abstract Logger getLogger();
 
-        log.debug("RecentlySeen entities: {}, Deleted: {}", recentlySeenEntities.size(), toBeDeleted.size());
+    protected static Hasher newKeyHasher() {
+        return Hashing.farmHashFingerprint64().newHasher();
     }
 }
@@ -0,0 +1,123 @@
+package fi.livi.rata.avoindata.updater.service.recentlyseen;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to time bucket numbers. Uses linear probing and backward shift deletion, so removing
+ * keys does not leave tombstones behind. Not thread-safe.
+ */
+final class LongBucketMap {
+    static final long NO_BUCKET = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] buckets;
+    private int mask;
+    private int size;
+
+    LongBucketMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(final long key) {
+        for (int i = index(key); buckets[i] != NO_BUCKET; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return buckets[i];
+            }
+        }
+        return NO_BUCKET;
+    }
+
+    /**
+     * @return false if the key was already present
+     */
+    boolean putIfAbsent(final long key, final long bucket) {
+        int i = index(key);
+        for (; buckets[i] != NO_BUCKET; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return false;
+            }
+        }
+
+        keys[i] = key;
+        buckets[i] = bucket;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the key only if it is still mapped to the given bucket
+     */
+    boolean remove(final long key, final long bucket) {
+        int i = index(key);
+        for (; buckets[i] != NO_BUCKET; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (buckets[i] != bucket) {
+                    return false;
+                }
+
+                shiftBack(i);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Shrinks the table after mass removals so that a burst does not keep its memory forever
+     */
+    void compact() {
+        if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+            rehash(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(size, 1) * 4)));
+        }
+    }
+
+    private void shiftBack(int hole) {
+        for (int i = (hole + 1) & mask; buckets[i] != NO_BUCKET; i = (i + 1) & mask) {
+            // Move the entry to the hole if its home slot is not between the hole and its current slot
+            if (((i - index(keys[i])) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                buckets[hole] = buckets[i];
+                hole = i;
+            }
+        }
+        buckets[hole] = NO_BUCKET;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final long[] oldBuckets = buckets;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldBuckets[i] != NO_BUCKET) {
+                int j = index(oldKeys[i]);
+                while (buckets[j] != NO_BUCKET) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                buckets[j] = oldBuckets[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        buckets = new long[capacity];
+        Arrays.fill(buckets, NO_BUCKET);
+        mask = capacity - 1;
+    }
+
+    private int index(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
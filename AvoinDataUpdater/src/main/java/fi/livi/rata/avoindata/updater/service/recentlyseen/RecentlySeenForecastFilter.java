@@ -1,20 +1,17 @@
 package fi.livi.rata.avoindata.updater.service.recentlyseen;
 
+import java.time.Duration;
 import java.time.ZonedDateTime;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import fi.livi.rata.avoindata.common.domain.train.Forecast;
-import fi.livi.rata.avoindata.common.utils.DateProvider;
 
 @Component
-public class RecentlySeenForecastFilter extends AbstractRecentlySeenEntityFilter<Forecast, String> {
+public class RecentlySeenForecastFilter extends AbstractRecentlySeenEntityFilter<Forecast> {
     public static final int TIMESTAMP_RECENT_TRESHOLD_MINUTES = 60 * 24;
-    @Autowired
-    private DateProvider dp;
 
     @Override
     public ZonedDateTime getTimestamp(final Forecast entity) {
@@ -22,22 +19,26 @@ public class RecentlySeenForecastFilter extends AbstractRecentlySeenEntityFilter
     }
 
     @Override
-    public String getKey(final Forecast entity) {
-        return String.format("%s_%s_%s_%s", entity.id, entity.source, entity.forecastTime, entity.lastModified);
+    public long getKey(final Forecast entity) {
+        return newKeyHasher()
+                .putLong(entity.id)
+                .putUnencodedChars(String.valueOf(entity.source))
+                .putLong(toEpochMilli(entity.forecastTime))
+                .putLong(toEpochMilli(entity.lastModified))
+                .hash().asLong();
     }
 
     @Override
-    public boolean isTooOld(final ZonedDateTime timestamp) {
-        if (timestamp == null) {
-            return false;
-        } else {
-            return timestamp.isBefore(dp.nowInHelsinki().minusMinutes(TIMESTAMP_RECENT_TRESHOLD_MINUTES));
-        }
+    public Duration getRetention() {
+        return Duration.ofMinutes(TIMESTAMP_RECENT_TRESHOLD_MINUTES);
     }
 
-
     @Override
     public Logger getLogger() {
         return LoggerFactory.getLogger(RecentlySeenForecastFilter.class);
     }
+
+    private long toEpochMilli(final ZonedDateTime zonedDateTime) {
+        return zonedDateTime != null ? zonedDateTime.toInstant().toEpochMilli() : Long.MIN_VALUE;
+    }
 }
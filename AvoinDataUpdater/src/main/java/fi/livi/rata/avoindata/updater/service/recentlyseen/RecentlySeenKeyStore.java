@@ -0,0 +1,172 @@
+package fi.livi.rata.avoindata.updater.service.recentlyseen;
+
+import java.util.Arrays;
+
+/**
+ * Remembers primitive long keys in time buckets. Each key is stored in the bucket of its timestamp and whole buckets are expired at once
+ * when they fall out of the retention window, so expiry costs only the evicted keys instead of a scan over all keys.
+ * <p>
+ * Keys are spread over shards with their own locks. Within a shard the live buckets are kept in a fixed ring that covers the retention
+ * window and a limited range of future buckets. Timestamps further in the future are clamped to the last future bucket.
+ */
+final class RecentlySeenKeyStore {
+    static final int BUCKETS_PER_RETENTION = 32;
+    static final int FUTURE_BUCKETS = 4 * BUCKETS_PER_RETENTION;
+
+    private static final int SHARDS = 16;
+    private static final int RING_SIZE = BUCKETS_PER_RETENTION + FUTURE_BUCKETS + 4;
+
+    private final long bucketMillis;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    RecentlySeenKeyStore(final long retentionMillis) {
+        this.bucketMillis = Math.max(1000, retentionMillis / BUCKETS_PER_RETENTION);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    long getBucket(final long epochMillis) {
+        return Math.floorDiv(epochMillis, bucketMillis);
+    }
+
+    /**
+     * @param oldestLiveBucket Keys with an older bucket are not stored
+     * @param newestBucket     Keys with a newer bucket are stored in this bucket
+     * @return true if the key was not seen before
+     */
+    boolean add(final long key, final long bucket, final long oldestLiveBucket, final long newestBucket) {
+        final Shard shard = shards[shardIndex(key)];
+        if (bucket < oldestLiveBucket) {
+            return !shard.contains(key);
+        }
+
+        return shard.add(key, Math.min(bucket, newestBucket));
+    }
+
+    /**
+     * @return Number of evicted keys
+     */
+    long expireBefore(final long oldestLiveBucket) {
+        long evicted = 0;
+        for (final Shard shard : shards) {
+            evicted += shard.expireBefore(oldestLiveBucket);
+        }
+        return evicted;
+    }
+
+    long size() {
+        long size = 0;
+        for (final Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private static int shardIndex(final long key) {
+        final long hash = key * 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash >>> 60) & (SHARDS - 1);
+    }
+
+    private static final class Shard {
+        private final LongBucketMap keys = new LongBucketMap();
+        private final long[] ringBuckets = new long[RING_SIZE];
+        private final KeyList[] ringKeys = new KeyList[RING_SIZE];
+        private long expiredBefore = Long.MIN_VALUE;
+
+        private Shard() {
+            Arrays.fill(ringBuckets, LongBucketMap.NO_BUCKET);
+        }
+
+        synchronized boolean contains(final long key) {
+            return keys.get(key) != LongBucketMap.NO_BUCKET;
+        }
+
+        synchronized boolean add(final long key, final long bucket) {
+            if (!keys.putIfAbsent(key, bucket)) {
+                return false;
+            }
+
+            final int slot = (int) Math.floorMod(bucket, (long) RING_SIZE);
+            if (ringBuckets[slot] != bucket) {
+                // Only happens if the clock went backwards, the slot must be free before it is reused
+                evict(slot);
+                ringBuckets[slot] = bucket;
+            }
+            if (ringKeys[slot] == null) {
+                ringKeys[slot] = new KeyList();
+            }
+            ringKeys[slot].add(key);
+
+            return true;
+        }
+
+        synchronized long expireBefore(final long oldestLiveBucket) {
+            if (oldestLiveBucket <= expiredBefore) {
+                return 0;
+            }
+
+            long evicted = 0;
+            if (expiredBefore == Long.MIN_VALUE || oldestLiveBucket - expiredBefore >= RING_SIZE) {
+                for (int slot = 0; slot < RING_SIZE; slot++) {
+                    if (ringBuckets[slot] != LongBucketMap.NO_BUCKET && ringBuckets[slot] < oldestLiveBucket) {
+                        evicted += evict(slot);
+                    }
+                }
+            } else {
+                for (long bucket = expiredBefore; bucket < oldestLiveBucket; bucket++) {
+                    final int slot = (int) Math.floorMod(bucket, (long) RING_SIZE);
+                    if (ringBuckets[slot] == bucket) {
+                        evicted += evict(slot);
+                    }
+                }
+            }
+            expiredBefore = oldestLiveBucket;
+
+            if (evicted > 0) {
+                keys.compact();
+            }
+            return evicted;
+        }
+
+        synchronized int size() {
+            return keys.size();
+        }
+
+        private int evict(final int slot) {
+            final long bucket = ringBuckets[slot];
+            final KeyList bucketKeys = ringKeys[slot];
+
+            int evicted = 0;
+            if (bucketKeys != null) {
+                for (int i = 0; i < bucketKeys.size; i++) {
+                    if (keys.remove(bucketKeys.keys[i], bucket)) {
+                        evicted++;
+                    }
+                }
+                // Drop large arrays left by bursts, small ones are reused
+                ringKeys[slot] = bucketKeys.keys.length > 1024 ? null : bucketKeys.clear();
+            }
+            ringBuckets[slot] = LongBucketMap.NO_BUCKET;
+
+            return evicted;
+        }
+    }
+
+    private static final class KeyList {
+        private long[] keys = new long[16];
+        private int size;
+
+        void add(final long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+
+        KeyList clear() {
+            size = 0;
+            return this;
+        }
+    }
+}
@@ -1,34 +1,52 @@
 package fi.livi.rata.avoindata.updater.service.recentlyseen;
 
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
-import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.ZonedDateTime;
 
 @Component
-public class RecentlySeenTrainLocationFilter extends AbstractRecentlySeenEntityFilter<TrainLocation, String> {
+public class RecentlySeenTrainLocationFilter extends AbstractRecentlySeenEntityFilter<TrainLocation> {
     public static final int TIMESTAMP_RECENT_TRESHOLD_MINUTES = 25;
-    @Autowired
-    private DateProvider dp;
+
+    private static final int TRAIN_NUMBER_BITS = 19;
+    private static final int DATE_OFFSET_BITS = 3;
+    private static final int TIMESTAMP_BITS = 64 - TRAIN_NUMBER_BITS - DATE_OFFSET_BITS;
 
     @Override
     public ZonedDateTime getTimestamp(final TrainLocation entity) {
         return entity.trainLocationId.timestamp;
     }
 
+    /**
+     * Packs timestamp millis, train number and departure date (as days before the timestamp) into one long. Ids that do not fit are
+     * hashed instead.
+     */
     @Override
-    public String getKey(final TrainLocation entity) {
-        return String.format("%s_%s_%s", entity.trainLocationId.trainNumber, entity.trainLocationId.departureDate,
-                entity.trainLocationId.timestamp);
+    public long getKey(final TrainLocation entity) {
+        final TrainLocationId id = entity.trainLocationId;
+        final long timestamp = id.timestamp.toInstant().toEpochMilli();
+        final long dateOffset = id.timestamp.toLocalDate().toEpochDay() - id.departureDate.toEpochDay() + 1;
+
+        if (id.trainNumber >= 0 && id.trainNumber >> TRAIN_NUMBER_BITS == 0 && dateOffset >= 0 && dateOffset >> DATE_OFFSET_BITS == 0 &&
+                timestamp >= 0 && timestamp >> TIMESTAMP_BITS == 0) {
+            return timestamp << (TRAIN_NUMBER_BITS + DATE_OFFSET_BITS) | id.trainNumber << DATE_OFFSET_BITS | dateOffset;
+        }
+
+        return newKeyHasher()
+                .putLong(id.trainNumber)
+                .putLong(id.departureDate.toEpochDay())
+                .putLong(timestamp)
+                .hash().asLong();
     }
 
     @Override
-    public boolean isTooOld(final ZonedDateTime timestamp) {
-        return timestamp.isBefore(dp.nowInHelsinki().minusMinutes(TIMESTAMP_RECENT_TRESHOLD_MINUTES));
+    public Duration getRetention() {
+        return Duration.ofMinutes(TIMESTAMP_RECENT_TRESHOLD_MINUTES);
     }
 
 
@@ -1,6 +1,7 @@
 package fi.livi.rata.avoindata.updater.service.routeset;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.*;
 import fi.livi.rata.avoindata.common.dao.routeset.RoutesetRepository;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
@@ -9,6 +10,7 @@ import fi.livi.rata.avoindata.common.domain.routeset.Routesection;
 import fi.livi.rata.avoindata.common.domain.routeset.Routeset;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.updater.service.LiveTimeTableTrainService;
 import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,11 +34,19 @@ public class TimeTableRowByRoutesetUpdateService {
     @Autowired
     private RoutesetRepository routesetRepository;
 
+    @Autowired
+    private LiveTimeTableTrainService liveTimeTableTrainService;
+
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
 
     public List<Train> updateByRoutesets(List<Routeset> routesets) {
-        return trainLockExecutor.executeInTransactionLock(() -> {
+        List<TrainId> lockedTrainIds = getParseableTrainIds(routesets);
+        if (lockedTrainIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return trainLockExecutor.executeInTransactionLock(lockedTrainIds, () -> {
 
             try {
                 List<Routeset> routesetsWithValidTrain = getRoutesetsWithValidTrain(routesets);
@@ -47,6 +57,7 @@ public class TimeTableRowByRoutesetUpdateService {
                 Map<TrainId, Train> trainMap = Maps.uniqueIndex(trainRepository.findTrains(validTrainIds), s -> s.id);
                 updateCommercialTracks(routesetsWithValidTrain, trainMap);
                 List<Train> updatedTrains = Lists.newArrayList(trainMap.values());
+                liveTimeTableTrainService.update(trainMap.keySet());
 
                 return updatedTrains;
             } catch (Exception e) {
@@ -67,7 +78,7 @@ public class TimeTableRowByRoutesetUpdateService {
     }
 
     private void updateCommercialTracks(List<Routeset> routesets, Map<TrainId, Train> trainMap) {
-        Long maxVersion = trainRepository.getMaxVersion();
+        Supplier<Long> newVersion = trainLockExecutor.newBatchVersion();
 
         for (Routeset routeset : routesets) {
             Train train = trainMap.get(getTrainId(routeset));
@@ -91,28 +102,28 @@ public class TimeTableRowByRoutesetUpdateService {
                     }
                     //Update a single time-table-row
                     else if (timeTableRowsToUpdate.size() == 1) {
-                        updateSingleStopTimeTableRow(maxVersion, train, routesection, timeTableRowsToUpdate);
+                        updateSingleStopTimeTableRow(newVersion, train, routesection, timeTableRowsToUpdate);
                     }
                     //Update a two consecutive time-table-rows
                     else if (timeTableRowsToUpdate.size() == 2 && Math.abs(timeTableRowsToUpdate.get(0).index - timeTableRowsToUpdate.get(1).index) == 1) {
-                        updateSingleStopTimeTableRow(maxVersion, train, routesection, timeTableRowsToUpdate);
+                        updateSingleStopTimeTableRow(newVersion, train, routesection, timeTableRowsToUpdate);
                     }
                     //Update multi-stop time-table-row. Match by scheduled time +- 30 minutes
                     else {
-                        updateMultistopTimeTableRow(routeset, train, maxVersion, routesection, timeTableRowsToUpdate);
+                        updateMultistopTimeTableRow(routeset, train, newVersion, routesection, timeTableRowsToUpdate);
                     }
                 }
             }
         }
     }
 
-    private void updateSingleStopTimeTableRow(Long maxVersion, Train train, Routesection routesection, List<TimeTableRowAndItsIndex> timeTableRowsToUpdate) {
+    private void updateSingleStopTimeTableRow(Supplier<Long> newVersion, Train train, Routesection routesection, List<TimeTableRowAndItsIndex> timeTableRowsToUpdate) {
         for (TimeTableRowAndItsIndex timeTableRowAndItsIndex : timeTableRowsToUpdate) {
             TimeTableRow timeTableRow = timeTableRowAndItsIndex.timeTableRow;
             if (isUpdatePossible(routesection, timeTableRow)) {
                 //log.info("Not updating {} - {} because already updated {} vs {}", train, timeTableRow, timeTableRow.commercialTrack, routesection.commercialTrackId);
             } else {
-                setCommercialTrack(maxVersion, train, routesection, timeTableRow, timeTableRow.train);
+                setCommercialTrack(newVersion, train, routesection, timeTableRow, timeTableRow.train);
             }
         }
     }
@@ -121,8 +132,8 @@ public class TimeTableRowByRoutesetUpdateService {
         return routesection.commercialTrackId.equals(timeTableRow.commercialTrack);
     }
 
-    private void setCommercialTrack(Long maxVersion, Train train, Routesection routesection, TimeTableRow timeTableRow, Train train2) {
-        long possibleNewVersion = maxVersion + 1;
+    private void setCommercialTrack(Supplier<Long> newVersion, Train train, Routesection routesection, TimeTableRow timeTableRow, Train train2) {
+        long possibleNewVersion = newVersion.get();
         String oldCommercialTrack = timeTableRow.commercialTrack;
         timeTableRow.commercialTrack = routesection.commercialTrackId;
 
@@ -135,7 +146,7 @@ public class TimeTableRowByRoutesetUpdateService {
         }
     }
 
-    private void updateMultistopTimeTableRow(Routeset routeset, Train train, Long maxVersion, Routesection routesection, List<TimeTableRowAndItsIndex> timeTableRowAndItsIndexList) {
+    private void updateMultistopTimeTableRow(Routeset routeset, Train train, Supplier<Long> newVersion, Routesection routesection, List<TimeTableRowAndItsIndex> timeTableRowAndItsIndexList) {
         Collections.sort(timeTableRowAndItsIndexList, (left, right) -> {
             Long leftDiff = getDifference(routeset, left.timeTableRow);
             Long rightDiff = getDifference(routeset, right.timeTableRow);
@@ -150,7 +161,7 @@ public class TimeTableRowByRoutesetUpdateService {
         } else if (getDifference(routeset, timeTableRow) > (30 * 60)) {
             //log.info("Not updating {} - {} because timestamps differ too much. {} vs {} ({})", train, timeTableRow, routeset.messageTime, timeTableRow.scheduledTime, Math.abs(Duration.between(timeTableRow.scheduledTime, routeset.messageTime).toMinutes()));
         } else {
-            setCommercialTrack(maxVersion, train, routesection, timeTableRow, train);
+            setCommercialTrack(newVersion, train, routesection, timeTableRow, train);
         }
     }
 
@@ -158,6 +169,21 @@ public class TimeTableRowByRoutesetUpdateService {
         return Math.abs(Duration.between(ttr.scheduledTime, routeset.messageTime).toSeconds());
     }
 
+    /**
+     * Lock keys only. Routesets are validated inside the lock.
+     */
+    private List<TrainId> getParseableTrainIds(List<Routeset> routesets) {
+        List<TrainId> trainIds = new ArrayList<>();
+        for (Routeset routeset : routesets) {
+            try {
+                trainIds.add(getTrainId(routeset));
+            } catch (RuntimeException e) {
+                // Not a valid train, skipped by getRoutesetsWithValidTrain
+            }
+        }
+        return trainIds;
+    }
+
     private List<Routeset> getRoutesetsWithValidTrain(List<Routeset> routesets) {
         Iterable<Routeset> routesetsWithValidTrain = Iterables.filter(routesets, s -> {
             try {
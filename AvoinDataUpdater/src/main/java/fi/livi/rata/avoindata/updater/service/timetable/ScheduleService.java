@@ -71,7 +71,7 @@ public class ScheduleService {
         allSchedules.addAll(regularSchedules);
 
         final LocalDate finalDate = date;
-        final List<Train> extractedTrains = trainLockExecutor.executeInLock(
+        final List<Train> extractedTrains = trainLockExecutor.executeInLock(finalDate,
                 () -> singleDayScheduleExtractService.extract(allSchedules, finalDate, true));
 
         if (!extractedTrains.isEmpty()) {
@@ -8,6 +8,7 @@ import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.train.ExtractedSchedule;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
 import fi.livi.rata.avoindata.updater.service.timetable.entities.Schedule;
 import fi.livi.rata.avoindata.updater.updaters.abstractup.persist.TrainPersistService;
@@ -38,6 +39,9 @@ public class SingleDayScheduleExtractService {
     @Autowired
     private TrainPersistService trainPersistService;
 
+    @Autowired
+    private TrainVersionService trainVersionService;
+
     @Autowired
     private TrainRepository trainRepository;
 
@@ -216,7 +220,7 @@ public class SingleDayScheduleExtractService {
             final List<Train> toBeCancelled, final boolean shouldFakeVersions) {
         List<Train> changedtrains = new ArrayList<>();
 
-        final long fakeVersion = trainPersistService.getMaxVersion() + 1;
+        final long fakeVersion = trainVersionService.nextVersion();
         log.info("Using fakeVersion {}", fakeVersion);
 
         if (!toBeAdded.isEmpty()) {
@@ -2,111 +2,231 @@ package fi.livi.rata.avoindata.updater.service.trainlocation;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
-import com.github.davidmoten.rtree.geometry.Rectangle;
-import com.google.common.collect.Lists;
-import fi.livi.rata.avoindata.common.utils.PreviousAndNext;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.updater.ExceptionLoggingRunnable;
 import fi.livi.rata.avoindata.updater.service.Wgs84ConversionService;
-import org.osgeo.proj4j.ProjCoordinate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.data.geo.Point;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the track segment index. The index is loaded from a local snapshot at startup when one exists, and rebuilt from infra-api when it
+ * is missing or older than the refresh interval. Loading and rebuilding run on a dedicated track index thread, so neither the shared
+ * scheduler nor the callers of getSegmentIndex() wait for infra-api. A new index is swapped in atomically and written to the snapshot. A
+ * failed rebuild keeps the previous index.
+ */
 @Service
 public class TrackBoundingBoxesService {
-    public static final int DISTANCE_FROM_LINE = 500;
+    private static final long RETRY_INTERVAL_MILLIS = 5 * 60 * 1000L;
+
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     private Wgs84ConversionService wgs84ConversionService;
 
     @Autowired
-    private BoundingBoxService boundingBoxService;
+    private ObjectMapper objectMapper;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private MeterRegistry meterRegistry;
 
     @Value("${infra-api.url}")
     private String infraApiUrl;
 
-    @Cacheable("trackBoundingBoxes")
-    public RTree<TrainBoundary, Geometry> getBoundingBoxes() {
+    @Value("${updater.train-location.max-distance-from-track:500}")
+    private double maxDistanceFromTrack;
+
+    @Value("${updater.tracks.snapshot-file:}")
+    private String snapshotFile;
+
+    @Value("${updater.tracks.refresh-interval-hours:24}")
+    private long refreshIntervalHours;
+
+    private final AtomicReference<LoadedIndex> current = new AtomicReference<>();
+    private final CountDownLatch firstIndexLoaded = new CountDownLatch(1);
+    private TrackSegmentIndex emptyIndex;
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void setup() {
+        emptyIndex = TrackSegmentIndex.build(Collections.emptyList(), maxDistanceFromTrack);
+
+        Gauge.builder("track.index.age", this, s -> s.current.get() != null ? Duration.between(s.current.get().builtAt, Instant.now()).getSeconds() : -1)
+                .baseUnit("seconds").register(meterRegistry);
+        Gauge.builder("track.index.segments", this, s -> s.current.get() != null ? s.current.get().index.getSegmentCount() : 0).register(meterRegistry);
+        Gauge.builder("track.index.tracks", this, s -> s.current.get() != null ? s.current.get().index.getTrackCount() : 0).register(meterRegistry);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("track-index-%d").setDaemon(true).build());
+        executor.execute(new ExceptionLoggingRunnable(this::loadSnapshot));
+        // Also retries a failed first build every retry interval
+        executor.scheduleWithFixedDelay(new ExceptionLoggingRunnable(this::refreshIfNeeded), 0, RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Does not block.
+     *
+     * @return Empty index if tracks have not been loaded yet
+     */
+    public TrackSegmentIndex getSegmentIndex() {
+        final LoadedIndex loaded = current.get();
+        return loaded != null ? loaded.index : emptyIndex;
+    }
+
+    /**
+     * @return false if no index was loaded within the timeout
+     */
+    public boolean awaitFirstIndex(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return firstIndexLoaded.await(timeout, unit);
+    }
+
+    private void refreshIfNeeded() {
+        final LoadedIndex loaded = current.get();
+        if (loaded == null || Duration.between(loaded.builtAt, Instant.now()).toHours() >= refreshIntervalHours) {
+            refresh();
+        }
+    }
+
+    /**
+     * Rebuilds the index from infra-api and swaps it in. Only called on the track index thread.
+     */
+    private void refresh() {
+        final List<double[]> tracks = createTracks();
+        if (tracks.isEmpty()) {
+            final LoadedIndex loaded = current.get();
+            log.error("No tracks fetched, keeping track index built at {}", loaded != null ? loaded.builtAt : null);
+            return;
+        }
+
+        final Instant builtAt = Instant.now();
+        swap(TrackSegmentIndex.build(tracks, maxDistanceFromTrack), builtAt);
+        writeSnapshot(builtAt, tracks);
+    }
+
+    private void swap(final TrackSegmentIndex index, final Instant builtAt) {
+        current.set(new LoadedIndex(index, builtAt));
+        firstIndexLoaded.countDown();
+        log.info("Swapped in track index built at {} with {} tracks and {} segments", builtAt, index.getTrackCount(),
+                index.getSegmentCount());
+    }
+
+    private void loadSnapshot() {
+        if (Strings.isNullOrEmpty(snapshotFile) || !Files.exists(Paths.get(snapshotFile))) {
+            return;
+        }
+
+        try {
+            final TrackSnapshotFile snapshot = TrackSnapshotFile.read(Paths.get(snapshotFile));
+            swap(TrackSegmentIndex.build(snapshot.tracks, maxDistanceFromTrack), snapshot.createdAt);
+        } catch (Exception e) {
+            log.error("Error loading track snapshot from {}", snapshotFile, e);
+        }
+    }
+
+    private void writeSnapshot(final Instant builtAt, final List<double[]> tracks) {
+        if (Strings.isNullOrEmpty(snapshotFile)) {
+            return;
+        }
+
         try {
-            RTree<TrainBoundary, Geometry> tree = RTree.star().maxChildren(6).create();
-            tree = createInfraApiTracks(tree);
-            tree = createPrivateTracks(tree);
+            TrackSnapshotFile.write(Paths.get(snapshotFile), builtAt, tracks);
+        } catch (Exception e) {
+            log.error("Error writing track snapshot to {}", snapshotFile, e);
+        }
+    }
 
-            return tree;
+    private List<double[]> createTracks() {
+        final List<double[]> tracks = new ArrayList<>();
+        try {
+            createInfraApiTracks(tracks);
+            createPrivateTracks(tracks);
         } catch (Exception e) {
             log.error("Error forming Tracks", e);
-            return RTree.star().maxChildren(6).create();
+            tracks.clear();
         }
+        return tracks;
     }
 
-    private RTree<TrainBoundary, Geometry> createPrivateTracks(RTree<TrainBoundary, Geometry> tree) throws IOException {
+    private void createPrivateTracks(List<double[]> tracks) throws IOException {
         //Sappo Lohja
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[23.956160545349118,60.1714032807602],[23.95667552947998,60.172918839697616],[23.955988883972168," +
                         "60.17424222834386],[23.949809074401855,60.17866025267855],[23.950796127319336,60.18572358818014],[" +
                         "23.946032524108887,60.18994805963756],[23.944787979125977,60.19412932430069],[23.939809799194336," +
                         "60.19587847087935]]");
 
         //Heinola
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[26.043992042541504,61.201340646861205],[26.047253608703613,61.20148536274234],[26.06231689453125," +
                         "61.19770185760271],[26.066265106201172,61.18841690577185],[26.068110466003418,61.1875068746406]," +
                         "[26.076779365539547,61.18603835989958],[26.078495979309082,61.18436292853285],[26.079096794128418," +
                         "61.18223231309773],[26.08330249786377,61.17674997065357],[26.083216667175293,61.173232494249206]]");
 
         //Valkeakoski
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[24.025039672851562,61.266044923124916],[24.019289016723633,61.26723119825499],[24.015190601348873," +
                         "61.27001618989007],[24.014976024627686,61.27111980344012]]");
 
 
         //Äänekoski Metso
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[25.733714103698727,62.60264353565156],[25.736117362976074,62.59974045624514],[25.736417770385742," +
                         "62.59703460973859],[25.74620246887207,62.59148389041853],[25.75671672821045,62.59185923865363]," +
                         "[25.7658576965332,62.588895834050014]]");
 
         //Tahkoluoto
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[21.382570266723633,61.63005986625746],[21.3869047164917,61.62987633979817],[21.389822959899902," +
                         "61.63107943787513],[21.390509605407715,61.63503505768449],[21.39291286468506,61.63656415659073]," +
                         "[21.397075653076172,61.636666093830314],[21.407289505004883,61.63558554199828],[21.438188552856445," +
                         "61.63005986625746]]");
 
         //Varkaus
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[27.945013046264645,62.27253537531779],[27.935185432434082,62.27618912708058],[27.933340072631832," +
                         "62.27724723469522],[27.933254241943356,62.27868460434227],[27.935056686401364,62.28004205711511]," +
                         "[27.93810367584228,62.280501181701545],[27.942395210266113,62.280920376295995],[27.944326400756836," +
                         "62.28503216619843]]");
 
         //Uusikaupunki (Hanko)
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[21.339354515075684,60.788924138772465],[21.338045597076416,60.789824714096156],[21.33765935897827," +
                         "60.79133259748825],[21.340041160583496,60.794096866031936],[21.347508430480957,60.79679807981309]," +
                         "[21.35289430618286,60.79730060607904]]");
 
         //Kuopio (Laukanranta)
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[27.7324104309082,63.0975256652119],[27.74423360824585,63.09499150001593],[27.749619483947754,63.09571002139669]]");
 
         //Kaskinen (Kalasatama)
-        tree = createPrivateTrack(tree,
+        createPrivateTrack(tracks,
                 "[[21.24833106994629,62.37391680215925],[21.24833106994629,62.363865708875494],[21.243739128112793,62.35880903428286]," +
                         "[21.240391731262207,62.357654241029735],[21.237645149230957,62.357634330411486],[21.226186752319336," +
                         "62.35964523613726],[21.224513053894043,62.360302235532],[21.221938133239746,62.36436336699908]," +
@@ -114,12 +234,11 @@ public class TrackBoundingBoxesService {
                         "62.348713044626706]]");
 
         //Kokkola (Ykspihlaja)
-        tree = createPrivateTrack(tree, "[[23.032774,63.848784],[23.033256,63.849739],[23.034149,63.850628],[23.034841,63.851561],[23.035697,63.85247],[23.036315,63.853081],[23.036921,63.853731],[23.037423,63.854354],[23.037424,63.854354],[23.037425,63.854354],[23.037427,63.854355],[23.037428,63.854355],[23.037432,63.854356],[23.037439,63.854355],[23.037489,63.854327],[23.037743,63.854608],[23.038064,63.85503],[23.03843,63.855537],[23.03874,63.856053],[23.038964,63.856286],[23.038961,63.856285],[23.038959,63.856285],[23.038953,63.856284],[23.038948,63.856284],[23.038945,63.856284],[23.038941,63.856284],[23.038941,63.856283],[23.038943,63.856283],[23.038943,63.856284],[23.038942,63.856284],[23.038936,63.856284],[23.038936,63.856285],[23.038943,63.856286],[23.038948,63.856286],[23.038947,63.856286],[23.038945,63.856287],[23.038943,63.856287],[23.038943,63.856288],[23.038944,63.856288]]");
+        createPrivateTrack(tracks, "[[23.032774,63.848784],[23.033256,63.849739],[23.034149,63.850628],[23.034841,63.851561],[23.035697,63.85247],[23.036315,63.853081],[23.036921,63.853731],[23.037423,63.854354],[23.037424,63.854354],[23.037425,63.854354],[23.037427,63.854355],[23.037428,63.854355],[23.037432,63.854356],[23.037439,63.854355],[23.037489,63.854327],[23.037743,63.854608],[23.038064,63.85503],[23.03843,63.855537],[23.03874,63.856053],[23.038964,63.856286],[23.038961,63.856285],[23.038959,63.856285],[23.038953,63.856284],[23.038948,63.856284],[23.038945,63.856284],[23.038941,63.856284],[23.038941,63.856283],[23.038943,63.856283],[23.038943,63.856284],[23.038942,63.856284],[23.038936,63.856284],[23.038936,63.856285],[23.038943,63.856286],[23.038948,63.856286],[23.038947,63.856286],[23.038945,63.856287],[23.038943,63.856287],[23.038943,63.856288],[23.038944,63.856288]]");
 
-        return tree;
     }
 
-    private RTree<TrainBoundary, Geometry> createInfraApiTracks(RTree<TrainBoundary, Geometry> tree) throws IOException {
+    private void createInfraApiTracks(List<double[]> tracks) throws IOException {
         log.info("Fetching tracks from {}", infraApiUrl);
         JsonNode trackNodes = objectMapper.readTree(new URL(infraApiUrl));
 
@@ -127,80 +246,40 @@ public class TrackBoundingBoxesService {
             final JsonNode geometryNode = featureNode.get("geometry");
             if (isMultiLineNode(geometryNode)) {
                 for (final JsonNode coordinates : geometryNode.get("coordinates")) {
-                    for (final PreviousAndNext<JsonNode> pan : PreviousAndNext.build(Lists.newArrayList(coordinates.iterator()))) {
-                        if (pan.next != null) {
-                            final Point startingPoint = nodeToPoint(pan.current);
-                            final Point endingPoint = nodeToPoint(pan.next);
-                            tree = createAndAddBoundingBoxToTree(tree, startingPoint, endingPoint);
-                        }
+                    final double[] track = new double[coordinates.size() * 2];
+                    for (int i = 0; i < coordinates.size(); i++) {
+                        track[i * 2] = coordinates.get(i).get(0).doubleValue();
+                        track[i * 2 + 1] = coordinates.get(i).get(1).doubleValue();
                     }
+                    tracks.add(track);
                 }
             }
         }
-        return tree;
-    }
-
-    private RTree<TrainBoundary, Geometry> createPrivateTrack(RTree<TrainBoundary, Geometry> tree,
-                                                              final String trackJson) throws IOException {
-        final List<List<Double>> track = Arrays.asList(objectMapper.readValue(trackJson, List.class)).get(0);
-
-        for (final PreviousAndNext<List<Double>> listPreviousAndNext : PreviousAndNext.build(Lists.newArrayList(track.iterator()))) {
-
-            final List<Double> current = listPreviousAndNext.current;
-            final List<Double> next = listPreviousAndNext.next;
-
-            if (next != null) {
-                final ProjCoordinate startingProjCoordinate = wgs84ConversionService.wgs84Tolivi(current.get(0), current.get(1));
-                Point startingPoint = new Point(startingProjCoordinate.x, startingProjCoordinate.y);
-
-                final ProjCoordinate endingProjCoordinate = wgs84ConversionService.wgs84Tolivi(next.get(0), next.get(1));
-                Point endingPoint = new Point(endingProjCoordinate.x, endingProjCoordinate.y);
-
-                tree = createAndAddBoundingBoxToTree(tree, startingPoint, endingPoint);
-            }
-        }
-        return tree;
-    }
-
-    private RTree<TrainBoundary, Geometry> createAndAddBoundingBoxToTree(RTree<TrainBoundary, Geometry> tree, final Point startingPoint,
-                                                                         final Point endingPoint) {
-        final List<Point> boundingBox = boundingBoxService.createBoundingBox(startingPoint, endingPoint, DISTANCE_FROM_LINE);
-
-        final Rectangle minMaxRectangle = createMinMaxRectangle(boundingBox);
-
-        tree = tree.add(new TrainBoundary(boundingBox), minMaxRectangle);
-        return tree;
     }
 
-    private Rectangle createMinMaxRectangle(final List<Point> boundingBox) {
-        Double minX = Double.MAX_VALUE;
-        Double minY = Double.MAX_VALUE;
-        Double maxX = Double.MIN_VALUE;
-        Double maxY = Double.MIN_VALUE;
+    private void createPrivateTrack(List<double[]> tracks, final String trackJson) throws IOException {
+        final List<List<Double>> wgs84Track = Arrays.asList(objectMapper.readValue(trackJson, List.class)).get(0);
 
-        for (final Point box : boundingBox) {
-            if (box.getX() < minX) {
-                minX = box.getX();
-            }
-            if (box.getX() > maxX) {
-                maxX = box.getX();
-            }
-            if (box.getY() < minY) {
-                minY = box.getY();
-            }
-            if (box.getY() > maxY) {
-                maxY = box.getY();
-            }
+        final double[] track = new double[wgs84Track.size() * 2];
+        for (int i = 0; i < wgs84Track.size(); i++) {
+            track[i * 2] = wgs84Track.get(i).get(0);
+            track[i * 2 + 1] = wgs84Track.get(i).get(1);
         }
-
-        return Geometries.rectangle(minX, minY, maxX, maxY);
+        wgs84ConversionService.wgs84ToLivi(track);
+        tracks.add(track);
     }
 
     private boolean isMultiLineNode(final JsonNode geometryNode) {
         return geometryNode != null && geometryNode.get("type") != null && geometryNode.get("type").textValue().equals("MultiLineString");
     }
 
-    private Point nodeToPoint(JsonNode pointNode) {
-        return new Point(pointNode.get(0).doubleValue(), pointNode.get(1).doubleValue());
+    private static class LoadedIndex {
+        private final TrackSegmentIndex index;
+        private final Instant builtAt;
+
+        private LoadedIndex(final TrackSegmentIndex index, final Instant builtAt) {
+            this.index = index;
+            this.builtAt = builtAt;
+        }
     }
 }
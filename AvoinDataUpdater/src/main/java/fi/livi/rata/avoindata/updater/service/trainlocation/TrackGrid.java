@@ -0,0 +1,120 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+/**
+ * Uniform grid over rectangular item extents, stored as flat arrays. Every item is registered in each cell its extent overlaps, so a
+ * lookup visits a single cell and does not allocate.
+ * <p>
+ * This is the grid of the track corridor index. The track segment index builds on it by growing segment extents with the search radius.
+ */
+final class TrackGrid {
+    private static final int MAX_CELLS = 4_000_000;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    // Items of cell c are cellItems[cellStart[c]] .. cellItems[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    /**
+     * @param extents     minX,minY,maxX,maxY per item
+     * @param minCellSize Cells are doubled from this until the grid has at most MAX_CELLS cells
+     */
+    static TrackGrid build(final double[] extents, final int itemCount, final double minCellSize) {
+        return new TrackGrid(extents, itemCount, minCellSize);
+    }
+
+    private TrackGrid(final double[] extents, final int itemCount, final double minCellSize) {
+        if (itemCount == 0) {
+            this.minX = this.minY = 0;
+            this.cellSize = minCellSize;
+            this.columns = this.rows = 1;
+            this.cellStart = new int[2];
+            this.cellItems = new int[0];
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int item = 0; item < itemCount; item++) {
+            minX = Math.min(minX, extents[item * 4]);
+            minY = Math.min(minY, extents[item * 4 + 1]);
+            maxX = Math.max(maxX, extents[item * 4 + 2]);
+            maxY = Math.max(maxY, extents[item * 4 + 3]);
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        double cellSize = minCellSize;
+        while (cellCount(maxX - minX, cellSize) * cellCount(maxY - minY, cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        this.cellSize = cellSize;
+        this.columns = (int) cellCount(maxX - minX, cellSize);
+        this.rows = (int) cellCount(maxY - minY, cellSize);
+
+        this.cellStart = new int[columns * rows + 1];
+        for (int item = 0; item < itemCount; item++) {
+            forEachCell(extents, item, cell -> cellStart[cell + 1]++);
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        this.cellItems = new int[cellStart[columns * rows]];
+        final int[] fill = new int[columns * rows];
+        for (int item = 0; item < itemCount; item++) {
+            final int currentItem = item;
+            forEachCell(extents, item, cell -> cellItems[cellStart[cell] + fill[cell]++] = currentItem);
+        }
+    }
+
+    /**
+     * @return Cell of the point or -1 if the point is outside the grid
+     */
+    int getCell(final double x, final double y) {
+        final int column = (int) Math.floor((x - minX) / cellSize);
+        final int row = (int) Math.floor((y - minY) / cellSize);
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return -1;
+        }
+        return row * columns + column;
+    }
+
+    int getFirst(final int cell) {
+        return cellStart[cell];
+    }
+
+    int getEnd(final int cell) {
+        return cellStart[cell + 1];
+    }
+
+    int getItem(final int position) {
+        return cellItems[position];
+    }
+
+    private void forEachCell(final double[] extents, final int item, final CellConsumer consumer) {
+        final int firstColumn = (int) ((extents[item * 4] - minX) / cellSize);
+        final int firstRow = (int) ((extents[item * 4 + 1] - minY) / cellSize);
+        final int lastColumn = Math.min((int) ((extents[item * 4 + 2] - minX) / cellSize), columns - 1);
+        final int lastRow = Math.min((int) ((extents[item * 4 + 3] - minY) / cellSize), rows - 1);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                consumer.accept(row * columns + column);
+            }
+        }
+    }
+
+    private static long cellCount(final double length, final double cellSize) {
+        return (long) (length / cellSize) + 1;
+    }
+
+    private interface CellConsumer {
+        void accept(int cell);
+    }
+}
@@ -0,0 +1,165 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.List;
+
+/**
+ * Immutable index of track segments for nearest-track queries in ETRS-TM35FIN meters.
+ * <p>
+ * Segments are packed into primitive arrays and bucketed into a TrackGrid. Each segment is registered in every cell within searchRadius
+ * of it, so a query only visits the cell of the point and does not allocate. Points further than searchRadius from all tracks are
+ * reported as not near any track.
+ */
+public final class TrackSegmentIndex {
+    private static final double MIN_CELL_SIZE = 1000;
+
+    private final double searchRadius;
+    private final int segmentCount;
+    private final int trackCount;
+    // x1,y1,x2,y2 per segment
+    private final double[] segments;
+    // Distance along the track at the start of the segment
+    private final double[] startDistances;
+    private final int[] trackIndexes;
+
+    private final TrackGrid grid;
+
+    /**
+     * @param tracks       Track polylines as x0,y0,x1,y1,... coordinates
+     * @param searchRadius Maximum distance from a track that queries can report
+     */
+    public static TrackSegmentIndex build(final List<double[]> tracks, final double searchRadius) {
+        return new TrackSegmentIndex(tracks, searchRadius);
+    }
+
+    private TrackSegmentIndex(final List<double[]> tracks, final double searchRadius) {
+        this.searchRadius = searchRadius;
+        this.trackCount = tracks.size();
+
+        int segmentCount = 0;
+        for (final double[] track : tracks) {
+            segmentCount += Math.max(0, track.length / 2 - 1);
+        }
+        this.segmentCount = segmentCount;
+        this.segments = new double[segmentCount * 4];
+        this.startDistances = new double[segmentCount];
+        this.trackIndexes = new int[segmentCount];
+
+        // Segment extents grown by searchRadius
+        final double[] extents = new double[segmentCount * 4];
+
+        int segment = 0;
+        for (int track = 0; track < tracks.size(); track++) {
+            final double[] points = tracks.get(track);
+            double distance = 0;
+            for (int point = 0; point + 3 < points.length; point += 2) {
+                segments[segment * 4] = points[point];
+                segments[segment * 4 + 1] = points[point + 1];
+                segments[segment * 4 + 2] = points[point + 2];
+                segments[segment * 4 + 3] = points[point + 3];
+                startDistances[segment] = distance;
+                trackIndexes[segment] = track;
+
+                distance += Math.hypot(points[point + 2] - points[point], points[point + 3] - points[point + 1]);
+                extents[segment * 4] = Math.min(points[point], points[point + 2]) - searchRadius;
+                extents[segment * 4 + 1] = Math.min(points[point + 1], points[point + 3]) - searchRadius;
+                extents[segment * 4 + 2] = Math.max(points[point], points[point + 2]) + searchRadius;
+                extents[segment * 4 + 3] = Math.max(points[point + 1], points[point + 3]) + searchRadius;
+                segment++;
+            }
+        }
+
+        this.grid = TrackGrid.build(extents, segmentCount, Math.max(MIN_CELL_SIZE, searchRadius));
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public double getSearchRadius() {
+        return searchRadius;
+    }
+
+    /**
+     * @return true if a track is within distance of the point. Stops at the first such segment.
+     */
+    public boolean isNearTrack(final double x, final double y, final double distance) {
+        final int cell = grid.getCell(x, y);
+        if (cell == -1) {
+            return false;
+        }
+
+        final double maxDistanceSquared = Math.min(distance, searchRadius) * Math.min(distance, searchRadius);
+        for (int i = grid.getFirst(cell); i < grid.getEnd(cell); i++) {
+            if (distanceSquared(grid.getItem(i), x, y) <= maxDistanceSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the nearest track segment within searchRadius and writes it to result
+     *
+     * @return false if no track is within searchRadius, result is then left unchanged
+     */
+    public boolean snap(final double x, final double y, final TrackSnap result) {
+        final int cell = grid.getCell(x, y);
+        if (cell == -1) {
+            return false;
+        }
+
+        int nearest = -1;
+        double nearestDistanceSquared = searchRadius * searchRadius;
+        for (int i = grid.getFirst(cell); i < grid.getEnd(cell); i++) {
+            final double distanceSquared = distanceSquared(grid.getItem(i), x, y);
+            if (distanceSquared <= nearestDistanceSquared) {
+                nearest = grid.getItem(i);
+                nearestDistanceSquared = distanceSquared;
+            }
+        }
+        if (nearest == -1) {
+            return false;
+        }
+
+        final double t = projection(nearest, x, y);
+        final double x1 = segments[nearest * 4];
+        final double y1 = segments[nearest * 4 + 1];
+        final double dx = segments[nearest * 4 + 2] - x1;
+        final double dy = segments[nearest * 4 + 3] - y1;
+
+        result.trackIndex = trackIndexes[nearest];
+        result.segmentIndex = nearest;
+        result.distance = Math.sqrt(nearestDistanceSquared);
+        result.snappedX = x1 + t * dx;
+        result.snappedY = y1 + t * dy;
+        result.alongTrackDistance = startDistances[nearest] + t * Math.hypot(dx, dy);
+        return true;
+    }
+
+    /**
+     * @return Position of the point projected on the segment, 0 at the start and 1 at the end
+     */
+    private double projection(final int segment, final double x, final double y) {
+        final double x1 = segments[segment * 4];
+        final double y1 = segments[segment * 4 + 1];
+        final double dx = segments[segment * 4 + 2] - x1;
+        final double dy = segments[segment * 4 + 3] - y1;
+
+        final double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+    }
+
+    private double distanceSquared(final int segment, final double x, final double y) {
+        final double t = projection(segment, x, y);
+        final double px = segments[segment * 4] + t * (segments[segment * 4 + 2] - segments[segment * 4]) - x;
+        final double py = segments[segment * 4 + 1] + t * (segments[segment * 4 + 3] - segments[segment * 4 + 1]) - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,19 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+/**
+ * Nearest track position of a point, filled by TrackSegmentIndex.snap. Mutable so that one instance can be reused for many queries.
+ */
+public class TrackSnap {
+    public int trackIndex;
+    public int segmentIndex;
+    /**
+     * Perpendicular distance (or distance to the nearest end of the segment) in meters
+     */
+    public double distance;
+    public double snappedX;
+    public double snappedY;
+    /**
+     * Distance from the start of the track to the snapped position in meters
+     */
+    public double alongTrackDistance;
+}
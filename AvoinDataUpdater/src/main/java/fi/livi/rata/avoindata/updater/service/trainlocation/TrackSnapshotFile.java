@@ -0,0 +1,67 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of track polylines: a header with format version and creation time, then for each track its point count and
+ * coordinates as doubles. Written to a temporary file and moved in place so that a crash never leaves a partial snapshot.
+ */
+final class TrackSnapshotFile {
+    private static final int MAGIC = 0x54524B53; // TRKS
+    private static final int VERSION = 1;
+
+    final Instant createdAt;
+    final List<double[]> tracks;
+
+    private TrackSnapshotFile(final Instant createdAt, final List<double[]> tracks) {
+        this.createdAt = createdAt;
+        this.tracks = tracks;
+    }
+
+    static void write(final Path path, final Instant createdAt, final List<double[]> tracks) throws IOException {
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(createdAt.toEpochMilli());
+            output.writeInt(tracks.size());
+            for (final double[] track : tracks) {
+                output.writeInt(track.length);
+                for (final double coordinate : track) {
+                    output.writeDouble(coordinate);
+                }
+            }
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static TrackSnapshotFile read(final Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown track snapshot format in " + path);
+            }
+
+            final Instant createdAt = Instant.ofEpochMilli(input.readLong());
+            final int trackCount = input.readInt();
+            final List<double[]> tracks = new ArrayList<>(trackCount);
+            for (int i = 0; i < trackCount; i++) {
+                final double[] track = new double[input.readInt()];
+                for (int j = 0; j < track.length; j++) {
+                    track[j] = input.readDouble();
+                }
+                tracks.add(track);
+            }
+            return new TrackSnapshotFile(createdAt, tracks);
+        }
+    }
+}
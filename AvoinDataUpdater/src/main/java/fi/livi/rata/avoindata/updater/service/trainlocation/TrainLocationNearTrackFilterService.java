@@ -1,47 +1,81 @@
 package fi.livi.rata.avoindata.updater.service.trainlocation;
 
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.updater.service.trainlocation.validation.TrainLocationValidationStage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.geo.Point;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 @Service
-public class TrainLocationNearTrackFilterService {
+@Order(30)
+public class TrainLocationNearTrackFilterService implements TrainLocationValidationStage {
+    public static final String NOT_NEAR_TRACK = "not-near-track";
+
     @Autowired
     private TrackBoundingBoxesService trackBoundingBoxesService;
 
-    private Logger log = LoggerFactory.getLogger(this.getClass());
+    @Value("${updater.train-location.max-distance-from-track:500}")
+    private double maxDistanceFromTrack;
 
-    public boolean isTrainLocationNearTrack(TrainLocation trainLocation) {
+    // Reused by each validating thread so that snapping does not allocate
+    private final ThreadLocal<TrackSnap> snaps = ThreadLocal.withInitial(TrackSnap::new);
 
-            final RTree<TrainBoundary, Geometry> tree = trackBoundingBoxesService.getBoundingBoxes();
+    private Logger log = LoggerFactory.getLogger(this.getClass());
 
-            if (isTrackLocationNearTrack(trainLocation.liikeLocation.getX(), trainLocation.liikeLocation.getY(), tree)) {
-                return true;
+    /**
+     * Batch version of reject, looks up the index only once. Nothing is filtered while tracks are not loaded.
+     */
+    public List<TrainLocation> filterNearTrack(List<TrainLocation> trainLocations) {
+        final TrackSegmentIndex index = trackBoundingBoxesService.getSegmentIndex();
+        if (index.getSegmentCount() == 0) {
+            log.warn("Tracks are not loaded, {} train locations are not filtered", trainLocations.size());
+            return trainLocations;
+        }
+
+        final List<TrainLocation> result = new ArrayList<>(trainLocations.size());
+        for (final TrainLocation trainLocation : trainLocations) {
+            if (isNearTrack(index, trainLocation)) {
+                result.add(trainLocation);
             } else {
-                log.info("Point {},{} ({}, {}) not in proximity of Tracks. TrainLocation: {}", trainLocation.location.getY(),
-                        trainLocation.location.getX(), trainLocation.liikeLocation.getX(), trainLocation.liikeLocation.getY(),
-                        trainLocation.trainLocationId);
-                return false;
+                logNotNearTrack(trainLocation);
             }
-
+        }
+        return result;
     }
 
-    private boolean isTrackLocationNearTrack(double x, double y, final RTree<TrainBoundary, Geometry> tree) {
-        final Iterable<Entry<TrainBoundary, Geometry>> searchResult = tree.search(Geometries.point(x, y)).toBlocking().toIterable();
+    @Override
+    public List<String> getRejectionReasons() {
+        return Collections.singletonList(NOT_NEAR_TRACK);
+    }
 
-        for (final Entry<TrainBoundary, Geometry> trainBoundaryGeometryEntry : searchResult) {
-            if (trainBoundaryGeometryEntry.value().contains(new Point(x, y))) {
-                return true;
-            }
+    /**
+     * Nothing is rejected while tracks are not loaded
+     */
+    @Override
+    public String reject(final TrainLocation trainLocation) {
+        final TrackSegmentIndex index = trackBoundingBoxesService.getSegmentIndex();
+        if (index.getSegmentCount() == 0 || isNearTrack(index, trainLocation)) {
+            return null;
         }
+        return NOT_NEAR_TRACK;
+    }
+
+    private boolean isNearTrack(final TrackSegmentIndex index, final TrainLocation trainLocation) {
+        final TrackSnap snap = snaps.get();
+        return index.snap(trainLocation.liikeLocation.getX(), trainLocation.liikeLocation.getY(), snap) &&
+                snap.distance <= maxDistanceFromTrack;
+    }
 
-        return false;
+    private void logNotNearTrack(final TrainLocation trainLocation) {
+        log.info("Point {},{} ({}, {}) not in proximity of Tracks. TrainLocation: {}", trainLocation.location.getY(),
+                trainLocation.location.getX(), trainLocation.liikeLocation.getX(), trainLocation.liikeLocation.getY(),
+                trainLocation.trainLocationId);
     }
 }
@@ -0,0 +1,21 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.updater.service.IdentityBatchInsertService;
+
+@Service
+@Transactional
+public class TrainLocationPersistService {
+    @Autowired
+    private IdentityBatchInsertService identityBatchInsertService;
+
+    public void persist(final List<TrainLocation> trainLocations) {
+        identityBatchInsertService.insertTrainLocations(trainLocations);
+    }
+}
@@ -0,0 +1,114 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.updater.service.MQTTPublishService;
+import fi.livi.rata.avoindata.updater.service.MQTTTopicBuilder;
+import fi.livi.rata.avoindata.updater.service.isuptodate.LastUpdateService;
+import fi.livi.rata.avoindata.updater.service.recentlyseen.RecentlySeenTrainLocationFilter;
+import fi.livi.rata.avoindata.updater.service.trainlocation.validation.TrainLocationValidationService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Handles received train locations in filter, publish and persist stages that each run in their own thread. The filter stage hands the
+ * accepted locations to both the publish and the persist stage, so MQTT publishing never waits on the database and a slow database or
+ * MQTT broker does not delay fetching. Each stage is timed to train.location.stage.
+ */
+@Service
+public class TrainLocationPipeline {
+    static final String FILTER = "filter";
+    static final String PUBLISH = "publish";
+    static final String PERSIST = "persist";
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private RecentlySeenTrainLocationFilter recentlySeenTrainLocationFilter;
+
+    @Autowired
+    private TrainLocationValidationService trainLocationValidationService;
+
+    @Autowired
+    private MQTTPublishService mqttPublishService;
+
+    @Autowired
+    private TrainLocationPersistService trainLocationPersistService;
+
+    @Autowired
+    private LastUpdateService lastUpdateService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${updater.train-location.pipeline-queue-size:300}")
+    private int queueSize;
+
+    private TrainLocationPipelineStage filterStage;
+    private TrainLocationPipelineStage publishStage;
+    private TrainLocationPipelineStage persistStage;
+    private Thread[] stageThreads;
+
+    @PostConstruct
+    private void setup() {
+        filterStage = new TrainLocationPipelineStage(FILTER, queueSize, this::filter, meterRegistry);
+        publishStage = new TrainLocationPipelineStage(PUBLISH, queueSize, this::publish, meterRegistry);
+        persistStage = new TrainLocationPipelineStage(PERSIST, queueSize, this::persist, meterRegistry);
+
+        stageThreads = new Thread[]{new Thread(filterStage, "train-location-" + FILTER), new Thread(publishStage,
+                "train-location-" + PUBLISH), new Thread(persistStage, "train-location-" + PERSIST)};
+        for (final Thread stageThread : stageThreads) {
+            stageThread.setDaemon(true);
+            stageThread.start();
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        for (final Thread stageThread : stageThreads) {
+            stageThread.interrupt();
+        }
+    }
+
+    /**
+     * Queues received train locations and returns immediately
+     */
+    public void submit(final List<TrainLocation> trainLocations) {
+        filterStage.submit(trainLocations);
+    }
+
+    private void filter(final List<TrainLocation> trainLocations) {
+        final List<TrainLocation> recentlySeenTrainLocations = recentlySeenTrainLocationFilter.filter(trainLocations);
+        final List<TrainLocation> filteredTrainLocations = trainLocationValidationService.validate(recentlySeenTrainLocations);
+
+        log.debug("Filtered {} trainLocations (total received {})", filteredTrainLocations.size(), trainLocations.size());
+
+        if (!filteredTrainLocations.isEmpty()) {
+            publishStage.submit(filteredTrainLocations);
+        }
+        // Also empty batches, persisting marks train locations up to date
+        persistStage.submit(filteredTrainLocations);
+    }
+
+    private void publish(final List<TrainLocation> trainLocations) {
+        mqttPublishService.publishBuiltTopics(s -> MQTTTopicBuilder.trainLocations(s.trainLocationId.departureDate, s.trainLocationId.trainNumber),
+                trainLocations, null, true);
+    }
+
+    private void persist(final List<TrainLocation> trainLocations) {
+        trainLocationPersistService.persist(trainLocations);
+
+        log.info("Persisted {} trainLocations", trainLocations.size());
+
+        lastUpdateService.update(LastUpdateService.LastUpdatedType.TRAIN_LOCATIONS);
+    }
+}
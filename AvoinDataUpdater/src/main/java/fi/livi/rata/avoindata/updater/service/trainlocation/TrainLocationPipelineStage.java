@@ -0,0 +1,84 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * One stage of TrainLocationPipeline with its own bounded queue and thread. Batches queued while the previous ones were handled are
+ * handled together. When the queue is full the oldest batch is dropped to make room for the new one.
+ */
+class TrainLocationPipelineStage implements Runnable {
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final String name;
+    private final BlockingDeque<List<TrainLocation>> queue;
+    private final Consumer<List<TrainLocation>> handler;
+    private final Timer timer;
+    private final Counter droppedCounter;
+
+    TrainLocationPipelineStage(final String name, final int queueSize, final Consumer<List<TrainLocation>> handler,
+            final MeterRegistry meterRegistry) {
+        this.name = name;
+        this.queue = new LinkedBlockingDeque<>(queueSize);
+        this.handler = handler;
+        this.timer = createTimer(name, meterRegistry);
+        this.droppedCounter = meterRegistry.counter("train.location.stage.dropped", "stage", name);
+        meterRegistry.gauge("train.location.stage.queue.size", Tags.of("stage", name), queue, BlockingDeque::size);
+    }
+
+    static Timer createTimer(final String name, final MeterRegistry meterRegistry) {
+        return Timer.builder("train.location.stage").tag("stage", name).publishPercentileHistogram().register(meterRegistry);
+    }
+
+    void submit(final List<TrainLocation> batch) {
+        while (!queue.offerLast(batch)) {
+            final List<TrainLocation> stale = queue.pollFirst();
+            if (stale != null) {
+                droppedCounter.increment();
+                log.warn("Train location {} queue full. Dropped {} train locations", name, stale.size());
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<List<TrainLocation>> batches = new ArrayList<>();
+            try {
+                batches.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batches);
+
+            final List<TrainLocation> trainLocations;
+            if (batches.size() == 1) {
+                trainLocations = batches.get(0);
+            } else {
+                trainLocations = new ArrayList<>();
+                for (final List<TrainLocation> batch : batches) {
+                    trainLocations.addAll(batch);
+                }
+            }
+
+            try {
+                timer.record(() -> handler.accept(trainLocations));
+            } catch (Exception e) {
+                log.error("Error in train location {}", name, e);
+            }
+        }
+    }
+}
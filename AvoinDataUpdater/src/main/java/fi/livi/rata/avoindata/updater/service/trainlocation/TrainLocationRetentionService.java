@@ -0,0 +1,225 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.updater.ExceptionLoggingRunnable;
+
+/**
+ * Manages the train_location table, which is partitioned by departure date (V26).
+ * <p>
+ * Daily partitions are created ahead of time by splitting them off the empty p_future partition, so inserts and latest location queries
+ * only touch small partitions. V26 creates the partitions of the first week, so p_future stays empty as long as this job runs at least
+ * weekly. Splitting a non-empty p_future copies its rows and is logged as a warning. Partitions older than the retention window are
+ * dropped, which is instant compared to deleting rows.
+ * Rows that are not in a droppable partition, such as the pre-partitioning p_history or an unpartitioned table, are deleted in batches.
+ * History older than downsample-after-days can be thinned to one location per train per downsample interval.
+ * <p>
+ * The job runs on its own thread, because altering partitions and deleting rows can take long enough to hold up the shared scheduler.
+ */
+@Service
+public class TrainLocationRetentionService {
+    static final String TABLE = "train_location";
+    static final String FUTURE_PARTITION = "p_future";
+    private static final DateTimeFormatter PARTITION_NAME_FORMAT = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+    private static final int DELETE_BATCH_SIZE = 10000;
+    private static final int DOWNSAMPLE_CATCH_UP_DAYS = 3;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DateProvider dp;
+
+    @Value("${updater.train-location.partitions-ahead-days:3}")
+    private int partitionsAheadDays;
+
+    @Value("${updater.train-location.retention-days:0}")
+    private int retentionDays;
+
+    @Value("${updater.train-location.downsample-after-days:0}")
+    private int downsampleAfterDays;
+
+    @Value("${updater.train-location.downsample-interval-seconds:30}")
+    private int downsampleIntervalSeconds;
+
+    @Value("${updater.train-location.retention-cron}")
+    private String retentionCron;
+
+    // Replaced by tests with a table of their own
+    private String table = TABLE;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void setup() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("train-location-maintenance-%d").build());
+        new ConcurrentTaskScheduler(executor).schedule(new ExceptionLoggingRunnable(this::maintain),
+                new CronTrigger(retentionCron, TimeZone.getTimeZone("Europe/Helsinki")));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public void maintain() {
+        try {
+            maintain(dp.dateInHelsinki());
+        } catch (final Exception e) {
+            log.error("Train location maintenance failed", e);
+        }
+    }
+
+    void maintain(final LocalDate today) {
+        final List<Partition> partitions = findPartitions();
+        if (partitions.isEmpty()) {
+            log.warn("{} is not partitioned, only deleting expired rows", table);
+        } else {
+            createPartitions(partitions, today.plusDays(partitionsAheadDays));
+        }
+
+        if (retentionDays > 0) {
+            removeExpired(partitions, today.minusDays(retentionDays));
+        }
+
+        if (downsampleAfterDays > 0) {
+            final LocalDate newest = today.minusDays(downsampleAfterDays);
+            for (LocalDate date = newest.minusDays(DOWNSAMPLE_CATCH_UP_DAYS); !date.isAfter(newest); date = date.plusDays(1)) {
+                downsample(date);
+            }
+        }
+    }
+
+    /**
+     * Keeps the first location of every train in every downsample interval of the departure date
+     *
+     * @return Number of removed locations
+     */
+    public int downsample(final LocalDate departureDate) {
+        final List<Long> trainNumbers = jdbcTemplate.queryForList(
+                "SELECT DISTINCT train_number FROM " + table + " WHERE departure_date = ?", Long.class, departureDate);
+
+        int removed = 0;
+        for (final Long trainNumber : trainNumbers) {
+            removed += jdbcTemplate.update("DELETE FROM " + table + " WHERE departure_date = ? AND train_number = ? AND id NOT IN (" +
+                            "SELECT keep_id FROM (" +
+                            "SELECT MIN(id) AS keep_id FROM " + table + " WHERE departure_date = ? AND train_number = ? " +
+                            "GROUP BY FLOOR(UNIX_TIMESTAMP(`timestamp`) / ?)) kept)", departureDate, trainNumber, departureDate,
+                    trainNumber, downsampleIntervalSeconds);
+        }
+
+        log.info("Downsampled {} trains on {}, removed {} locations", trainNumbers.size(), departureDate, removed);
+        return removed;
+    }
+
+    private List<Partition> findPartitions() {
+        return jdbcTemplate.query("SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL " +
+                        "ORDER BY PARTITION_ORDINAL_POSITION",
+                (resultSet, i) -> new Partition(resultSet.getString(1), parseUpperBound(resultSet.getString(2))), table);
+    }
+
+    private void createPartitions(final List<Partition> partitions, final LocalDate lastDate) {
+        LocalDate nextDate = null;
+        for (final Partition partition : partitions) {
+            if (partition.upperBound != null && (nextDate == null || partition.upperBound.isAfter(nextDate))) {
+                nextDate = partition.upperBound;
+            }
+        }
+        if (nextDate == null || nextDate.isAfter(lastDate)) {
+            return;
+        }
+
+        if (jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM " + table + " PARTITION (" + FUTURE_PARTITION + "))",
+                Boolean.class)) {
+            log.warn("{} partition {} is not empty, splitting it copies its rows", table, FUTURE_PARTITION);
+        }
+
+        jdbcTemplate.execute(createPartitionsSql(table, nextDate, lastDate));
+        log.info("Created {} partitions from {} to {}", table, nextDate, lastDate);
+    }
+
+    /**
+     * @return Statement that splits daily partitions from firstDate to lastDate off the front of p_future
+     */
+    static String createPartitionsSql(final String table, final LocalDate firstDate, final LocalDate lastDate) {
+        final StringBuilder sql = new StringBuilder("ALTER TABLE " + table + " REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO (");
+        for (LocalDate date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1)) {
+            sql.append(String.format("PARTITION %s VALUES LESS THAN ('%s'), ", partitionName(date), date.plusDays(1)));
+        }
+        sql.append("PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN (MAXVALUE))");
+        return sql.toString();
+    }
+
+    private void removeExpired(final List<Partition> partitions, final LocalDate oldestKept) {
+        final List<String> expired = new ArrayList<>();
+        for (final Partition partition : partitions) {
+            if (partition.upperBound != null && !partition.upperBound.isAfter(oldestKept)) {
+                expired.add(partition.name);
+            }
+        }
+        if (!expired.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " DROP PARTITION " + String.join(", ", expired));
+            log.info("Dropped {} partitions {}", table, expired);
+        }
+
+        int deleted = 0;
+        int batch;
+        do {
+            batch = jdbcTemplate.update("DELETE FROM " + table + " WHERE departure_date < ? LIMIT " + DELETE_BATCH_SIZE, oldestKept);
+            deleted += batch;
+        } while (batch == DELETE_BATCH_SIZE);
+
+        if (deleted > 0) {
+            log.info("Deleted {} train locations older than {}", deleted, oldestKept);
+        }
+    }
+
+    static String partitionName(final LocalDate date) {
+        return date.format(PARTITION_NAME_FORMAT);
+    }
+
+    /**
+     * @param description RANGE COLUMNS partition description, for example '2020-01-02' or MAXVALUE
+     * @return null for MAXVALUE
+     */
+    static LocalDate parseUpperBound(final String description) {
+        if (description == null || description.equalsIgnoreCase("MAXVALUE")) {
+            return null;
+        }
+        return LocalDate.parse(description.replace("'", "").trim());
+    }
+
+    private static class Partition {
+        private final String name;
+        // Exclusive, null for MAXVALUE
+        private final LocalDate upperBound;
+
+        private Partition(final String name, final LocalDate upperBound) {
+            this.name = name;
+            this.upperBound = upperBound;
+        }
+    }
+}
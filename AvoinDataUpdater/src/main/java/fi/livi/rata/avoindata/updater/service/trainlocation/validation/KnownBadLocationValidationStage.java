@@ -0,0 +1,61 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+
+/**
+ * Rejects locations at known bad coordinates, such as the point IP geolocation gives when a train's gps is not available.
+ */
+@Component
+@Order(20)
+public class KnownBadLocationValidationStage implements TrainLocationValidationStage {
+    public static final String KNOWN_BAD_LOCATION = "known-bad-location";
+
+    @Value("${updater.train-location.known-bad-locations:}")
+    private String[] knownBadLocations;
+
+    @Value("${updater.train-location.known-bad-location-tolerance:0.0000015}")
+    private double tolerance;
+
+    private double[] xs;
+    private double[] ys;
+
+    @PostConstruct
+    private void setup() {
+        xs = new double[knownBadLocations.length];
+        ys = new double[knownBadLocations.length];
+        for (int i = 0; i < knownBadLocations.length; i++) {
+            final String[] coordinates = knownBadLocations[i].trim().split(":");
+            if (coordinates.length != 2) {
+                throw new IllegalArgumentException("Known bad location must be x:y, was " + knownBadLocations[i]);
+            }
+            xs[i] = Double.parseDouble(coordinates[0]);
+            ys[i] = Double.parseDouble(coordinates[1]);
+        }
+    }
+
+    @Override
+    public List<String> getRejectionReasons() {
+        return Collections.singletonList(KNOWN_BAD_LOCATION);
+    }
+
+    @Override
+    public String reject(final TrainLocation trainLocation) {
+        final double x = trainLocation.location.getX();
+        final double y = trainLocation.location.getY();
+        for (int i = 0; i < xs.length; i++) {
+            if (Math.abs(x - xs[i]) <= tolerance && Math.abs(y - ys[i]) <= tolerance) {
+                return KNOWN_BAD_LOCATION;
+            }
+        }
+        return null;
+    }
+}
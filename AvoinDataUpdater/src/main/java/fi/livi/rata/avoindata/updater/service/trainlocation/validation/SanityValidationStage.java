@@ -0,0 +1,56 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+
+/**
+ * Rejects locations that are missing, outside Finland or have an impossible speed. Later stages can rely on both coordinates being set.
+ */
+@Component
+@Order(10)
+public class SanityValidationStage implements TrainLocationValidationStage {
+    public static final String MISSING_LOCATION = "missing-location";
+    public static final String OUT_OF_BOUNDS = "out-of-bounds";
+    public static final String INVALID_SPEED = "invalid-speed";
+
+    // Finland and some margin in wgs84
+    private static final double MIN_X = 19;
+    private static final double MAX_X = 32;
+    private static final double MIN_Y = 59;
+    private static final double MAX_Y = 71;
+
+    @Value("${updater.train-location.max-speed:400}")
+    private int maxSpeed;
+
+    @Override
+    public List<String> getRejectionReasons() {
+        return Arrays.asList(MISSING_LOCATION, OUT_OF_BOUNDS, INVALID_SPEED);
+    }
+
+    @Override
+    public String reject(final TrainLocation trainLocation) {
+        if (trainLocation.location == null || trainLocation.liikeLocation == null || trainLocation.trainLocationId == null ||
+                trainLocation.trainLocationId.timestamp == null) {
+            return MISSING_LOCATION;
+        }
+
+        final double x = trainLocation.location.getX();
+        final double y = trainLocation.location.getY();
+        // Also false for NaN
+        if (!(x >= MIN_X && x <= MAX_X && y >= MIN_Y && y <= MAX_Y)) {
+            return OUT_OF_BOUNDS;
+        }
+
+        if (trainLocation.speed != null && (trainLocation.speed < 0 || trainLocation.speed > maxSpeed)) {
+            return INVALID_SPEED;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+
+/**
+ * Rejects locations that are too far from the previous accepted location of the train to have been driven in the time between them.
+ * Distances are measured in ETRS-TM35FIN meters. Previous locations older than PREVIOUS_MAX_AGE_MILLIS are ignored, so a train whose
+ * previous location was itself wrong is accepted again after a while.
+ */
+@Component
+@Order(40)
+public class TeleportValidationStage implements TrainLocationValidationStage {
+    public static final String TELEPORT = "teleport";
+
+    private static final long PREVIOUS_MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    @Value("${updater.train-location.max-implied-speed:400}")
+    private double maxImpliedSpeed;
+
+    @Value("${updater.train-location.teleport-min-distance-meters:2000}")
+    private double minDistance;
+
+    private final PreviousLocations previousLocations = new PreviousLocations();
+
+    @Override
+    public List<String> getRejectionReasons() {
+        return Collections.singletonList(TELEPORT);
+    }
+
+    @Override
+    public synchronized String reject(final TrainLocation trainLocation) {
+        final int i = previousLocations.find(getTrainKey(trainLocation));
+        if (i == -1) {
+            return null;
+        }
+
+        final long millis = trainLocation.trainLocationId.timestamp.toInstant().toEpochMilli() - previousLocations.timestamps[i];
+        if (millis <= 0 || millis > PREVIOUS_MAX_AGE_MILLIS) {
+            return null;
+        }
+
+        final double dx = trainLocation.liikeLocation.getX() - previousLocations.xs[i];
+        final double dy = trainLocation.liikeLocation.getY() - previousLocations.ys[i];
+        final double distance = Math.sqrt(dx * dx + dy * dy);
+        // m/ms to km/h
+        if (distance > minDistance && distance / millis * 3600 > maxImpliedSpeed) {
+            return TELEPORT;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void accepted(final TrainLocation trainLocation) {
+        previousLocations.put(getTrainKey(trainLocation), trainLocation.trainLocationId.timestamp.toInstant().toEpochMilli(),
+                trainLocation.liikeLocation.getX(), trainLocation.liikeLocation.getY());
+    }
+
+    private static long getTrainKey(final TrainLocation trainLocation) {
+        return trainLocation.trainLocationId.departureDate.toEpochDay() << 32 | trainLocation.trainLocationId.trainNumber;
+    }
+
+    /**
+     * Open addressing map from train key to the latest accepted location. Entries are never removed one by one, stale entries are dropped
+     * by rehashing when the table fills up.
+     */
+    private static final class PreviousLocations {
+        private static final int MIN_CAPACITY = 1024;
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private long[] timestamps;
+        private double[] xs;
+        private double[] ys;
+        private int mask;
+        private int size;
+
+        private PreviousLocations() {
+            allocate(MIN_CAPACITY);
+        }
+
+        private int find(final long key) {
+            for (int i = index(key); timestamps[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void put(final long key, final long timestamp, final double x, final double y) {
+            int i = index(key);
+            for (; timestamps[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    if (timestamp >= timestamps[i]) {
+                        set(i, key, timestamp, x, y);
+                    }
+                    return;
+                }
+            }
+
+            set(i, key, timestamp, x, y);
+            if (++size * 2 > keys.length) {
+                rehash(timestamp - PREVIOUS_MAX_AGE_MILLIS);
+            }
+        }
+
+        private void set(final int i, final long key, final long timestamp, final double x, final double y) {
+            keys[i] = key;
+            timestamps[i] = timestamp;
+            xs[i] = x;
+            ys[i] = y;
+        }
+
+        private void rehash(final long oldestKept) {
+            final long[] oldKeys = keys;
+            final long[] oldTimestamps = timestamps;
+            final double[] oldXs = xs;
+            final double[] oldYs = ys;
+
+            int live = 0;
+            for (final long timestamp : oldTimestamps) {
+                if (timestamp != EMPTY && timestamp >= oldestKept) {
+                    live++;
+                }
+            }
+
+            int capacity = MIN_CAPACITY;
+            while (live * 4 > capacity) {
+                capacity *= 2;
+            }
+            allocate(capacity);
+
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldTimestamps[j] != EMPTY && oldTimestamps[j] >= oldestKept) {
+                    int i = index(oldKeys[j]);
+                    while (timestamps[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    set(i, oldKeys[j], oldTimestamps[j], oldXs[j], oldYs[j]);
+                    size++;
+                }
+            }
+        }
+
+        private void allocate(final int capacity) {
+            keys = new long[capacity];
+            timestamps = new long[capacity];
+            Arrays.fill(timestamps, EMPTY);
+            xs = new double[capacity];
+            ys = new double[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        private int index(final long key) {
+            final long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ hash >>> 32) & mask;
+        }
+    }
+}
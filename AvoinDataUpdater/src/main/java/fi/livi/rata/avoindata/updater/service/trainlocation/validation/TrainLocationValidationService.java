@@ -0,0 +1,82 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs received train locations through the TrainLocationValidationStages. Rejections are counted per stage and reason to
+ * train.location.rejected.
+ */
+@Service
+public class TrainLocationValidationService {
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private List<TrainLocationValidationStage> stages;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Counter> rejectionCounters = new HashMap<>();
+
+    @PostConstruct
+    private void setup() {
+        for (final TrainLocationValidationStage stage : stages) {
+            for (final String reason : stage.getRejectionReasons()) {
+                final Counter counter = meterRegistry.counter("train.location.rejected", "stage", stage.getClass().getSimpleName(), "reason",
+                        reason);
+                if (rejectionCounters.put(reason, counter) != null) {
+                    throw new IllegalStateException("Duplicate train location rejection reason " + reason);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Locations that passed all stages, in the original order
+     */
+    public List<TrainLocation> validate(final List<TrainLocation> trainLocations) {
+        final List<TrainLocation> result = new ArrayList<>(trainLocations.size());
+        for (final TrainLocation trainLocation : trainLocations) {
+            final String reason = reject(trainLocation);
+            if (reason == null) {
+                result.add(trainLocation);
+                for (final TrainLocationValidationStage stage : stages) {
+                    stage.accepted(trainLocation);
+                }
+            } else {
+                rejectionCounters.get(reason).increment();
+                log.info("Rejected {} ({} / {}): {}", trainLocation, trainLocation.location, trainLocation.liikeLocation, reason);
+            }
+        }
+        return result;
+    }
+
+    private String reject(final TrainLocation trainLocation) {
+        for (final TrainLocationValidationStage stage : stages) {
+            final String reason = stage.reject(trainLocation);
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    public double getRejectionCount(final String reason) {
+        final Counter counter = rejectionCounters.get(reason);
+        return counter != null ? counter.count() : 0;
+    }
+}
@@ -0,0 +1,27 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.util.List;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+
+/**
+ * One check of TrainLocationValidationService. Stages are run in @Order and a location is rejected by the first stage that returns a
+ * reason. Stages must not allocate per location, they are run for every received location every second.
+ */
+public interface TrainLocationValidationStage {
+    /**
+     * @return Every reason reject can return. Reasons are constants shared by all stages, so they must be unique.
+     */
+    List<String> getRejectionReasons();
+
+    /**
+     * @return Reason for rejecting the location, or null if it passes this stage
+     */
+    String reject(TrainLocation trainLocation);
+
+    /**
+     * Called for locations that passed all stages
+     */
+    default void accepted(final TrainLocation trainLocation) {
+    }
+}
@@ -1,50 +1,53 @@
 package fi.livi.rata.avoindata.updater.updaters;
 
-import java.net.URL;
-import java.text.DecimalFormat;
-import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.HttpClient;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.RestTemplate;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
-import fi.livi.rata.avoindata.common.utils.DateProvider;
-import fi.livi.rata.avoindata.updater.service.MQTTPublishService;
-import fi.livi.rata.avoindata.updater.service.isuptodate.LastUpdateService;
-import fi.livi.rata.avoindata.updater.service.recentlyseen.RecentlySeenTrainLocationFilter;
-import fi.livi.rata.avoindata.updater.service.trainlocation.TrainLocationNearTrackFilterService;
-
+import fi.livi.rata.avoindata.updater.ExceptionLoggingRunnable;
+import fi.livi.rata.avoindata.updater.service.trainlocation.TrainLocationPipeline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Fetches train locations every second and hands them to TrainLocationPipeline, which filters, publishes and persists them in its own
+ * threads. Fetching runs on its own thread with short HTTP timeouts, so a hanging LiikeInterface delays neither the shared scheduler nor
+ * the next fetch for long.
+ */
 @Service
 public class TrainLocationUpdater {
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    private TrainLocationRepository trainLocationRepository;
-
-    @Autowired
-    private RecentlySeenTrainLocationFilter recentlySeenTrainLocationFilter;
+    private TrainLocationPipeline trainLocationPipeline;
 
     @Autowired
-    private DateProvider dateProvider;
+    private HttpClient httpClient;
 
     @Autowired
-    private TrainLocationNearTrackFilterService trainLocationNearTrackFilterService;
+    private MappingJackson2HttpMessageConverter messageConverter;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private MeterRegistry meterRegistry;
 
     @Value("${updater.liikeinterface-url}")
     private String liikeinterfaceUrl;
@@ -52,66 +55,53 @@ public class TrainLocationUpdater {
     @Value("${updater.kupla-enabled:true}")
     private boolean isKuplaEnabled;
 
-    @Autowired
-    private MQTTPublishService mqttPublishService;
-
-    @Autowired
-    private LastUpdateService lastUpdateService;
+    @Value("${updater.train-location.connect-timeout-millis:5000}")
+    private int connectTimeoutMillis;
 
-    private static final DecimalFormat IP_LOCATION_FILTER_PRECISION = new DecimalFormat("#.000000");
+    @Value("${updater.train-location.read-timeout-millis:10000}")
+    private int readTimeoutMillis;
 
-    @Scheduled(fixedDelay = 1000)
-    @Transactional
-    public synchronized void trainLocation() {
-            try {
-                if (!Strings.isNullOrEmpty(liikeinterfaceUrl) && isKuplaEnabled) {
-                    final ZonedDateTime start = dateProvider.nowInHelsinki();
+    private Timer fetchTimer;
+    private RestTemplate restTemplate;
+    private ScheduledExecutorService executor;
 
-                    List<TrainLocation> trainLocations = Arrays.asList(
-                            objectMapper.readValue(new URL(liikeinterfaceUrl + "/kuplas"), TrainLocation[].class));
+    @PostConstruct
+    private void setup() {
+        fetchTimer = Timer.builder("train.location.stage").tag("stage", "fetch").publishPercentileHistogram().register(meterRegistry);
 
-                    final List<TrainLocation> filteredTrainLocations = filterTrains(trainLocations);
+        final HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectionRequestTimeout(connectTimeoutMillis);
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+        restTemplate = new RestTemplate(requestFactory);
+        restTemplate.setMessageConverters(Arrays.asList(messageConverter));
 
-                    try {
-                        mqttPublishService.publish(
-                                s -> String.format("train-locations/%s/%s", s.trainLocationId.departureDate, s.trainLocationId.trainNumber),
-                                filteredTrainLocations, null);
-                    } catch (Exception e) {
-                        log.error("MQTT updated failed. Still trying to update database.", e);
-                    }
-
-                    trainLocationRepository.persist(filteredTrainLocations);
-
-                    final ZonedDateTime end = dateProvider.nowInHelsinki();
-
-                    log.info("Updated data for {} trainLocations (total received {}) in {} ms", filteredTrainLocations.size(),
-                            trainLocations.size(), end.toInstant().toEpochMilli() - start.toInstant().toEpochMilli());
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("train-location-fetch-%d").build());
+        executor.scheduleWithFixedDelay(new ExceptionLoggingRunnable(this::trainLocation), 1000, 1000, TimeUnit.MILLISECONDS);
+    }
 
-                    lastUpdateService.update(LastUpdateService.LastUpdatedType.TRAIN_LOCATIONS);
-                }
-            } catch (Exception e) {
-                log.error("Error updating train locations", e);
-            }
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
     }
 
-    private List<TrainLocation> filterTrains(final List<TrainLocation> trainLocations) {
-        final List<TrainLocation> recentlySeenTrackLocations = recentlySeenTrainLocationFilter.filter(trainLocations);
-        final Iterable<TrainLocation> filterIPLocations = Iterables.filter(recentlySeenTrackLocations, t -> {
-            final String yLocation = IP_LOCATION_FILTER_PRECISION.format(t.location.getY());
-            boolean isIPLocation = (yLocation.equals("60,170799") || yLocation.equals("60,170800")) && IP_LOCATION_FILTER_PRECISION.format(
-                    t.location.getX()).equals("24,937500");
+    public void trainLocation() {
+        try {
+            if (!Strings.isNullOrEmpty(liikeinterfaceUrl) && isKuplaEnabled) {
+                final long start = System.nanoTime();
 
-            if (isIPLocation) {
-                log.info("Found IP location for {} ({} / {})", t, t.location, t.liikeLocation);
-            }
+                final List<TrainLocation> trainLocations = Arrays.asList(
+                        restTemplate.getForObject(liikeinterfaceUrl + "/kuplas", TrainLocation[].class));
 
-            return !isIPLocation;
-        });
+                final long end = System.nanoTime();
+                fetchTimer.record(end - start, TimeUnit.NANOSECONDS);
 
-        final Iterable<TrainLocation> filterLocationsOutsideTracks = Iterables.filter(filterIPLocations,
-                t -> trainLocationNearTrackFilterService.isTrainLocationNearTrack(t));
+                log.info("Fetched {} trainLocations in {} ms", trainLocations.size(), (end - start) / 1_000_000);
 
-        final ArrayList<TrainLocation> result = Lists.newArrayList(filterLocationsOutsideTracks);
-        return result;
+                trainLocationPipeline.submit(trainLocations);
+            }
+        } catch (Exception e) {
+            log.error("Error updating train locations", e);
+        }
     }
 }
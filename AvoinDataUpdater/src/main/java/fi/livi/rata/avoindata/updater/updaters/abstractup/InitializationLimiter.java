@@ -0,0 +1,100 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caps the number of concurrent LiikeInterface requests and database writers over all initializers. Initializers have their own
+ * per-prefix thread pools, so without a shared cap five prefixes with n threads each could exhaust the connection pool.
+ */
+@Component
+public class InitializationLimiter {
+    private static final Logger log = LoggerFactory.getLogger(InitializationLimiter.class);
+
+    @Value("${updater.initialization.maxConcurrentRequests:0}")
+    private int maxConcurrentRequests;
+
+    @Value("${updater.initialization.maxConcurrentWriters:0}")
+    private int maxConcurrentWriters;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    private Semaphore requestPermits;
+    private Semaphore writerPermits;
+
+    @PostConstruct
+    private void setup() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+
+        if (maxConcurrentRequests <= 0) {
+            maxConcurrentRequests = Math.max(1, processors);
+        }
+        if (maxConcurrentWriters <= 0) {
+            // Leave half of the pool for update loops and the lock mode flag
+            maxConcurrentWriters = Math.max(1, Math.min(processors, connectionPoolSize / 2));
+        }
+
+        requestPermits = new Semaphore(maxConcurrentRequests, true);
+        writerPermits = new Semaphore(maxConcurrentWriters, true);
+
+        log.info("Initialization limits: {} concurrent requests, {} concurrent writers", maxConcurrentRequests, maxConcurrentWriters);
+    }
+
+    public <T> T request(final Supplier<T> supplier) {
+        return executeWithPermit(requestPermits, supplier);
+    }
+
+    public void write(final Runnable runnable) {
+        executeWithPermit(writerPermits, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Writes from inside request(). The request permit is given back for the duration of the write and taken again afterwards, so a
+     * thread never holds both permits and streaming days cannot starve each other of write permits while holding request permits.
+     */
+    public void writeDuringRequest(final Runnable runnable) {
+        requestPermits.release();
+        try {
+            write(runnable);
+        } finally {
+            // Uninterruptibly, as request() releases the permit whatever happens here
+            requestPermits.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Default worker count for a single prefix in lock mode. There is no point in having more workers than there are writer permits.
+     */
+    public int getDefaultNumberOfThreads() {
+        return Math.max(1, Math.min(maxConcurrentRequests, maxConcurrentWriters));
+    }
+
+    private <T> T executeWithPermit(final Semaphore semaphore, final Supplier<T> supplier) {
+        acquire(semaphore);
+        try {
+            return supplier.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private void acquire(final Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for initialization permit", e);
+        }
+    }
+}
@@ -26,6 +26,10 @@ public class InitializationPeriod {
 
         endNonLockDate = startDate.minusDays(numberOfDaysToInitialize);
 
+        numberOfThreadsInLockMode = getProperty(environment, "numberOfThreadsInLockedMode");
+        numberOfThreadsInLazyMode = getProperty(environment, "numberOfThreadsInLazyMode");
+        streamingChunkSize = getProperty(environment, "streamingChunkSize");
+
         log.info("Initializing {} from {} -> {} -> {}. Numbers: {} -> {} -> {}", propertyPrefix, lastDateInLockMode, firstDateInLockMode,
                 endNonLockDate, numberOfFutureDaysToInitialize, numberOfDaysToInitializeInLockedMode, numberOfDaysToInitialize);
     }
@@ -37,4 +41,15 @@ public class InitializationPeriod {
     public LocalDate firstDateInLockMode;
     public LocalDate lastDateInLockMode;
     public LocalDate endNonLockDate;
+
+    /**
+     * Null if not configured for this prefix
+     */
+    public Integer numberOfThreadsInLockMode;
+    public Integer numberOfThreadsInLazyMode;
+    /**
+     * Only for entities that map one to one to array elements. Compositions are grouped by train before persisting and can not be
+     * streamed.
+     */
+    public Integer streamingChunkSize;
 }
\ No newline at end of file
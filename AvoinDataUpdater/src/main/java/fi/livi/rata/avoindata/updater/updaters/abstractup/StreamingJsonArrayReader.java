@@ -0,0 +1,77 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a JSON array from LiikeInterface one element at a time and hands the elements over in chunks. Only the current chunk and the
+ * element being parsed are kept in memory, so heap usage does not grow with the size of the response.
+ */
+@Component
+public class StreamingJsonArrayReader {
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param filter Elements not accepted by the filter are parsed and discarded. Used when a partially consumed response is requested
+     *               again.
+     * @return Number of elements handed to chunkConsumer
+     */
+    public <E> int read(final String url, final Class<E> elementClass, final int chunkSize, final Predicate<E> filter,
+                        final Consumer<List<E>> chunkConsumer) {
+        return restTemplate.execute(url, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON)),
+                response -> {
+                    try (JsonParser parser = objectMapper.getFactory().createParser(response.getBody())) {
+                        return readArray(parser, elementClass, chunkSize, filter, chunkConsumer);
+                    }
+                });
+    }
+
+    private <E> int readArray(final JsonParser parser, final Class<E> elementClass, final int chunkSize, final Predicate<E> filter,
+                              final Consumer<List<E>> chunkConsumer) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException(String.format("Expected array of %s, got %s", elementClass.getSimpleName(), parser.currentToken()));
+        }
+
+        int consumed = 0;
+        List<E> chunk = new ArrayList<>(Math.min(chunkSize, 1000));
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            final E element = objectMapper.readValue(parser, elementClass);
+            if (!filter.test(element)) {
+                continue;
+            }
+
+            chunk.add(element);
+            if (chunk.size() >= chunkSize) {
+                chunkConsumer.accept(chunk);
+                consumed += chunk.size();
+                chunk = new ArrayList<>(Math.min(chunkSize, 1000));
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunkConsumer.accept(chunk);
+            consumed += chunk.size();
+        }
+
+        return consumed;
+    }
+}
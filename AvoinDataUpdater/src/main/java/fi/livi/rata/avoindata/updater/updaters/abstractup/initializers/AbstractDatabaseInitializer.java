@@ -4,10 +4,14 @@ package fi.livi.rata.avoindata.updater.updaters.abstractup.initializers;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
@@ -22,16 +26,22 @@ import org.springframework.web.client.RestTemplate;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.livi.rata.avoindata.updater.ExceptionLoggingRunnable;
 import fi.livi.rata.avoindata.updater.config.InitializerRetryTemplate;
+import fi.livi.rata.avoindata.updater.service.isuptodate.InitializationProgressService;
 import fi.livi.rata.avoindata.updater.service.isuptodate.LastUpdateService;
 import fi.livi.rata.avoindata.updater.updaters.abstractup.AbstractPersistService;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.InitializationLimiter;
 import fi.livi.rata.avoindata.updater.updaters.abstractup.InitializationPeriod;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.StreamingJsonArrayReader;
 
 @Service
 public abstract class AbstractDatabaseInitializer<EntityType> {
     private static final Logger log = LoggerFactory.getLogger(AbstractDatabaseInitializer.class);
-    private static final int NUMBER_OF_THREADS_TO_INITIALIZE_WITH = 1;
+    private static final String LOCK_MODE = "lock";
+    private static final String LAZY_MODE = "lazy";
+    private static final int DEFAULT_NUMBER_OF_THREADS_IN_LAZY_MODE = 1;
 
     @Autowired
     private InitializerRetryTemplate retryTemplate;
@@ -45,6 +55,15 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
     @Autowired
     private LastUpdateService lastUpdateService;
 
+    @Autowired
+    private InitializationLimiter initializationLimiter;
+
+    @Autowired
+    private InitializationProgressService initializationProgressService;
+
+    @Autowired
+    private StreamingJsonArrayReader streamingJsonArrayReader;
+
     @Value("${updater.liikeinterface-url}")
     protected String liikeInterfaceUrl;
 
@@ -60,6 +79,20 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
         return entities;
     }
 
+    /**
+     * Prefixes that support streamingChunkSize override this and getStreamingKey
+     */
+    protected boolean supportsStreaming() {
+        return false;
+    }
+
+    /**
+     * Identifies an entity of a day when a streamed day is resumed. Only called if supportsStreaming.
+     */
+    protected Object getStreamingKey(EntityType entity) {
+        throw new UnsupportedOperationException(String.format("Streaming initialization is not supported for %s", this.prefix));
+    }
+
     @PostConstruct
     private void setup() {
         if (Strings.isNullOrEmpty(liikeInterfaceUrl)) {
@@ -72,15 +105,23 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
         this.prefix = getPrefix();
         this.persistService = getPersistService();
         this.trainInitializationPeriod = new InitializationPeriod(environment, "updater." + prefix);
+
+        if (trainInitializationPeriod.streamingChunkSize != null && !supportsStreaming()) {
+            throw new IllegalStateException(String.format("updater.%s.streamingChunkSize is set, but %s can not be streamed", prefix, prefix));
+        }
     }
 
 
     public ExecutorService initializeInLockMode() {
-        return addDataInitializeTasks(trainInitializationPeriod.lastDateInLockMode, trainInitializationPeriod.firstDateInLockMode);
+        final Integer numberOfThreads = trainInitializationPeriod.numberOfThreadsInLockMode;
+        return addDataInitializeTasks(trainInitializationPeriod.lastDateInLockMode, trainInitializationPeriod.firstDateInLockMode,
+                numberOfThreads != null ? numberOfThreads : initializationLimiter.getDefaultNumberOfThreads(), LOCK_MODE);
     }
 
     public ExecutorService initializeInLazyMode() {
-        return addDataInitializeTasks(trainInitializationPeriod.firstDateInLockMode, trainInitializationPeriod.endNonLockDate);
+        final Integer numberOfThreads = trainInitializationPeriod.numberOfThreadsInLazyMode;
+        return addDataInitializeTasks(trainInitializationPeriod.firstDateInLockMode, trainInitializationPeriod.endNonLockDate,
+                numberOfThreads != null ? numberOfThreads : DEFAULT_NUMBER_OF_THREADS_IN_LAZY_MODE, LAZY_MODE);
     }
 
 
@@ -99,12 +140,29 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
     }
 
     protected List<EntityType> doUpdate() {
+        final UpdateBatch<EntityType> batch = fetchUpdate();
+
+        return persistUpdate(batch);
+    }
+
+    /**
+     * Fetches new objects without touching the database beyond the max version query, so that it can be done before taking any locks
+     */
+    protected UpdateBatch<EntityType> fetchUpdate() {
         log.trace("Starting data update for {}", this.prefix);
 
         final Long latestVersion = persistService.getMaxVersion();
         final ZonedDateTime start = ZonedDateTime.now();
 
-        List<EntityType> objects = getObjectsNewerThanVersion(this.prefix, this.getEntityCollectionClass(), latestVersion);
+        final List<EntityType> objects = getObjectsNewerThanVersion(this.prefix, this.getEntityCollectionClass(), latestVersion);
+
+        return new UpdateBatch<>(latestVersion, start, objects);
+    }
+
+    protected List<EntityType> persistUpdate(final UpdateBatch<EntityType> batch) {
+        final Long latestVersion = batch.latestVersion;
+        final ZonedDateTime start = batch.start;
+        List<EntityType> objects = batch.objects;
 
         final ZonedDateTime middle = ZonedDateTime.now();
 
@@ -119,6 +177,18 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
         return updatedEntities;
     }
 
+    protected static class UpdateBatch<EntityType> {
+        public final Long latestVersion;
+        public final ZonedDateTime start;
+        public final List<EntityType> objects;
+
+        public UpdateBatch(final Long latestVersion, final ZonedDateTime start, final List<EntityType> objects) {
+            this.latestVersion = latestVersion;
+            this.start = start;
+            this.objects = objects;
+        }
+    }
+
     protected void logUpdate(final long latestVersion, final ZonedDateTime start, final long length, final long newVersion, final String name, final ZonedDateTime middle, final List<EntityType> objects) {
         log.info("Updated data for {} {} in {} ms total (json retrieve {} ms) (old version {}, new version {}, diff versions {})", length, name, Duration.between(start, ZonedDateTime.now()).toMillis(), Duration.between(start, middle).toMillis(), latestVersion, newVersion, (newVersion - latestVersion));
     }
@@ -133,24 +203,73 @@ public abstract class AbstractDatabaseInitializer<EntityType> {
         executorService.awaitTermination(20, TimeUnit.MINUTES);
     }
 
-    public ExecutorService addDataInitializeTasks(final LocalDate startDate, final LocalDate endDate) {
-        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS_TO_INITIALIZE_WITH);
+    private ExecutorService addDataInitializeTasks(final LocalDate startDate, final LocalDate endDate, final int numberOfThreads,
+                                                   final String mode) {
+        final int threads = Math.max(1, numberOfThreads);
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(String.format("init-%s-%s-%%d", this.prefix, mode)).build();
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads, threadFactory);
 
-        log.info("Adding initialization tasks from {} to {}", startDate, endDate);
+        log.info("Adding {} mode initialization tasks for {} from {} to {}", mode, this.prefix, startDate, endDate);
+
+        initializationProgressService.start(this.prefix, mode, (int) ChronoUnit.DAYS.between(endDate, startDate), threads);
 
         for (LocalDate i = startDate; i.isAfter(endDate); i = i.minusDays(1)) {
             final LocalDate currentDate = i;
-            executorService.execute(() -> getAndSaveForADate(currentDate));
+            executorService.execute(new ExceptionLoggingRunnable(() -> getAndSaveForADate(currentDate, mode)));
         }
 
         return executorService;
     }
 
     public void getAndSaveForADate(final LocalDate date) {
+        getAndSaveForADate(date, null);
+    }
+
+    private void getAndSaveForADate(final LocalDate date, final String mode) {
         final ZonedDateTime now = ZonedDateTime.now();
-        final List<EntityType> entities = getForADay(this.prefix, date, getEntityCollectionClass());
-        this.persistService.addEntities(entities);
-        log.debug(String.format("Initialized data for %s (%d %s) in %s ms", date, entities.size(), this.prefix, Duration.between(now, ZonedDateTime.now()).toMillis()));
+        final Integer streamingChunkSize = trainInitializationPeriod.streamingChunkSize;
+
+        final int numberOfEntities;
+        if (streamingChunkSize != null && streamingChunkSize > 0) {
+            numberOfEntities = initializationLimiter.request(() -> streamAndSaveForADay(this.prefix, date, streamingChunkSize));
+        } else {
+            final List<EntityType> entities = initializationLimiter.request(() -> getForADay(this.prefix, date, getEntityCollectionClass()));
+            initializationLimiter.write(() -> this.persistService.addEntities(entities));
+            numberOfEntities = entities.size();
+        }
+
+        initializationProgressService.dayDone(this.prefix, mode, date, numberOfEntities, Duration.between(now, ZonedDateTime.now()));
+    }
+
+    /**
+     * Persists the day in chunks while the response is still being read. If the request fails midway, the retry skips the entities
+     * that were already persisted by their streaming key, as LiikeInterface does not guarantee the same order for a repeated request.
+     */
+    private int streamAndSaveForADay(final String path, final LocalDate date, final int chunkSize) {
+        final String targetUrl = String.format("%s/%s?date=%s", liikeInterfaceUrl, path, date);
+        final Class<EntityType> elementClass = getEntityClass();
+        final Set<Object> persisted = ConcurrentHashMap.newKeySet();
+
+        retryTemplate.execute(context -> {
+            if (!persisted.isEmpty()) {
+                log.warn("Resuming {} for {} after {} already persisted entities", path, date, persisted.size());
+            }
+            log.info("Streaming data from " + targetUrl);
+            return streamingJsonArrayReader.read(targetUrl, elementClass, chunkSize, entity -> !persisted.contains(getStreamingKey(entity)),
+                    chunk -> {
+                        initializationLimiter.writeDuringRequest(() -> this.persistService.addEntities(chunk));
+                        for (final EntityType entity : chunk) {
+                            persisted.add(getStreamingKey(entity));
+                        }
+                    });
+        });
+
+        return persisted.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<EntityType> getEntityClass() {
+        return (Class<EntityType>) this.<EntityType[]>getEntityCollectionClass().getComponentType();
     }
 
     protected abstract <A> Class<A> getEntityCollectionClass();
@@ -1,5 +1,6 @@
 package fi.livi.rata.avoindata.updater.updaters.abstractup.initializers;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.*;
 import fi.livi.rata.avoindata.common.dao.train.ForecastRepository;
 import fi.livi.rata.avoindata.common.dao.train.TimeTableRowRepository;
@@ -10,6 +11,7 @@ import fi.livi.rata.avoindata.common.domain.train.Forecast;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
 import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
+import fi.livi.rata.avoindata.updater.service.LiveTimeTableTrainService;
 import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 import fi.livi.rata.avoindata.updater.service.miku.ForecastMergingService;
 import fi.livi.rata.avoindata.updater.service.recentlyseen.RecentlySeenForecastFilter;
@@ -24,6 +26,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class ForecastInitializerService extends AbstractDatabaseInitializer<Forecast> {
@@ -53,6 +56,9 @@ public class ForecastInitializerService extends AbstractDatabaseInitializer<Fore
     @Autowired
     private TrainLockExecutor trainLockExecutor;
 
+    @Autowired
+    private LiveTimeTableTrainService liveTimeTableTrainService;
+
     @Override
     public String getPrefix() {
         return "forecasts";
@@ -70,7 +76,17 @@ public class ForecastInitializerService extends AbstractDatabaseInitializer<Fore
 
     @Override
     protected List<Forecast> doUpdate() {
-        return trainLockExecutor.executeInLock(() -> super.doUpdate());
+        final UpdateBatch<Forecast> batch = fetchUpdate();
+
+        final Set<TrainId> trainIds = new HashSet<>();
+        for (final Forecast forecast : batch.objects) {
+            if (forecast.timeTableRow != null) {
+                final TimeTableRowId timeTableRowId = forecast.timeTableRow.getIdDirect(forecast.timeTableRow);
+                trainIds.add(new TrainId(timeTableRowId.trainNumber, timeTableRowId.departureDate));
+            }
+        }
+
+        return trainLockExecutor.executeInLock(trainIds, () -> persistUpdate(batch));
     }
 
     @Override
@@ -95,6 +111,7 @@ public class ForecastInitializerService extends AbstractDatabaseInitializer<Fore
 
             final Map<TrainId, Train> fetchedTrainMap = Maps.uniqueIndex(trains, s -> s.id);
 
+            final Supplier<Long> batchVersion = trainLockExecutor.newBatchVersion();
             List<Train> savedTrains = new ArrayList<>(trainMap.size());
             for (final TrainId trainId : trainMap.keySet()) {
                 final Train fetchedTrain = fetchedTrainMap.get(trainId);
@@ -110,7 +127,7 @@ public class ForecastInitializerService extends AbstractDatabaseInitializer<Fore
                         }
                     }
 
-                    savedTrains.add(forecastMergingService.mergeEstimates(fetchedTrain, trainsForecasts));
+                    savedTrains.add(forecastMergingService.mergeEstimates(fetchedTrain, trainsForecasts, batchVersion));
                 }
             }
 
@@ -118,6 +135,7 @@ public class ForecastInitializerService extends AbstractDatabaseInitializer<Fore
             for (final Train savedTrain : savedTrains) {
                 timeTableRowRepository.saveAll(savedTrain.timeTableRows);
             }
+            liveTimeTableTrainService.update(Lists.transform(savedTrains, train -> train.id));
         }
     }
 
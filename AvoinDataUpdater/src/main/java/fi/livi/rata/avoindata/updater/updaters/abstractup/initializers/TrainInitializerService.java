@@ -1,6 +1,7 @@
 package fi.livi.rata.avoindata.updater.updaters.abstractup.initializers;
 
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.*;
 import fi.livi.rata.avoindata.common.dao.train.ForecastRepository;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
@@ -60,15 +61,27 @@ public class TrainInitializerService extends AbstractDatabaseInitializer<Train>
         return Train[].class;
     }
 
+    @Override
+    protected boolean supportsStreaming() {
+        return true;
+    }
+
+    @Override
+    protected Object getStreamingKey(final Train train) {
+        return train.id;
+    }
+
     @Override
     protected List<Train> doUpdate() {
-        return trainLockExecutor.executeInLock(() -> {
-            List<Train> updatedTrains = super.doUpdate();
+        final UpdateBatch<Train> batch = fetchUpdate();
+        final List<TrainId> trainIds = Lists.newArrayList(Iterables.transform(batch.objects, f -> f.id));
+
+        final List<Train> updatedTrains = trainLockExecutor.executeInLock(trainIds, () -> persistUpdate(batch));
 
-            trainPublishingService.publish(updatedTrains);
+        // Trains are published from this thread only, so messages of a train are still queued in version order
+        trainPublishingService.publish(updatedTrains);
 
-            return updatedTrains;
-        });
+        return updatedTrains;
     }
 
 
@@ -93,10 +106,11 @@ public class TrainInitializerService extends AbstractDatabaseInitializer<Train>
 
         final ImmutableListMultimap<Train, Forecast> trainMap = Multimaps.index(forecasts, forecast -> forecast.timeTableRow.train);
 
+        final Supplier<Long> batchVersion = trainLockExecutor.newBatchVersion();
         for (final Train train : entities) {
             final ImmutableList<Forecast> trainsForecasts = trainMap.get(train);
             if (!trainsForecasts.isEmpty()) {
-                forecastMergingService.mergeEstimates(train, trainsForecasts);
+                forecastMergingService.mergeEstimates(train, trainsForecasts, batchVersion);
             }
         }
     }
@@ -0,0 +1,290 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup.persist;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.cause.Cause;
+import fi.livi.rata.avoindata.common.domain.common.TimeTableRowId;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.domain.train.TrainReady;
+import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
+import fi.livi.rata.avoindata.updater.service.IdentityBatchInsertService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Updates trains by comparing them to the stored trains and writing only the changed train and time table rows. Causes and train readies
+ * have no natural key, so they are rewritten for a time table row when they differ from the stored ones.
+ * <p>
+ * Trains that are not stored or whose time table rows have been added or removed can not be diffed and are returned to the caller.
+ */
+@Service
+public class TrainDiffPersistService {
+    private static final String UPDATE_TRAIN = "update train set version = ?, cancelled = ?, commuter_lineid = ?, operator_short_code = ?," +
+            " operator_uic_code = ?, running_currently = ?, train_type_id = ?, train_category_id = ?, timetable_acceptance_date = ?," +
+            " timetable_type = ?, deleted = ? where departure_date = ? and train_number = ?";
+
+    private static final String UPDATE_TIME_TABLE_ROW = "update time_table_row set actual_time = ?, cancelled = ?, commercial_track = ?," +
+            " difference_in_minutes = ?, live_estimate_time = ?, scheduled_time = ?, country_code = ?, station_short_code = ?," +
+            " station_uic_code = ?, train_stopping = ?, type = ?, commercial_stop = ?, estimate_source = ?, unknown_delay = ?" +
+            " where departure_date = ? and train_number = ? and attap_id = ?";
+
+    private static final String DELETE_CAUSES = "delete from cause where departure_date = ? and train_number = ? and attap_id = ?";
+
+    private static final String DELETE_TRAIN_READIES = "delete from train_ready where departure_date = ? and train_number = ? and attap_id = ?";
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private IdentityBatchInsertService identityBatchInsertService;
+
+    @Autowired
+    private BatchExecutionService batchExecutionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @return Trains that could not be diffed and have to be rewritten
+     */
+    @Transactional
+    public List<Train> updateChanged(final List<Train> trains) {
+        final List<Train> trainsToRewrite = new ArrayList<>();
+
+        // A managed train would be compared against itself
+        final List<Train> detachedTrains = new ArrayList<>(trains.size());
+        for (final Train train : trains) {
+            if (entityManager.contains(train)) {
+                trainsToRewrite.add(train);
+            } else {
+                detachedTrains.add(train);
+            }
+        }
+
+        final Map<TrainId, Train> storedTrains = getStoredTrains(detachedTrains);
+
+        final List<Object[]> trainUpdates = new ArrayList<>();
+        final List<Object[]> timeTableRowUpdates = new ArrayList<>();
+        final List<Object[]> causeDeletes = new ArrayList<>();
+        final List<Object[]> trainReadyDeletes = new ArrayList<>();
+        final List<Cause> causeInserts = new ArrayList<>();
+        final List<TrainReady> trainReadyInserts = new ArrayList<>();
+        int unchangedTimeTableRows = 0;
+
+        for (final Train train : detachedTrains) {
+            final Train storedTrain = storedTrains.get(train.id);
+            final Map<TimeTableRowId, TimeTableRow> storedTimeTableRows = storedTrain == null ? null : getTimeTableRowMap(storedTrain);
+            if (storedTimeTableRows == null || !storedTimeTableRows.keySet().equals(getTimeTableRowMap(train).keySet())) {
+                trainsToRewrite.add(train);
+                continue;
+            }
+
+            if (isTrainChanged(storedTrain, train)) {
+                trainUpdates.add(getTrainParameters(train));
+            }
+
+            for (final TimeTableRow timeTableRow : train.timeTableRows) {
+                final TimeTableRow storedTimeTableRow = storedTimeTableRows.get(timeTableRow.id);
+                boolean changed = false;
+
+                if (isTimeTableRowChanged(storedTimeTableRow, timeTableRow)) {
+                    timeTableRowUpdates.add(getTimeTableRowParameters(timeTableRow));
+                    changed = true;
+                }
+                if (!getCauseKeys(storedTimeTableRow.causes).equals(getCauseKeys(timeTableRow.causes))) {
+                    causeDeletes.add(getTimeTableRowIdParameters(timeTableRow.id));
+                    causeInserts.addAll(timeTableRow.causes);
+                    changed = true;
+                }
+                if (!getTrainReadyKeys(storedTimeTableRow.trainReadies).equals(getTrainReadyKeys(timeTableRow.trainReadies))) {
+                    trainReadyDeletes.add(getTimeTableRowIdParameters(timeTableRow.id));
+                    trainReadyInserts.addAll(timeTableRow.trainReadies);
+                    changed = true;
+                }
+
+                if (!changed) {
+                    unchangedTimeTableRows++;
+                }
+            }
+        }
+
+        final int trainsUpdated = executeBatch(UPDATE_TRAIN, trainUpdates);
+        final int timeTableRowsUpdated = executeBatch(UPDATE_TIME_TABLE_ROW, timeTableRowUpdates);
+        final int causesDeleted = executeBatch(DELETE_CAUSES, causeDeletes);
+        final int trainReadiesDeleted = executeBatch(DELETE_TRAIN_READIES, trainReadyDeletes);
+        identityBatchInsertService.insertCauses(causeInserts);
+        identityBatchInsertService.insertTrainReadies(trainReadyInserts);
+
+        countRows("train", trainsUpdated);
+        countRows("time_table_row", timeTableRowsUpdated);
+        countRows("cause", causesDeleted + causeInserts.size());
+        countRows("train_ready", trainReadiesDeleted + trainReadyInserts.size());
+        meterRegistry.counter("train.persist.unchanged.rows", "table", "time_table_row").increment(unchangedTimeTableRows);
+
+        log.debug("Diffed {} trains: {} trains, {} time table rows, {} causes and {} train readies written, {} time table rows unchanged, {} trains rewritten",
+                trains.size() - trainsToRewrite.size(), trainsUpdated, timeTableRowsUpdated, causesDeleted + causeInserts.size(),
+                trainReadiesDeleted + trainReadyInserts.size(), unchangedTimeTableRows, trainsToRewrite.size());
+
+        return trainsToRewrite;
+    }
+
+    private Map<TrainId, Train> getStoredTrains(final List<Train> trains) {
+        final List<TrainId> trainIds = Lists.newArrayList(Iterables.transform(trains, t -> t.id));
+        final List<Train> storedTrains = batchExecutionService.transform(trainIds, s -> trainRepository.findTrains(s));
+
+        final Map<TrainId, Train> output = new HashMap<>(storedTrains.size());
+        for (final Train storedTrain : storedTrains) {
+            // Rewritten trains are persisted again in the same transaction
+            for (final TimeTableRow timeTableRow : storedTrain.timeTableRows) {
+                for (final Cause cause : timeTableRow.causes) {
+                    entityManager.detach(cause);
+                }
+                for (final TrainReady trainReady : timeTableRow.trainReadies) {
+                    entityManager.detach(trainReady);
+                }
+                entityManager.detach(timeTableRow);
+            }
+            entityManager.detach(storedTrain);
+
+            output.put(storedTrain.id, storedTrain);
+        }
+        return output;
+    }
+
+    private Map<TimeTableRowId, TimeTableRow> getTimeTableRowMap(final Train train) {
+        final Map<TimeTableRowId, TimeTableRow> output = new HashMap<>(train.timeTableRows.size());
+        for (final TimeTableRow timeTableRow : train.timeTableRows) {
+            output.put(timeTableRow.id, timeTableRow);
+        }
+        return output;
+    }
+
+    private boolean isTrainChanged(final Train stored, final Train train) {
+        return !Objects.equals(stored.version, train.version) ||
+                stored.cancelled != train.cancelled ||
+                !Objects.equals(stored.commuterLineID, train.commuterLineID) ||
+                !Objects.equals(stored.operator.operatorShortCode, train.operator.operatorShortCode) ||
+                stored.operator.operatorUICCode != train.operator.operatorUICCode ||
+                stored.runningCurrently != train.runningCurrently ||
+                stored.trainTypeId != train.trainTypeId ||
+                stored.trainCategoryId != train.trainCategoryId ||
+                !isSameTime(stored.timetableAcceptanceDate, train.timetableAcceptanceDate) ||
+                stored.timetableType != train.timetableType ||
+                !Objects.equals(stored.deleted, train.deleted);
+    }
+
+    private boolean isTimeTableRowChanged(final TimeTableRow stored, final TimeTableRow timeTableRow) {
+        return !isSameTime(stored.actualTime, timeTableRow.actualTime) ||
+                stored.cancelled != timeTableRow.cancelled ||
+                !Objects.equals(stored.commercialTrack, timeTableRow.commercialTrack) ||
+                !Objects.equals(stored.differenceInMinutes, timeTableRow.differenceInMinutes) ||
+                !isSameTime(stored.liveEstimateTime, timeTableRow.liveEstimateTime) ||
+                !isSameTime(stored.scheduledTime, timeTableRow.scheduledTime) ||
+                !Objects.equals(stored.station, timeTableRow.station) ||
+                stored.trainStopping != timeTableRow.trainStopping ||
+                stored.type != timeTableRow.type ||
+                !Objects.equals(stored.commercialStop, timeTableRow.commercialStop) ||
+                stored.estimateSource != timeTableRow.estimateSource ||
+                !Objects.equals(stored.unknownDelay, timeTableRow.unknownDelay);
+    }
+
+    private Multiset<List<Long>> getCauseKeys(final Collection<Cause> causes) {
+        final Multiset<List<Long>> output = HashMultiset.create();
+        for (final Cause cause : causes) {
+            output.add(Arrays.asList(cause.getCategoryCodeId(), cause.getDetailedCategoryCodeId(), cause.getThirdCategoryCodeId()));
+        }
+        return output;
+    }
+
+    private Multiset<List<Object>> getTrainReadyKeys(final Collection<TrainReady> trainReadies) {
+        final Multiset<List<Object>> output = HashMultiset.create();
+        for (final TrainReady trainReady : trainReadies) {
+            output.add(Arrays.asList(trainReady.source, trainReady.accepted,
+                    trainReady.timestamp == null ? null : trainReady.timestamp.toInstant()));
+        }
+        return output;
+    }
+
+    private boolean isSameTime(final ZonedDateTime left, final ZonedDateTime right) {
+        if (left == null || right == null) {
+            return left == right;
+        }
+        return left.toInstant().equals(right.toInstant());
+    }
+
+    Object[] getTrainParameters(final Train train) {
+        return new Object[]{train.version, train.cancelled, train.commuterLineID, train.operator.operatorShortCode,
+                train.operator.operatorUICCode, train.runningCurrently, train.trainTypeId, train.trainCategoryId,
+                toTimestamp(train.timetableAcceptanceDate), train.timetableType == null ? null : train.timetableType.ordinal(), train.deleted,
+                train.id.departureDate, train.id.trainNumber};
+    }
+
+    private Object[] getTimeTableRowParameters(final TimeTableRow timeTableRow) {
+        return new Object[]{toTimestamp(timeTableRow.actualTime), timeTableRow.cancelled, timeTableRow.commercialTrack,
+                timeTableRow.differenceInMinutes, toTimestamp(timeTableRow.liveEstimateTime), toTimestamp(timeTableRow.scheduledTime),
+                timeTableRow.station.countryCode, timeTableRow.station.stationShortCode, timeTableRow.station.stationUICCode,
+                timeTableRow.trainStopping, timeTableRow.type.ordinal(), timeTableRow.commercialStop,
+                timeTableRow.estimateSource == null ? null : timeTableRow.estimateSource.ordinal(), timeTableRow.unknownDelay,
+                timeTableRow.id.departureDate, timeTableRow.id.trainNumber, timeTableRow.id.attapId};
+    }
+
+    private Object[] getTimeTableRowIdParameters(final TimeTableRowId id) {
+        return new Object[]{id.departureDate, id.trainNumber, id.attapId};
+    }
+
+    private Timestamp toTimestamp(final ZonedDateTime zonedDateTime) {
+        // Same conversion as Hibernate's ZonedDateTimeType
+        return zonedDateTime == null ? null : Timestamp.from(zonedDateTime.toInstant());
+    }
+
+    private int executeBatch(final String sql, final List<Object[]> parameters) {
+        if (parameters.isEmpty()) {
+            return 0;
+        }
+
+        int rows = 0;
+        for (final int updateCount : jdbcTemplate.batchUpdate(sql, parameters)) {
+            // Drivers may report SUCCESS_NO_INFO for batched statements
+            rows += updateCount == Statement.SUCCESS_NO_INFO ? 1 : updateCount;
+        }
+        return rows;
+    }
+
+    private void countRows(final String table, final int rows) {
+        meterRegistry.counter("train.persist.rows", "table", table, "mode", "diff").increment(rows);
+    }
+}
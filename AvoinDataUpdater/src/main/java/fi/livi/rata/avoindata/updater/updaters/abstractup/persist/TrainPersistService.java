@@ -2,20 +2,23 @@ package fi.livi.rata.avoindata.updater.updaters.abstractup.persist;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import fi.livi.rata.avoindata.common.dao.cause.CauseRepository;
 import fi.livi.rata.avoindata.common.dao.train.TimeTableRowRepository;
-import fi.livi.rata.avoindata.common.dao.train.TrainReadyRepository;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
 import fi.livi.rata.avoindata.common.domain.cause.Cause;
 import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
 import fi.livi.rata.avoindata.common.domain.train.TrainReady;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
 import fi.livi.rata.avoindata.common.utils.BatchExecutionService;
+import fi.livi.rata.avoindata.updater.service.IdentityBatchInsertService;
+import fi.livi.rata.avoindata.updater.service.LiveTimeTableTrainService;
 import fi.livi.rata.avoindata.updater.updaters.abstractup.AbstractPersistService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -33,13 +36,28 @@ public class TrainPersistService extends AbstractPersistService<Train> {
     private TimeTableRowRepository timeTableRowRepository;
 
     @Autowired
-    private CauseRepository causeRepository;
+    private IdentityBatchInsertService identityBatchInsertService;
 
     @Autowired
-    private TrainReadyRepository trainReadyRepository;
+    private BatchExecutionService batchExecutionService;
 
     @Autowired
-    private BatchExecutionService batchExecutionService;
+    private TrainVersionService trainVersionService;
+
+    @Autowired
+    private TrainDiffPersistService trainDiffPersistService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LiveTimeTableTrainService liveTimeTableTrainService;
+
+    @Value("${updater.trains.changeDetection:true}")
+    private boolean changeDetectionEnabled;
+
+    @Value("${updater.trains.persistChunkSize:100}")
+    private int persistChunkSize;
 
     @PersistenceContext
     private EntityManager entimanager;
@@ -48,11 +66,31 @@ public class TrainPersistService extends AbstractPersistService<Train> {
 
     @Override
     @Transactional
-    public synchronized List<Train> updateEntities(final List<Train> entities) {
+    public List<Train> updateEntities(final List<Train> entities) {
         if (entities.isEmpty()) {
             return entities;
         }
 
+        if (changeDetectionEnabled) {
+            rewriteEntities(trainDiffPersistService.updateChanged(entities));
+        } else {
+            rewriteEntities(entities);
+        }
+
+        liveTimeTableTrainService.update(getTrainIds(entities));
+
+        for (final Train entity : entities) {
+            maxVersion.accumulateAndGet(entity.version, Math::max);
+            trainVersionService.observe(entity.version);
+        }
+
+        return entities;
+    }
+
+    private void rewriteEntities(final List<Train> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
 
         for (final Train entity : entities) {
             for (final TimeTableRow timeTableRow : entity.timeTableRows) {
@@ -67,33 +105,56 @@ public class TrainPersistService extends AbstractPersistService<Train> {
             entimanager.detach(entity);
         }
 
-        final List<TrainId> trainIds = Lists.newArrayList(Iterables.transform(entities, train -> train.id));
-        batchExecutionService.consume(trainIds, s -> trainRepository.removeByTrainId(s));
+        batchExecutionService.consume(getTrainIds(entities), s -> trainRepository.removeByTrainId(s));
 
-        addEntities(entities);
+        addChunks(entities);
+
+        meterRegistry.counter("train.persist.rows", "table", "train", "mode", "rewrite").increment(entities.size());
+        meterRegistry.counter("train.persist.rows", "table", "time_table_row", "mode", "rewrite").increment(getNumberOfTimeTableRows(entities));
+    }
 
+    private int getNumberOfTimeTableRows(final List<Train> entities) {
+        int output = 0;
         for (final Train entity : entities) {
-            if (entity.version > maxVersion.get()) {
-                maxVersion.set(entity.version);
-            }
+            output += entity.timeTableRows.size();
         }
-
-        return entities;
+        return output;
     }
 
     @Override
     public void clearEntities() {
         trainRepository.deleteAllInBatch();
+        trainVersionService.reset();
     }
 
     @Override
     @Transactional
     public void addEntities(final List<Train> entities) {
+        addChunks(entities);
+        liveTimeTableTrainService.update(getTrainIds(entities));
+    }
+
+    private List<TrainId> getTrainIds(final List<Train> entities) {
+        return Lists.newArrayList(Iterables.transform(entities, train -> train.id));
+    }
+
+    private void addChunks(final List<Train> entities) {
+        // Detaching each persisted chunk keeps flushes cheap when a whole day of trains is persisted in one transaction
+        for (final List<Train> chunk : Lists.partition(entities, persistChunkSize)) {
+            addChunk(chunk);
+        }
+    }
+
+    private void addChunk(final List<Train> entities) {
         List<TrainReady> trainReadies = new ArrayList<>();
         List<TimeTableRow> timeTableRows = new ArrayList<>();
         List<Cause> causes = new ArrayList<>();
 
         for (final Train train : entities) {
+            if (train.version != null) {
+                trainVersionService.observe(train.version);
+            }
+
             for (final TimeTableRow timeTableRow : train.timeTableRows) {
                 if (!timeTableRow.trainReadies.isEmpty()) {
                     trainReadies.addAll(timeTableRow.trainReadies);
@@ -108,8 +169,11 @@ public class TrainPersistService extends AbstractPersistService<Train> {
 
         trainRepository.persist(entities);
         timeTableRowRepository.persist(timeTableRows);
-        trainReadyRepository.persist(trainReadies);
-        causeRepository.persist(causes);
+        identityBatchInsertService.insertTrainReadies(trainReadies);
+        identityBatchInsertService.insertCauses(causes);
+
+        timeTableRowRepository.detach(timeTableRows);
+        trainRepository.detach(entities);
     }
 
     public Long getMaxVersion() {
@@ -31,12 +31,10 @@ public class TrainRunningMessagePersistService extends AbstractPersistService<Tr
 
     @Override
     public void addEntities(final List<TrainRunningMessage> entities) {
-        trainReadyMessageRepository.persist(entities);
+        trainReadyMessageRepository.persistAndDetach(entities);
 
         for (final TrainRunningMessage entity : entities) {
-            if (entity.version > maxVersion.get()) {
-                maxVersion.set(entity.version);
-            }
+            maxVersion.accumulateAndGet(entity.version, Math::max);
         }
     }
 
@@ -0,0 +1,20 @@
+ALTER TABLE `train_location`
+DROP PRIMARY KEY,
+ADD PRIMARY KEY (`id`, `departure_date`);
+
+-- Existing rows stay in p_history. Daily partitions of the first week are created here, so that p_future is empty when
+-- TrainLocationRetentionService splits more daily partitions off it and no live rows are copied.
+SET @partition_sql = CONCAT('ALTER TABLE `train_location` PARTITION BY RANGE COLUMNS (`departure_date`) (',
+    'PARTITION `p_history` VALUES LESS THAN (''', DATE_FORMAT(CURDATE(), '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE(), 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 1 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 1 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 2 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 2 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 3 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 3 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 4 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 4 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 5 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 5 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 6 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 6 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 7 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `', DATE_FORMAT(CURDATE() + INTERVAL 7 DAY, 'p%Y%m%d'), '` VALUES LESS THAN (''', DATE_FORMAT(CURDATE() + INTERVAL 8 DAY, '%Y-%m-%d'), '''), ',
+    'PARTITION `p_future` VALUES LESS THAN (MAXVALUE))');
+PREPARE partition_statement FROM @partition_sql;
+EXECUTE partition_statement;
+DEALLOCATE PREPARE partition_statement;
@@ -0,0 +1,41 @@
+-- Time table rows of the live window, maintained by the updater (LiveTimeTableTrainService). Holds departure dates from yesterday to the
+-- day after tomorrow, the finer live_time_table_train conditions are applied when querying.
+CREATE TABLE `live_time_table_train_materialized` (
+  `departure_date` DATE NOT NULL,
+  `train_number` BIGINT(20) NOT NULL,
+  `attap_id` BIGINT(20) NOT NULL,
+  `version` BIGINT(20) NOT NULL,
+  `train_stopping` BIT(1) NOT NULL,
+  `type` INT(11) NOT NULL,
+  `station_short_code` VARCHAR(8) CHARACTER SET 'utf8' COLLATE utf8_swedish_ci NULL DEFAULT NULL,
+  `actual_time` DATETIME NULL DEFAULT NULL,
+  `scheduled_time` DATETIME NOT NULL,
+  `live_estimate_time` DATETIME NULL DEFAULT NULL,
+  `predict_time` DATETIME NOT NULL,
+  `time_table_row_cancelled` BIT(1) NOT NULL,
+  `cancelled` BIT(1) NOT NULL,
+  `deleted` BIT(1) NULL DEFAULT NULL,
+  `train_category_id` BIGINT(20) NOT NULL,
+  PRIMARY KEY (`departure_date`, `train_number`, `attap_id`),
+  INDEX `live_ttt_station_actual_IDX` (`station_short_code` ASC, `type` ASC, `actual_time` ASC),
+  INDEX `live_ttt_station_predict_IDX` (`station_short_code` ASC, `type` ASC, `predict_time` ASC),
+  INDEX `live_ttt_predict_IDX` (`predict_time` ASC),
+  INDEX `live_ttt_version_IDX` (`version` ASC),
+  CONSTRAINT `live_ttt_train_FK`
+    FOREIGN KEY (`departure_date`, `train_number`)
+    REFERENCES `train` (`departure_date`, `train_number`)
+    ON DELETE CASCADE
+    ON UPDATE CASCADE)
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8
+COLLATE = utf8_swedish_ci;
+
+INSERT INTO `live_time_table_train_materialized` (`departure_date`, `train_number`, `attap_id`, `version`, `train_stopping`, `type`,
+  `station_short_code`, `actual_time`, `scheduled_time`, `live_estimate_time`, `predict_time`, `time_table_row_cancelled`, `cancelled`,
+  `deleted`, `train_category_id`)
+SELECT `ttr`.`departure_date`, `ttr`.`train_number`, `ttr`.`attap_id`, `t`.`version`, `ttr`.`train_stopping`, `ttr`.`type`,
+  `ttr`.`station_short_code`, `ttr`.`actual_time`, `ttr`.`scheduled_time`, `ttr`.`live_estimate_time`,
+  COALESCE(`ttr`.`live_estimate_time`, `ttr`.`scheduled_time`), `ttr`.`cancelled`, `t`.`cancelled`, `t`.`deleted`, `t`.`train_category_id`
+FROM `time_table_row` `ttr`
+JOIN `train` `t` ON `t`.`departure_date` = `ttr`.`departure_date` AND `t`.`train_number` = `ttr`.`train_number`
+WHERE `ttr`.`departure_date` BETWEEN (CURDATE() - INTERVAL 1 DAY) AND (CURDATE() + INTERVAL 2 DAY);
@@ -0,0 +1,73 @@
+package fi.livi.rata.avoindata.updater.benchmark;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.updater.service.MQTTTopicBuilder;
+
+/**
+ * Compares topics of one train update (train topic and a topic per station) built with String.format and regex sanitizing against
+ * MQTTTopicBuilder. Built topics are published without a second sanitizing pass, so the builder is measured alone. Run with main()
+ * from the test classpath, not part of the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MQTTTopicBenchmark {
+    private static final String[] STATIONS = {"HKI", "PSL", "TKL", "KE", "RI", "HL", "TPE", "OV", "PRL", "JY", "SK", "LPA", "VS", "SEI",
+            "KOK", "YV", "OL", "KEM", "TOR", "ROI", "KV", "LR", "KTS", "PM", "KUO", "IMR", "JNS", "NRM", "KAJ", "TL"};
+
+    private Train train;
+
+    @Setup
+    public void setup() {
+        train = new Train(8L, LocalDate.of(2019, 1, 1), 10, "vr", 1L, 1L, null, true, false, 1L, Train.TimetableType.REGULAR, null);
+        train.trainCategory = "Long-distance";
+        train.trainType = "IC";
+    }
+
+    @Benchmark
+    public void formatAndReplace(Blackhole blackhole) {
+        blackhole.consume(replace(String.format("trains/%s/%s/%s/%s/%s/%s/%s/%s", train.id.departureDate, train.id.trainNumber,
+                train.trainCategory, train.trainType, train.operator.operatorShortCode, train.commuterLineID, train.runningCurrently,
+                train.timetableType)));
+        for (String station : STATIONS) {
+            blackhole.consume(replace(String.format("trains-by-station/%s", station)));
+        }
+    }
+
+    @Benchmark
+    public void topicBuilder(Blackhole blackhole) {
+        blackhole.consume(MQTTTopicBuilder.trains(train));
+        for (String station : STATIONS) {
+            blackhole.consume(MQTTTopicBuilder.trainsByStation(station));
+        }
+    }
+
+    private static String replace(String topic) {
+        return topic.replace("+", "").replace("#", "").replaceAll("/null/", "//").replaceAll("/null/", "//").replaceFirst("/null$", "/");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MQTTTopicBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,141 @@
+package fi.livi.rata.avoindata.updater.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Point;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import fi.livi.rata.avoindata.updater.service.trainlocation.BoundingBoxService;
+import fi.livi.rata.avoindata.updater.service.trainlocation.TrackSegmentIndex;
+import fi.livi.rata.avoindata.updater.service.trainlocation.TrackSnap;
+import fi.livi.rata.avoindata.updater.service.trainlocation.TrainBoundary;
+
+/**
+ * Compares the RTree search of 500 m bounding boxes used before TrackSegmentIndex with the segment index for a batch of train locations. Tracks are random walks in
+ * the extent of Finland (ETRS-TM35FIN), about the size of the real network. Run with main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackProximityBenchmark {
+    private static final int TRACKS = 300;
+    private static final int SEGMENTS_PER_TRACK = 100;
+    private static final int LOCATIONS = 2000;
+    private static final int DISTANCE_FROM_TRACK = 500;
+
+    private RTree<TrainBoundary, Geometry> tree;
+    private TrackSegmentIndex index;
+    private TrackSnap snap = new TrackSnap();
+    private double[] xs;
+    private double[] ys;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        final BoundingBoxService boundingBoxService = new BoundingBoxService();
+
+        final List<List<Point>> boxes = new ArrayList<>();
+        final List<Point> trackPoints = new ArrayList<>();
+        final List<double[]> tracks = new ArrayList<>();
+        for (int track = 0; track < TRACKS; track++) {
+            final double[] coordinates = new double[(SEGMENTS_PER_TRACK + 1) * 2];
+            Point previous = new Point(100000 + random.nextDouble() * 600000, 6650000 + random.nextDouble() * 1100000);
+            coordinates[0] = previous.getX();
+            coordinates[1] = previous.getY();
+            for (int segment = 0; segment < SEGMENTS_PER_TRACK; segment++) {
+                final Point next = new Point(previous.getX() + random.nextGaussian() * 500, previous.getY() + random.nextGaussian() * 500);
+                boxes.add(boundingBoxService.createBoundingBox(previous, next, DISTANCE_FROM_TRACK));
+                trackPoints.add(next);
+                coordinates[segment * 2 + 2] = next.getX();
+                coordinates[segment * 2 + 3] = next.getY();
+                previous = next;
+            }
+            tracks.add(coordinates);
+        }
+
+        tree = RTree.star().maxChildren(6).create();
+        for (final List<Point> box : boxes) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (final Point corner : box) {
+                minX = Math.min(minX, corner.getX());
+                minY = Math.min(minY, corner.getY());
+                maxX = Math.max(maxX, corner.getX());
+                maxY = Math.max(maxY, corner.getY());
+            }
+            tree = tree.add(new TrainBoundary(box), Geometries.rectangle(minX, minY, maxX, maxY));
+        }
+        index = TrackSegmentIndex.build(tracks, DISTANCE_FROM_TRACK);
+
+        // Most real locations are on a track, some are not
+        xs = new double[LOCATIONS];
+        ys = new double[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            final Point onTrack = trackPoints.get(random.nextInt(trackPoints.size()));
+            final double offset = i % 10 == 0 ? 2000 : 100;
+            xs[i] = onTrack.getX() + random.nextGaussian() * offset;
+            ys[i] = onTrack.getY() + random.nextGaussian() * offset;
+        }
+    }
+
+    @Benchmark
+    public int rTree() {
+        int inside = 0;
+        for (int i = 0; i < LOCATIONS; i++) {
+            for (final Entry<TrainBoundary, Geometry> entry : tree.search(Geometries.point(xs[i], ys[i])).toBlocking().toIterable()) {
+                if (entry.value().contains(new Point(xs[i], ys[i]))) {
+                    inside++;
+                    break;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public int segmentIndexNearTrack() {
+        int inside = 0;
+        for (int i = 0; i < LOCATIONS; i++) {
+            if (index.isNearTrack(xs[i], ys[i], DISTANCE_FROM_TRACK)) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public double segmentIndexSnap() {
+        double distance = 0;
+        for (int i = 0; i < LOCATIONS; i++) {
+            if (index.snap(xs[i], ys[i], snap)) {
+                distance += snap.distance;
+            }
+        }
+        return distance;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TrackProximityBenchmark.class.getSimpleName()).build()).run();
+    }
+}
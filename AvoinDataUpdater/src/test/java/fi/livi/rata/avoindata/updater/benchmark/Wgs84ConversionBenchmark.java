@@ -0,0 +1,89 @@
+package fi.livi.rata.avoindata.updater.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgeo.proj4j.ProjCoordinate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import fi.livi.rata.avoindata.updater.service.Wgs84ConversionService;
+
+/**
+ * Converts one batch of train locations from ETRS-TM35FIN to WGS84 point by point, in place with proj4j and in place with the
+ * interpolation grid. Run with main() from the test classpath, not part of the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Wgs84ConversionBenchmark {
+    private static final int LOCATIONS = 1000;
+
+    private Wgs84ConversionService projService;
+    private Wgs84ConversionService gridService;
+    private double[] coordinates;
+    private double[] batch;
+
+    @Setup
+    public void setup() {
+        projService = createService(0);
+        gridService = createService(1000);
+
+        final Random random = new Random(42);
+        coordinates = new double[LOCATIONS * 2];
+        for (int i = 0; i < coordinates.length; i += 2) {
+            coordinates[i] = 200000 + random.nextDouble() * 500000;
+            coordinates[i + 1] = 6650000 + random.nextDouble() * 1000000;
+        }
+        batch = new double[coordinates.length];
+    }
+
+    @Benchmark
+    public void singlePoints(Blackhole blackhole) {
+        for (int i = 0; i < coordinates.length; i += 2) {
+            final ProjCoordinate coordinate = projService.liviToWgs84(coordinates[i], coordinates[i + 1]);
+            blackhole.consume(coordinate);
+        }
+    }
+
+    @Benchmark
+    public double[] batchProj4j() {
+        System.arraycopy(coordinates, 0, batch, 0, coordinates.length);
+        projService.liviToWgs84(batch);
+        return batch;
+    }
+
+    @Benchmark
+    public double[] batchGrid() {
+        System.arraycopy(coordinates, 0, batch, 0, coordinates.length);
+        gridService.liviToWgs84(batch);
+        return batch;
+    }
+
+    private static Wgs84ConversionService createService(double gridStep) {
+        final Wgs84ConversionService service = new Wgs84ConversionService();
+        ReflectionTestUtils.setField(service, "gridStep", gridStep);
+        ReflectionTestUtils.invokeMethod(service, "setup");
+        return service;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(Wgs84ConversionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
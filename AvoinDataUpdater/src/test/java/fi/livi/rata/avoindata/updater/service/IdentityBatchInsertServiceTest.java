@@ -0,0 +1,112 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
+import fi.livi.rata.avoindata.common.domain.cause.Cause;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.domain.train.TrainReady;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationConnectionQuality;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
+import fi.livi.rata.avoindata.updater.BaseTest;
+import fi.livi.rata.avoindata.updater.factory.TrainFactory;
+import fi.livi.rata.avoindata.updater.factory.TrainLocationFactory;
+
+@Transactional
+public class IdentityBatchInsertServiceTest extends BaseTest {
+    @Autowired
+    private IdentityBatchInsertService identityBatchInsertService;
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private TrainLocationFactory trainLocationFactory;
+
+    @Autowired
+    private TrainLocationRepository trainLocationRepository;
+
+    @SpyBean
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void causesAndTrainReadiesShouldBeInsertedAsBatch() {
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, LocalDate.of(2019, 1, 1)));
+
+        final List<Cause> causes = new ArrayList<>();
+        final List<TrainReady> trainReadies = new ArrayList<>();
+        for (final TimeTableRow timeTableRow : train.timeTableRows) {
+            final Cause cause = new Cause();
+            cause.timeTableRow = timeTableRow;
+            causes.add(cause);
+
+            final TrainReady trainReady = new TrainReady();
+            trainReady.timeTableRow = timeTableRow;
+            trainReady.source = TrainReady.TrainReadySource.PHONE;
+            trainReady.accepted = true;
+            trainReady.timestamp = ZonedDateTime.now();
+            trainReadies.add(trainReady);
+        }
+
+        identityBatchInsertService.insertCauses(causes);
+        identityBatchInsertService.insertTrainReadies(trainReadies);
+
+        verify(jdbcTemplate).batchUpdate(eq(IdentityBatchInsertService.INSERT_CAUSE), eq(causes), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+        verify(jdbcTemplate).batchUpdate(eq(IdentityBatchInsertService.INSERT_TRAIN_READY), eq(trainReadies), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+
+        Assert.assertEquals(train.timeTableRows.size(), countRows("cause", train.id));
+        Assert.assertEquals(train.timeTableRows.size(), countRows("train_ready", train.id));
+    }
+
+    @Test
+    public void trainLocationsShouldBeInsertedAsBatch() {
+        final LocalDate departureDate = LocalDate.of(2019, 1, 1);
+        final List<TrainLocation> trainLocations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final TrainLocation trainLocation = trainLocationFactory.create(385782, 6672052 + i);
+            trainLocation.trainLocationId = new TrainLocationId(1L, departureDate, ZonedDateTime.now().plusSeconds(i));
+            trainLocation.speed = 100 + i;
+            trainLocation.connectionQuality = TrainLocationConnectionQuality.OK;
+            trainLocations.add(trainLocation);
+        }
+
+        identityBatchInsertService.insertTrainLocations(trainLocations);
+
+        verify(jdbcTemplate).batchUpdate(eq(IdentityBatchInsertService.INSERT_TRAIN_LOCATION), eq(trainLocations), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+
+        final List<TrainLocation> stored = trainLocationRepository.findAll();
+        Assert.assertEquals(3, stored.size());
+        for (final TrainLocation trainLocation : stored) {
+            Assert.assertEquals(TrainLocationConnectionQuality.OK, trainLocation.connectionQuality);
+            Assert.assertEquals(trainLocations.get(trainLocation.speed - 100).location.getX(), trainLocation.location.getX(), 0.000001);
+            Assert.assertEquals(trainLocations.get(trainLocation.speed - 100).location.getY(), trainLocation.location.getY(), 0.000001);
+        }
+    }
+
+    private int countRows(final String table, final TrainId trainId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE departure_date = ? AND train_number = ?",
+                Integer.class, trainId.departureDate, trainId.trainNumber);
+    }
+}
@@ -0,0 +1,143 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.dao.train.LiveTimeTableTrainRepository;
+import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.LiveTimeTableTrain;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.updater.BaseTest;
+import fi.livi.rata.avoindata.updater.factory.TrainFactory;
+
+@Transactional
+public class LiveTimeTableTrainServiceTest extends BaseTest {
+    private static final List<Long> TRAIN_CATEGORY_IDS = Collections.singletonList(1L);
+
+    @Autowired
+    private LiveTimeTableTrainService liveTimeTableTrainService;
+
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Autowired
+    private TrainRepository trainRepository;
+
+    @Autowired
+    private LiveTimeTableTrainRepository liveTimeTableTrainRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void changedTrainShouldBeRewritten() {
+        final Train train = trainFactory.createBaseTrain(new TrainId(1L, LocalDate.now()));
+        liveTimeTableTrainService.update(Collections.singletonList(train.id));
+
+        Assert.assertEquals(8, countRows(train.id, 1L));
+
+        train.version = 2L;
+        trainRepository.save(train);
+        liveTimeTableTrainService.update(Collections.singletonList(train.id));
+
+        Assert.assertEquals(0, countRows(train.id, 1L));
+        Assert.assertEquals(8, countRows(train.id, 2L));
+    }
+
+    @Test
+    public void trainsOutsideWindowShouldNotBeWritten() {
+        final Train old = trainFactory.createBaseTrain(new TrainId(1L, LocalDate.now().minusDays(3)));
+        final Train future = trainFactory.createBaseTrain(new TrainId(1L, LocalDate.now().plusDays(3)));
+
+        liveTimeTableTrainService.update(Arrays.asList(old.id, future.id));
+
+        Assert.assertEquals(0, countRows(old.id, 1L));
+        Assert.assertEquals(0, countRows(future.id, 1L));
+    }
+
+    @Test
+    public void sweepShouldMoveWindow() {
+        final LocalDate today = LocalDate.now();
+        final Train current = trainFactory.createBaseTrain(new TrainId(1L, today));
+        final Train entering = trainFactory.createBaseTrain(new TrainId(1L, today.plusDays(2)));
+        liveTimeTableTrainService.update(Collections.singletonList(current.id));
+
+        liveTimeTableTrainService.sweep(today);
+        Assert.assertEquals(8, countRows(current.id, 1L));
+        Assert.assertEquals(8, countRows(entering.id, 1L));
+
+        // Two days later today's train has left the window
+        liveTimeTableTrainService.sweep(today.plusDays(2));
+        Assert.assertEquals(0, countRows(current.id, 1L));
+        Assert.assertEquals(8, countRows(entering.id, 1L));
+    }
+
+    @Test
+    public void tableShouldMatchView() {
+        final LocalDate today = LocalDate.now();
+        final List<Train> trains = Arrays.asList(
+                trainFactory.createBaseTrain(new TrainId(1L, today.minusDays(3))),
+                trainFactory.createBaseTrain(new TrainId(2L, today.minusDays(1))),
+                trainFactory.createBaseTrain(new TrainId(3L, today)),
+                trainFactory.createBaseTrain(new TrainId(4L, today)),
+                trainFactory.createBaseTrain(new TrainId(5L, today.plusDays(1))),
+                trainFactory.createBaseTrain(new TrainId(6L, today.plusDays(2))));
+        final Train deleted = trains.get(3);
+        deleted.deleted = true;
+        deleted.version = 2L;
+        trainRepository.save(deleted);
+
+        liveTimeTableTrainService.update(trains.stream().map(train -> train.id).collect(Collectors.toList()));
+
+        final Set<String> byVersion = toIds(trainRepository.findLiveTrains(0, 60 * 24));
+        Assert.assertFalse(byVersion.isEmpty());
+        Assert.assertEquals(byVersion, toIds(liveTimeTableTrainRepository.findLiveTrains(0, 60 * 24)));
+        Assert.assertEquals(toIds(trainRepository.findLiveTrains(1, 60 * 24)), toIds(liveTimeTableTrainRepository.findLiveTrains(1, 60 * 24)));
+
+        for (final String station : Arrays.asList(null, "HKI", "TPE", "OL")) {
+            for (final boolean excludeNonstopping : Arrays.asList(true, false)) {
+                Assert.assertEquals(toIds(trainRepository.findLiveTrainsIds(station, 100, 100, 100, 100, excludeNonstopping, TRAIN_CATEGORY_IDS)),
+                        toIds(liveTimeTableTrainRepository.findLiveTrainsIds(station, 100, 100, 100, 100, excludeNonstopping,
+                                TRAIN_CATEGORY_IDS)));
+            }
+        }
+
+        final ZonedDateTime now = ZonedDateTime.now();
+        for (final String station : Arrays.asList("HKI", "PSL", "TPE")) {
+            final ZonedDateTime start = now.minusHours(12);
+            final ZonedDateTime end = now.plusHours(12);
+            final Set<TrainId> expected = toTrainIds(trainRepository.findLiveTrains(station, start, end, true, 0L, start, end,
+                    TRAIN_CATEGORY_IDS));
+            Assert.assertEquals(expected, toTrainIds(liveTimeTableTrainRepository.findLiveTrains(station, start, end, true, 0L, start, end,
+                    TRAIN_CATEGORY_IDS)));
+        }
+    }
+
+    private static Set<String> toIds(final Collection<Object[]> rows) {
+        // Columns are the query part, departure date, train number and version
+        return rows.stream().map(row -> row[1] + "/" + row[2] + "/" + row[3]).collect(Collectors.toSet());
+    }
+
+    private static Set<TrainId> toTrainIds(final Collection<LiveTimeTableTrain> trains) {
+        return trains.stream().map(train -> train.id).collect(Collectors.toSet());
+    }
+
+    private int countRows(final TrainId trainId, final long version) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM live_time_table_train_materialized " +
+                "WHERE departure_date = ? AND train_number = ? AND version = ?", Integer.class, trainId.departureDate, trainId.trainNumber,
+                version);
+    }
+}
@@ -1,7 +1,10 @@
 package fi.livi.rata.avoindata.updater.service;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -10,6 +13,7 @@ import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.messaging.Message;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
@@ -66,6 +70,42 @@ public class MQTTPublishServiceTest extends BaseTest {
         assertTopic("aws,beta/train-tracking/2018-10-26/F6418/OCCUPY/TPE/TPE_097/null/null/TPE_O097/TPE_T097", "aws,beta/train-tracking/2018-10-26/F6418/OCCUPY/TPE/TPE_097///TPE_O097/TPE_T097");
     }
 
+    @Test
+    public void builtTopicShouldBePublishedAsBuilt() throws ExecutionException, InterruptedException {
+        final String topic = MQTTTopicBuilder.start("testing").segment("te+st#").segment(null).segment("null").build();
+
+        Message<String> message = mqttPublishService.publishBuiltTopic(topic, "content", false).get();
+
+        Assert.assertEquals("testing/test//", message.getHeaders().get(MqttHeaders.TOPIC));
+    }
+
+    @Test
+    public void messagesOfATopicShouldBeSentInOrder() throws ExecutionException, InterruptedException {
+        List<Future<Message<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(mqttPublishService.publishString("testing/ordered", Integer.toString(i)));
+        }
+
+        Assert.assertEquals("9", Iterables.getLast(futures).get().getPayload());
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertTrue(futures.get(i).isDone());
+            Assert.assertEquals(Integer.toString(i), futures.get(i).get().getPayload());
+        }
+    }
+
+    @Test
+    public void coalescedMessagesShouldEndWithLatestPayload() throws ExecutionException, InterruptedException {
+        List<Future<Message<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(mqttPublishService.publishString("testing/coalesced", Integer.toString(i), true));
+        }
+
+        Assert.assertEquals("99", Iterables.getLast(futures).get().getPayload());
+        for (Future<Message<String>> future : futures) {
+            Assert.assertNotNull(future.get());
+        }
+    }
+
     private void assertTopic(String inputTopic, String publishedTopic) throws ExecutionException, InterruptedException {
         Message<String> message = mqttPublishService.publishString(inputTopic, "content").get();
 
@@ -0,0 +1,59 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.time.LocalDate;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.updater.BaseTest;
+import fi.livi.rata.avoindata.updater.factory.TrainFactory;
+
+public class MQTTTopicBuilderTest extends BaseTest {
+    @Autowired
+    private TrainFactory trainFactory;
+
+    @Transactional
+    @Test
+    public void trainTopicShouldMatchFormattedTopic() {
+        Train train = trainFactory.createBaseTrain(new TrainId(1L, LocalDate.of(2000, 1, 1)));
+        train.trainType = "I+C";
+
+        Assert.assertEquals("trains/2000-01-01/1//IC/test/Z/true/REGULAR", MQTTTopicBuilder.trains(train));
+        Assert.assertEquals(legacyTopic(String.format("trains/%s/%s/%s/%s/%s/%s/%s/%s", train.id.departureDate, train.id.trainNumber,
+                train.trainCategory, train.trainType, train.operator.operatorShortCode, train.commuterLineID, train.runningCurrently,
+                train.timetableType)), MQTTTopicBuilder.trains(train));
+    }
+
+    @Test
+    public void stationAndLocationTopicsShouldBeSanitized() {
+        Assert.assertEquals("trains-by-station/HKI", MQTTTopicBuilder.trainsByStation("HKI"));
+        Assert.assertEquals("trains-by-station/", MQTTTopicBuilder.trainsByStation(null));
+        Assert.assertEquals("trains-by-station/", MQTTTopicBuilder.trainsByStation("#"));
+        Assert.assertEquals("train-locations/2019-01-01/10", MQTTTopicBuilder.trainLocations(LocalDate.of(2019, 1, 1), 10L));
+        Assert.assertEquals("train-locations//", MQTTTopicBuilder.trainLocations(null, null));
+    }
+
+    @Test
+    public void sanitizeShouldMatchLegacyReplace() {
+        assertSanitized("testing/test+topic+#/123");
+        assertSanitized("train-tracking/2018-11-12/43/RELEASE/VIA/155/null/null/null/null");
+        assertSanitized("testing/null/nullify/nullable/null");
+        assertSanitized("testing/null/nullify/abcnull/abcnull");
+        assertSanitized("null/null");
+        assertSanitized("testing/nu+ll/");
+        assertSanitized("testing//");
+        assertSanitized("");
+    }
+
+    private void assertSanitized(String topic) {
+        Assert.assertEquals(legacyTopic(topic), MQTTTopicBuilder.sanitize(topic));
+    }
+
+    private String legacyTopic(String topic) {
+        return topic.replace("+", "").replace("#", "").replaceAll("/null/", "//").replaceAll("/null/", "//").replaceFirst("/null$", "/");
+    }
+}
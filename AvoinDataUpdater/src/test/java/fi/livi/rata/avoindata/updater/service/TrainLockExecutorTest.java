@@ -1,5 +1,7 @@
 package fi.livi.rata.avoindata.updater.service;
 
+import com.google.common.collect.Lists;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.updater.BaseTest;
 import org.junit.Assert;
 import org.junit.Test;
@@ -7,8 +9,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -133,4 +138,101 @@ public class TrainLockExecutorTest extends BaseTest {
         Assert.assertEquals("3", order.get(2), new Integer(8));
         Assert.assertEquals("4", order.get(3), new Integer(7));
     }
+
+    @Test
+    public void disjointTrainsShouldNotBlockEachOther() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final LocalDate departureDate = LocalDate.of(2019, 1, 1);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        executorService.execute(() -> trainLockExecutor.executeInLock(Lists.newArrayList(new TrainId(1L, departureDate)), () -> {
+            Thread.sleep(400);
+            order.add(1);
+
+            return new Object();
+        }));
+
+        Thread.sleep(20);
+
+        executorService.execute(() -> trainLockExecutor.executeInLock(Lists.newArrayList(new TrainId(2L, departureDate)), () -> {
+            Thread.sleep(100);
+            order.add(2);
+
+            return new Object();
+        }));
+
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals("1", order.get(0), new Integer(2));
+        Assert.assertEquals("2", order.get(1), new Integer(1));
+    }
+
+    @Test
+    public void sameTrainShouldBeSerialized() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final TrainId trainId = new TrainId(1L, LocalDate.of(2019, 1, 1));
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+
+        executorService.execute(() -> trainLockExecutor.executeInLock(Lists.newArrayList(trainId), () -> {
+            Thread.sleep(400);
+            order.add(1);
+
+            return new Object();
+        }));
+
+        Thread.sleep(20);
+
+        executorService.execute(() -> trainLockExecutor.executeInLock(trainId.departureDate, () -> {
+            Thread.sleep(100);
+            order.add(2);
+
+            return new Object();
+        }));
+
+        Thread.sleep(20);
+
+        executorService.execute(() -> trainLockExecutor.executeInLock(() -> {
+            order.add(3);
+
+            return new Object();
+        }));
+
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals("1", order.get(0), new Integer(1));
+        Assert.assertEquals("2", order.get(1), new Integer(2));
+        Assert.assertEquals("3", order.get(2), new Integer(3));
+    }
+
+    @Test
+    public void versionedWritesToDifferentTrainsShouldOverlap() throws InterruptedException {
+        final LocalDate departureDate = LocalDate.of(2019, 1, 2);
+        final CyclicBarrier bothVersioned = new CyclicBarrier(2);
+        final List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            for (final long trainNumber : new long[]{1L, 2L}) {
+                executorService.execute(() -> trainLockExecutor.executeInTransactionLock(
+                        Lists.newArrayList(new TrainId(trainNumber, departureDate)), () -> {
+                            versions.add(trainLockExecutor.newBatchVersion().get());
+                            // Both writers must have their versions while both transactions are still open
+                            bothVersioned.await(5, TimeUnit.SECONDS);
+                            return null;
+                        }));
+            }
+
+            executorService.shutdown();
+            Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertFalse(bothVersioned.isBroken());
+            Assert.assertEquals(2, versions.size());
+            Assert.assertNotEquals(versions.get(0), versions.get(1));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 }
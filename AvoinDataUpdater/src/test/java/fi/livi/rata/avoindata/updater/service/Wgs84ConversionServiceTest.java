@@ -0,0 +1,129 @@
+package fi.livi.rata.avoindata.updater.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgeo.proj4j.CRSFactory;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+import org.osgeo.proj4j.CoordinateTransform;
+import org.osgeo.proj4j.CoordinateTransformFactory;
+import org.osgeo.proj4j.ProjCoordinate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+public class Wgs84ConversionServiceTest extends BaseTest {
+    private static final int POINTS = 100_000;
+    // Documented maximum error of the grid mode
+    private static final double GRID_MAX_ERROR_DEGREES = 1e-6;
+    private static final double ROUNDING_ERROR_DEGREES = 0.5e-6 + 1e-12;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private Wgs84ConversionService wgs84ConversionService;
+
+    @Test
+    public void batchConversionShouldMatchProj4j() {
+        final CoordinateTransform transform = createTransform();
+        final double[] coordinates = randomLiviCoordinates();
+        final double[] expected = coordinates.clone();
+
+        wgs84ConversionService.liviToWgs84(coordinates);
+
+        final ProjCoordinate to = new ProjCoordinate();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            transform.transform(new ProjCoordinate(expected[i], expected[i + 1]), to);
+            // Binary arithmetic may round exact ties of the decimal representation differently than BigDecimal
+            Assert.assertEquals(legacyRound(to.x), coordinates[i], 1e-6 + 1e-12);
+            Assert.assertEquals(legacyRound(to.y), coordinates[i + 1], 1e-6 + 1e-12);
+        }
+    }
+
+    @Test
+    public void batchAndSingleConversionShouldMatch() {
+        final double[] coordinates = {385782.0, 6672398.0, 500000.0, 7500000.0, -1.0, 0.0};
+        final double[] original = coordinates.clone();
+
+        wgs84ConversionService.liviToWgs84(coordinates);
+
+        for (int i = 0; i < coordinates.length; i += 2) {
+            final ProjCoordinate single = wgs84ConversionService.liviToWgs84(original[i], original[i + 1]);
+            Assert.assertEquals(single.x, coordinates[i], 0);
+            Assert.assertEquals(single.y, coordinates[i + 1], 0);
+        }
+    }
+
+    @Test
+    public void reverseConversionShouldReturnOriginalCoordinates() {
+        final double[] coordinates = randomLiviCoordinates();
+        final double[] original = coordinates.clone();
+
+        wgs84ConversionService.liviToWgs84(coordinates);
+        wgs84ConversionService.wgs84ToLivi(coordinates);
+
+        for (int i = 0; i < coordinates.length; i++) {
+            // Rounding to 6 decimals moves the point at most about 0.1 m
+            Assert.assertEquals(original[i], coordinates[i], 0.1);
+        }
+    }
+
+    @Test
+    public void gridConversionShouldStayWithinDocumentedError() {
+        final Wgs84ConversionService gridService = new Wgs84ConversionService();
+        ReflectionTestUtils.setField(gridService, "gridStep", 1000.0);
+        ReflectionTestUtils.invokeMethod(gridService, "setup");
+
+        final CoordinateTransform transform = createTransform();
+        final double[] coordinates = randomLiviCoordinates();
+        final double[] original = coordinates.clone();
+
+        gridService.liviToWgs84(coordinates);
+
+        double maxError = 0;
+        final ProjCoordinate to = new ProjCoordinate();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            transform.transform(new ProjCoordinate(original[i], original[i + 1]), to);
+            maxError = Math.max(maxError, Math.max(Math.abs(to.x - coordinates[i]), Math.abs(to.y - coordinates[i + 1])));
+        }
+
+        log.info("Maximum grid conversion error {} degrees", maxError);
+        Assert.assertTrue("Error " + maxError, maxError <= GRID_MAX_ERROR_DEGREES + ROUNDING_ERROR_DEGREES);
+    }
+
+    @Test
+    public void roundShouldRoundHalfUp() {
+        Assert.assertEquals(1.3, Wgs84ConversionService.round(1.25, 1), 0);
+        Assert.assertEquals(-1.3, Wgs84ConversionService.round(-1.25, 1), 0);
+        Assert.assertEquals(24.123457, Wgs84ConversionService.round(24.12345651, 6), 0);
+        Assert.assertEquals(24.123456, Wgs84ConversionService.round(24.12345649, 6), 0);
+        Assert.assertEquals(0, Wgs84ConversionService.round(0, 6), 0);
+    }
+
+    private double[] randomLiviCoordinates() {
+        final Random random = new Random(42);
+        final double[] coordinates = new double[POINTS * 2];
+        for (int i = 0; i < coordinates.length; i += 2) {
+            coordinates[i] = 50000 + random.nextDouble() * 710000;
+            coordinates[i + 1] = 6600000 + random.nextDouble() * 1190000;
+        }
+        return coordinates;
+    }
+
+    private static double legacyRound(double value) {
+        return new BigDecimal(value).setScale(Wgs84ConversionService.NUMBER_OF_DECIMALS, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    private static CoordinateTransform createTransform() {
+        final CRSFactory crsFactory = new CRSFactory();
+        final CoordinateReferenceSystem from = crsFactory.createFromParameters("EPSG:3067", "+proj=utm +zone=35 ellps=GRS80 +units=m +no_defs");
+        final CoordinateReferenceSystem to = crsFactory.createFromParameters("EPSG:4326", "+proj=longlat +ellps=WGS84 +datum=WGS84 +no_defs");
+        return new CoordinateTransformFactory().createTransform(from, to);
+    }
+}
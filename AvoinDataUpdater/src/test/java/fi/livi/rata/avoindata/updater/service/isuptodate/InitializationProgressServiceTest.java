@@ -0,0 +1,71 @@
+package fi.livi.rata.avoindata.updater.service.isuptodate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InitializationProgressServiceTest {
+    private static final LocalDate DATE = LocalDate.of(2019, 1, 1);
+
+    private final InitializationProgressService initializationProgressService = new InitializationProgressService();
+
+    @Test
+    public void daysAndEntitiesShouldBeCounted() {
+        initializationProgressService.start("trains", "lock", 3, 2);
+
+        initializationProgressService.dayDone("trains", "lock", DATE, 100, Duration.ofMillis(10));
+        initializationProgressService.dayDone("trains", "lock", DATE.minusDays(1), 50, Duration.ofMillis(10));
+
+        final InitializationProgressService.InitializationProgressDto progress = initializationProgressService.getProgresses().get("trains-lock");
+        Assert.assertEquals(3, progress.numberOfDays);
+        Assert.assertEquals(2, progress.daysDone);
+        Assert.assertEquals(150, progress.entities);
+        Assert.assertEquals(2, progress.numberOfThreads);
+        Assert.assertNotNull(progress.startedAt);
+    }
+
+    @Test
+    public void modesAndPrefixesShouldBeCountedSeparately() {
+        initializationProgressService.start("trains", "lock", 3, 2);
+        initializationProgressService.start("trains", "lazy", 10, 1);
+        initializationProgressService.start("compositions", "lock", 3, 2);
+
+        initializationProgressService.dayDone("trains", "lazy", DATE, 5, Duration.ofMillis(10));
+
+        final Map<String, InitializationProgressService.InitializationProgressDto> progresses = initializationProgressService.getProgresses();
+        Assert.assertEquals(3, progresses.size());
+        Assert.assertEquals(0, progresses.get("trains-lock").daysDone);
+        Assert.assertEquals(1, progresses.get("trains-lazy").daysDone);
+        Assert.assertEquals(5, progresses.get("trains-lazy").entities);
+        Assert.assertEquals(0, progresses.get("compositions-lock").entities);
+    }
+
+    @Test
+    public void manualDaysShouldNotBeCounted() {
+        initializationProgressService.start("trains", "lock", 3, 2);
+
+        // Manual reinitialization has no mode, and days of a prefix that was not started have no progress
+        initializationProgressService.dayDone("trains", null, DATE, 100, Duration.ofMillis(10));
+        initializationProgressService.dayDone("compositions", "lock", DATE, 100, Duration.ofMillis(10));
+
+        final Map<String, InitializationProgressService.InitializationProgressDto> progresses = initializationProgressService.getProgresses();
+        Assert.assertEquals(1, progresses.size());
+        Assert.assertEquals(0, progresses.get("trains-lock").daysDone);
+        Assert.assertEquals(0, progresses.get("trains-lock").entities);
+    }
+
+    @Test
+    public void restartShouldResetProgress() {
+        initializationProgressService.start("trains", "lock", 3, 2);
+        initializationProgressService.dayDone("trains", "lock", DATE, 100, Duration.ofMillis(10));
+
+        initializationProgressService.start("trains", "lock", 5, 2);
+
+        final InitializationProgressService.InitializationProgressDto progress = initializationProgressService.getProgresses().get("trains-lock");
+        Assert.assertEquals(5, progress.numberOfDays);
+        Assert.assertEquals(0, progress.daysDone);
+    }
+}
@@ -8,16 +8,20 @@ import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
 import fi.livi.rata.avoindata.common.dao.train.TimeTableRowRepository;
 import fi.livi.rata.avoindata.common.dao.train.TrainRepository;
+import fi.livi.rata.avoindata.common.domain.common.TrainId;
 import fi.livi.rata.avoindata.common.domain.train.Forecast;
 import fi.livi.rata.avoindata.common.domain.train.TimeTableRow;
 import fi.livi.rata.avoindata.common.domain.train.Train;
+import fi.livi.rata.avoindata.common.service.TrainVersionService;
 import fi.livi.rata.avoindata.common.utils.DateProvider;
 import fi.livi.rata.avoindata.updater.BaseTest;
 import fi.livi.rata.avoindata.updater.factory.ForecastFactory;
 import fi.livi.rata.avoindata.updater.factory.TrainFactory;
+import fi.livi.rata.avoindata.updater.service.TrainLockExecutor;
 
 public class ForecastMergingServiceTest extends BaseTest {
     @Autowired
@@ -36,6 +40,10 @@ public class ForecastMergingServiceTest extends BaseTest {
     private TimeTableRowRepository timeTableRowRepository;
     @Autowired
     private DateProvider dp;
+    @Autowired
+    private TrainLockExecutor trainLockExecutor;
+    @Autowired
+    private TrainVersionService trainVersionService;
 
     @Test
     @Transactional
@@ -369,6 +377,31 @@ public class ForecastMergingServiceTest extends BaseTest {
         Assert.assertEquals(updatedTrain.timeTableRows.get(0).unknownDelay,true);
     }
 
+    @Test
+    @Transactional
+    public void batchShouldAllocateOneVersionForChangedTrainsOnly() {
+        final Train train = trainFactory.createBaseTrain();
+        final Train otherTrain = trainFactory.createBaseTrain(new TrainId(2L, train.id.departureDate));
+        clearActualTimesAndEstimates(train);
+        clearActualTimesAndEstimates(otherTrain);
+
+        final Forecast forecast = forecastFactory.create(Iterables.getLast(train.timeTableRows), 5);
+        final Forecast otherForecast = forecastFactory.create(Iterables.getLast(otherTrain.timeTableRows), 5);
+
+        final Supplier<Long> batchVersion = trainLockExecutor.newBatchVersion();
+        forecastMergingService.mergeEstimates(train, Arrays.asList(forecast), batchVersion);
+        forecastMergingService.mergeEstimates(otherTrain, Arrays.asList(otherForecast), batchVersion);
+
+        Assert.assertEquals(batchVersion.get(), train.version);
+        Assert.assertEquals(batchVersion.get(), otherTrain.version);
+
+        final long highWaterMark = trainVersionService.getHighWaterMark();
+        forecastMergingService.mergeEstimates(train, Arrays.asList(forecast));
+
+        Assert.assertEquals(batchVersion.get(), train.version);
+        Assert.assertEquals(highWaterMark, trainVersionService.getHighWaterMark());
+    }
+
     private void clearActualTimesAndEstimates(final Train train) {
         for (final TimeTableRow timeTableRow : train.timeTableRows) {
             timeTableRow.actualTime = null;
@@ -0,0 +1,70 @@
+package fi.livi.rata.avoindata.updater.service.recentlyseen;
+
+import static org.mockito.Mockito.when;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import fi.livi.rata.avoindata.common.domain.routeset.Routeset;
+import fi.livi.rata.avoindata.common.utils.DateProvider;
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+public class RecentlySeenRoutesetFilterTest extends BaseTest {
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2019-01-01T12:00:00+02:00[Europe/Helsinki]");
+
+    @Autowired
+    private RecentlySeenRoutesetFilter recentlySeenRoutesetFilter;
+
+    @MockBean
+    private DateProvider dp;
+
+    @Before
+    public void setup() {
+        when(dp.nowInHelsinki()).thenReturn(NOW);
+    }
+
+    @Test
+    public void seenEntitiesShouldBeFilteredOut() {
+        Assert.assertEquals(2, recentlySeenRoutesetFilter.filter(Arrays.asList(routeset(1L, NOW), routeset(2L, NOW))).size());
+
+        final List<Routeset> unique = recentlySeenRoutesetFilter.filter(Arrays.asList(routeset(1L, NOW), routeset(3L, NOW)));
+        Assert.assertEquals(1, unique.size());
+        Assert.assertEquals(3L, unique.get(0).id.longValue());
+    }
+
+    @Test
+    public void entitiesShouldExpireAfterRetention() {
+        final ZonedDateTime messageTime = NOW.minusHours(23);
+        Assert.assertEquals(1, recentlySeenRoutesetFilter.filter(Arrays.asList(routeset(10L, messageTime))).size());
+        Assert.assertEquals(0, recentlySeenRoutesetFilter.filter(Arrays.asList(routeset(10L, messageTime))).size());
+
+        when(dp.nowInHelsinki()).thenReturn(NOW.plusHours(2));
+        Assert.assertEquals(1, recentlySeenRoutesetFilter.filter(Arrays.asList(routeset(10L, messageTime))).size());
+    }
+
+    @Test
+    public void manyEntitiesShouldBeRemembered() {
+        final List<Routeset> routesets = new ArrayList<>();
+        for (long i = 1000; i < 21000; i++) {
+            routesets.add(routeset(i, NOW.minusSeconds(i)));
+        }
+
+        Assert.assertEquals(routesets.size(), recentlySeenRoutesetFilter.filter(routesets).size());
+        Assert.assertEquals(0, recentlySeenRoutesetFilter.filter(routesets).size());
+    }
+
+    private Routeset routeset(final long id, final ZonedDateTime messageTime) {
+        final Routeset routeset = new Routeset();
+        routeset.id = id;
+        routeset.messageTime = messageTime;
+        return routeset;
+    }
+}
@@ -47,8 +47,8 @@ public class TimeTableRowByRoutesetUpdateServiceTest extends BaseTest {
     @Before
     public void setup() {
         //Direct execution because of test transactions
-        when(trainLockExecutor.executeInTransactionLock(any())).then(invocationOnMock -> {
-            Callable callable = invocationOnMock.getArgument(0);
+        when(trainLockExecutor.executeInTransactionLock(any(), any())).then(invocationOnMock -> {
+            Callable callable = invocationOnMock.getArgument(1);
             return callable.call();
         });
     }
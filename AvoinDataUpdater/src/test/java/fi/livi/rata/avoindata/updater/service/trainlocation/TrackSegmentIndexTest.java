@@ -0,0 +1,55 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+public class TrackSegmentIndexTest extends BaseTest {
+    private final TrackSegmentIndex index = TrackSegmentIndex.build(Arrays.asList(
+            new double[]{0, 0, 1000, 0, 1000, 1000},
+            new double[]{5000, 5000, 5000, 5000}), 500);
+
+    @Test
+    public void pointShouldSnapToNearestSegment() {
+        TrackSnap snap = new TrackSnap();
+
+        Assert.assertTrue(index.snap(1300, 600, snap));
+        Assert.assertEquals(0, snap.trackIndex);
+        Assert.assertEquals(1, snap.segmentIndex);
+        Assert.assertEquals(300, snap.distance, 0.0001);
+        Assert.assertEquals(1000, snap.snappedX, 0.0001);
+        Assert.assertEquals(600, snap.snappedY, 0.0001);
+        Assert.assertEquals(1600, snap.alongTrackDistance, 0.0001);
+    }
+
+    @Test
+    public void distanceShouldBeMeasuredToNearestSegment() {
+        Assert.assertTrue(index.isNearTrack(1300, 600, 300));
+        Assert.assertFalse(index.isNearTrack(1300, 600, 299));
+    }
+
+    @Test
+    public void segmentEndShouldBeRounded() {
+        Assert.assertTrue(index.isNearTrack(-300, 300, 500));
+        Assert.assertFalse(index.isNearTrack(-400, 400, 500));
+        Assert.assertTrue(index.isNearTrack(5300, 5300, 500));
+    }
+
+    @Test
+    public void distanceShouldBeLimitedBySearchRadius() {
+        Assert.assertTrue(index.isNearTrack(500, 200, 250));
+        Assert.assertFalse(index.isNearTrack(500, 300, 250));
+        Assert.assertFalse(index.isNearTrack(400, 600, 1000));
+        Assert.assertFalse(index.snap(400, 600, new TrackSnap()));
+        Assert.assertFalse(index.isNearTrack(-100000, 0, 500));
+    }
+
+    @Test
+    public void emptyIndexShouldNotMatch() {
+        Assert.assertFalse(TrackSegmentIndex.build(Collections.emptyList(), 500).isNearTrack(0, 0, 500));
+    }
+}
@@ -0,0 +1,43 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+public class TrackSnapshotFileTest extends BaseTest {
+    @Test
+    public void snapshotShouldRoundTrip() throws IOException {
+        Path path = Files.createTempFile("tracks", ".bin");
+        try {
+            Instant createdAt = Instant.ofEpochMilli(1546300800123L);
+            TrackSnapshotFile.write(path, createdAt, Arrays.asList(new double[]{385754.5, 6672611.25, 385800, 6672700}, new double[]{}));
+
+            TrackSnapshotFile snapshot = TrackSnapshotFile.read(path);
+
+            Assert.assertEquals(createdAt, snapshot.createdAt);
+            Assert.assertEquals(2, snapshot.tracks.size());
+            Assert.assertArrayEquals(new double[]{385754.5, 6672611.25, 385800, 6672700}, snapshot.tracks.get(0), 0);
+            Assert.assertEquals(0, snapshot.tracks.get(1).length);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFileShouldNotBeRead() throws IOException {
+        Path path = Files.createTempFile("tracks", ".bin");
+        try {
+            Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            TrackSnapshotFile.read(path);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -1,12 +1,23 @@
 package fi.livi.rata.avoindata.updater.service.trainlocation;
 
 
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
 import fi.livi.rata.avoindata.updater.BaseTest;
 import fi.livi.rata.avoindata.updater.factory.TrainLocationFactory;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 public class TrainLocationNearTrackFilterServiceTest extends BaseTest {
 
     //TODO mock ObjectMapper infra-api call with raiteet.geojson
@@ -16,40 +27,79 @@ public class TrainLocationNearTrackFilterServiceTest extends BaseTest {
     @Autowired
     private TrainLocationFactory factory;
 
+    @Autowired
+    private TrackBoundingBoxesService trackBoundingBoxesService;
+
+    @Before
+    public void waitForTrackIndex() throws InterruptedException {
+        // The index is loaded on its own thread, the filter accepts every location until then
+        Assert.assertTrue(trackBoundingBoxesService.awaitFirstIndex(2, TimeUnit.MINUTES));
+    }
+
     @Test
     public void helsinkiShouldMatch() {
-        Assert.assertEquals(true, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(385754, 6672611)));
+        Assert.assertEquals(true, isNearTrack(factory.create(385754, 6672611)));
     }
 
     @Test
     public void seaSouthOfHelsinkiShouldNotMatch() {
-        Assert.assertEquals(false, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(386167, 6666698)));
+        Assert.assertEquals(false, isNearTrack(factory.create(386167, 6666698)));
     }
 
     @Test
     public void laplandWildernessShouldNotMatch() {
-        Assert.assertEquals(false, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(473333, 7589740)));
+        Assert.assertEquals(false, isNearTrack(factory.create(473333, 7589740)));
     }
 
     @Test
     public void northernMostTrainTrackShouldMatch() {
-        Assert.assertEquals(true, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(364214, 7475031)));
+        Assert.assertEquals(true, isNearTrack(factory.create(364214, 7475031)));
     }
 
     @Test
     public void tampereShouldMatch() {
-        Assert.assertEquals(true, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(327785, 6823456)));
+        Assert.assertEquals(true, isNearTrack(factory.create(327785, 6823456)));
     }
 
     @Test
     public void meters500NorthOfTampereShouldNotMatch() {
         //663m because rectangle is inclined
-        Assert.assertEquals(false, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(327785, 6823456 + 663)));
+        Assert.assertEquals(false, isNearTrack(factory.create(327785, 6823456 + 663)));
     }
 
     @Test
     public void privateTrackShouldMatch() {
         //Uusikaupunki factory
-        Assert.assertEquals(true, trainLocationNearTrackFilterService.isTrainLocationNearTrack(factory.create(192063,6752583)));
+        Assert.assertEquals(true, isNearTrack(factory.create(192063,6752583)));
+    }
+
+    @Test
+    public void batchShouldMatchSingleChecks() {
+        List<TrainLocation> trainLocations = Arrays.asList(factory.create(385754, 6672611), factory.create(386167, 6666698),
+                factory.create(327785, 6823456), factory.create(327785, 6823456 + 663), factory.create(192063, 6752583));
+
+        List<TrainLocation> nearTrack = trainLocationNearTrackFilterService.filterNearTrack(trainLocations);
+
+        Assert.assertEquals(3, nearTrack.size());
+        for (TrainLocation trainLocation : trainLocations) {
+            Assert.assertEquals(isNearTrack(trainLocation), nearTrack.contains(trainLocation));
+        }
+    }
+
+    @Test
+    public void emptyIndexShouldNotRejectOrFilterAnything() throws Exception {
+        final TrackBoundingBoxesService emptyTracks = mock(TrackBoundingBoxesService.class);
+        when(emptyTracks.getSegmentIndex()).thenReturn(TrackSegmentIndex.build(Collections.emptyList(), 500));
+
+        final TrainLocationNearTrackFilterService service = new TrainLocationNearTrackFilterService();
+        FieldSetter.setField(service, TrainLocationNearTrackFilterService.class.getDeclaredField("trackBoundingBoxesService"), emptyTracks);
+
+        final TrainLocation wilderness = factory.create(473333, 7589740);
+        Assert.assertNull(service.reject(wilderness));
+        Assert.assertEquals(Collections.singletonList(wilderness), service.filterNearTrack(Collections.singletonList(wilderness)));
+    }
+
+    private boolean isNearTrack(final TrainLocation trainLocation) {
+        return trainLocationNearTrackFilterService.reject(trainLocation) == null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+/**
+ * Runs the partition maintenance against a partitioned table of its own. Not transactional, because partition DDL commits implicitly.
+ */
+public class TrainLocationPartitionMaintenanceTest extends BaseTest {
+    private static final String TABLE = "train_location_partition_test";
+
+    @Autowired
+    private TrainLocationRetentionService trainLocationRetentionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Object originalPartitionsAheadDays;
+    private Object originalRetentionDays;
+
+    @Before
+    public void createTable() throws ReflectiveOperationException {
+        originalPartitionsAheadDays = getField("partitionsAheadDays");
+        originalRetentionDays = getField("retentionDays");
+
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+        jdbcTemplate.execute("CREATE TABLE " + TABLE + " (id BIGINT NOT NULL, departure_date DATE NOT NULL, train_number BIGINT NOT NULL, " +
+                "PRIMARY KEY (id, departure_date)) PARTITION BY RANGE COLUMNS (departure_date) (" +
+                "PARTITION p_history VALUES LESS THAN ('2019-01-01'), " +
+                "PARTITION p20190101 VALUES LESS THAN ('2019-01-02'), " +
+                "PARTITION p_future VALUES LESS THAN (MAXVALUE))");
+
+        setField("table", TABLE);
+    }
+
+    @After
+    public void dropTable() throws NoSuchFieldException {
+        setField("table", TrainLocationRetentionService.TABLE);
+        setField("partitionsAheadDays", originalPartitionsAheadDays);
+        setField("retentionDays", originalRetentionDays);
+
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+    }
+
+    @Test
+    public void partitionsShouldBeCreatedAheadOnce() throws NoSuchFieldException {
+        setField("partitionsAheadDays", 2);
+        insert(1, LocalDate.of(2018, 12, 31));
+        insert(2, LocalDate.of(2019, 1, 1));
+
+        trainLocationRetentionService.maintain(LocalDate.of(2019, 1, 1));
+        trainLocationRetentionService.maintain(LocalDate.of(2019, 1, 1));
+
+        Assert.assertEquals(Arrays.asList("p_history", "p20190101", "p20190102", "p20190103", "p_future"), getPartitions());
+        Assert.assertEquals(Arrays.asList(1L, 2L), getIds());
+    }
+
+    @Test
+    public void expiredPartitionsShouldBeDropped() throws NoSuchFieldException {
+        setField("partitionsAheadDays", 0);
+        setField("retentionDays", 1);
+        insert(1, LocalDate.of(2018, 12, 31));
+        insert(2, LocalDate.of(2019, 1, 1));
+        insert(3, LocalDate.of(2019, 1, 2));
+
+        trainLocationRetentionService.maintain(LocalDate.of(2019, 1, 3));
+
+        Assert.assertEquals(Arrays.asList("p20190102", "p20190103", "p_future"), getPartitions());
+        Assert.assertEquals(Arrays.asList(3L), getIds());
+    }
+
+    private Object getField(final String name) throws ReflectiveOperationException {
+        final Field field = TrainLocationRetentionService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(trainLocationRetentionService);
+    }
+
+    private void setField(final String name, final Object value) throws NoSuchFieldException {
+        FieldSetter.setField(trainLocationRetentionService, TrainLocationRetentionService.class.getDeclaredField(name), value);
+    }
+
+    private void insert(final long id, final LocalDate departureDate) {
+        jdbcTemplate.update("INSERT INTO " + TABLE + " (id, departure_date, train_number) VALUES (?, ?, 1)", id, departureDate);
+    }
+
+    private List<String> getPartitions() {
+        return jdbcTemplate.queryForList("SELECT PARTITION_NAME FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() " +
+                "AND TABLE_NAME = ? ORDER BY PARTITION_ORDINAL_POSITION", String.class, TABLE);
+    }
+
+    private List<Long> getIds() {
+        return jdbcTemplate.queryForList("SELECT id FROM " + TABLE + " ORDER BY id", Long.class);
+    }
+}
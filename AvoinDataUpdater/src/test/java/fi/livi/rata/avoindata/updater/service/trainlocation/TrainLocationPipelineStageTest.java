@@ -0,0 +1,64 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.updater.BaseTest;
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class TrainLocationPipelineStageTest extends BaseTest {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void queuedBatchesShouldBeHandledTogetherAndOldestDropped() throws InterruptedException {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch firstReleased = new CountDownLatch(1);
+        final List<List<TrainLocation>> handled = Collections.synchronizedList(new ArrayList<>());
+
+        final TrainLocationPipelineStage stage = new TrainLocationPipelineStage("test", 2, trainLocations -> {
+            handled.add(trainLocations);
+            firstStarted.countDown();
+            try {
+                firstReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, meterRegistry);
+
+        final TrainLocation first = new TrainLocation();
+        final TrainLocation dropped = new TrainLocation();
+        final TrainLocation second = new TrainLocation();
+        final TrainLocation third = new TrainLocation();
+
+        final Thread thread = new Thread(stage);
+        thread.start();
+        try {
+            stage.submit(Arrays.asList(first));
+            Assert.assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+
+            stage.submit(Arrays.asList(dropped));
+            stage.submit(Arrays.asList(second));
+            stage.submit(Arrays.asList(third));
+            firstReleased.countDown();
+
+            for (int i = 0; i < 100 && handled.size() < 2; i++) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(Arrays.asList(Arrays.asList(first), Arrays.asList(second, third)), handled);
+            Assert.assertEquals(1, meterRegistry.counter("train.location.stage.dropped", "stage", "test").count(), 0);
+        } finally {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.livi.rata.avoindata.common.dao.trainlocation.TrainLocationRepository;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationConnectionQuality;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+public class TrainLocationRetentionServiceTest extends BaseTest {
+    @Autowired
+    private TrainLocationRetentionService trainLocationRetentionService;
+
+    @Autowired
+    private TrainLocationRepository trainLocationRepository;
+
+    private GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    @Transactional
+    public void downsamplingShouldKeepOneLocationPerInterval() {
+        final LocalDate departureDate = LocalDate.of(2019, 1, 1);
+        final ZonedDateTime start = departureDate.atTime(12, 0).atZone(ZoneId.of("Europe/Helsinki"));
+        for (int i = 0; i < 90; i++) {
+            save(1L, departureDate, start.plusSeconds(i));
+        }
+        save(2L, departureDate, start);
+        save(1L, departureDate.plusDays(1), start);
+        trainLocationRepository.flush();
+
+        Assert.assertEquals(87, trainLocationRetentionService.downsample(departureDate));
+        Assert.assertEquals(3, trainLocationRepository.findTrain(1L, departureDate).size());
+        Assert.assertEquals(1, trainLocationRepository.findTrain(2L, departureDate).size());
+        Assert.assertEquals(1, trainLocationRepository.findTrain(1L, departureDate.plusDays(1)).size());
+
+        Assert.assertEquals(0, trainLocationRetentionService.downsample(departureDate));
+    }
+
+    @Test
+    public void partitionNamesAndBoundsShouldRoundTrip() {
+        Assert.assertEquals("p20190102", TrainLocationRetentionService.partitionName(LocalDate.of(2019, 1, 2)));
+        Assert.assertEquals(LocalDate.of(2019, 1, 3), TrainLocationRetentionService.parseUpperBound("'2019-01-03'"));
+        Assert.assertNull(TrainLocationRetentionService.parseUpperBound("MAXVALUE"));
+    }
+
+    @Test
+    public void daysShouldBeSplitOffFuturePartition() {
+        Assert.assertEquals("ALTER TABLE train_location REORGANIZE PARTITION p_future INTO (" +
+                        "PARTITION p20190102 VALUES LESS THAN ('2019-01-03'), " +
+                        "PARTITION p20190103 VALUES LESS THAN ('2019-01-04'), " +
+                        "PARTITION p_future VALUES LESS THAN (MAXVALUE))",
+                TrainLocationRetentionService.createPartitionsSql("train_location", LocalDate.of(2019, 1, 2), LocalDate.of(2019, 1, 3)));
+    }
+
+    private void save(Long trainNumber, LocalDate departureDate, ZonedDateTime timestamp) {
+        final TrainLocation trainLocation = new TrainLocation();
+        trainLocation.trainLocationId = new TrainLocationId(trainNumber, departureDate, timestamp);
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(24.9, 60.2));
+        trainLocation.speed = 100;
+        trainLocation.connectionQuality = TrainLocationConnectionQuality.BREAKING;
+        trainLocationRepository.save(trainLocation);
+    }
+}
@@ -0,0 +1,104 @@
+package fi.livi.rata.avoindata.updater.service.trainlocation.validation;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocation;
+import fi.livi.rata.avoindata.common.domain.trainlocation.TrainLocationId;
+import fi.livi.rata.avoindata.updater.BaseTest;
+import fi.livi.rata.avoindata.updater.factory.TrainLocationFactory;
+
+public class TrainLocationValidationServiceTest extends BaseTest {
+    private static final LocalDate DEPARTURE_DATE = LocalDate.of(2019, 1, 1);
+    private static final ZonedDateTime START = ZonedDateTime.parse("2019-01-01T12:00:00+02:00");
+
+    @Autowired
+    private TrainLocationValidationService trainLocationValidationService;
+
+    @Autowired
+    private SanityValidationStage sanityValidationStage;
+
+    @Autowired
+    private KnownBadLocationValidationStage knownBadLocationValidationStage;
+
+    @Autowired
+    private TeleportValidationStage teleportValidationStage;
+
+    @Autowired
+    private TrainLocationFactory factory;
+
+    private GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void ipLocationShouldBeRejected() {
+        final TrainLocation trainLocation = factory.create(385754, 6672611);
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(24.9375, 60.1707992));
+        Assert.assertEquals(KnownBadLocationValidationStage.KNOWN_BAD_LOCATION, knownBadLocationValidationStage.reject(trainLocation));
+
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(24.9375, 60.1708004));
+        Assert.assertEquals(KnownBadLocationValidationStage.KNOWN_BAD_LOCATION, knownBadLocationValidationStage.reject(trainLocation));
+
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(24.9375, 60.170820));
+        Assert.assertNull(knownBadLocationValidationStage.reject(trainLocation));
+    }
+
+    @Test
+    public void insaneLocationsShouldBeRejected() {
+        final TrainLocation trainLocation = create(1L, START, 385754, 6672611);
+        Assert.assertNull(sanityValidationStage.reject(trainLocation));
+
+        trainLocation.speed = 1000;
+        Assert.assertEquals(SanityValidationStage.INVALID_SPEED, sanityValidationStage.reject(trainLocation));
+
+        trainLocation.speed = null;
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(0, 0));
+        Assert.assertEquals(SanityValidationStage.OUT_OF_BOUNDS, sanityValidationStage.reject(trainLocation));
+
+        trainLocation.location = geometryFactory.createPoint(new Coordinate(Double.NaN, 60));
+        Assert.assertEquals(SanityValidationStage.OUT_OF_BOUNDS, sanityValidationStage.reject(trainLocation));
+
+        trainLocation.location = null;
+        Assert.assertEquals(SanityValidationStage.MISSING_LOCATION, sanityValidationStage.reject(trainLocation));
+    }
+
+    @Test
+    public void teleportShouldBeRejected() {
+        teleportValidationStage.accepted(create(2L, START, 385754, 6672611));
+
+        Assert.assertNull(teleportValidationStage.reject(create(2L, START.plusSeconds(10), 385754, 6672811)));
+        Assert.assertEquals(TeleportValidationStage.TELEPORT, teleportValidationStage.reject(create(2L, START.plusSeconds(10), 327785,
+                6823456)));
+        // Other trains and old previous locations are not compared
+        Assert.assertNull(teleportValidationStage.reject(create(3L, START.plusSeconds(10), 327785, 6823456)));
+        Assert.assertNull(teleportValidationStage.reject(create(2L, START.plusMinutes(10), 327785, 6823456)));
+    }
+
+    @Test
+    public void rejectionsShouldBeCounted() {
+        final double before = trainLocationValidationService.getRejectionCount(SanityValidationStage.MISSING_LOCATION);
+
+        final TrainLocation valid = create(4L, START, 385754, 6672611);
+        final TrainLocation missing = create(5L, START, 385754, 6672611);
+        missing.location = null;
+        final TrainLocation teleported = create(4L, START.plusSeconds(1), 327785, 6823456);
+
+        final List<TrainLocation> result = trainLocationValidationService.validate(Arrays.asList(valid, missing, teleported));
+
+        Assert.assertEquals(Arrays.asList(valid), result);
+        Assert.assertEquals(before + 1, trainLocationValidationService.getRejectionCount(SanityValidationStage.MISSING_LOCATION), 0);
+    }
+
+    private TrainLocation create(final Long trainNumber, final ZonedDateTime timestamp, final double x, final double y) {
+        final TrainLocation trainLocation = factory.create(x, y);
+        trainLocation.trainLocationId = new TrainLocationId(trainNumber, DEPARTURE_DATE, timestamp);
+        return trainLocation;
+    }
+}
@@ -0,0 +1,134 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import fi.livi.rata.avoindata.updater.BaseTest;
+
+@TestPropertySource(properties = {"updater.initialization.maxConcurrentRequests=2", "updater.initialization.maxConcurrentWriters=1"})
+public class InitializationLimiterTest extends BaseTest {
+    @Autowired
+    private InitializationLimiter initializationLimiter;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void requestsShouldBeLimited() throws InterruptedException {
+        Assert.assertEquals(2, maxConcurrent(runnable -> initializationLimiter.request(() -> {
+            runnable.run();
+            return null;
+        })));
+    }
+
+    @Test
+    public void writesShouldBeLimited() throws InterruptedException {
+        Assert.assertEquals(1, maxConcurrent(initializationLimiter::write));
+    }
+
+    @Test
+    public void defaultNumberOfThreadsShouldFollowPermits() {
+        Assert.assertEquals(1, initializationLimiter.getDefaultNumberOfThreads());
+    }
+
+    @Test
+    public void writeShouldKeepRequestPermit() throws InterruptedException {
+        final CountDownLatch finishWrite = new CountDownLatch(1);
+        try {
+            startWritingRequest(finishWrite, initializationLimiter::write);
+
+            // One request permit is held by the writing request
+            Assert.assertFalse(requestsRunTogether(2));
+        } finally {
+            finishWrite.countDown();
+        }
+    }
+
+    @Test
+    public void writeDuringRequestShouldGiveBackRequestPermit() throws InterruptedException {
+        final CountDownLatch finishWrite = new CountDownLatch(1);
+        try {
+            startWritingRequest(finishWrite, initializationLimiter::writeDuringRequest);
+
+            Assert.assertTrue(requestsRunTogether(2));
+        } finally {
+            finishWrite.countDown();
+        }
+    }
+
+    private void startWritingRequest(final CountDownLatch finishWrite, final Consumer<Runnable> write) throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        executor.execute(() -> initializationLimiter.request(() -> {
+            write.accept(() -> {
+                writing.countDown();
+                await(finishWrite, 10000);
+            });
+            return null;
+        }));
+        Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return true if the requests got their permits at the same time
+     */
+    private boolean requestsRunTogether(final int requests) throws InterruptedException {
+        final CountDownLatch inside = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> initializationLimiter.request(() -> {
+                inside.countDown();
+                // Longer than the wait below, so that requests taking turns are not counted as running together
+                await(inside, 5000);
+                return null;
+            }));
+        }
+
+        return inside.await(1, TimeUnit.SECONDS);
+    }
+
+    private int maxConcurrent(final Consumer<Runnable> limited) throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                limited.accept(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    await(new CountDownLatch(1), 100);
+                    running.decrementAndGet();
+                });
+                done.countDown();
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        return maxRunning.get();
+    }
+
+    private static void await(final CountDownLatch latch, final long millis) {
+        try {
+            latch.await(millis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup;
+
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingJsonArrayReaderTest {
+    private static final String URL = "http://localhost/elements";
+
+    private final StreamingJsonArrayReader streamingJsonArrayReader = new StreamingJsonArrayReader();
+    private MockRestServiceServer server;
+
+    @Before
+    public void setup() throws NoSuchFieldException {
+        final RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+
+        FieldSetter.setField(streamingJsonArrayReader, StreamingJsonArrayReader.class.getDeclaredField("restTemplate"), restTemplate);
+        FieldSetter.setField(streamingJsonArrayReader, StreamingJsonArrayReader.class.getDeclaredField("objectMapper"), new ObjectMapper());
+    }
+
+    @Test
+    public void elementsShouldBeHandedOverInChunks() {
+        respond("[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4},{\"id\":5}]");
+
+        final List<List<Long>> chunks = new ArrayList<>();
+        final int consumed = streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> chunks.add(ids(chunk)));
+
+        Assert.assertEquals(5, consumed);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L), Arrays.asList(5L)), chunks);
+    }
+
+    @Test
+    public void fullLastChunkShouldNotBeFollowedByEmptyChunk() {
+        respond("[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4}]");
+
+        final List<List<Long>> chunks = new ArrayList<>();
+        streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> chunks.add(ids(chunk)));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L)), chunks);
+    }
+
+    @Test
+    public void filteredElementsShouldNotCountTowardsChunks() {
+        respond("[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4},{\"id\":5}]");
+
+        final List<List<Long>> chunks = new ArrayList<>();
+        final int consumed = streamingJsonArrayReader.read(URL, Element.class, 2, element -> element.id != 2 && element.id != 3,
+                chunk -> chunks.add(ids(chunk)));
+
+        Assert.assertEquals(3, consumed);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 4L), Arrays.asList(5L)), chunks);
+    }
+
+    @Test
+    public void emptyArrayShouldNotBeHandedOver() {
+        respond("[]");
+
+        final List<List<Long>> chunks = new ArrayList<>();
+        Assert.assertEquals(0, streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> chunks.add(ids(chunk))));
+        Assert.assertTrue(chunks.isEmpty());
+    }
+
+    @Test(expected = ResourceAccessException.class)
+    public void objectShouldBeRejected() {
+        respond("{\"id\":1}");
+
+        streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> {});
+    }
+
+    @Test(expected = ResourceAccessException.class)
+    public void emptyBodyShouldBeRejected() {
+        respond("");
+
+        streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> {});
+    }
+
+    @Test
+    public void chunksBeforeBrokenElementShouldBeHandedOver() {
+        respond("[{\"id\":1},{\"id\":2},{\"id\":3");
+
+        final List<List<Long>> chunks = new ArrayList<>();
+        try {
+            streamingJsonArrayReader.read(URL, Element.class, 2, element -> true, chunk -> chunks.add(ids(chunk)));
+            Assert.fail("Truncated response should fail");
+        } catch (final ResourceAccessException e) {
+            Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 2L)), chunks);
+        }
+    }
+
+    private void respond(final String body) {
+        server.expect(requestTo(URL)).andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+    }
+
+    private static List<Long> ids(final List<Element> elements) {
+        return elements.stream().map(element -> element.id).collect(Collectors.toList());
+    }
+
+    public static class Element {
+        public long id;
+    }
+}
@@ -0,0 +1,158 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup.initializers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.retry.backoff.NoBackOffPolicy;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.livi.rata.avoindata.updater.config.InitializerRetryTemplate;
+import fi.livi.rata.avoindata.updater.service.isuptodate.InitializationProgressService;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.AbstractPersistService;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.InitializationLimiter;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.StreamingJsonArrayReader;
+import fi.livi.rata.avoindata.updater.updaters.abstractup.StreamingJsonArrayReaderTest.Element;
+
+public class StreamingInitializationTest {
+    private static final LocalDate DATE = LocalDate.of(2019, 1, 1);
+    private static final String URL = "http://localhost/elements?date=" + DATE;
+
+    private final List<List<Long>> persistedChunks = new ArrayList<>();
+    private MockRestServiceServer server;
+    private MockEnvironment environment;
+
+    @Before
+    public void setup() {
+        environment = new MockEnvironment()
+                .withProperty("updater.elements.numberOfPastDaysToInitializeInLockedMode", "1")
+                .withProperty("updater.elements.numberOfFutureDaysToInitialize", "1")
+                .withProperty("updater.elements.numberOfPastDaysToInitialize", "1")
+                .withProperty("updater.elements.streamingChunkSize", "2");
+    }
+
+    @Test
+    public void retryShouldSkipPersistedEntities() throws Exception {
+        final AbstractDatabaseInitializer<Element> initializer = createInitializer(true);
+        // The first response breaks after the first chunk, and the repeated request returns the elements in another order
+        server.expect(requestTo(URL)).andRespond(withSuccess("[{\"id\":1},{\"id\":2},{\"id\":3", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(URL)).andRespond(withSuccess("[{\"id\":3},{\"id\":2},{\"id\":4},{\"id\":1}]", MediaType.APPLICATION_JSON));
+
+        initializer.getAndSaveForADate(DATE);
+
+        server.verify();
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L)), persistedChunks);
+    }
+
+    @Test
+    public void streamingChunkSizeShouldFailFastWithoutStreamingSupport() throws Exception {
+        try {
+            createInitializer(false);
+            Assert.fail("Setup should fail");
+        } catch (final InvocationTargetException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private AbstractDatabaseInitializer<Element> createInitializer(final boolean supportsStreaming) throws Exception {
+        @SuppressWarnings("unchecked")
+        final AbstractPersistService<Element> persistService = mock(AbstractPersistService.class);
+        doAnswer(invocation -> {
+            final List<Element> chunk = invocation.getArgument(0);
+            persistedChunks.add(chunk.stream().map(element -> element.id).collect(Collectors.toList()));
+            return null;
+        }).when(persistService).addEntities(any());
+
+        final InitializationLimiter initializationLimiter = mock(InitializationLimiter.class);
+        when(initializationLimiter.request(any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(0).get());
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(initializationLimiter).writeDuringRequest(any());
+
+        final RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        final StreamingJsonArrayReader streamingJsonArrayReader = new StreamingJsonArrayReader();
+        FieldSetter.setField(streamingJsonArrayReader, StreamingJsonArrayReader.class.getDeclaredField("restTemplate"), restTemplate);
+        FieldSetter.setField(streamingJsonArrayReader, StreamingJsonArrayReader.class.getDeclaredField("objectMapper"), new ObjectMapper());
+
+        final InitializerRetryTemplate retryTemplate = new InitializerRetryTemplate();
+        retryTemplate.setBackOffPolicy(new NoBackOffPolicy());
+
+        final AbstractDatabaseInitializer<Element> initializer = new ElementInitializer(persistService, supportsStreaming);
+        initializer.liikeInterfaceUrl = "http://localhost";
+        setField(initializer, "environment", environment);
+        setField(initializer, "retryTemplate", retryTemplate);
+        setField(initializer, "restTemplate", restTemplate);
+        setField(initializer, "initializationLimiter", initializationLimiter);
+        setField(initializer, "initializationProgressService", new InitializationProgressService());
+        setField(initializer, "streamingJsonArrayReader", streamingJsonArrayReader);
+
+        final Method setup = AbstractDatabaseInitializer.class.getDeclaredMethod("setup");
+        setup.setAccessible(true);
+        setup.invoke(initializer);
+
+        return initializer;
+    }
+
+    private static void setField(final AbstractDatabaseInitializer<Element> initializer, final String name, final Object value)
+            throws NoSuchFieldException {
+        FieldSetter.setField(initializer, AbstractDatabaseInitializer.class.getDeclaredField(name), value);
+    }
+
+    private static class ElementInitializer extends AbstractDatabaseInitializer<Element> {
+        private final AbstractPersistService<Element> persistService;
+        private final boolean supportsStreaming;
+
+        private ElementInitializer(final AbstractPersistService<Element> persistService, final boolean supportsStreaming) {
+            this.persistService = persistService;
+            this.supportsStreaming = supportsStreaming;
+        }
+
+        @Override
+        public String getPrefix() {
+            return "elements";
+        }
+
+        @Override
+        public AbstractPersistService<Element> getPersistService() {
+            return persistService;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Class<Element[]> getEntityCollectionClass() {
+            return Element[].class;
+        }
+
+        @Override
+        protected boolean supportsStreaming() {
+            return supportsStreaming;
+        }
+
+        @Override
+        protected Object getStreamingKey(final Element element) {
+            return element.id;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package fi.livi.rata.avoindata.updater.updaters.abstractup.persist;
+
+import fi.livi.rata.avoindata.common.domain.train.Train;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+public class TrainDiffPersistServiceTest {
+    private final TrainDiffPersistService trainDiffPersistService = new TrainDiffPersistService();
+
+    @Test
+    public void trainWithoutTimetableTypeShouldBeWrittenAsNull() {
+        final Train train = new Train(1L, LocalDate.now(), 10, "vr", 1L, 1L, null, false, false, 1L, null, null);
+
+        final Object[] parameters = trainDiffPersistService.getTrainParameters(train);
+
+        Assert.assertNull(parameters[9]);
+        Assert.assertEquals(train.id.trainNumber, parameters[parameters.length - 1]);
+    }
+
+    @Test
+    public void trainWithTimetableTypeShouldBeWrittenAsOrdinal() {
+        final Train train = new Train(1L, LocalDate.now(), 10, "vr", 1L, 1L, null, false, false, 1L, Train.TimetableType.REGULAR, null);
+
+        Assert.assertEquals(Train.TimetableType.REGULAR.ordinal(), trainDiffPersistService.getTrainParameters(train)[9]);
+    }
+}
@@ -80,4 +80,49 @@ public class TrainPersistServiceTest extends BaseTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void changedTimeTableRowShouldBeUpdated() {
+        final Train train1 = trainFactory.createBaseTrain();
+
+        for (final TimeTableRow timeTableRow : train1.timeTableRows) {
+            timeTableRow.trainReadies = new HashSet<>();
+            timeTableRow.causes = new HashSet<>();
+        }
+
+        cleanDatabase();
+
+        trainPersistService.addEntities(Lists.newArrayList(train1));
+
+        train1.timeTableRows.get(1).commercialTrack = "5";
+        train1.version = 2L;
+
+        trainPersistService.updateEntities(Lists.newArrayList(train1));
+
+        final Train updatedTrain = trainRepository.findTrains(Lists.newArrayList(train1.id)).get(0);
+        Assert.assertEquals(2L, updatedTrain.version.longValue());
+        Assert.assertEquals(train1.timeTableRows.size(), updatedTrain.timeTableRows.size());
+        Assert.assertEquals("5", updatedTrain.timeTableRows.get(1).commercialTrack);
+    }
+
+    @Test
+    public void removedTimeTableRowShouldRewriteTrain() {
+        final Train train1 = trainFactory.createBaseTrain();
+
+        for (final TimeTableRow timeTableRow : train1.timeTableRows) {
+            timeTableRow.trainReadies = new HashSet<>();
+            timeTableRow.causes = new HashSet<>();
+        }
+
+        cleanDatabase();
+
+        trainPersistService.addEntities(Lists.newArrayList(train1));
+
+        train1.timeTableRows.remove(train1.timeTableRows.size() - 1);
+
+        trainPersistService.updateEntities(Lists.newArrayList(train1));
+
+        final Train updatedTrain = trainRepository.findTrains(Lists.newArrayList(train1.id)).get(0);
+        Assert.assertEquals(train1.timeTableRows.size(), updatedTrain.timeTableRows.size());
+    }
+}